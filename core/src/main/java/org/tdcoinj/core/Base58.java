@@ -20,6 +20,8 @@ package org.tdcoinj.core;
 import java.math.BigInteger;
 import java.util.Arrays;
 
+import static com.google.common.base.Preconditions.checkArgument;
+
 /**
  * Base58 is a way to encode Tdcoin addresses (or arbitrary data) as alphanumeric strings.
  * <p>
@@ -43,6 +45,10 @@ import java.util.Arrays;
  * base-256 digits, convert the number to be represented using base-58 digits, preserve the exact
  * number of leading zeros (which are otherwise lost during the mathematical operations on the
  * numbers), and finally represent the resulting base-58 digits as alphanumeric ASCII characters.
+ * <p>
+ * The number is held in 32 bit limbs and converted five base-58 digits at a time, dividing by or multiplying with
+ * 58<sup>5</sup>, which fits in 30 bits. That takes about a twentieth of the steps of converting one digit at a time
+ * in a byte array.
  */
 public class Base58 {
     public static final char[] ALPHABET = "123456789ABCDEFGHJKLMNPQRSTUVWXYZabcdefghijkmnopqrstuvwxyz".toCharArray();
@@ -55,6 +61,19 @@ public class Base58 {
         }
     }
 
+    // Powers of 58 up to 58^5, the largest one below 2^32.
+    private static final int[] POWERS = { 1, 58, 58 * 58, 58 * 58 * 58, 58 * 58 * 58 * 58, 58 * 58 * 58 * 58 * 58 };
+    private static final long BASE_5 = POWERS[5];
+
+    /**
+     * Returns an upper bound on the length of the base58 encoding of the given number of bytes, which is the room
+     * {@link #encode(byte[], int, int, char[], int)} needs.
+     */
+    public static int maxEncodedLength(int length) {
+        // log(256) / log(58) is just below 1.37. Digits are produced five at a time, so up to four more are needed.
+        return length * 137 / 100 + 1 + 4;
+    }
+
     /**
      * Encodes the given bytes as a base58 string (no checksum is appended).
      *
@@ -64,31 +83,68 @@ public class Base58 {
     public static String encode(byte[] input) {
         if (input.length == 0) {
             return "";
-        }       
+        }
+        char[] encoded = new char[maxEncodedLength(input.length)];
+        int length = encode(input, 0, input.length, encoded, 0);
+        return new String(encoded, 0, length);
+    }
+
+    /**
+     * Encodes the given bytes as base58 into the given array, without allocating a string (no checksum is appended).
+     * The output array needs room for {@link #maxEncodedLength(int)} characters from the given offset, even though
+     * fewer are written.
+     *
+     * @param input the array holding the bytes to encode
+     * @param offset the offset of the bytes to encode
+     * @param length the number of bytes to encode
+     * @param output the array to write the characters to
+     * @param outputOffset the offset to write the first character to
+     * @return the number of characters written
+     */
+    public static int encode(byte[] input, int offset, int length, char[] output, int outputOffset) {
+        checkArgument(offset >= 0 && length >= 0 && input.length - offset >= length, "Input out of bounds");
+        int outputEnd = outputOffset + maxEncodedLength(length);
+        checkArgument(outputOffset >= 0 && outputEnd <= output.length, "Output too small");
         // Count leading zeros.
         int zeros = 0;
-        while (zeros < input.length && input[zeros] == 0) {
+        while (zeros < length && input[offset + zeros] == 0) {
             ++zeros;
         }
-        // Convert base-256 digits to base-58 digits (plus conversion to ASCII characters)
-        input = Arrays.copyOf(input, input.length); // since we modify it in-place
-        char[] encoded = new char[input.length * 2]; // upper bound
-        int outputStart = encoded.length;
-        for (int inputStart = zeros; inputStart < input.length; ) {
-            encoded[--outputStart] = ALPHABET[divmod(input, inputStart, 256, 58)];
-            if (input[inputStart] == 0) {
-                ++inputStart; // optimization - skip leading zeros
+        // Load the rest as a big endian number of 32 bit limbs, the first one holding the odd bytes.
+        int n = length - zeros;
+        int[] limbs = new int[(n + 3) / 4];
+        for (int i = 0; i < n; i++) {
+            int limb = limbs.length - 1 - (n - 1 - i) / 4;
+            limbs[limb] = (limbs[limb] << 8) | (input[offset + zeros + i] & 0xff);
+        }
+        // Convert to base-58 digits from the right, five at a time, skipping limbs that have become zero.
+        int outputStart = outputEnd;
+        for (int first = 0; first < limbs.length; ) {
+            long remainder = 0;
+            for (int i = first; i < limbs.length; i++) {
+                long current = (remainder << 32) | (limbs[i] & 0xffffffffL);
+                limbs[i] = (int) (current / BASE_5);
+                remainder = current % BASE_5;
+            }
+            int digits = (int) remainder;
+            for (int i = 0; i < 5; i++) {
+                output[--outputStart] = ALPHABET[digits % 58];
+                digits /= 58;
+            }
+            while (first < limbs.length && limbs[first] == 0) {
+                ++first;
             }
         }
         // Preserve exactly as many leading encoded zeros in output as there were leading zeros in input.
-        while (outputStart < encoded.length && encoded[outputStart] == ENCODED_ZERO) {
+        while (outputStart < outputEnd && output[outputStart] == ENCODED_ZERO) {
             ++outputStart;
         }
         while (--zeros >= 0) {
-            encoded[--outputStart] = ENCODED_ZERO;
+            output[--outputStart] = ENCODED_ZERO;
         }
-        // Return encoded string (including encoded leading zeros).
-        return new String(encoded, outputStart, encoded.length - outputStart);
+        int encodedLength = outputEnd - outputStart;
+        System.arraycopy(output, outputStart, output, outputOffset, encodedLength);
+        return encodedLength;
     }
 
     /**
@@ -99,17 +155,47 @@ public class Base58 {
      * @return the base58-encoded string
      */
     public static String encodeChecked(int version, byte[] payload) {
+        byte[] addressBytes = new byte[1 + payload.length + Sha256Hash.LENGTH];
+        char[] encoded = new char[maxEncodedLength(1 + payload.length + 4)];
+        return new String(encoded, 0, encodeChecked(version, payload, 0, payload.length, addressBytes, encoded));
+    }
+
+    /**
+     * Encodes each of the given payloads with the given version as a base58 string with a checksum, reusing the
+     * buffers for all of them. The payloads all have the same length and follow each other in one array, like the
+     * public key hashes of {@link org.tdcoinj.crypto.HDKeyDerivation.ChildPublicKeys}.
+     *
+     * @param version the version to encode
+     * @param payloads the payloads, one after the other
+     * @param payloadLength the length of each payload
+     * @return the base58-encoded strings, in the same order as the payloads
+     */
+    public static String[] encodeChecked(int version, byte[] payloads, int payloadLength) {
+        checkArgument(payloadLength > 0 && payloads.length % payloadLength == 0, "Not a whole number of payloads");
+        String[] result = new String[payloads.length / payloadLength];
+        byte[] addressBytes = new byte[1 + payloadLength + Sha256Hash.LENGTH];
+        char[] encoded = new char[maxEncodedLength(1 + payloadLength + 4)];
+        for (int i = 0; i < result.length; i++) {
+            int length = encodeChecked(version, payloads, i * payloadLength, payloadLength, addressBytes, encoded);
+            result[i] = new String(encoded, 0, length);
+        }
+        return result;
+    }
+
+    // Encodes the version, payload and checksum into the given buffers, which are big enough, and returns the number
+    // of characters.
+    private static int encodeChecked(int version, byte[] payload, int offset, int length, byte[] addressBytes,
+                                     char[] encoded) {
         if (version < 0 || version > 255)
             throw new IllegalArgumentException("Version not in range.");
 
         // A stringified buffer is:
         // 1 byte version + data bytes + 4 bytes check code (a truncated hash)
-        byte[] addressBytes = new byte[1 + payload.length + 4];
         addressBytes[0] = (byte) version;
-        System.arraycopy(payload, 0, addressBytes, 1, payload.length);
-        byte[] checksum = Sha256Hash.hashTwice(addressBytes, 0, payload.length + 1);
-        System.arraycopy(checksum, 0, addressBytes, payload.length + 1, 4);
-        return Base58.encode(addressBytes);
+        System.arraycopy(payload, offset, addressBytes, 1, length);
+        // The whole hash is written after the data, and only the first 4 bytes of it are encoded.
+        Sha256Hash.hashTwice(addressBytes, 0, length + 1, addressBytes, length + 1);
+        return encode(addressBytes, 0, length + 5, encoded, 0);
     }
 
     /**
@@ -120,39 +206,61 @@ public class Base58 {
      * @throws AddressFormatException if the given string is not a valid base58 string
      */
     public static byte[] decode(String input) throws AddressFormatException {
-        if (input.length() == 0) {
+        int length = input.length();
+        if (length == 0) {
             return new byte[0];
         }
-        // Convert the base58-encoded ASCII chars to a base58 byte sequence (base58 digits).
-        byte[] input58 = new byte[input.length()];
-        for (int i = 0; i < input.length(); ++i) {
+        // Check the characters and count leading zeros.
+        int zeros = 0;
+        for (int i = 0; i < length; ++i) {
             char c = input.charAt(i);
             int digit = c < 128 ? INDEXES[c] : -1;
             if (digit < 0) {
                 throw new AddressFormatException.InvalidCharacter(c, i);
             }
-            input58[i] = (byte) digit;
-        }
-        // Count leading zeros.
-        int zeros = 0;
-        while (zeros < input58.length && input58[zeros] == 0) {
-            ++zeros;
+            if (digit == 0 && zeros == i) {
+                ++zeros;
+            }
         }
-        // Convert base-58 digits to base-256 digits.
-        byte[] decoded = new byte[input.length()];
-        int outputStart = decoded.length;
-        for (int inputStart = zeros; inputStart < input58.length; ) {
-            decoded[--outputStart] = divmod(input58, inputStart, 58, 256);
-            if (input58[inputStart] == 0) {
-                ++inputStart; // optimization - skip leading zeros
+        // Multiply in the rest of the base-58 digits, five at a time, into a big endian number of 32 bit limbs. The
+        // first group holds the odd digits.
+        int n = length - zeros;
+        int[] limbs = new int[(n * 733 / 1000 + 1 + 3) / 4 + 1];
+        int first = limbs.length;
+        for (int i = zeros; i < length; ) {
+            int groupLength = i == zeros && n % 5 != 0 ? n % 5 : 5;
+            long group = 0;
+            for (int end = i + groupLength; i < end; i++) {
+                group = group * 58 + INDEXES[input.charAt(i)];
+            }
+            long multiplier = POWERS[groupLength];
+            long carry = group;
+            for (int j = limbs.length - 1; j >= first; j--) {
+                long current = (limbs[j] & 0xffffffffL) * multiplier + carry;
+                limbs[j] = (int) current;
+                carry = current >>> 32;
+            }
+            if (carry != 0) {
+                limbs[--first] = (int) carry;
             }
         }
-        // Ignore extra leading zeroes that were added during the calculation.
-        while (outputStart < decoded.length && decoded[outputStart] == 0) {
-            ++outputStart;
+        // Convert the limbs to bytes, dropping the leading zero bytes of the first limb.
+        int numBytes = (limbs.length - first) * 4;
+        int skip = 0;
+        while (skip < numBytes && byteOf(limbs, first, skip) == 0) {
+            ++skip;
         }
         // Return decoded data (including original number of leading zeros).
-        return Arrays.copyOfRange(decoded, outputStart - zeros, decoded.length);
+        byte[] decoded = new byte[zeros + numBytes - skip];
+        for (int i = skip; i < numBytes; i++) {
+            decoded[zeros + i - skip] = byteOf(limbs, first, i);
+        }
+        return decoded;
+    }
+
+    // The byte with the given index of the big endian number in the limbs from the given one on.
+    private static byte byteOf(int[] limbs, int first, int index) {
+        return (byte) (limbs[first + index / 4] >>> (8 * (3 - index % 4)));
     }
     
     public static BigInteger decodeToBigInteger(String input) throws AddressFormatException {
@@ -171,35 +279,12 @@ public class Base58 {
         byte[] decoded  = decode(input);
         if (decoded.length < 4)
             throw new AddressFormatException.InvalidDataLength("Input too short: " + decoded.length);
-        byte[] data = Arrays.copyOfRange(decoded, 0, decoded.length - 4);
-        byte[] checksum = Arrays.copyOfRange(decoded, decoded.length - 4, decoded.length);
-        byte[] actualChecksum = Arrays.copyOfRange(Sha256Hash.hashTwice(data), 0, 4);
-        if (!Arrays.equals(checksum, actualChecksum))
-            throw new AddressFormatException.InvalidChecksum();
-        return data;
-    }
-
-    /**
-     * Divides a number, represented as an array of bytes each containing a single digit
-     * in the specified base, by the given divisor. The given number is modified in-place
-     * to contain the quotient, and the return value is the remainder.
-     *
-     * @param number the number to divide
-     * @param firstDigit the index within the array of the first non-zero digit
-     *        (this is used for optimization by skipping the leading zeros)
-     * @param base the base in which the number's digits are represented (up to 256)
-     * @param divisor the number to divide by (up to 256)
-     * @return the remainder of the division operation
-     */
-    private static byte divmod(byte[] number, int firstDigit, int base, int divisor) {
-        // this is just long division which accounts for the base of the input digits
-        int remainder = 0;
-        for (int i = firstDigit; i < number.length; i++) {
-            int digit = (int) number[i] & 0xFF;
-            int temp = remainder * base + digit;
-            number[i] = (byte) (temp / divisor);
-            remainder = temp % divisor;
-        }
-        return (byte) remainder;
+        int length = decoded.length - 4;
+        byte[] actualChecksum = new byte[Sha256Hash.LENGTH];
+        Sha256Hash.hashTwice(decoded, 0, length, actualChecksum, 0);
+        for (int i = 0; i < 4; i++)
+            if (decoded[length + i] != actualChecksum[i])
+                throw new AddressFormatException.InvalidChecksum();
+        return Arrays.copyOf(decoded, length);
     }
 }
@@ -18,7 +18,6 @@ package org.tdcoinj.core;
 
 import static com.google.common.base.Preconditions.checkArgument;
 
-import java.util.Arrays;
 import java.util.Locale;
 
 public class Bech32 {
@@ -47,55 +46,31 @@ public class Bech32 {
         }
     }
 
-    /** Find the polynomial with value coefficients mod the generator as 30-bit. */
-    private static int polymod(final byte[] values) {
-        int c = 1;
-        for (byte v_i: values) {
-            int c0 = (c >>> 25) & 0xff;
-            c = ((c & 0x1ffffff) << 5) ^ (v_i & 0xff);
-            if ((c0 &  1) != 0) c ^= 0x3b6a57b2;
-            if ((c0 &  2) != 0) c ^= 0x26508e6d;
-            if ((c0 &  4) != 0) c ^= 0x1ea119fa;
-            if ((c0 &  8) != 0) c ^= 0x3d4233dd;
-            if ((c0 & 16) != 0) c ^= 0x2a1462b3;
-        }
-        return c;
+    // The generator terms to add for each value of the top 5 bits of the checksum, the XOR of the terms for each bit.
+    private static final int[] GENERATOR = new int[32];
+    static {
+        int[] terms = { 0x3b6a57b2, 0x26508e6d, 0x1ea119fa, 0x3d4233dd, 0x2a1462b3 };
+        for (int i = 0; i < 32; i++)
+            for (int bit = 0; bit < 5; bit++)
+                if ((i & (1 << bit)) != 0)
+                    GENERATOR[i] ^= terms[bit];
     }
 
-    /** Expand a HRP for use in checksum computation. */
-    private static byte[] expandHrp(final String hrp) {
-        int hrpLength = hrp.length();
-        byte ret[] = new byte[hrpLength * 2 + 1];
-        for (int i = 0; i < hrpLength; ++i) {
-            int c = hrp.charAt(i) & 0x7f; // Limit to standard 7-bit ASCII
-            ret[i] = (byte) ((c >>> 5) & 0x07);
-            ret[i + hrpLength + 1] = (byte) (c & 0x1f);
-        }
-        ret[hrpLength] = 0;
-        return ret;
+    /** Feed one value into the polynomial with value coefficients mod the generator as 30-bit. */
+    private static int polymodStep(int c, int value) {
+        return ((c & 0x1ffffff) << 5) ^ value ^ GENERATOR[c >>> 25];
     }
 
-    /** Verify a checksum. */
-    private static boolean verifyChecksum(final String hrp, final byte[] values) {
-        byte[] hrpExpanded = expandHrp(hrp);
-        byte[] combined = new byte[hrpExpanded.length + values.length];
-        System.arraycopy(hrpExpanded, 0, combined, 0, hrpExpanded.length);
-        System.arraycopy(values, 0, combined, hrpExpanded.length, values.length);
-        return polymod(combined) == 1;
-    }
-
-    /** Create a checksum. */
-    private static byte[] createChecksum(final String hrp, final byte[] values)  {
-        byte[] hrpExpanded = expandHrp(hrp);
-        byte[] enc = new byte[hrpExpanded.length + values.length + 6];
-        System.arraycopy(hrpExpanded, 0, enc, 0, hrpExpanded.length);
-        System.arraycopy(values, 0, enc, hrpExpanded.length, values.length);
-        int mod = polymod(enc) ^ 1;
-        byte[] ret = new byte[6];
-        for (int i = 0; i < 6; ++i) {
-            ret[i] = (byte) ((mod >>> (5 * (5 - i))) & 31);
-        }
-        return ret;
+    /** Feed the expansion of a lowercase HRP into the checksum, see BIP173. */
+    private static int polymodHrp(final String hrp) {
+        int c = 1;
+        int hrpLength = hrp.length();
+        for (int i = 0; i < hrpLength; ++i)
+            c = polymodStep(c, (hrp.charAt(i) & 0x7f) >>> 5); // Limit to standard 7-bit ASCII
+        c = polymodStep(c, 0);
+        for (int i = 0; i < hrpLength; ++i)
+            c = polymodStep(c, hrp.charAt(i) & 0x1f);
+        return c;
     }
 
     /** Encode a Bech32 string. */
@@ -105,20 +80,40 @@ public class Bech32 {
 
     /** Encode a Bech32 string. */
     public static String encode(String hrp, final byte[] values) {
+        hrp = hrp.toLowerCase(Locale.ROOT);
+        char[] encoded = new char[hrp.length() + 1 + values.length + 6];
+        encode(hrp, values, 0, values.length, encoded, 0);
+        return new String(encoded);
+    }
+
+    /**
+     * Encodes the given 5 bit values as Bech32 into the given array, without allocating a string. The human-readable
+     * part must be lowercase. The output array needs room for the human-readable part, the separator, the values and
+     * the 6 checksum characters.
+     *
+     * @return the number of characters written
+     */
+    public static int encode(String hrp, final byte[] values, int offset, int length, char[] output,
+                             int outputOffset) {
         checkArgument(hrp.length() >= 1, "Human-readable part is too short");
         checkArgument(hrp.length() <= 83, "Human-readable part is too long");
-        hrp = hrp.toLowerCase(Locale.ROOT);
-        byte[] checksum = createChecksum(hrp, values);
-        byte[] combined = new byte[values.length + checksum.length];
-        System.arraycopy(values, 0, combined, 0, values.length);
-        System.arraycopy(checksum, 0, combined, values.length, checksum.length);
-        StringBuilder sb = new StringBuilder(hrp.length() + 1 + combined.length);
-        sb.append(hrp);
-        sb.append('1');
-        for (byte b : combined) {
-            sb.append(CHARSET.charAt(b));
+        int pos = outputOffset;
+        hrp.getChars(0, hrp.length(), output, pos);
+        pos += hrp.length();
+        output[pos++] = '1';
+        int c = polymodHrp(hrp);
+        for (int i = offset; i < offset + length; i++) {
+            int value = values[i];
+            checkArgument(value >>> 5 == 0, "Value out of range: %s", value);
+            c = polymodStep(c, value);
+            output[pos++] = CHARSET.charAt(value);
         }
-        return sb.toString();
+        for (int i = 0; i < 6; i++)
+            c = polymodStep(c, 0);
+        c ^= 1;
+        for (int i = 0; i < 6; ++i)
+            output[pos++] = CHARSET.charAt((c >>> (5 * (5 - i))) & 31);
+        return pos - outputOffset;
     }
 
     /** Decode a Bech32 string. */
@@ -146,14 +141,18 @@ public class Bech32 {
         if (pos < 1) throw new AddressFormatException.InvalidPrefix("Missing human-readable part");
         final int dataPartLength = str.length() - 1 - pos;
         if (dataPartLength < 6) throw new AddressFormatException.InvalidDataLength("Data part too short: " + dataPartLength);
-        byte[] values = new byte[dataPartLength];
+        String hrp = str.substring(0, pos).toLowerCase(Locale.ROOT);
+        int checksum = polymodHrp(hrp);
+        byte[] values = new byte[dataPartLength - 6];
         for (int i = 0; i < dataPartLength; ++i) {
             char c = str.charAt(i + pos + 1);
-            if (CHARSET_REV[c] == -1) throw new AddressFormatException.InvalidCharacter(c, i + pos + 1);
-            values[i] = CHARSET_REV[c];
+            byte value = CHARSET_REV[c];
+            if (value == -1) throw new AddressFormatException.InvalidCharacter(c, i + pos + 1);
+            checksum = polymodStep(checksum, value);
+            if (i < values.length)
+                values[i] = value;
         }
-        String hrp = str.substring(0, pos).toLowerCase(Locale.ROOT);
-        if (!verifyChecksum(hrp, values)) throw new AddressFormatException.InvalidChecksum();
-        return new Bech32Data(hrp, Arrays.copyOfRange(values, 0, values.length - 6));
+        if (checksum != 1) throw new AddressFormatException.InvalidChecksum();
+        return new Bech32Data(hrp, values);
     }
 }
@@ -291,6 +291,22 @@ public class Block extends Message {
         Utils.uint32ToByteStreamLE(nonce, stream);
     }
 
+    /** Writes the 80 byte header into the given array at the given offset. */
+    void writeHeader(byte[] buf, int offset) {
+        // try for cached write first
+        if (headerBytesValid && payload != null && payload.length >= this.offset + HEADER_SIZE) {
+            System.arraycopy(payload, this.offset, buf, offset, HEADER_SIZE);
+            return;
+        }
+        // fall back to manual write
+        Utils.uint32ToByteArrayLE(version, buf, offset);
+        prevBlockHash.getReversedBytes(buf, offset + 4);
+        getMerkleRoot().getReversedBytes(buf, offset + 36);
+        Utils.uint32ToByteArrayLE(time, buf, offset + 68);
+        Utils.uint32ToByteArrayLE(difficultyTarget, buf, offset + 72);
+        Utils.uint32ToByteArrayLE(nonce, buf, offset + 76);
+    }
+
     private void writeTransactions(OutputStream stream) throws IOException {
         // check for no transaction conditions first
         // must be a more efficient way to do this but I'm tired atm.
@@ -310,6 +326,30 @@ public class Block extends Message {
         }
     }
 
+    private int writeTransactions(byte[] buf, int offset) {
+        if (transactions == null)
+            return offset;
+        if (transactionBytesValid && payload != null && payload.length >= this.offset + length) {
+            System.arraycopy(payload, this.offset + HEADER_SIZE, buf, offset, length - HEADER_SIZE);
+            return offset + length - HEADER_SIZE;
+        }
+        offset += VarInt.encode(transactions.size(), buf, offset);
+        for (Transaction tx : transactions)
+            offset += tx.tdcoinSerialize(buf, offset);
+        return offset;
+    }
+
+    private int transactionsSize() {
+        if (transactions == null)
+            return 0;
+        if (transactionBytesValid && payload != null && payload.length >= offset + length)
+            return length - HEADER_SIZE;
+        int size = VarInt.sizeOf(transactions.size());
+        for (Transaction tx : transactions)
+            size += tx.getSerializedSize();
+        return size;
+    }
+
     /**
      * Special handling to check if we have a valid byte array for both header
      * and transactions
@@ -329,16 +369,46 @@ public class Block extends Message {
             }
         }
 
-        // At least one of the two cacheable components is invalid
-        // so fall back to stream write since we can't be sure of the length.
-        ByteArrayOutputStream stream = new UnsafeByteArrayOutputStream(length == UNKNOWN_LENGTH ? HEADER_SIZE + guessTransactionsLength() : length);
-        try {
-            writeHeader(stream);
-            writeTransactions(stream);
-        } catch (IOException e) {
-            // Cannot happen, we are serializing to a memory stream.
-        }
-        return stream.toByteArray();
+        // At least one of the two cacheable components is invalid, so write both parts into an array of the exact
+        // size.
+        if (!serializesToArray())
+            return super.tdcoinSerialize();
+        byte[] buf = new byte[calculateSerializedSize()];
+        tdcoinSerializeToArray(buf, 0);
+        return buf;
+    }
+
+    @Override
+    public int getSerializedSize() {
+        if (!serializesToArray())
+            return super.getSerializedSize();
+        if (headerBytesValid && transactionBytesValid)
+            return length;
+        return calculateSerializedSize();
+    }
+
+    @Override
+    public int tdcoinSerialize(byte[] buf, int offset) {
+        if (!serializesToArray())
+            return super.tdcoinSerialize(buf, offset);
+        // The header and the transactions are cached separately, each part is copied if it can be.
+        return tdcoinSerializeToArray(buf, offset) - offset;
+    }
+
+    @Override
+    protected boolean serializesToArray() {
+        return getClass() == Block.class;
+    }
+
+    @Override
+    protected int calculateSerializedSize() {
+        return HEADER_SIZE + transactionsSize();
+    }
+
+    @Override
+    protected int tdcoinSerializeToArray(byte[] buf, int offset) {
+        writeHeader(buf, offset);
+        return writeTransactions(buf, offset + HEADER_SIZE);
     }
 
     @Override
@@ -348,27 +418,6 @@ public class Block extends Message {
         writeTransactions(stream);
     }
 
-    /**
-     * Provides a reasonable guess at the byte length of the transactions part of the block.
-     * The returned value will be accurate in 99% of cases and in those cases where not will probably slightly
-     * oversize.
-     *
-     * This is used to preallocate the underlying byte array for a ByteArrayOutputStream.  If the size is under the
-     * real value the only penalty is resizing of the underlying byte array.
-     */
-    private int guessTransactionsLength() {
-        if (transactionBytesValid)
-            return payload.length - HEADER_SIZE;
-        if (transactions == null)
-            return 0;
-        int len = VarInt.sizeOf(transactions.size());
-        for (Transaction tx : transactions) {
-            // 255 is just a guess at an average tx length
-            len += tx.length == UNKNOWN_LENGTH ? 255 : tx.length;
-        }
-        return len;
-    }
-
     @Override
     protected void unCache() {
         // Since we have alternate uncache methods to use internally this will only ever be called by a child
@@ -393,6 +442,7 @@ public class Block extends Message {
         unCacheHeader();
         // Clear merkleRoot last as it may end up being parsed during unCacheHeader().
         merkleRoot = null;
+        witnessRoot = null;
     }
 
     /**
@@ -400,13 +450,12 @@ public class Block extends Message {
      * resulting bytes.
      */
     private Sha256Hash calculateHash() {
-        try {
-            ByteArrayOutputStream bos = new UnsafeByteArrayOutputStream(HEADER_SIZE);
-            writeHeader(bos);
-            return Sha256Hash.wrapReversed(Sha256Hash.hashTwice(bos.toByteArray()));
-        } catch (IOException e) {
-            throw new RuntimeException(e); // Cannot happen.
-        }
+        // Hash the cached header bytes in place if we have them, otherwise write the header into a fixed size array.
+        if (headerBytesValid && payload != null && payload.length >= offset + HEADER_SIZE)
+            return Sha256Hash.wrapReversed(Sha256Hash.hashTwice(payload, offset, HEADER_SIZE));
+        byte[] header = new byte[HEADER_SIZE];
+        writeHeader(header, 0);
+        return Sha256Hash.wrapReversed(Sha256Hash.hashTwice(header));
     }
 
     /**
@@ -540,14 +589,16 @@ public class Block extends Message {
         //
         // To prevent this attack from being possible, elsewhere we check that the difficultyTarget
         // field is of the right value. This requires us to have the preceding blocks.
-        BigInteger target = getDifficultyTargetAsInteger();
+        //
+        // The target and hash are compared as fixed width integers, as this runs for every header during a sync.
+        if (!ProofOfWork.isValidTarget(params, difficultyTarget))
+            getDifficultyTargetAsInteger(); // Throws with the decoded target in the message.
 
-        BigInteger h = getHash().toBigInteger();
-        if (h.compareTo(target) > 0) {
+        if (!ProofOfWork.hashMeetsTarget(difficultyTarget, getHash())) {
             // Proof of work check failed!
             if (throwException)
                 throw new VerificationException("Hash is higher than target: " + getHashAsString() + " vs "
-                        + target.toString(16));
+                        + getDifficultyTargetAsInteger().toString(16));
             else
                 return false;
         }
@@ -608,72 +659,7 @@ public class Block extends Message {
     }
 
     private Sha256Hash calculateMerkleRoot() {
-        List<byte[]> tree = buildMerkleTree(false);
-        return Sha256Hash.wrap(tree.get(tree.size() - 1));
-    }
-
-    private Sha256Hash calculateWitnessRoot() {
-        List<byte[]> tree = buildMerkleTree(true);
-        return Sha256Hash.wrap(tree.get(tree.size() - 1));
-    }
-
-    private List<byte[]> buildMerkleTree(boolean useWTxId) {
-        // The Merkle root is based on a tree of hashes calculated from the transactions:
-        //
-        //     root
-        //      / \
-        //   A      B
-        //  / \    / \
-        // t1 t2 t3 t4
-        //
-        // The tree is represented as a list: t1,t2,t3,t4,A,B,root where each
-        // entry is a hash.
-        //
-        // The hashing algorithm is double SHA-256. The leaves are a hash of the serialized contents of the transaction.
-        // The interior nodes are hashes of the concatenation of the two child hashes.
-        //
-        // This structure allows the creation of proof that a transaction was included into a block without having to
-        // provide the full block contents. Instead, you can provide only a Merkle branch. For example to prove tx2 was
-        // in a block you can just provide tx2, the hash(tx1) and B. Now the other party has everything they need to
-        // derive the root, which can be checked against the block header. These proofs aren't used right now but
-        // will be helpful later when we want to download partial block contents.
-        //
-        // Note that if the number of transactions is not even the last tx is repeated to make it so (see
-        // tx3 above). A tree with 5 transactions would look like this:
-        //
-        //         root
-        //        /     \
-        //       1        5
-        //     /   \     / \
-        //    2     3    4  4
-        //  / \   / \   / \
-        // t1 t2 t3 t4 t5 t5
-        ArrayList<byte[]> tree = new ArrayList<>(transactions.size());
-        // Start by adding all the hashes of the transactions as leaves of the tree.
-        for (Transaction tx : transactions) {
-            final Sha256Hash id;
-            if (useWTxId && tx.isCoinBase())
-                id = Sha256Hash.ZERO_HASH;
-            else
-                id = useWTxId ? tx.getWTxId() : tx.getTxId();
-            tree.add(id.getBytes());
-        }
-        int levelOffset = 0; // Offset in the list where the currently processed level starts.
-        // Step through each level, stopping when we reach the root (levelSize == 1).
-        for (int levelSize = transactions.size(); levelSize > 1; levelSize = (levelSize + 1) / 2) {
-            // For each pair of nodes on that level:
-            for (int left = 0; left < levelSize; left += 2) {
-                // The right hand node can be the same as the left hand, in the case where we don't have enough
-                // transactions.
-                int right = Math.min(left + 1, levelSize - 1);
-                byte[] leftBytes = Utils.reverseBytes(tree.get(levelOffset + left));
-                byte[] rightBytes = Utils.reverseBytes(tree.get(levelOffset + right));
-                tree.add(Utils.reverseBytes(hashTwice(leftBytes, rightBytes)));
-            }
-            // Move to the next level.
-            levelOffset += levelSize;
-        }
-        return tree;
+        return MerkleRoots.calculate(transactions, false).getMerkleRoot();
     }
 
     /**
@@ -789,8 +775,15 @@ public class Block extends Message {
      * Returns the witness root in big endian form, calculating it from transactions if necessary.
      */
     public Sha256Hash getWitnessRoot() {
-        if (witnessRoot == null)
-            witnessRoot = calculateWitnessRoot();
+        if (witnessRoot == null) {
+            // Both roots come out of one pass over the transactions, so keep the Merkle root if it's missing too.
+            MerkleRoots roots = MerkleRoots.calculate(transactions, true);
+            witnessRoot = roots.getWitnessRoot();
+            if (merkleRoot == null) {
+                unCacheHeader();
+                merkleRoot = roots.getMerkleRoot();
+            }
+        }
         return witnessRoot;
     }
 
@@ -814,6 +807,7 @@ public class Block extends Message {
         adjustLength(transactions.size(), t.length);
         // Force a recalculation next time the values are needed.
         merkleRoot = null;
+        witnessRoot = null;
         hash = null;
     }
 
@@ -0,0 +1,202 @@
+/*
+ * Copyright by the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.tdcoinj.core;
+
+import javax.annotation.Nullable;
+import java.util.Arrays;
+
+import static com.google.common.base.Preconditions.checkElementIndex;
+
+/**
+ * <p>A read-only view of a serialized block that decodes its header fields on demand and gives access to its
+ * transactions as {@link TransactionView}s, straight from the buffer it was received in. Creating a view only records
+ * where each transaction starts. Callers that need the hashes or a few transactions of a large block, or only its
+ * header, avoid creating objects for all transactions this way. {@link #materialize()} and
+ * {@link #materializeHeader()} create a {@link Block}.</p>
+ *
+ * <p>Transaction views are created each time they are asked for and not kept. Like those, block views can be shared
+ * between threads.</p>
+ */
+public final class BlockView {
+    private final NetworkParameters params;
+    private final byte[] payload;
+    private final int offset, length;
+    // Start offsets of the transactions, followed by the offset where the last one ends.
+    private final int[] txOffsets;
+    private final boolean headerOnly;
+    @Nullable private Sha256Hash hash;
+
+    private BlockView(NetworkParameters params, byte[] payload, int offset, int length, int[] txOffsets,
+                      boolean headerOnly) {
+        this.params = params;
+        this.payload = payload;
+        this.offset = offset;
+        this.length = length;
+        this.txOffsets = txOffsets;
+        this.headerOnly = headerOnly;
+    }
+
+    /**
+     * Creates a view of the block serialized in the given buffer, which must not be changed while the view is used.
+     * A buffer holding just the 80 byte header gives a view without transactions.
+     *
+     * @throws ProtocolException if the block is truncated
+     */
+    public static BlockView wrap(NetworkParameters params, byte[] payload) throws ProtocolException {
+        return wrap(params, payload, 0, payload.length);
+    }
+
+    /**
+     * Creates a view of the block serialized in the given range of the given buffer, which must not be changed while
+     * the view is used.
+     *
+     * @throws ProtocolException if the block is truncated
+     */
+    public static BlockView wrap(NetworkParameters params, byte[] payload, int offset, int length)
+            throws ProtocolException {
+        int end = offset + length;
+        TransactionView.Reader reader = new TransactionView.Reader(payload, offset, end);
+        reader.skip(Block.HEADER_SIZE);
+        boolean headerOnly = reader.position == end;
+        int[] txOffsets;
+        if (headerOnly) {
+            txOffsets = new int[] { end };
+        } else {
+            // The smallest transaction takes 10 bytes: version, two counts of zero and lock time.
+            txOffsets = new int[reader.count(10) + 1];
+            for (int i = 0; i < txOffsets.length - 1; i++) {
+                txOffsets[i] = reader.position;
+                reader.position = TransactionView.skip(payload, reader.position, end);
+            }
+            txOffsets[txOffsets.length - 1] = reader.position;
+        }
+        return new BlockView(params, payload, offset, reader.position - offset, txOffsets,
+                headerOnly);
+    }
+
+    /** Creates the full block from the bytes of this view. */
+    public Block materialize() throws ProtocolException {
+        if (isHeaderOnly())
+            return materializeHeader();
+        return params.getDefaultSerializer().makeBlock(payload, offset, length);
+    }
+
+    /** Creates a block holding only the header, like {@link Block#cloneAsHeader()}. */
+    public Block materializeHeader() throws ProtocolException {
+        return params.getDefaultSerializer().makeBlock(
+                Arrays.copyOfRange(payload, offset, offset + Block.HEADER_SIZE));
+    }
+
+    /** Returns the buffer the block is read from. It must not be changed. */
+    public byte[] getPayload() {
+        return payload;
+    }
+
+    /** Returns the offset of the block in {@link #getPayload()}. */
+    public int getOffset() {
+        return offset;
+    }
+
+    /** Returns the length of the serialized block. */
+    public int getMessageSize() {
+        return length;
+    }
+
+    /** Returns the hash of the header. See {@link Block#getHash()}. */
+    public Sha256Hash getHash() {
+        if (hash == null)
+            hash = Sha256Hash.wrapReversed(Sha256Hash.hashTwice(payload, offset, Block.HEADER_SIZE));
+        return hash;
+    }
+
+    public long getVersion() {
+        return Utils.readUint32(payload, offset);
+    }
+
+    public Sha256Hash getPrevBlockHash() {
+        return Sha256Hash.wrapReversed(Arrays.copyOfRange(payload, offset + 4, offset + 36));
+    }
+
+    public Sha256Hash getMerkleRoot() {
+        return Sha256Hash.wrapReversed(Arrays.copyOfRange(payload, offset + 36, offset + 68));
+    }
+
+    /** Returns the time of the block in seconds since the epoch. */
+    public long getTimeSeconds() {
+        return Utils.readUint32(payload, offset + 68);
+    }
+
+    public long getDifficultyTarget() {
+        return Utils.readUint32(payload, offset + 72);
+    }
+
+    public long getNonce() {
+        return Utils.readUint32(payload, offset + 76);
+    }
+
+    /**
+     * Checks the proof of work of the header against its own difficulty target, see
+     * {@link ProofOfWork#checkHeader(NetworkParameters, byte[], int)}.
+     */
+    public boolean checkProofOfWork() {
+        return ProofOfWork.checkHeader(params, payload, offset);
+    }
+
+    /** Returns whether the view has no transactions, because only the header was given. */
+    public boolean isHeaderOnly() {
+        return headerOnly;
+    }
+
+    public int getTransactionCount() {
+        return txOffsets.length - 1;
+    }
+
+    /** Returns the offset of the given transaction in {@link #getPayload()}. */
+    public int getTransactionOffset(int index) {
+        checkElementIndex(index, getTransactionCount());
+        return txOffsets[index];
+    }
+
+    /** Returns the length of the serialized given transaction. */
+    public int getTransactionSize(int index) {
+        checkElementIndex(index, getTransactionCount());
+        return txOffsets[index + 1] - txOffsets[index];
+    }
+
+    /** Creates a view of the given transaction. */
+    public TransactionView getTransaction(int index) {
+        checkElementIndex(index, getTransactionCount());
+        try {
+            return TransactionView.wrap(params, payload, txOffsets[index], txOffsets[index + 1]);
+        } catch (ProtocolException e) {
+            throw new IllegalStateException(e);  // Cannot happen, the transaction was checked when wrapping.
+        }
+    }
+
+    /** Returns the ids of all transactions, in block order. */
+    public Sha256Hash[] getTransactionIds() {
+        Sha256Hash[] ids = new Sha256Hash[getTransactionCount()];
+        for (int i = 0; i < ids.length; i++)
+            ids[i] = getTransaction(i).getTxId();
+        return ids;
+    }
+
+    @Override
+    public String toString() {
+        return "BlockView " + getHash() + ", " + getTransactionCount() + " transactions";
+    }
+}
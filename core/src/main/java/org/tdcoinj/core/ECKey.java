@@ -36,15 +36,11 @@ import org.bouncycastle.asn1.*;
 import org.bouncycastle.asn1.x9.X9ECParameters;
 import org.bouncycastle.asn1.x9.X9IntegerConverter;
 import org.bouncycastle.crypto.AsymmetricCipherKeyPair;
-import org.bouncycastle.crypto.digests.SHA256Digest;
 import org.bouncycastle.crypto.ec.CustomNamedCurves;
 import org.bouncycastle.crypto.generators.ECKeyPairGenerator;
 import org.bouncycastle.crypto.params.*;
-import org.bouncycastle.crypto.signers.ECDSASigner;
-import org.bouncycastle.crypto.signers.HMacDSAKCalculator;
 import org.bouncycastle.math.ec.ECAlgorithms;
 import org.bouncycastle.math.ec.ECPoint;
-import org.bouncycastle.math.ec.FixedPointCombMultiplier;
 import org.bouncycastle.math.ec.FixedPointUtil;
 import org.bouncycastle.math.ec.custom.sec.SecP256K1Curve;
 import org.bouncycastle.util.Properties;
@@ -458,14 +454,12 @@ public class ECKey implements EncryptableItem {
      * use {@code new BigInteger(1, bytes);}
      */
     public static ECPoint publicPointFromPrivate(BigInteger privKey) {
-        /*
-         * TODO: FixedPointCombMultiplier currently doesn't support scalars longer than the group order,
-         * but that could change in future versions.
-         */
-        if (privKey.bitLength() > CURVE.getN().bitLength()) {
+        if (privKey.signum() < 0 || privKey.compareTo(CURVE.getN()) >= 0) {
             privKey = privKey.mod(CURVE.getN());
         }
-        return new FixedPointCombMultiplier().multiply(CURVE.getG(), privKey);
+        if (privKey.signum() == 0)
+            return CURVE.getCurve().getInfinity();
+        return Secp256k1Signer.publicPoint(privKey);
     }
 
     /** Gets the hash160 form of the public key (as seen in addresses). */
@@ -685,11 +679,7 @@ public class ECKey implements EncryptableItem {
         if (FAKE_SIGNATURES)
             return TransactionSignature.dummy();
         checkNotNull(privateKeyForSigning);
-        ECDSASigner signer = new ECDSASigner(new HMacDSAKCalculator(new SHA256Digest()));
-        ECPrivateKeyParameters privKey = new ECPrivateKeyParameters(privateKeyForSigning, CURVE);
-        signer.init(true, privKey);
-        BigInteger[] components = signer.generateSignature(input.getBytes());
-        return new ECDSASignature(components[0], components[1]).toCanonicalised();
+        return Secp256k1Signer.sign(input.getBytes(), privateKeyForSigning);
     }
 
     /**
@@ -715,17 +705,35 @@ public class ECKey implements EncryptableItem {
             }
         }
 
-        ECDSASigner signer = new ECDSASigner();
-        ECPublicKeyParameters params = new ECPublicKeyParameters(CURVE.getCurve().decodePoint(pub), CURVE);
-        signer.init(false, params);
-        try {
-            return signer.verifySignature(data, signature.r, signature.s);
-        } catch (NullPointerException e) {
-            // Bouncy Castle contains a bug that can cause NPEs given specially crafted signatures. Those signatures
-            // are inherently invalid/attack sigs so we just fail them here rather than crash the thread.
-            log.error("Caught NPE inside bouncy castle", e);
-            return false;
+        return Secp256k1Verifier.verify(data, signature, pub);
+    }
+
+    /**
+     * <p>Verifies many ECDSA signatures at once, each against the hash and public key at the same index. This is
+     * considerably faster than verifying them one by one if the native secp256k1 library isn't used, see
+     * {@link Secp256k1Verifier}.</p>
+     *
+     * <p>A signature whose public key can't be decoded is reported as invalid.</p>
+     *
+     * @param data      Hashes of the data to verify.
+     * @param signatures Signatures to verify.
+     * @param pubs      The public key bytes to use.
+     * @return for each signature, whether it is valid
+     */
+    public static boolean[] verifyAll(byte[][] data, ECDSASignature[] signatures, byte[][] pubs) {
+        checkArgument(data.length == signatures.length && data.length == pubs.length, "Array lengths differ");
+        if (FAKE_SIGNATURES || Secp256k1Context.isEnabled()) {
+            boolean[] results = new boolean[data.length];
+            for (int i = 0; i < data.length; i++) {
+                try {
+                    results[i] = verify(data[i], signatures[i], pubs[i]);
+                } catch (IllegalArgumentException e) {
+                    results[i] = false;
+                }
+            }
+            return results;
         }
+        return Secp256k1Verifier.verifyAll(data, signatures, pubs);
     }
 
     /**
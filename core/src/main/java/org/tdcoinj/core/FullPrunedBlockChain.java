@@ -17,6 +17,7 @@
 
 package org.tdcoinj.core;
 
+import org.tdcoinj.script.DeferredSignatureChecks;
 import org.tdcoinj.script.Script;
 import org.tdcoinj.script.Script.VerifyFlag;
 import org.tdcoinj.script.ScriptPattern;
@@ -169,16 +170,36 @@ public class FullPrunedBlockChain extends AbstractBlockChain {
         @Nullable
         @Override
         public VerificationException call() throws Exception {
+            // Run the scripts with the signature checks deferred, and then verify all signatures of the transaction
+            // in one batch. If a script or a signature fails, run the scripts again checking each signature as it
+            // comes, so the outcome is exactly the same as without batching.
+            DeferredSignatureChecks checks = DeferredSignatureChecks.begin();
+            boolean passed;
             try {
-                ListIterator<Script> prevOutIt = prevOutScripts.listIterator();
-                for (int index = 0; index < tx.getInputs().size(); index++) {
-                    tx.getInputs().get(index).getScriptSig().correctlySpends(tx, index, prevOutIt.next(), verifyFlags);
-                }
+                verifyScripts();
+                passed = true;
+            } catch (RuntimeException e) {
+                // Includes VerificationException.
+                passed = false;
+            } finally {
+                checks.end();
+            }
+            if (passed && checks.verifyAll())
+                return null;
+            try {
+                verifyScripts();
             } catch (VerificationException e) {
                 return e;
             }
             return null;
         }
+
+        private void verifyScripts() throws VerificationException {
+            ListIterator<Script> prevOutIt = prevOutScripts.listIterator();
+            for (int index = 0; index < tx.getInputs().size(); index++) {
+                tx.getInputs().get(index).getScriptSig().correctlySpends(tx, index, prevOutIt.next(), verifyFlags);
+            }
+        }
     }
 
     /**
@@ -271,14 +292,15 @@ public class FullPrunedBlockChain extends AbstractBlockChain {
                         }
                         // TODO: Check we're not spending the genesis transaction here. Tdcoin Core won't allow it.
                         valueIn = valueIn.add(prevOut.getValue());
+                        Script prevOutScript = prevOut.getScript();
                         if (verifyFlags.contains(VerifyFlag.P2SH)) {
-                            if (ScriptPattern.isP2SH(prevOut.getScript()))
+                            if (ScriptPattern.isP2SH(prevOutScript))
                                 sigOps += Script.getP2SHSigOpCount(in.getScriptBytes());
                             if (sigOps > Block.MAX_BLOCK_SIGOPS)
                                 throw new VerificationException("Too many P2SH SigOps in block");
                         }
 
-                        prevOutScripts.add(prevOut.getScript());
+                        prevOutScripts.add(prevOutScript);
                         blockStore.removeUnspentTransactionOutput(prevOut);
                         txOutsSpent.add(prevOut);
                     }
@@ -399,8 +421,9 @@ public class FullPrunedBlockChain extends AbstractBlockChain {
                             if (prevOut.isCoinbase() && newBlock.getHeight() - prevOut.getHeight() < params.getSpendableCoinbaseDepth())
                                 throw new VerificationException("Tried to spend coinbase at depth " + (newBlock.getHeight() - prevOut.getHeight()));
                             valueIn = valueIn.add(prevOut.getValue());
+                            Script prevOutScript = prevOut.getScript();
                             if (verifyFlags.contains(VerifyFlag.P2SH)) {
-                                if (ScriptPattern.isP2SH(prevOut.getScript()))
+                                if (ScriptPattern.isP2SH(prevOutScript))
                                     sigOps += Script.getP2SHSigOpCount(in.getScriptBytes());
                                 if (sigOps > Block.MAX_BLOCK_SIGOPS)
                                     throw new VerificationException("Too many P2SH SigOps in block");
@@ -408,7 +431,7 @@ public class FullPrunedBlockChain extends AbstractBlockChain {
 
                             // TODO: Enforce DER signature format
 
-                            prevOutScripts.add(prevOut.getScript());
+                            prevOutScripts.add(prevOutScript);
 
                             blockStore.removeUnspentTransactionOutput(prevOut);
                             txOutsSpent.add(prevOut);
@@ -59,11 +59,33 @@ public class HeadersMessage extends Message {
     public void tdcoinSerializeToStream(OutputStream stream) throws IOException {
         stream.write(new VarInt(blockHeaders.size()).encode());
         for (Block header : blockHeaders) {
-            header.cloneAsHeader().tdcoinSerializeToStream(stream);
+            header.writeHeader(stream);
+            // No transactions.
             stream.write(0);
         }
     }
 
+    @Override
+    protected boolean serializesToArray() {
+        return getClass() == HeadersMessage.class;
+    }
+
+    @Override
+    protected int calculateSerializedSize() {
+        return VarInt.sizeOf(blockHeaders.size()) + blockHeaders.size() * (Block.HEADER_SIZE + 1);
+    }
+
+    @Override
+    protected int tdcoinSerializeToArray(byte[] buf, int offset) {
+        offset += VarInt.encode(blockHeaders.size(), buf, offset);
+        for (Block header : blockHeaders) {
+            header.writeHeader(buf, offset);
+            buf[offset + Block.HEADER_SIZE] = 0;
+            offset += Block.HEADER_SIZE + 1;
+        }
+        return offset;
+    }
+
     @Override
     protected void parse() throws ProtocolException {
         long numHeaders = readVarInt();
@@ -46,6 +46,9 @@ public class LegacyAddress extends Address {
     /** True if P2SH, false if P2PKH. */
     public final boolean p2sh;
 
+    // The textual form, created when first asked for.
+    private transient String base58;
+
     /**
      * Private constructor. Use {@link #fromBase58(NetworkParameters, String)},
      * {@link #fromPubKeyHash(NetworkParameters, byte[])}, {@link #fromScriptHash(NetworkParameters, byte[])} or
@@ -157,7 +160,28 @@ public class LegacyAddress extends Address {
      * @return textual form
      */
     public String toBase58() {
-        return Base58.encodeChecked(getVersion(), bytes);
+        // Racy but safe: strings are immutable, so at worst the encoding is done more than once.
+        String result = base58;
+        if (result == null)
+            base58 = result = Base58.encodeChecked(getVersion(), bytes);
+        return result;
+    }
+
+    /**
+     * Returns the base58 forms of the addresses for the given hashes, reusing the buffers for all of them and without
+     * creating address objects. The hashes follow each other in one array, like the public key hashes of
+     * {@link org.tdcoinj.crypto.HDKeyDerivation.ChildPublicKeys}.
+     *
+     * @param params
+     *            network the addresses are valid for
+     * @param p2sh
+     *            true if the hashes are hashes of scripts, false if they are hashes of pubkeys
+     * @param hash160s
+     *            20-byte hashes, one after the other
+     * @return textual forms, in the same order as the hashes
+     */
+    public static String[] toBase58(NetworkParameters params, boolean p2sh, byte[] hash160s) {
+        return Base58.encodeChecked(p2sh ? params.getP2SHHeader() : params.getAddressHeader(), hash160s, LENGTH);
     }
 
     /** The (big endian) 20 byte hash that is the core of a Tdcoin address. */
@@ -0,0 +1,179 @@
+/*
+ * Copyright by the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.tdcoinj.core;
+
+import org.tdcoinj.core.Transaction.SigHash;
+import org.tdcoinj.script.Script;
+import org.tdcoinj.script.ScriptOpCodes;
+
+import java.security.MessageDigest;
+import java.util.List;
+
+/**
+ * <p>Calculates legacy signature hashes, see {@link Transaction#hashForSignature(int, byte[], byte)}, by streaming the
+ * serialization of the transaction as modified for the signature hash type straight into a SHA-256 digest. The
+ * fields are read from the transaction itself, so no copy of the transaction is parsed, changed and serialized again,
+ * which made checking all inputs of a transaction quadratic in its size.</p>
+ *
+ * <p>Small fields are gathered in a buffer that is passed to the digest when it is full, while long scripts go to the
+ * digest directly. The digest and the buffer are kept per thread.</p>
+ */
+final class LegacySigHashWriter {
+    private static final int BUFFER_SIZE = 512;
+    private static final byte[] EMPTY_SCRIPT = new byte[0];
+
+    // What Tdcoin Core returns for SIGHASH_SINGLE without an output at the index of the input.
+    static final Sha256Hash SIGHASH_SINGLE_BUG =
+            Sha256Hash.wrap("0100000000000000000000000000000000000000000000000000000000000000");
+
+    private static final ThreadLocal<LegacySigHashWriter> writers = new ThreadLocal<LegacySigHashWriter>() {
+        @Override
+        protected LegacySigHashWriter initialValue() {
+            return new LegacySigHashWriter();
+        }
+    };
+
+    private final MessageDigest digest = Sha256Hash.newDigest();
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+    private int position;
+
+    private LegacySigHashWriter() {
+    }
+
+    /**
+     * Calculates the signature hash of the given input, with the same result as serializing a copy of the transaction
+     * modified as described in {@link Transaction#hashForSignature(int, byte[], byte)}.
+     */
+    static Sha256Hash hashForSignature(Transaction tx, int inputIndex, byte[] connectedScript, byte sigHashType) {
+        return writers.get().write(tx, inputIndex, connectedScript, sigHashType);
+    }
+
+    private Sha256Hash write(Transaction tx, int inputIndex, byte[] connectedScript, byte sigHashType) {
+        List<TransactionInput> inputs = tx.getInputs();
+        List<TransactionOutput> outputs = tx.getOutputs();
+        TransactionInput signedInput = inputs.get(inputIndex);
+        // This step has no purpose beyond being synchronized with Tdcoin Core's bugs. OP_CODESEPARATOR is a legacy
+        // holdover from a previous, broken design of executing scripts. Deleting it is a step that should never be
+        // required but if we don't do it, we could split off the best chain.
+        connectedScript = Script.removeAllInstancesOfOp(connectedScript, ScriptOpCodes.OP_CODESEPARATOR);
+        int basicSigHashType = sigHashType & 0x1f;
+        boolean none = basicSigHashType == SigHash.NONE.value;
+        boolean single = basicSigHashType == SigHash.SINGLE.value;
+        boolean anyoneCanPay = (sigHashType & SigHash.ANYONECANPAY.value) == SigHash.ANYONECANPAY.value;
+        // An input index beyond the number of outputs is a buggy signature made by a broken implementation. Tdcoin
+        // Core's SignatureHash returns the constant "1" to indicate the error, which is never checked for, so anyone
+        // with the signature and the public key can spend such outputs.
+        if (single && inputIndex >= outputs.size())
+            return SIGHASH_SINGLE_BUG;
+
+        digest.reset();
+        position = 0;
+        writeUint32(tx.getVersion());
+        if (anyoneCanPay) {
+            // Only the input being signed.
+            writeVarInt(1);
+            writeInput(signedInput, connectedScript, signedInput.getSequenceNumber());
+        } else {
+            // The other inputs with empty scripts. Their sequence numbers are zeroed unless all outputs are signed, so
+            // that new versions of the transaction issued by other parties don't break the signature.
+            writeVarInt(inputs.size());
+            for (int i = 0; i < inputs.size(); i++) {
+                TransactionInput input = inputs.get(i);
+                if (i == inputIndex)
+                    writeInput(input, connectedScript, input.getSequenceNumber());
+                else
+                    writeInput(input, EMPTY_SCRIPT, none || single ? 0 : input.getSequenceNumber());
+            }
+        }
+        if (none) {
+            writeVarInt(0);
+        } else if (single) {
+            // The outputs before the one at the index of the input are "null", with a value of -1 and no script.
+            writeVarInt(inputIndex + 1);
+            for (int i = 0; i < inputIndex; i++) {
+                writeInt64(-1);
+                writeVarInt(0);
+            }
+            writeOutput(outputs.get(inputIndex));
+        } else {
+            writeVarInt(outputs.size());
+            for (TransactionOutput output : outputs)
+                writeOutput(output);
+        }
+        writeUint32(tx.getLockTime());
+        writeUint32(0x000000ff & sigHashType);
+        flush();
+        return Sha256Hash.wrap(digest.digest(digest.digest()));
+    }
+
+    private void writeInput(TransactionInput input, byte[] script, long sequence) {
+        TransactionOutPoint outpoint = input.getOutpoint();
+        reserve(Sha256Hash.LENGTH + 4);
+        // The hash is serialized in reverse byte order.
+        byte[] hash = outpoint.getHash().getBytes();
+        for (int i = 0; i < Sha256Hash.LENGTH; i++)
+            buffer[position + i] = hash[Sha256Hash.LENGTH - 1 - i];
+        position += Sha256Hash.LENGTH;
+        writeUint32(outpoint.getIndex());
+        writeScript(script);
+        writeUint32(sequence);
+    }
+
+    private void writeOutput(TransactionOutput output) {
+        writeInt64(output.getValue().value);
+        writeScript(output.getScriptBytes());
+    }
+
+    private void writeScript(byte[] script) {
+        writeVarInt(script.length);
+        if (script.length <= BUFFER_SIZE - position) {
+            System.arraycopy(script, 0, buffer, position, script.length);
+            position += script.length;
+        } else {
+            flush();
+            digest.update(script);
+        }
+    }
+
+    private void writeUint32(long value) {
+        reserve(4);
+        Utils.uint32ToByteArrayLE(value, buffer, position);
+        position += 4;
+    }
+
+    private void writeInt64(long value) {
+        reserve(8);
+        Utils.int64ToByteArrayLE(value, buffer, position);
+        position += 8;
+    }
+
+    private void writeVarInt(long value) {
+        reserve(9);
+        position += VarInt.encode(value, buffer, position);
+    }
+
+    // Makes room for the given number of bytes in the buffer.
+    private void reserve(int length) {
+        if (BUFFER_SIZE - position < length)
+            flush();
+    }
+
+    private void flush() {
+        digest.update(buffer, 0, position);
+        position = 0;
+    }
+}
@@ -105,6 +105,28 @@ public abstract class ListMessage extends Message {
         }
     }
 
+    @Override
+    protected boolean serializesToArray() {
+        return getClass() == InventoryMessage.class || getClass() == GetDataMessage.class
+                || getClass() == NotFoundMessage.class;
+    }
+
+    @Override
+    protected int calculateSerializedSize() {
+        return VarInt.sizeOf(items.size()) + items.size() * InventoryItem.MESSAGE_LENGTH;
+    }
+
+    @Override
+    protected int tdcoinSerializeToArray(byte[] buf, int offset) {
+        offset += VarInt.encode(items.size(), buf, offset);
+        for (InventoryItem i : items) {
+            Utils.uint32ToByteArrayLE(i.type.code, buf, offset);
+            i.hash.getReversedBytes(buf, offset + 4);
+            offset += InventoryItem.MESSAGE_LENGTH;
+        }
+        return offset;
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
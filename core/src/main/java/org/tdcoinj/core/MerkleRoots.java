@@ -0,0 +1,194 @@
+/*
+ * Copyright by the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.tdcoinj.core;
+
+import org.tdcoinj.utils.Threading;
+
+import javax.annotation.Nullable;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * <p>Calculates the Merkle root of the transaction ids of a block, and optionally the root of their witness ids, in
+ * one pass over the transactions.</p>
+ *
+ * <p>The Merkle root is based on a tree of hashes calculated from the transactions:</p>
+ *
+ * <pre>
+ *     root
+ *      / \
+ *   A      B
+ *  / \    / \
+ * t1 t2 t3 t4
+ * </pre>
+ *
+ * <p>The hashing algorithm is double SHA-256. The leaves are a hash of the serialized contents of the transaction.
+ * The interior nodes are hashes of the concatenation of the two child hashes.</p>
+ *
+ * <p>This structure allows the creation of proof that a transaction was included into a block without having to
+ * provide the full block contents. Instead, you can provide only a Merkle branch. For example to prove tx2 was
+ * in a block you can just provide tx2, the hash(tx1) and B. Now the other party has everything they need to
+ * derive the root, which can be checked against the block header.</p>
+ *
+ * <p>Note that if the number of nodes on a level is not even the last one is repeated to make it so. A tree with 5
+ * transactions would look like this:</p>
+ *
+ * <pre>
+ *         root
+ *        /     \
+ *       1        5
+ *     /   \     / \
+ *    2     3    4  4
+ *  / \   / \   / \
+ * t1 t2 t3 t4 t5 t5
+ * </pre>
+ *
+ * <p>The witness root is built the same way from the witness ids, with the one of the coinbase being zero.</p>
+ *
+ * <p>The nodes of each level are kept in one flat array and hashed with {@link Sha256Hash#hashTwice64}, so no array is
+ * allocated per node. Large levels, and the ids of many transactions, are split with
+ * {@link Threading#runSlices}.</p>
+ */
+public final class MerkleRoots {
+    // Levels and transaction lists with fewer items than this are hashed on the calling thread only.
+    private static final int MIN_SLICE = 256;
+
+    private final Sha256Hash merkleRoot;
+    @Nullable private final Sha256Hash witnessRoot;
+
+    private MerkleRoots(Sha256Hash merkleRoot, @Nullable Sha256Hash witnessRoot) {
+        this.merkleRoot = merkleRoot;
+        this.witnessRoot = witnessRoot;
+    }
+
+    /**
+     * Calculates the roots of the given transactions, using {@link Threading#THREAD_POOL} with one slice per processor
+     * for large blocks.
+     *
+     * @param transactions the transactions of a block, starting with the coinbase
+     * @param witness whether to calculate the witness root as well
+     */
+    public static MerkleRoots calculate(List<Transaction> transactions, boolean witness) {
+        return calculate(transactions, witness, Threading.THREAD_POOL, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Calculates the roots of the given transactions, splitting the work into at most the given number of slices. The
+     * ids of the transactions are calculated and cached by the transactions, possibly on other threads, so they must
+     * not be modified concurrently.
+     *
+     * @param transactions the transactions of a block, starting with the coinbase
+     * @param witness whether to calculate the witness root as well
+     * @param executor executor to run all but the first slice on
+     * @param parallelism maximum number of slices, 1 to do all the work on the calling thread
+     */
+    public static MerkleRoots calculate(final List<Transaction> transactions, final boolean witness, Executor executor,
+                                        int parallelism) {
+        final int count = transactions.size();
+        checkArgument(count > 0, "No transactions");
+        checkArgument(parallelism > 0, "Parallelism must be positive");
+        // One spare node per level, for duplicating the last node of odd levels.
+        final byte[] txIds = new byte[(count + 1) * Sha256Hash.LENGTH];
+        final byte[] wtxIds = witness ? new byte[(count + 1) * Sha256Hash.LENGTH] : null;
+        Threading.runSlices(count, MIN_SLICE, executor, parallelism, new Threading.Slice() {
+            @Override
+            public void run(int start, int end) {
+                for (int i = start; i < end; i++) {
+                    Transaction tx = transactions.get(i);
+                    putReversed(tx.getTxId(), txIds, i);
+                    // The witness id of the coinbase is defined to be zero.
+                    if (witness && i > 0)
+                        putReversed(tx.getWTxId(), wtxIds, i);
+                }
+            }
+        });
+        Sha256Hash merkleRoot = calculateRoot(txIds, count, executor, parallelism);
+        Sha256Hash witnessRoot = witness ? calculateRoot(wtxIds, count, executor, parallelism) : null;
+        return new MerkleRoots(merkleRoot, witnessRoot);
+    }
+
+    // Writes the given hash in the byte order it is hashed in to the node with the given index.
+    private static void putReversed(Sha256Hash hash, byte[] nodes, int index) {
+        byte[] bytes = hash.getBytes();
+        int offset = index * Sha256Hash.LENGTH;
+        for (int i = 0; i < Sha256Hash.LENGTH; i++)
+            nodes[offset + i] = bytes[Sha256Hash.LENGTH - 1 - i];
+    }
+
+    /**
+     * Calculates the Merkle root of the given leaves, overwriting them. The leaves are 32 byte hashes in the byte order
+     * they are hashed in, that is reversed compared to {@link Sha256Hash#getBytes()}.
+     *
+     * @param nodes the leaves, followed by room for one more node
+     * @param count the number of leaves
+     * @param executor executor to run all but the first slice of large levels on
+     * @param parallelism maximum number of slices, 1 to do all the work on the calling thread
+     * @return the root
+     */
+    public static Sha256Hash calculateRoot(byte[] nodes, int count, Executor executor, int parallelism) {
+        checkArgument(count > 0, "No leaves");
+        checkArgument(nodes.length >= (count + 1) * Sha256Hash.LENGTH, "No room for duplicating the last node");
+        byte[] spare = null;
+        while (count > 1) {
+            // If the number of nodes is odd, the last one is paired with itself.
+            if ((count & 1) != 0) {
+                System.arraycopy(nodes, (count - 1) * Sha256Hash.LENGTH, nodes, count * Sha256Hash.LENGTH,
+                        Sha256Hash.LENGTH);
+                count++;
+            }
+            final int pairs = count / 2;
+            if (pairs < 2 * MIN_SLICE || parallelism == 1) {
+                // Each pair is read before its hash is written, to a node that has already been read.
+                hashPairs(nodes, nodes, 0, pairs);
+            } else {
+                // Slices write to a separate array, as hashing in place would overwrite nodes of other slices.
+                if (spare == null)
+                    spare = new byte[(pairs + 1) * Sha256Hash.LENGTH];
+                final byte[] in = nodes, out = spare;
+                Threading.runSlices(pairs, MIN_SLICE, executor, parallelism, new Threading.Slice() {
+                    @Override
+                    public void run(int start, int end) {
+                        hashPairs(in, out, start, end);
+                    }
+                });
+                spare = nodes;
+                nodes = out;
+            }
+            count = pairs;
+        }
+        return Sha256Hash.wrapReversed(Arrays.copyOf(nodes, Sha256Hash.LENGTH));
+    }
+
+    private static void hashPairs(byte[] in, byte[] out, int start, int end) {
+        for (int i = start; i < end; i++)
+            Sha256Hash.hashTwice64(in, 2 * i * Sha256Hash.LENGTH, out, i * Sha256Hash.LENGTH);
+    }
+
+    /** Returns the Merkle root of the transaction ids. */
+    public Sha256Hash getMerkleRoot() {
+        return merkleRoot;
+    }
+
+    /** Returns the Merkle root of the witness ids, or null if it wasn't asked for. */
+    @Nullable
+    public Sha256Hash getWitnessRoot() {
+        return witnessRoot;
+    }
+}
@@ -22,6 +22,8 @@ import org.slf4j.LoggerFactory;
 
 import java.io.*;
 import java.math.BigInteger;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
 
@@ -218,12 +220,22 @@ public abstract class Message {
             return buf;
         }
 
-        // No cached array available so serialize parts by stream.
-        ByteArrayOutputStream stream = new UnsafeByteArrayOutputStream(length < 32 ? 32 : length + 32);
-        try {
-            tdcoinSerializeToStream(stream);
-        } catch (IOException e) {
-            // Cannot happen, we are serializing to a memory stream.
+        // No cached array available, so write the parts into an array of the exact size if the size is known
+        // upfront, or serialize them by stream otherwise.
+        byte[] buf;
+        int size = serializesToArray() ? calculateSerializedSize() : UNKNOWN_LENGTH;
+        if (size != UNKNOWN_LENGTH) {
+            buf = new byte[size];
+            int end = tdcoinSerializeToArray(buf, 0);
+            checkState(end == size, "%s wrote %s bytes instead of %s", getClass().getSimpleName(), end, size);
+        } else {
+            ByteArrayOutputStream stream = new UnsafeByteArrayOutputStream(length < 32 ? 32 : length + 32);
+            try {
+                tdcoinSerializeToStream(stream);
+            } catch (IOException e) {
+                // Cannot happen, we are serializing to a memory stream.
+            }
+            buf = stream.toByteArray();
         }
 
         if (serializer.isParseRetainMode()) {
@@ -235,7 +247,7 @@ public abstract class Message {
             // merkle root calls this method.  It is will frequently happen prior to serializing the block
             // which means another call to tdcoinSerialize is coming.  If we didn't recache then internal
             // serialization would occur a 2nd time and every subsequent time the message is serialized.
-            payload = stream.toByteArray();
+            payload = buf;
             cursor = cursor - offset;
             offset = 0;
             recached = true;
@@ -245,11 +257,91 @@ public abstract class Message {
         // Record length. If this Message wasn't parsed from a byte stream it won't have length field
         // set (except for static length message types).  Setting it makes future streaming more efficient
         // because we can preallocate the ByteArrayOutputStream buffer and avoid resizing.
-        byte[] buf = stream.toByteArray();
         length = buf.length;
         return buf;
     }
 
+    /**
+     * Returns the number of bytes the serialization of this message takes, as written by {@link #tdcoinSerialize()}.
+     * Messages that support it calculate the size without serializing, so that callers can size their buffers
+     * exactly.
+     */
+    public int getSerializedSize() {
+        if (payload != null && length != UNKNOWN_LENGTH)
+            return length;
+        int size = serializesToArray() ? calculateSerializedSize() : UNKNOWN_LENGTH;
+        return size != UNKNOWN_LENGTH ? size : unsafeTdcoinSerialize().length;
+    }
+
+    /**
+     * Serializes this message into the given array at the given offset. The array must have room for
+     * {@link #getSerializedSize()} bytes, or an {@link IndexOutOfBoundsException} is thrown, possibly after some bytes
+     * were written. Messages that support it write their fields straight into the array, so serializing into a reused
+     * buffer doesn't allocate.
+     *
+     * @return the number of bytes written
+     */
+    public int tdcoinSerialize(byte[] buf, int offset) {
+        if (payload != null && length != UNKNOWN_LENGTH) {
+            System.arraycopy(payload, this.offset, buf, offset, length);
+            return length;
+        }
+        if (!serializesToArray()) {
+            byte[] bytes = unsafeTdcoinSerialize();
+            System.arraycopy(bytes, 0, buf, offset, bytes.length);
+            return bytes.length;
+        }
+        return tdcoinSerializeToArray(buf, offset) - offset;
+    }
+
+    /**
+     * Serializes this message into the given buffer at its position, and advances the position past it. Nothing is
+     * written if the buffer doesn't have room for the message.
+     *
+     * @throws BufferOverflowException if there are fewer than {@link #getSerializedSize()} bytes remaining
+     */
+    public final void tdcoinSerialize(ByteBuffer buf) {
+        int size = getSerializedSize();
+        if (buf.remaining() < size)
+            throw new BufferOverflowException();
+        if (buf.hasArray() && !buf.isReadOnly()) {
+            tdcoinSerialize(buf.array(), buf.arrayOffset() + buf.position());
+            buf.position(buf.position() + size);
+        } else {
+            byte[] bytes = new byte[size];
+            tdcoinSerialize(bytes, 0);
+            buf.put(bytes);
+        }
+    }
+
+    /**
+     * Returns the size of the serialization of this message, calculated from its fields, or {@link #UNKNOWN_LENGTH}
+     * if this message doesn't support it. Messages that calculate their size also override
+     * {@link #tdcoinSerializeToArray(byte[], int)} and {@link #serializesToArray()}.
+     */
+    protected int calculateSerializedSize() {
+        return UNKNOWN_LENGTH;
+    }
+
+    /**
+     * Returns whether this message is written by {@link #tdcoinSerializeToArray(byte[], int)} and sized by
+     * {@link #calculateSerializedSize()} rather than serialized to a stream. Messages that implement both return true
+     * for their own class only, so a subclass that changes how it is serialized to a stream is still written by it.
+     */
+    protected boolean serializesToArray() {
+        return false;
+    }
+
+    /**
+     * Writes the serialization of this message into the given array at the given offset and returns the offset after
+     * the last byte written. By default the message is serialized and copied.
+     */
+    protected int tdcoinSerializeToArray(byte[] buf, int offset) {
+        byte[] bytes = unsafeTdcoinSerialize();
+        System.arraycopy(bytes, 0, buf, offset, bytes.length);
+        return offset + bytes.length;
+    }
+
     /**
      * Serialize this message to the provided OutputStream using the tdcoin wire format.
      *
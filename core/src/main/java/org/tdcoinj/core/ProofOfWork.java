@@ -0,0 +1,159 @@
+/*
+ * Copyright by the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.tdcoinj.core;
+
+import java.math.BigInteger;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * <p>Proof of work checks on the compact difficulty target of block headers, without creating {@link BigInteger}s.
+ * This is what {@link Block#verifyHeader()} uses, and {@link #checkHeader(NetworkParameters, byte[], int)} does the
+ * same check straight from a serialized header, for example while syncing headers.</p>
+ *
+ * <p>Targets and hashes are compared as 256 bit unsigned integers made of four 64 bit words. A compact target
+ * decodes to a mantissa of at most 23 bits shifted left by a multiple of 8, see
+ * {@link Utils#decodeCompactBits(long)}, so each word of it is computed from the mantissa and shift directly.</p>
+ */
+public final class ProofOfWork {
+    // The digest output of checkHeader, one per thread.
+    private static final ThreadLocal<byte[]> hashBuffers = new ThreadLocal<byte[]>() {
+        @Override
+        protected byte[] initialValue() {
+            return new byte[Sha256Hash.LENGTH];
+        }
+    };
+
+    // The words of the last maximum target used. Most applications only ever use one network.
+    private static volatile MaxTarget lastMaxTarget;
+
+    private static final class MaxTarget {
+        final BigInteger value;
+        final long[] words;
+
+        MaxTarget(BigInteger value) {
+            checkArgument(value.signum() > 0 && value.bitLength() <= 256, "Invalid maximum target");
+            this.value = value;
+            this.words = new long[4];
+            for (int i = 0; i < 4; i++)
+                words[i] = value.shiftRight(64 * i).longValue();
+        }
+    }
+
+    private ProofOfWork() {
+    }
+
+    /**
+     * Returns whether the given compact target is positive and not above the maximum target of the given network.
+     * This is the condition under which {@link Block#getDifficultyTargetAsInteger()} doesn't throw.
+     */
+    public static boolean isValidTarget(NetworkParameters params, long compactTarget) {
+        long mantissa = mantissa(compactTarget);
+        int shift = shift(compactTarget);
+        if (mantissa <= 0 || shift + 64 - Long.numberOfLeadingZeros(mantissa) > 256)
+            return false;
+        long[] maxTarget = maxTargetWords(params.getMaxTarget());
+        for (int word = 3; word >= 0; word--) {
+            int cmp = compareUnsigned(targetWord(mantissa, shift, word), maxTarget[word]);
+            if (cmp != 0)
+                return cmp < 0;
+        }
+        return true;
+    }
+
+    /**
+     * Returns whether the given block hash, as returned by {@link Block#getHash()}, is not above the given compact
+     * target. The target must be valid, see {@link #isValidTarget(NetworkParameters, long)}.
+     */
+    public static boolean hashMeetsTarget(long compactTarget, Sha256Hash hash) {
+        // The bytes of a Sha256Hash are the big endian form of the hash as an integer.
+        return hashMeetsTarget(compactTarget, hash.getBytes(), 0, true);
+    }
+
+    /**
+     * Checks the proof of work of the serialized 80 byte header at the given offset: hashes it and compares the hash
+     * against the difficulty target of the header, which must be valid for the given network. Nothing is allocated.
+     */
+    public static boolean checkHeader(NetworkParameters params, byte[] buf, int offset) {
+        checkArgument(offset >= 0 && buf.length - offset >= Block.HEADER_SIZE, "Header out of bounds");
+        long compactTarget = Utils.readUint32(buf, offset + 72);
+        if (!isValidTarget(params, compactTarget))
+            return false;
+        byte[] hash = hashBuffers.get();
+        Sha256Hash.hashTwice(buf, offset, Block.HEADER_SIZE, hash, 0);
+        // The digest output is the little endian form of the hash as an integer.
+        return hashMeetsTarget(compactTarget, hash, 0, false);
+    }
+
+    private static boolean hashMeetsTarget(long compactTarget, byte[] hash, int offset, boolean bigEndian) {
+        long mantissa = mantissa(compactTarget);
+        int shift = shift(compactTarget);
+        for (int word = 3; word >= 0; word--) {
+            long hashWord = bigEndian ? readInt64BE(hash, offset + 8 * (3 - word))
+                    : Utils.readInt64(hash, offset + 8 * word);
+            int cmp = compareUnsigned(hashWord, targetWord(mantissa, shift, word));
+            if (cmp != 0)
+                return cmp < 0;
+        }
+        return true;
+    }
+
+    // The mantissa of a compact target, after dropping the bytes beyond its size. Negative if the sign bit is set.
+    private static long mantissa(long compactTarget) {
+        if ((compactTarget & 0x00800000L) != 0)
+            return -1;
+        long mantissa = compactTarget & 0x007fffffL;
+        int size = (int) (compactTarget >>> 24) & 0xff;
+        return size < 3 ? mantissa >>> 8 * (3 - size) : mantissa;
+    }
+
+    // The number of bits the mantissa of a compact target is shifted left by.
+    private static int shift(long compactTarget) {
+        int size = (int) (compactTarget >>> 24) & 0xff;
+        return size < 3 ? 0 : 8 * (size - 3);
+    }
+
+    // Bits 64 * word to 64 * word + 63 of mantissa << shift.
+    private static long targetWord(long mantissa, int shift, int word) {
+        int wordShift = shift >>> 6, bitShift = shift & 63;
+        if (word == wordShift)
+            return mantissa << bitShift;
+        if (word == wordShift + 1 && bitShift != 0)
+            return mantissa >>> (64 - bitShift);
+        return 0;
+    }
+
+    private static long[] maxTargetWords(BigInteger maxTarget) {
+        MaxTarget last = lastMaxTarget;
+        if (last == null || !last.value.equals(maxTarget))
+            lastMaxTarget = last = new MaxTarget(maxTarget);
+        return last.words;
+    }
+
+    private static int compareUnsigned(long a, long b) {
+        a += Long.MIN_VALUE;
+        b += Long.MIN_VALUE;
+        return a < b ? -1 : (a == b ? 0 : 1);
+    }
+
+    private static long readInt64BE(byte[] bytes, int offset) {
+        long result = 0;
+        for (int i = 0; i < 8; i++)
+            result = (result << 8) | (bytes[offset + i] & 0xffL);
+        return result;
+    }
+}
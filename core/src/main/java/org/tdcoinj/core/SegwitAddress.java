@@ -19,7 +19,7 @@ package org.tdcoinj.core;
 import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkState;
 
-import java.io.ByteArrayOutputStream;
+import java.util.Locale;
 
 import javax.annotation.Nullable;
 
@@ -48,6 +48,9 @@ public class SegwitAddress extends Address {
     public static final int WITNESS_PROGRAM_MIN_LENGTH = 2;
     public static final int WITNESS_PROGRAM_MAX_LENGTH = 40;
 
+    // The textual form, created when first asked for.
+    private transient String bech32;
+
     /**
      * Private constructor. Use {@link #fromBech32(NetworkParameters, String)},
      * {@link #fromHash(NetworkParameters, byte[])} or {@link #fromKey(NetworkParameters, ECKey)}.
@@ -68,10 +71,9 @@ public class SegwitAddress extends Address {
      * Helper for the above constructor.
      */
     private static byte[] encode(int witnessVersion, byte[] witnessProgram) throws AddressFormatException {
-        byte[] convertedProgram = convertBits(witnessProgram, 0, witnessProgram.length, 8, 5, true);
-        byte[] bytes = new byte[1 + convertedProgram.length];
+        byte[] bytes = new byte[1 + convertedLength(witnessProgram.length, 8, 5, true)];
         bytes[0] = (byte) (witnessVersion & 0xff);
-        System.arraycopy(convertedProgram, 0, bytes, 1, convertedProgram.length);
+        convertBits(witnessProgram, 0, witnessProgram.length, 8, 5, true, bytes, 1);
         return bytes;
     }
 
@@ -212,7 +214,40 @@ public class SegwitAddress extends Address {
      * @return textual form encoded in bech32
      */
     public String toBech32() {
-        return Bech32.encode(params.getSegwitAddressHrp(), bytes);
+        // Racy but safe: strings are immutable, so at worst the encoding is done more than once.
+        String result = bech32;
+        if (result == null)
+            bech32 = result = Bech32.encode(params.getSegwitAddressHrp(), bytes);
+        return result;
+    }
+
+    /**
+     * Returns the textual forms of the version 0 addresses for the given witness programs, reusing the buffers for all
+     * of them and without creating address objects. The programs all have the same length and follow each other in
+     * one array, like the public key hashes of {@link org.tdcoinj.crypto.HDKeyDerivation.ChildPublicKeys}.
+     *
+     * @param params
+     *            network the addresses are valid for
+     * @param witnessPrograms
+     *            the witness programs, one after the other
+     * @param programLength
+     *            the length of each program, 20 for P2WPKH or 32 for P2WSH
+     * @return textual forms encoded in bech32, in the same order as the programs
+     */
+    public static String[] toBech32(NetworkParameters params, byte[] witnessPrograms, int programLength) {
+        checkArgument(programLength == WITNESS_PROGRAM_LENGTH_PKH || programLength == WITNESS_PROGRAM_LENGTH_SH,
+                "Invalid length for address version 0: %s", programLength);
+        checkArgument(witnessPrograms.length % programLength == 0, "Not a whole number of programs");
+        String hrp = params.getSegwitAddressHrp().toLowerCase(Locale.ROOT);
+        String[] result = new String[witnessPrograms.length / programLength];
+        byte[] values = new byte[1 + convertedLength(programLength, 8, 5, true)];
+        char[] encoded = new char[hrp.length() + 1 + values.length + 6];
+        for (int i = 0; i < result.length; i++) {
+            // values[0] is witness version 0.
+            convertBits(witnessPrograms, i * programLength, programLength, 8, 5, true, values, 1);
+            result[i] = new String(encoded, 0, Bech32.encode(hrp, values, 0, values.length, encoded, 0));
+        }
+        return result;
     }
 
     /**
@@ -220,9 +255,23 @@ public class SegwitAddress extends Address {
      */
     private static byte[] convertBits(final byte[] in, final int inStart, final int inLen, final int fromBits,
             final int toBits, final boolean pad) throws AddressFormatException {
+        byte[] out = new byte[convertedLength(inLen, fromBits, toBits, pad)];
+        convertBits(in, inStart, inLen, fromBits, toBits, pad, out, 0);
+        return out;
+    }
+
+    /** The number of groups {@link #convertBits} creates from the given number of inputs. */
+    private static int convertedLength(int inLen, int fromBits, int toBits, boolean pad) {
+        return pad ? (inLen * fromBits + toBits - 1) / toBits : inLen * fromBits / toBits;
+    }
+
+    /**
+     * Helper for re-arranging bits into groups, into the given array.
+     */
+    private static void convertBits(final byte[] in, final int inStart, final int inLen, final int fromBits,
+            final int toBits, final boolean pad, final byte[] out, int outPos) throws AddressFormatException {
         int acc = 0;
         int bits = 0;
-        ByteArrayOutputStream out = new ByteArrayOutputStream(64);
         final int maxv = (1 << toBits) - 1;
         final int max_acc = (1 << (fromBits + toBits - 1)) - 1;
         for (int i = 0; i < inLen; i++) {
@@ -235,15 +284,14 @@ public class SegwitAddress extends Address {
             bits += fromBits;
             while (bits >= toBits) {
                 bits -= toBits;
-                out.write((acc >>> bits) & maxv);
+                out[outPos++] = (byte) ((acc >>> bits) & maxv);
             }
         }
         if (pad) {
             if (bits > 0)
-                out.write((acc << (toBits - bits)) & maxv);
+                out[outPos] = (byte) ((acc << (toBits - bits)) & maxv);
         } else if (bits >= fromBits || ((acc << (toBits - bits)) & maxv) != 0) {
             throw new AddressFormatException("Could not convert bits, invalid padding");
         }
-        return out.toByteArray();
     }
 }
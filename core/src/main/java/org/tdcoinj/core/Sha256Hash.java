@@ -25,6 +25,8 @@ import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.Serializable;
 import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.security.DigestException;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.Arrays;
@@ -39,6 +41,14 @@ public class Sha256Hash implements Serializable, Comparable<Sha256Hash> {
     public static final int LENGTH = 32; // bytes
     public static final Sha256Hash ZERO_HASH = wrap(new byte[LENGTH]);
 
+    // Digests reused by the static hash methods, one per thread. They never leave the method that uses them.
+    private static final ThreadLocal<MessageDigest> digests = new ThreadLocal<MessageDigest>() {
+        @Override
+        protected MessageDigest initialValue() {
+            return newDigest();
+        }
+    };
+
     private final byte[] bytes;
 
     private Sha256Hash(byte[] rawHashBytes) {
@@ -145,6 +155,23 @@ public class Sha256Hash implements Serializable, Comparable<Sha256Hash> {
         }
     }
 
+    // Returns the digest of the current thread, reset in case an earlier use was interrupted by an exception.
+    private static MessageDigest digest() {
+        MessageDigest digest = digests.get();
+        digest.reset();
+        return digest;
+    }
+
+    // Finishes the given digest into the given array, which is what digest(byte[], int, int) does without the
+    // checked exception that can only happen for a too small output range.
+    private static void finish(MessageDigest digest, byte[] output, int outputOffset) {
+        try {
+            digest.digest(output, outputOffset, LENGTH);
+        } catch (DigestException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+
     /**
      * Calculates the SHA-256 hash of the given bytes.
      *
@@ -164,11 +191,50 @@ public class Sha256Hash implements Serializable, Comparable<Sha256Hash> {
      * @return the hash (in big-endian order)
      */
     public static byte[] hash(byte[] input, int offset, int length) {
-        MessageDigest digest = newDigest();
+        MessageDigest digest = digest();
+        digest.update(input, offset, length);
+        return digest.digest();
+    }
+
+    /**
+     * Calculates the SHA-256 hash of the given byte range into the given array, without allocating.
+     *
+     * @param input the array containing the bytes to hash
+     * @param offset the offset within the array of the bytes to hash
+     * @param length the number of bytes to hash
+     * @param output the array to write the hash (in big-endian order) to
+     * @param outputOffset the offset within the output array to write the 32 bytes of the hash to
+     */
+    public static void hash(byte[] input, int offset, int length, byte[] output, int outputOffset) {
+        MessageDigest digest = digest();
         digest.update(input, offset, length);
+        finish(digest, output, outputOffset);
+    }
+
+    /**
+     * Calculates the SHA-256 hash of the remaining bytes of the given buffer. The position of the buffer is not
+     * changed.
+     *
+     * @param input the buffer containing the bytes to hash
+     * @return the hash (in big-endian order)
+     */
+    public static byte[] hash(ByteBuffer input) {
+        MessageDigest digest = digest();
+        update(digest, input);
         return digest.digest();
     }
 
+    // Feeds the remaining bytes of the given buffer to the digest, leaving the position of the buffer unchanged.
+    private static void update(MessageDigest digest, ByteBuffer input) {
+        if (input.hasArray()) {
+            digest.update(input.array(), input.arrayOffset() + input.position(), input.remaining());
+        } else {
+            int position = input.position();
+            digest.update(input);
+            input.position(position);
+        }
+    }
+
     /**
      * Calculates the SHA-256 hash of the given bytes,
      * and then hashes the resulting hash again.
@@ -185,7 +251,7 @@ public class Sha256Hash implements Serializable, Comparable<Sha256Hash> {
      * chunks and then passing the result to {@link #hashTwice(byte[])}.
      */
     public static byte[] hashTwice(byte[] input1, byte[] input2) {
-        MessageDigest digest = newDigest();
+        MessageDigest digest = digest();
         digest.update(input1);
         digest.update(input2);
         return digest.digest(digest.digest());
@@ -201,18 +267,63 @@ public class Sha256Hash implements Serializable, Comparable<Sha256Hash> {
      * @return the double-hash (in big-endian order)
      */
     public static byte[] hashTwice(byte[] input, int offset, int length) {
-        MessageDigest digest = newDigest();
+        MessageDigest digest = digest();
         digest.update(input, offset, length);
         return digest.digest(digest.digest());
     }
 
+    /**
+     * Calculates the SHA-256 hash of the given byte range, and then hashes the resulting hash again into the given
+     * array, without allocating. The output range may overlap the input range.
+     *
+     * @param input the array containing the bytes to hash
+     * @param offset the offset within the array of the bytes to hash
+     * @param length the number of bytes to hash
+     * @param output the array to write the double-hash (in big-endian order) to
+     * @param outputOffset the offset within the output array to write the 32 bytes of the double-hash to
+     */
+    public static void hashTwice(byte[] input, int offset, int length, byte[] output, int outputOffset) {
+        MessageDigest digest = digest();
+        digest.update(input, offset, length);
+        finish(digest, output, outputOffset);
+        digest.update(output, outputOffset, LENGTH);
+        finish(digest, output, outputOffset);
+    }
+
+    /**
+     * Calculates the double-hash of the 64 bytes at the given offset, which is how the nodes of a Merkle tree are
+     * hashed from the concatenation of their two children, into the given array without allocating. The output range
+     * may overlap the input range, so a level of a tree can be hashed in place.
+     *
+     * @param input the array containing the two 32 byte children
+     * @param offset the offset within the array of the first child
+     * @param output the array to write the double-hash (in big-endian order) to
+     * @param outputOffset the offset within the output array to write the 32 bytes of the double-hash to
+     */
+    public static void hashTwice64(byte[] input, int offset, byte[] output, int outputOffset) {
+        hashTwice(input, offset, 2 * LENGTH, output, outputOffset);
+    }
+
+    /**
+     * Calculates the SHA-256 hash of the remaining bytes of the given buffer, and then hashes the resulting hash
+     * again. The position of the buffer is not changed.
+     *
+     * @param input the buffer containing the bytes to hash
+     * @return the double-hash (in big-endian order)
+     */
+    public static byte[] hashTwice(ByteBuffer input) {
+        MessageDigest digest = digest();
+        update(digest, input);
+        return digest.digest(digest.digest());
+    }
+
     /**
      * Calculates the hash of hash on the given byte ranges. This is equivalent to
      * concatenating the two ranges and then passing the result to {@link #hashTwice(byte[])}.
      */
     public static byte[] hashTwice(byte[] input1, int offset1, int length1,
                                    byte[] input2, int offset2, int length2) {
-        MessageDigest digest = newDigest();
+        MessageDigest digest = digest();
         digest.update(input1, offset1, length1);
         digest.update(input2, offset2, length2);
         return digest.digest(digest.digest());
@@ -262,6 +373,14 @@ public class Sha256Hash implements Serializable, Comparable<Sha256Hash> {
         return Utils.reverseBytes(bytes);
     }
 
+    /**
+     * Writes the bytes in reverse order, as hashes are serialized on the wire, to the given array without allocating.
+     */
+    public void getReversedBytes(byte[] output, int outputOffset) {
+        for (int i = 0; i < LENGTH; i++)
+            output[outputOffset + i] = bytes[LENGTH - 1 - i];
+    }
+
     @Override
     public int compareTo(final Sha256Hash other) {
         for (int i = LENGTH - 1; i >= 0; i--) {
@@ -0,0 +1,355 @@
+/*
+ * Copyright by the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.tdcoinj.core;
+
+import java.security.SecureRandom;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * <p>A map keyed by {@link Sha256Hash}es that keeps the 32 bytes of each key inline in a {@code long} array instead of
+ * holding on to the key objects. Entries are kept in insertion order in that array and a parallel array of values,
+ * and found through an open addressed table of entry numbers, so an entry takes about 50 bytes of the map's own, less
+ * than a {@link java.util.HashMap} entry with its key, and a lookup compares the hashes as four longs without
+ * following any pointers. The keys are placed by their last eight bytes mixed with a random seed of each map, so where
+ * they land can't be predicted from the outside.</p>
+ *
+ * <p>Colliding keys are probed one after the other, so the map is meant for keys that are the hashes of transactions
+ * and blocks, which can't be chosen at will. Hashes that come from peers as they are, like those announced in inv
+ * messages, can share their last eight bytes at no cost and belong in a {@link java.util.HashMap}.</p>
+ *
+ * <p>Like a {@link java.util.LinkedHashMap} in insertion order, it is iterated in the order the keys were put in, and
+ * {@link #removeEldestEntry(Map.Entry)} can be overridden to bound its size. Iterating creates the key objects as they
+ * are asked for, so iterating over the values is the cheap way. Null keys are not allowed. Like the other maps of the
+ * JDK this class isn't thread safe.</p>
+ */
+public class Sha256HashMap<V> extends AbstractMap<Sha256Hash, V> {
+    private static final int MIN_CAPACITY = 8;
+    private static final int LONGS_PER_KEY = Sha256Hash.LENGTH / 8;
+    // Stored in place of a null value, so that null can mark an unused entry.
+    private static final Object NULL_VALUE = new Object();
+    // The value of a removed entry, which stays where it is until the arrays are compacted.
+    private static final Object REMOVED = new Object();
+    private static final SecureRandom seeds = new SecureRandom();
+
+    // The entries in insertion order: the key of entry i is in keys[4 * i] to keys[4 * i + 3], its value in values[i].
+    private long[] keys;
+    private Object[] values;
+    // Entry numbers plus one, or 0 for a free slot. Twice as long as values, so it is never more than half full.
+    private int[] table;
+    // Entries used so far, including removed ones.
+    private int count;
+    // There are no live entries before this one.
+    private int head;
+    private int size;
+    private int modCount;
+    // Mixed into where the keys are placed.
+    private final long seed = seeds.nextLong();
+
+    public Sha256HashMap() {
+        this(0);
+    }
+
+    /** Creates a map that can hold the given number of entries without growing. */
+    public Sha256HashMap(int expectedSize) {
+        checkArgument(expectedSize >= 0);
+        allocate(capacityFor(expectedSize));
+    }
+
+    public Sha256HashMap(Map<Sha256Hash, ? extends V> map) {
+        this(map.size());
+        putAll(map);
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return key instanceof Sha256Hash && find(((Sha256Hash) key).getBytes()) >= 0;
+    }
+
+    @Override
+    public V get(Object key) {
+        if (!(key instanceof Sha256Hash))
+            return null;
+        int entry = find(((Sha256Hash) key).getBytes());
+        return entry >= 0 ? valueAt(entry) : null;
+    }
+
+    @Override
+    public V put(Sha256Hash key, V value) {
+        byte[] bytes = key.getBytes();
+        int entry = find(bytes);
+        if (entry >= 0) {
+            V old = valueAt(entry);
+            values[entry] = mask(value);
+            return old;
+        }
+        if (count == values.length)
+            resize();
+        entry = count++;
+        for (int i = 0; i < LONGS_PER_KEY; i++)
+            keys[entry * LONGS_PER_KEY + i] = Utils.readInt64(bytes, i * 8);
+        values[entry] = mask(value);
+        insert(entry);
+        size++;
+        modCount++;
+        if (removeEldestEntry(new IndexedEntry(head)))
+            removeAt(head);
+        return null;
+    }
+
+    @Override
+    public V remove(Object key) {
+        if (!(key instanceof Sha256Hash))
+            return null;
+        int entry = find(((Sha256Hash) key).getBytes());
+        if (entry < 0)
+            return null;
+        V value = valueAt(entry);
+        removeAt(entry);
+        return value;
+    }
+
+    @Override
+    public void clear() {
+        Arrays.fill(table, 0);
+        Arrays.fill(values, 0, count, null);
+        count = 0;
+        head = 0;
+        size = 0;
+        modCount++;
+    }
+
+    @Override
+    public Set<Entry<Sha256Hash, V>> entrySet() {
+        return new AbstractSet<Entry<Sha256Hash, V>>() {
+            @Override
+            public Iterator<Entry<Sha256Hash, V>> iterator() {
+                return new EntryIterator();
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+
+            @Override
+            public void clear() {
+                Sha256HashMap.this.clear();
+            }
+        };
+    }
+
+    /**
+     * Called after a new key was put in, like {@link java.util.LinkedHashMap#removeEldestEntry(Map.Entry)}: returns
+     * whether the entry that was put in first should be removed. Doesn't remove anything unless overridden.
+     */
+    protected boolean removeEldestEntry(Map.Entry<Sha256Hash, V> eldest) {
+        return false;
+    }
+
+    // Returns the entry with the key, or -1. The last long tells the keys apart almost always, so the others are only
+    // compared when it matches.
+    private int find(byte[] bytes) {
+        long k3 = Utils.readInt64(bytes, 24);
+        int mask = table.length - 1;
+        for (int slot = slot(k3 ^ seed, mask); ; slot = (slot + 1) & mask) {
+            int entry = table[slot] - 1;
+            if (entry < 0)
+                return -1;
+            int offset = entry * LONGS_PER_KEY;
+            if (keys[offset + 3] == k3 && keys[offset] == Utils.readInt64(bytes, 0)
+                    && keys[offset + 1] == Utils.readInt64(bytes, 8) && keys[offset + 2] == Utils.readInt64(bytes, 16)
+                    && values[entry] != REMOVED)
+                return entry;
+        }
+    }
+
+    private void insert(int entry) {
+        int mask = table.length - 1;
+        int slot = slot(keys[entry * LONGS_PER_KEY + 3] ^ seed, mask);
+        while (table[slot] != 0)
+            slot = (slot + 1) & mask;
+        table[slot] = entry + 1;
+    }
+
+    // The entry keeps its slot in the table, so that lookups of the keys after it still probe past it.
+    private void removeAt(int entry) {
+        values[entry] = REMOVED;
+        size--;
+        modCount++;
+        if (entry == head)
+            while (head < count && values[head] == REMOVED)
+                head++;
+    }
+
+    private Sha256Hash keyAt(int entry) {
+        byte[] bytes = new byte[Sha256Hash.LENGTH];
+        for (int i = 0; i < LONGS_PER_KEY; i++)
+            Utils.int64ToByteArrayLE(keys[entry * LONGS_PER_KEY + i], bytes, i * 8);
+        return Sha256Hash.wrap(bytes);
+    }
+
+    @SuppressWarnings("unchecked")
+    private V valueAt(int entry) {
+        Object value = values[entry];
+        return value == NULL_VALUE ? null : (V) value;
+    }
+
+    private static Object mask(Object value) {
+        return value == null ? NULL_VALUE : value;
+    }
+
+    // Multiplying spreads the seeded bits over the high half, which the slot is taken from.
+    private static int slot(long bits, int mask) {
+        return (int) ((bits * 0x9E3779B97F4A7C15L) >>> 32) & mask;
+    }
+
+    // A power of two with room for half as many entries again, so that the map doesn't need to be resized right away.
+    private static int capacityFor(int expectedSize) {
+        checkArgument(expectedSize <= 1 << 28, "Too many entries: %s", expectedSize);
+        int capacity = MIN_CAPACITY;
+        while (capacity < expectedSize + expectedSize / 2)
+            capacity <<= 1;
+        return capacity;
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity * LONGS_PER_KEY];
+        values = new Object[capacity];
+        table = new int[capacity * 2];
+    }
+
+    // Moves the live entries to the front of arrays that have room for more, or just compacts them in arrays of the
+    // same size if many were removed.
+    private void resize() {
+        long[] oldKeys = keys;
+        Object[] oldValues = values;
+        int oldCount = count;
+        allocate(capacityFor(size + 1));
+        count = 0;
+        for (int entry = head; entry < oldCount; entry++) {
+            if (oldValues[entry] == REMOVED)
+                continue;
+            System.arraycopy(oldKeys, entry * LONGS_PER_KEY, keys, count * LONGS_PER_KEY, LONGS_PER_KEY);
+            values[count] = oldValues[entry];
+            insert(count++);
+        }
+        head = 0;
+        modCount++;
+    }
+
+    private class EntryIterator implements Iterator<Entry<Sha256Hash, V>> {
+        private int next = head;
+        private int last = -1;
+        private int expectedModCount = modCount;
+
+        private void skipRemoved() {
+            while (next < count && values[next] == REMOVED)
+                next++;
+        }
+
+        @Override
+        public boolean hasNext() {
+            skipRemoved();
+            return next < count;
+        }
+
+        @Override
+        public Entry<Sha256Hash, V> next() {
+            if (modCount != expectedModCount)
+                throw new ConcurrentModificationException();
+            if (!hasNext())
+                throw new NoSuchElementException();
+            last = next++;
+            return new IndexedEntry(last);
+        }
+
+        @Override
+        public void remove() {
+            checkState(last >= 0);
+            if (modCount != expectedModCount)
+                throw new ConcurrentModificationException();
+            // Removing leaves the other entries where they are, so the iteration carries on unaffected.
+            removeAt(last);
+            last = -1;
+            expectedModCount = modCount;
+        }
+    }
+
+    private class IndexedEntry implements Entry<Sha256Hash, V> {
+        private final int entry;
+        private Sha256Hash key;
+
+        IndexedEntry(int entry) {
+            this.entry = entry;
+        }
+
+        @Override
+        public Sha256Hash getKey() {
+            if (key == null)
+                key = keyAt(entry);
+            return key;
+        }
+
+        @Override
+        public V getValue() {
+            return valueAt(entry);
+        }
+
+        @Override
+        public V setValue(V value) {
+            V old = valueAt(entry);
+            values[entry] = mask(value);
+            return old;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Entry))
+                return false;
+            Entry<?, ?> other = (Entry<?, ?>) o;
+            V value = getValue();
+            return getKey().equals(other.getKey())
+                    && (value == null ? other.getValue() == null : value.equals(other.getValue()));
+        }
+
+        @Override
+        public int hashCode() {
+            V value = getValue();
+            return getKey().hashCode() ^ (value == null ? 0 : value.hashCode());
+        }
+
+        @Override
+        public String toString() {
+            return getKey() + "=" + getValue();
+        }
+    }
+}
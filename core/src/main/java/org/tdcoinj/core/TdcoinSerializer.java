@@ -25,10 +25,12 @@ import java.io.OutputStream;
 import java.nio.BufferUnderflowException;
 import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 
 import static org.tdcoinj.core.Utils.*;
+import static com.google.common.base.Preconditions.checkState;
 
 /**
  * <p>Methods to serialize and de-serialize messages to the Tdcoin network format as defined in
@@ -45,6 +47,17 @@ import static org.tdcoinj.core.Utils.*;
 public class TdcoinSerializer extends MessageSerializer {
     private static final Logger log = LoggerFactory.getLogger(TdcoinSerializer.class);
     private static final int COMMAND_LEN = 12;
+    // magic, command, length, checksum
+    private static final int PACKET_HEADER_LENGTH = 4 + COMMAND_LEN + 4 + 4;
+    // Larger messages, which are mostly blocks, get a buffer of their own rather than one kept by the thread.
+    private static final int MAX_REUSED_BUFFER_LENGTH = 256 * 1024;
+
+    private static final ThreadLocal<byte[]> reusedBuffers = new ThreadLocal<byte[]>() {
+        @Override
+        protected byte[] initialValue() {
+            return new byte[1024];
+        }
+    };
 
     private final NetworkParameters params;
     private final boolean parseRetain;
@@ -91,19 +104,8 @@ public class TdcoinSerializer extends MessageSerializer {
      */
     @Override
     public void serialize(String name, byte[] message, OutputStream out) throws IOException {
-        byte[] header = new byte[4 + COMMAND_LEN + 4 + 4 /* checksum */];
-        uint32ToByteArrayBE(params.getPacketMagic(), header, 0);
-
-        // The header array is initialized to zero by Java so we don't have to worry about
-        // NULL terminating the string here.
-        for (int i = 0; i < name.length() && i < COMMAND_LEN; i++) {
-            header[4 + i] = (byte) (name.codePointAt(i) & 0xFF);
-        }
-
-        Utils.uint32ToByteArrayLE(message.length, header, 4 + COMMAND_LEN);
-
-        byte[] hash = Sha256Hash.hashTwice(message);
-        System.arraycopy(hash, 0, header, 4 + COMMAND_LEN + 4, 4);
+        byte[] header = new byte[PACKET_HEADER_LENGTH];
+        writeHeader(name, message, 0, message.length, header);
         out.write(header);
         out.write(message);
 
@@ -112,7 +114,8 @@ public class TdcoinSerializer extends MessageSerializer {
     }
 
     /**
-     * Writes message to to the output stream.
+     * Writes message to to the output stream. The header and the payload are written with a single call, from a
+     * buffer that is reused by the calling thread unless the message is large.
      */
     @Override
     public void serialize(Message message, OutputStream out) throws IOException {
@@ -120,7 +123,36 @@ public class TdcoinSerializer extends MessageSerializer {
         if (name == null) {
             throw new Error("TdcoinSerializer doesn't currently know how to serialize " + message.getClass());
         }
-        serialize(name, message.tdcoinSerialize(), out);
+        int size = message.getSerializedSize();
+        int packetLength = PACKET_HEADER_LENGTH + size;
+        byte[] buf = packetLength <= MAX_REUSED_BUFFER_LENGTH ? reusedBuffer(packetLength) : new byte[packetLength];
+        int written = message.tdcoinSerialize(buf, PACKET_HEADER_LENGTH);
+        checkState(written == size, "%s wrote %s bytes instead of %s", name, written, size);
+        writeHeader(name, buf, PACKET_HEADER_LENGTH, size, buf);
+        out.write(buf, 0, packetLength);
+
+        if (log.isDebugEnabled())
+            log.debug("Sending {} message: {}", name, HEX.encode(Arrays.copyOf(buf, packetLength)));
+    }
+
+    // Writes the packet header for the given payload range into the start of the given header array.
+    private void writeHeader(String name, byte[] payload, int offset, int length, byte[] header) {
+        uint32ToByteArrayBE(params.getPacketMagic(), header, 0);
+        // The command is NULL padded.
+        for (int i = 0; i < COMMAND_LEN; i++)
+            header[4 + i] = i < name.length() ? (byte) (name.codePointAt(i) & 0xFF) : 0;
+        Utils.uint32ToByteArrayLE(length, header, 4 + COMMAND_LEN);
+        byte[] hash = Sha256Hash.hashTwice(payload, offset, length);
+        System.arraycopy(hash, 0, header, 4 + COMMAND_LEN + 4, 4);
+    }
+
+    private static byte[] reusedBuffer(int length) {
+        byte[] buf = reusedBuffers.get();
+        if (buf.length < length) {
+            buf = new byte[Math.min(Math.max(length, 2 * buf.length), MAX_REUSED_BUFFER_LENGTH)];
+            reusedBuffers.set(buf);
+        }
+        return buf;
     }
 
     /**
@@ -40,6 +40,7 @@ import org.bouncycastle.crypto.params.KeyParameter;
 
 import javax.annotation.Nullable;
 import java.io.*;
+import java.security.MessageDigest;
 import java.util.*;
 
 import static org.tdcoinj.core.Utils.*;
@@ -134,6 +135,17 @@ public class Transaction extends ChildMessage {
     // These are in memory helpers only. They contain the transaction hashes without and with witness.
     private Sha256Hash cachedTxId;
     private Sha256Hash cachedWTxId;
+    // The bytes parse() read and where the outputs end in them if they have witnesses, -1 otherwise, kept until the
+    // constructor hashes the ids from them.
+    @Nullable private byte[] parsedPayload;
+    private int parsedOutputsEnd;
+
+    private static final ThreadLocal<MessageDigest> txIdDigests = new ThreadLocal<MessageDigest>() {
+        @Override
+        protected MessageDigest initialValue() {
+            return Sha256Hash.newDigest();
+        }
+    };
 
     // Data about how confirmed this tx is. Serialized, may be null.
     @Nullable private TransactionConfidence confidence;
@@ -207,6 +219,7 @@ public class Transaction extends ChildMessage {
      */
     public Transaction(NetworkParameters params, byte[] payloadBytes) throws ProtocolException {
         super(params, payloadBytes, 0);
+        hashParsedIds(null);
     }
 
     /**
@@ -215,6 +228,7 @@ public class Transaction extends ChildMessage {
     public Transaction(NetworkParameters params, byte[] payload, int offset) throws ProtocolException {
         super(params, payload, offset);
         // inputs/outputs will be created in parse()
+        hashParsedIds(null);
     }
 
     /**
@@ -234,11 +248,7 @@ public class Transaction extends ChildMessage {
     public Transaction(NetworkParameters params, byte[] payload, int offset, @Nullable Message parent,
             MessageSerializer setSerializer, int length, @Nullable byte[] hashFromHeader) throws ProtocolException {
         super(params, payload, offset, parent, setSerializer, length);
-        if (hashFromHeader != null) {
-            cachedWTxId = Sha256Hash.wrapReversed(hashFromHeader);
-            if (!hasWitnesses())
-                cachedTxId = cachedWTxId;
-        }
+        hashParsedIds(hashFromHeader);
     }
 
     /**
@@ -247,6 +257,7 @@ public class Transaction extends ChildMessage {
     public Transaction(NetworkParameters params, byte[] payload, @Nullable Message parent, MessageSerializer setSerializer, int length)
             throws ProtocolException {
         super(params, payload, 0, parent, setSerializer, length);
+        hashParsedIds(null);
     }
 
     /** @deprecated use {@link #getTxId()} */
@@ -271,13 +282,7 @@ public class Transaction extends ChildMessage {
             if (!hasWitnesses() && cachedWTxId != null) {
                 cachedTxId = cachedWTxId;
             } else {
-                ByteArrayOutputStream stream = new UnsafeByteArrayOutputStream(length < 32 ? 32 : length + 32);
-                try {
-                    tdcoinSerializeToStream(stream, false);
-                } catch (IOException e) {
-                    throw new RuntimeException(e); // cannot happen
-                }
-                cachedTxId = Sha256Hash.wrapReversed(Sha256Hash.hashTwice(stream.toByteArray()));
+                cachedTxId = Sha256Hash.wrapReversed(Sha256Hash.hashTwice(serialize(false)));
             }
         }
         return cachedTxId;
@@ -292,13 +297,7 @@ public class Transaction extends ChildMessage {
             if (!hasWitnesses() && cachedTxId != null) {
                 cachedWTxId = cachedTxId;
             } else {
-                ByteArrayOutputStream baos = new ByteArrayOutputStream();
-                try {
-                    tdcoinSerializeToStream(baos, hasWitnesses());
-                } catch (IOException e) {
-                    throw new RuntimeException(e); // cannot happen
-                }
-                cachedWTxId = Sha256Hash.wrapReversed(Sha256Hash.hashTwice(baos.toByteArray()));
+                cachedWTxId = Sha256Hash.wrapReversed(Sha256Hash.hashTwice(serialize(hasWitnesses())));
             }
         }
         return cachedWTxId;
@@ -308,16 +307,28 @@ public class Transaction extends ChildMessage {
     public int getWeight() {
         if (!hasWitnesses())
             return getMessageSize() * 4;
-        try (final ByteArrayOutputStream stream = new UnsafeByteArrayOutputStream(length)) {
-            tdcoinSerializeToStream(stream, false);
-            final int baseSize = stream.size();
-            stream.reset();
-            tdcoinSerializeToStream(stream, true);
-            final int totalSize = stream.size();
-            return baseSize * 3 + totalSize;
+        if (serializesToArray())
+            return calculateSerializedSize(false) * 3 + calculateSerializedSize(true);
+        return serialize(false).length * 3 + serialize(true).length;
+    }
+
+    /**
+     * Serializes with or without witnesses, into an array of the exact size unless a subclass changed how the
+     * transaction is serialized.
+     */
+    private byte[] serialize(boolean useSegwit) {
+        if (serializesToArray()) {
+            byte[] bytes = new byte[calculateSerializedSize(useSegwit)];
+            tdcoinSerializeToArray(bytes, 0, useSegwit);
+            return bytes;
+        }
+        ByteArrayOutputStream stream = new UnsafeByteArrayOutputStream(length < 32 ? 32 : length + 32);
+        try {
+            tdcoinSerializeToStream(stream, useSegwit);
         } catch (IOException e) {
             throw new RuntimeException(e); // cannot happen
         }
+        return stream.toByteArray();
     }
 
     /** Gets the virtual transaction size as defined in BIP141. */
@@ -636,6 +647,7 @@ public class Transaction extends ChildMessage {
         parseInputs();
         // txout_count, txouts
         parseOutputs();
+        int outputsEnd = cursor;
         // script_witnesses
         if (useSegwit)
             parseWitnesses();
@@ -644,6 +656,54 @@ public class Transaction extends ChildMessage {
         optimalEncodingMessageSize += 4;
 
         length = cursor - offset;
+        parsedPayload = payload;
+        parsedOutputsEnd = useSegwit ? outputsEnd : -1;
+    }
+
+    /**
+     * Hashes the ids from the bytes just parsed, so that they never have to be serialized again, and lets go of the
+     * bytes. The hash the serializer calculated for the checksum, if given, covers the whole serialization and is used
+     * instead of hashing it again.
+     */
+    private void hashParsedIds(@Nullable byte[] hashFromHeader) {
+        byte[] bytes = parsedPayload;
+        if (bytes == null)
+            return;
+        parsedPayload = null;
+        Sha256Hash fullHash = hashFromHeader != null ? Sha256Hash.wrapReversed(hashFromHeader) : null;
+        if (parsedOutputsEnd >= 0) {
+            cachedTxId = hashSegwitTxId(bytes, offset, parsedOutputsEnd, offset + length);
+            // Without any witness the transaction is serialized in the classic format and its witness id is its id.
+            if (!hasWitnesses())
+                cachedWTxId = cachedTxId;
+            else
+                cachedWTxId = fullHash != null ? fullHash
+                        : Sha256Hash.wrapReversed(Sha256Hash.hashTwice(bytes, offset, length));
+        } else {
+            cachedTxId = cachedWTxId = fullHash != null ? fullHash
+                    : Sha256Hash.wrapReversed(Sha256Hash.hashTwice(bytes, offset, length));
+        }
+    }
+
+    /**
+     * Calculates the id of a transaction serialized with marker and flag from the given range, which is the hash of
+     * the version, the inputs and outputs, and the lock time, without the marker, flag and witnesses.
+     *
+     * @param outputsEnd where the outputs end and the witnesses start
+     * @param end where the transaction ends
+     */
+    static Sha256Hash hashSegwitTxId(byte[] payload, int offset, int outputsEnd, int end) {
+        MessageDigest digest = txIdDigests.get();
+        digest.reset();
+        digest.update(payload, offset, 4);
+        digest.update(payload, offset + 6, outputsEnd - offset - 6);
+        digest.update(payload, end - 4, 4);
+        return Sha256Hash.wrapReversed(digest.digest(digest.digest()));
+    }
+
+    /** Clears the cached witness id, after a witness of one of the inputs was replaced. */
+    void witnessChanged() {
+        cachedWTxId = null;
     }
 
     private void parseInputs() {
@@ -1187,87 +1247,10 @@ public class Transaction extends ChildMessage {
         // the purposes of the code in this method:
         //
         //   https://en.tdcoin.it/wiki/Contracts
-
-        try {
-            // Create a copy of this transaction to operate upon because we need make changes to the inputs and outputs.
-            // It would not be thread-safe to change the attributes of the transaction object itself.
-            Transaction tx = this.params.getDefaultSerializer().makeTransaction(this.tdcoinSerialize());
-
-            // Clear input scripts in preparation for signing. If we're signing a fresh
-            // transaction that step isn't very helpful, but it doesn't add much cost relative to the actual
-            // EC math so we'll do it anyway.
-            for (int i = 0; i < tx.inputs.size(); i++) {
-                TransactionInput input = tx.inputs.get(i);
-                input.clearScriptBytes();
-                input.setWitness(null);
-            }
-
-            // This step has no purpose beyond being synchronized with Tdcoin Core's bugs. OP_CODESEPARATOR
-            // is a legacy holdover from a previous, broken design of executing scripts that shipped in Tdcoin 0.1.
-            // It was seriously flawed and would have let anyone take anyone elses money. Later versions switched to
-            // the design we use today where scripts are executed independently but share a stack. This left the
-            // OP_CODESEPARATOR instruction having no purpose as it was only meant to be used internally, not actually
-            // ever put into scripts. Deleting OP_CODESEPARATOR is a step that should never be required but if we don't
-            // do it, we could split off the best chain.
-            connectedScript = Script.removeAllInstancesOfOp(connectedScript, ScriptOpCodes.OP_CODESEPARATOR);
-
-            // Set the input to the script of its output. Tdcoin Core does this but the step has no obvious purpose as
-            // the signature covers the hash of the prevout transaction which obviously includes the output script
-            // already. Perhaps it felt safer to him in some way, or is another leftover from how the code was written.
-            TransactionInput input = tx.inputs.get(inputIndex);
-            input.setScriptBytes(connectedScript);
-
-            if ((sigHashType & 0x1f) == SigHash.NONE.value) {
-                // SIGHASH_NONE means no outputs are signed at all - the signature is effectively for a "blank cheque".
-                tx.outputs = new ArrayList<>(0);
-                // The signature isn't broken by new versions of the transaction issued by other parties.
-                for (int i = 0; i < tx.inputs.size(); i++)
-                    if (i != inputIndex)
-                        tx.inputs.get(i).setSequenceNumber(0);
-            } else if ((sigHashType & 0x1f) == SigHash.SINGLE.value) {
-                // SIGHASH_SINGLE means only sign the output at the same index as the input (ie, my output).
-                if (inputIndex >= tx.outputs.size()) {
-                    // The input index is beyond the number of outputs, it's a buggy signature made by a broken
-                    // Tdcoin implementation. Tdcoin Core also contains a bug in handling this case:
-                    // any transaction output that is signed in this case will result in both the signed output
-                    // and any future outputs to this public key being steal-able by anyone who has
-                    // the resulting signature and the public key (both of which are part of the signed tx input).
-
-                    // Tdcoin Core's bug is that SignatureHash was supposed to return a hash and on this codepath it
-                    // actually returns the constant "1" to indicate an error, which is never checked for. Oops.
-                    return Sha256Hash.wrap("0100000000000000000000000000000000000000000000000000000000000000");
-                }
-                // In SIGHASH_SINGLE the outputs after the matching input index are deleted, and the outputs before
-                // that position are "nulled out". Unintuitively, the value in a "null" transaction is set to -1.
-                tx.outputs = new ArrayList<>(tx.outputs.subList(0, inputIndex + 1));
-                for (int i = 0; i < inputIndex; i++)
-                    tx.outputs.set(i, new TransactionOutput(tx.params, tx, Coin.NEGATIVE_SATOSHI, new byte[] {}));
-                // The signature isn't broken by new versions of the transaction issued by other parties.
-                for (int i = 0; i < tx.inputs.size(); i++)
-                    if (i != inputIndex)
-                        tx.inputs.get(i).setSequenceNumber(0);
-            }
-
-            if ((sigHashType & SigHash.ANYONECANPAY.value) == SigHash.ANYONECANPAY.value) {
-                // SIGHASH_ANYONECANPAY means the signature in the input is not broken by changes/additions/removals
-                // of other inputs. For example, this is useful for building assurance contracts.
-                tx.inputs = new ArrayList<>();
-                tx.inputs.add(input);
-            }
-
-            ByteArrayOutputStream bos = new ByteArrayOutputStream(tx.length);
-            tx.tdcoinSerializeToStream(bos, false);
-            // We also have to write a hash type (sigHashType is actually an unsigned char)
-            uint32ToByteStreamLE(0x000000ff & sigHashType, bos);
-            // Note that this is NOT reversed to ensure it will be signed correctly. If it were to be printed out
-            // however then we would expect that it is IS reversed.
-            Sha256Hash hash = Sha256Hash.twiceOf(bos.toByteArray());
-            bos.close();
-
-            return hash;
-        } catch (IOException e) {
-            throw new RuntimeException(e);  // Cannot happen.
-        }
+        //
+        // The simplified form of the transaction is streamed into the digest from the fields of this transaction, so
+        // no copy of it is made.
+        return LegacySigHashWriter.hashForSignature(this, inputIndex, connectedScript, sigHashType);
     }
 
     public TransactionSignature calculateWitnessSignature(
@@ -1353,53 +1336,67 @@ public class Transaction extends ChildMessage {
             byte[] scriptCode,
             Coin prevValue,
             byte sigHashType){
-        ByteArrayOutputStream bos = new UnsafeByteArrayOutputStream(length == UNKNOWN_LENGTH ? 256 : length + 4);
-        try {
-            byte[] hashPrevouts = new byte[32];
-            byte[] hashSequence = new byte[32];
-            byte[] hashOutputs = new byte[32];
-            int basicSigHashType = sigHashType & 0x1f;
-            boolean anyoneCanPay = (sigHashType & SigHash.ANYONECANPAY.value) == SigHash.ANYONECANPAY.value;
-            boolean signAll = (basicSigHashType != SigHash.SINGLE.value) && (basicSigHashType != SigHash.NONE.value);
-
-            if (!anyoneCanPay) {
-                ByteArrayOutputStream bosHashPrevouts = new UnsafeByteArrayOutputStream(256);
-                for (int i = 0; i < this.inputs.size(); ++i) {
-                    bosHashPrevouts.write(this.inputs.get(i).getOutpoint().getHash().getReversedBytes());
-                    uint32ToByteStreamLE(this.inputs.get(i).getOutpoint().getIndex(), bosHashPrevouts);
-                }
-                hashPrevouts = Sha256Hash.hashTwice(bosHashPrevouts.toByteArray());
-            }
+        byte[] hashPrevouts = new byte[32];
+        byte[] hashSequence = new byte[32];
+        byte[] hashOutputs = new byte[32];
+        int basicSigHashType = sigHashType & 0x1f;
+        boolean anyoneCanPay = (sigHashType & SigHash.ANYONECANPAY.value) == SigHash.ANYONECANPAY.value;
+        boolean signAll = (basicSigHashType != SigHash.SINGLE.value) && (basicSigHashType != SigHash.NONE.value);
+
+        if (!anyoneCanPay)
+            hashPrevouts = hashPrevouts();
+        if (!anyoneCanPay && signAll)
+            hashSequence = hashSequence();
+        if (signAll)
+            hashOutputs = hashOutputs(0, outputs.size());
+        else if (basicSigHashType == SigHash.SINGLE.value && inputIndex < outputs.size())
+            hashOutputs = hashOutputs(inputIndex, inputIndex + 1);
+        return hashForWitnessSignature(inputIndex, scriptCode, prevValue, sigHashType, hashPrevouts, hashSequence,
+                hashOutputs);
+    }
+
+    /**
+     * The hashes of the outpoints, the sequence numbers and the outputs of a transaction, which the BIP143
+     * {@link SigHash#ALL} signature hashes of all its inputs share. See {@link #precomputeWitnessHashes()}.
+     */
+    public static final class WitnessHashes {
+        private final byte[] hashPrevouts;
+        private final byte[] hashSequence;
+        private final byte[] hashOutputs;
+
+        private WitnessHashes(byte[] hashPrevouts, byte[] hashSequence, byte[] hashOutputs) {
+            this.hashPrevouts = hashPrevouts;
+            this.hashSequence = hashSequence;
+            this.hashOutputs = hashOutputs;
+        }
+    }
 
-            if (!anyoneCanPay && signAll) {
-                ByteArrayOutputStream bosSequence = new UnsafeByteArrayOutputStream(256);
-                for (int i = 0; i < this.inputs.size(); ++i) {
-                    uint32ToByteStreamLE(this.inputs.get(i).getSequenceNumber(), bosSequence);
-                }
-                hashSequence = Sha256Hash.hashTwice(bosSequence.toByteArray());
-            }
+    /**
+     * Calculates the parts that the {@link SigHash#ALL} witness signature hashes of all inputs share once, so that
+     * signing many inputs with {@link #hashForWitnessSignature(int, byte[], Coin, WitnessHashes)} doesn't hash every
+     * input and output again for each of them. The result is only valid as long as the inputs and outputs of this
+     * transaction don't change other than in their scripts and witnesses.
+     */
+    public synchronized WitnessHashes precomputeWitnessHashes() {
+        return new WitnessHashes(hashPrevouts(), hashSequence(), hashOutputs(0, outputs.size()));
+    }
 
-            if (signAll) {
-                ByteArrayOutputStream bosHashOutputs = new UnsafeByteArrayOutputStream(256);
-                for (int i = 0; i < this.outputs.size(); ++i) {
-                    uint64ToByteStreamLE(
-                            BigInteger.valueOf(this.outputs.get(i).getValue().getValue()),
-                            bosHashOutputs
-                    );
-                    bosHashOutputs.write(new VarInt(this.outputs.get(i).getScriptBytes().length).encode());
-                    bosHashOutputs.write(this.outputs.get(i).getScriptBytes());
-                }
-                hashOutputs = Sha256Hash.hashTwice(bosHashOutputs.toByteArray());
-            } else if (basicSigHashType == SigHash.SINGLE.value && inputIndex < outputs.size()) {
-                ByteArrayOutputStream bosHashOutputs = new UnsafeByteArrayOutputStream(256);
-                uint64ToByteStreamLE(
-                        BigInteger.valueOf(this.outputs.get(inputIndex).getValue().getValue()),
-                        bosHashOutputs
-                );
-                bosHashOutputs.write(new VarInt(this.outputs.get(inputIndex).getScriptBytes().length).encode());
-                bosHashOutputs.write(this.outputs.get(inputIndex).getScriptBytes());
-                hashOutputs = Sha256Hash.hashTwice(bosHashOutputs.toByteArray());
-            }
+    /**
+     * Calculates the BIP143 {@link SigHash#ALL} signature hash of the given input from the parts calculated by
+     * {@link #precomputeWitnessHashes()}, with the same result as
+     * {@link #hashForWitnessSignature(int, byte[], Coin, SigHash, boolean)}. Not synchronized, so that several threads
+     * can sign the inputs of a transaction that doesn't change meanwhile.
+     */
+    public Sha256Hash hashForWitnessSignature(int inputIndex, byte[] scriptCode, Coin prevValue,
+                                              WitnessHashes shared) {
+        return hashForWitnessSignature(inputIndex, scriptCode, prevValue, (byte) SigHash.ALL.value,
+                shared.hashPrevouts, shared.hashSequence, shared.hashOutputs);
+    }
+
+    private Sha256Hash hashForWitnessSignature(int inputIndex, byte[] scriptCode, Coin prevValue, byte sigHashType,
+                                               byte[] hashPrevouts, byte[] hashSequence, byte[] hashOutputs) {
+        ByteArrayOutputStream bos = new UnsafeByteArrayOutputStream(156 + scriptCode.length);
+        try {
             uint32ToByteStreamLE(version, bos);
             bos.write(hashPrevouts);
             bos.write(hashSequence);
@@ -1418,11 +1415,117 @@ public class Transaction extends ChildMessage {
         return Sha256Hash.twiceOf(bos.toByteArray());
     }
 
+    private byte[] hashPrevouts() {
+        ByteArrayOutputStream bosHashPrevouts = new UnsafeByteArrayOutputStream(inputs.size() * 36);
+        try {
+            for (int i = 0; i < this.inputs.size(); ++i) {
+                bosHashPrevouts.write(this.inputs.get(i).getOutpoint().getHash().getReversedBytes());
+                uint32ToByteStreamLE(this.inputs.get(i).getOutpoint().getIndex(), bosHashPrevouts);
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);  // Cannot happen.
+        }
+        return Sha256Hash.hashTwice(bosHashPrevouts.toByteArray());
+    }
+
+    private byte[] hashSequence() {
+        ByteArrayOutputStream bosSequence = new UnsafeByteArrayOutputStream(inputs.size() * 4);
+        try {
+            for (int i = 0; i < this.inputs.size(); ++i)
+                uint32ToByteStreamLE(this.inputs.get(i).getSequenceNumber(), bosSequence);
+        } catch (IOException e) {
+            throw new RuntimeException(e);  // Cannot happen.
+        }
+        return Sha256Hash.hashTwice(bosSequence.toByteArray());
+    }
+
+    // The hash of the outputs from the first index up to but excluding the second.
+    private byte[] hashOutputs(int from, int to) {
+        ByteArrayOutputStream bosHashOutputs = new UnsafeByteArrayOutputStream(256);
+        try {
+            for (int i = from; i < to; ++i) {
+                uint64ToByteStreamLE(
+                        BigInteger.valueOf(this.outputs.get(i).getValue().getValue()),
+                        bosHashOutputs
+                );
+                bosHashOutputs.write(new VarInt(this.outputs.get(i).getScriptBytes().length).encode());
+                bosHashOutputs.write(this.outputs.get(i).getScriptBytes());
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);  // Cannot happen.
+        }
+        return Sha256Hash.hashTwice(bosHashOutputs.toByteArray());
+    }
+
     @Override
     protected void tdcoinSerializeToStream(OutputStream stream) throws IOException {
-        boolean useSegwit = hasWitnesses()
+        tdcoinSerializeToStream(stream, useSegwit());
+    }
+
+    // Whether to serialize with witnesses for the protocol version of this transaction.
+    private boolean useSegwit() {
+        return hasWitnesses()
                 && protocolVersion >= NetworkParameters.ProtocolVersion.WITNESS_VERSION.getTdcoinProtocolVersion();
-        tdcoinSerializeToStream(stream, useSegwit);
+    }
+
+    @Override
+    protected boolean serializesToArray() {
+        return getClass() == Transaction.class;
+    }
+
+    @Override
+    protected int calculateSerializedSize() {
+        return calculateSerializedSize(useSegwit());
+    }
+
+    /** Returns the size of the serialization with or without witnesses, without serializing. */
+    private int calculateSerializedSize(boolean useSegwit) {
+        // version, txin_count, txout_count, lock_time
+        int size = 4 + VarInt.sizeOf(inputs.size()) + VarInt.sizeOf(outputs.size()) + 4;
+        // marker, flag
+        if (useSegwit)
+            size += 2;
+        for (TransactionInput in : inputs) {
+            size += in.getSerializedSize();
+            if (useSegwit)
+                size += in.getWitness().getSerializedSize();
+        }
+        for (TransactionOutput out : outputs)
+            size += out.getSerializedSize();
+        return size;
+    }
+
+    @Override
+    protected int tdcoinSerializeToArray(byte[] buf, int offset) {
+        return tdcoinSerializeToArray(buf, offset, useSegwit());
+    }
+
+    /** Writes the same bytes as {@link #tdcoinSerializeToStream(OutputStream, boolean)} into the given array. */
+    private int tdcoinSerializeToArray(byte[] buf, int offset, boolean useSegwit) {
+        // version
+        uint32ToByteArrayLE(version, buf, offset);
+        offset += 4;
+        // marker, flag
+        if (useSegwit) {
+            buf[offset++] = 0;
+            buf[offset++] = 1;
+        }
+        // txin_count, txins
+        offset += VarInt.encode(inputs.size(), buf, offset);
+        for (TransactionInput in : inputs)
+            offset += in.tdcoinSerialize(buf, offset);
+        // txout_count, txouts
+        offset += VarInt.encode(outputs.size(), buf, offset);
+        for (TransactionOutput out : outputs)
+            offset += out.tdcoinSerialize(buf, offset);
+        // script_witnisses
+        if (useSegwit) {
+            for (TransactionInput in : inputs)
+                offset = in.getWitness().tdcoinSerializeToArray(buf, offset);
+        }
+        // lock_time
+        uint32ToByteArrayLE(lockTime, buf, offset);
+        return offset + 4;
     }
 
     /**
@@ -1639,6 +1742,7 @@ public class Transaction extends ChildMessage {
      * <ul>
      *     <li>That there is at least one input and output.</li>
      *     <li>That the serialized size is not larger than the max block size.</li>
+     *     <li>That no two inputs spend the same output.</li>
      *     <li>That no outputs have negative value.</li>
      *     <li>That the outputs do not sum to larger than the max allowed quantity of coin in the system.</li>
      *     <li>If the tx is a coinbase tx, the coinbase scriptSig size is within range. Otherwise that there are no
@@ -1653,30 +1757,14 @@ public class Transaction extends ChildMessage {
         if (this.getMessageSize() > Block.MAX_BLOCK_SIZE)
             throw new VerificationException.LargerThanMaxBlockSize();
 
-        HashSet<TransactionOutPoint> outpoints = new HashSet<>();
-        for (TransactionInput input : inputs) {
-            if (outpoints.contains(input.getOutpoint()))
-                throw new VerificationException.DuplicatedOutPoint();
-            outpoints.add(input.getOutpoint());
-        }
+        TransactionChecks.checkNoDuplicates(new InputOutPoints(inputs));
 
-        Coin valueOut = Coin.ZERO;
-        for (TransactionOutput output : outputs) {
-            Coin value = output.getValue();
-            if (value.signum() < 0)
-                throw new VerificationException.NegativeValueOutput();
-            try {
-                valueOut = valueOut.add(value);
-            } catch (ArithmeticException e) {
-                throw new VerificationException.ExcessiveValue();
-            }
-            if (params.hasMaxMoney() && valueOut.compareTo(params.getMaxMoney()) > 0)
-                throw new VerificationException.ExcessiveValue();
-        }
+        long valueOut = 0;
+        for (TransactionOutput output : outputs)
+            valueOut = TransactionChecks.addOutputValue(params, valueOut, output.getValueSatoshis());
 
         if (isCoinBase()) {
-            if (inputs.get(0).getScriptBytes().length < 2 || inputs.get(0).getScriptBytes().length > 100)
-                throw new VerificationException.CoinbaseScriptSizeOutOfRange();
+            TransactionChecks.checkCoinbaseScriptLength(inputs.get(0).getScriptBytes().length);
         } else {
             for (TransactionInput input : inputs)
                 if (input.isCoinBase())
@@ -1684,6 +1772,34 @@ public class Transaction extends ChildMessage {
         }
     }
 
+    // The outpoints of the inputs for the duplicate check of verify().
+    private static final class InputOutPoints implements TransactionChecks.OutPoints {
+        private final List<TransactionInput> inputs;
+
+        InputOutPoints(List<TransactionInput> inputs) {
+            this.inputs = inputs;
+        }
+
+        @Override
+        public int count() {
+            return inputs.size();
+        }
+
+        @Override
+        public long bits(int input) {
+            TransactionOutPoint outpoint = inputs.get(input).getOutpoint();
+            return TransactionChecks.mix(Utils.readInt64(outpoint.getHash().getBytes(), 0), outpoint.getIndex());
+        }
+
+        @Override
+        public boolean same(int input, int other) {
+            TransactionOutPoint outpoint = inputs.get(input).getOutpoint();
+            TransactionOutPoint otherOutpoint = inputs.get(other).getOutpoint();
+            return outpoint.getIndex() == otherOutpoint.getIndex()
+                    && outpoint.getHash().equals(otherOutpoint.getHash());
+        }
+    }
+
     /**
      * <p>A transaction is time-locked if at least one of its inputs is non-final and it has a lock time. A transaction can
      * also have a relative lock time which this method doesn't tell. Use {@link #hasRelativeLockTime()} to find out.</p>
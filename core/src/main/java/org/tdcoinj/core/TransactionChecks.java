@@ -0,0 +1,96 @@
+/*
+ * Copyright by the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.tdcoinj.core;
+
+import java.util.Arrays;
+
+/**
+ * <p>The parts of the context free checks of a transaction that {@link Transaction#verify()} and
+ * {@link TransactionView#verify()} share, on plain longs instead of {@link Coin}s and {@link TransactionOutPoint}s.</p>
+ *
+ * <p>Duplicate outpoints are found by comparing all pairs of inputs for the small transactions that make up most of a
+ * block, and by sorting a long per input for larger ones. The long holds bits mixed from the outpoint above the number
+ * of the input, so only inputs with equal bits are compared in full, and nothing but the array of longs is created.
+ * </p>
+ */
+final class TransactionChecks {
+    // Transactions with up to this many inputs compare all pairs of them.
+    static final int MAX_PAIRWISE_INPUTS = 16;
+
+    /** The outpoints of the inputs of a transaction, wherever they are read from. */
+    interface OutPoints {
+        int count();
+
+        /** Returns bits of the outpoint of the given input which are the same for equal outpoints. */
+        long bits(int input);
+
+        /** Returns whether the given inputs spend the same outpoint. */
+        boolean same(int input, int other);
+    }
+
+    private TransactionChecks() {
+    }
+
+    /** Throws if two of the inputs spend the same outpoint. */
+    static void checkNoDuplicates(OutPoints outPoints) throws VerificationException {
+        int count = outPoints.count();
+        if (count <= MAX_PAIRWISE_INPUTS) {
+            for (int input = 1; input < count; input++)
+                for (int other = 0; other < input; other++)
+                    if (outPoints.same(input, other))
+                        throw new VerificationException.DuplicatedOutPoint();
+            return;
+        }
+        int inputBits = 32 - Integer.numberOfLeadingZeros(count - 1);
+        long inputMask = (1L << inputBits) - 1;
+        long[] keys = new long[count];
+        for (int input = 0; input < count; input++)
+            keys[input] = outPoints.bits(input) & ~inputMask | input;
+        Arrays.sort(keys);
+        for (int i = 0; i < count; i++) {
+            long bits = keys[i] & ~inputMask;
+            for (int j = i + 1; j < count && (keys[j] & ~inputMask) == bits; j++)
+                if (outPoints.same((int) (keys[i] & inputMask), (int) (keys[j] & inputMask)))
+                    throw new VerificationException.DuplicatedOutPoint();
+        }
+    }
+
+    /** Mixes the index into bits of the hash, so that the outputs of one transaction spread over all bits. */
+    static long mix(long hashBits, long index) {
+        return hashBits + index * 0x9E3779B97F4A7C15L;
+    }
+
+    /**
+     * Returns the total value of the outputs so far plus the value of the next output, or throws if the value is
+     * negative or the total exceeds what can exist.
+     */
+    static long addOutputValue(NetworkParameters params, long total, long value) throws VerificationException {
+        if (value < 0)
+            throw new VerificationException.NegativeValueOutput();
+        // Both are not negative, so an overflow wraps around to a negative total.
+        total += value;
+        if (total < 0 || params.hasMaxMoney() && total > params.getMaxMoney().value)
+            throw new VerificationException.ExcessiveValue();
+        return total;
+    }
+
+    /** Throws if the script of the input of a coinbase transaction is too short or too long. */
+    static void checkCoinbaseScriptLength(int length) throws VerificationException {
+        if (length < 2 || length > 100)
+            throw new VerificationException.CoinbaseScriptSizeOutOfRange();
+    }
+}
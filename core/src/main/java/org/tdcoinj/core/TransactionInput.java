@@ -176,6 +176,26 @@ public class TransactionInput extends ChildMessage {
         Utils.uint32ToByteStreamLE(sequence, stream);
     }
 
+    @Override
+    protected boolean serializesToArray() {
+        return getClass() == TransactionInput.class;
+    }
+
+    @Override
+    protected int calculateSerializedSize() {
+        return TransactionOutPoint.MESSAGE_LENGTH + VarInt.sizeOf(scriptBytes.length) + scriptBytes.length + 4;
+    }
+
+    @Override
+    protected int tdcoinSerializeToArray(byte[] buf, int offset) {
+        offset += outpoint.tdcoinSerialize(buf, offset);
+        offset += VarInt.encode(scriptBytes.length, buf, offset);
+        System.arraycopy(scriptBytes, 0, buf, offset, scriptBytes.length);
+        offset += scriptBytes.length;
+        Utils.uint32ToByteArrayLE(sequence, buf, offset);
+        return offset + 4;
+    }
+
     /**
      * Coinbase transactions have special inputs with hashes of zero. If this is such an input, returns true.
      */
@@ -292,6 +312,9 @@ public class TransactionInput extends ChildMessage {
      */
     public void setWitness(TransactionWitness witness) {
         this.witness = witness;
+        Transaction parent = getParentTransaction();
+        if (parent != null)
+            parent.witnessChanged();
     }
 
     /**
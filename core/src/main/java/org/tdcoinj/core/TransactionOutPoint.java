@@ -103,6 +103,23 @@ public class TransactionOutPoint extends ChildMessage {
         Utils.uint32ToByteStreamLE(index, stream);
     }
 
+    @Override
+    protected boolean serializesToArray() {
+        return getClass() == TransactionOutPoint.class;
+    }
+
+    @Override
+    protected int calculateSerializedSize() {
+        return MESSAGE_LENGTH;
+    }
+
+    @Override
+    protected int tdcoinSerializeToArray(byte[] buf, int offset) {
+        hash.getReversedBytes(buf, offset);
+        Utils.uint32ToByteArrayLE(index, buf, offset + Sha256Hash.LENGTH);
+        return offset + MESSAGE_LENGTH;
+    }
+
     /**
      * An outpoint is a part of a transaction input that points to the output of another transaction. If we have both
      * sides in memory, and they have been linked together, this returns a pointer to the connected output, or null
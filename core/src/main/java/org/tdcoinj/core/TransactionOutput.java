@@ -151,6 +151,27 @@ public class TransactionOutput extends ChildMessage {
         stream.write(scriptBytes);
     }
 
+    @Override
+    protected boolean serializesToArray() {
+        return getClass() == TransactionOutput.class;
+    }
+
+    @Override
+    protected int calculateSerializedSize() {
+        checkNotNull(scriptBytes);
+        return 8 + VarInt.sizeOf(scriptBytes.length) + scriptBytes.length;
+    }
+
+    @Override
+    protected int tdcoinSerializeToArray(byte[] buf, int offset) {
+        checkNotNull(scriptBytes);
+        Utils.int64ToByteArrayLE(value, buf, offset);
+        offset += 8;
+        offset += VarInt.encode(scriptBytes.length, buf, offset);
+        System.arraycopy(scriptBytes, 0, buf, offset, scriptBytes.length);
+        return offset + scriptBytes.length;
+    }
+
     /**
      * Returns the value of this output. This is the amount of currency that the destination address
      * receives.
@@ -159,6 +180,11 @@ public class TransactionOutput extends ChildMessage {
         return Coin.valueOf(value);
     }
 
+    /** Returns the value of this output in satoshis, without creating a {@link Coin}. */
+    long getValueSatoshis() {
+        return value;
+    }
+
     /**
      * Sets the value of this output.
      */
@@ -305,6 +331,21 @@ public class TransactionOutput extends ChildMessage {
      * Returns true if this output is to a key, or an address we have the keys for, in the wallet.
      */
     public boolean isMine(TransactionBag transactionBag) {
+        // Standard scripts are recognized from the raw program, so that only their hash or key has to be copied out.
+        byte[] program = getScriptBytes();
+        if (ScriptPattern.isP2PKH(program))
+            return transactionBag.isPubKeyHashMine(Arrays.copyOfRange(program, ScriptPattern.P2PKH_HASH_OFFSET,
+                    ScriptPattern.P2PKH_HASH_OFFSET + LegacyAddress.LENGTH), Script.ScriptType.P2PKH);
+        if (ScriptPattern.isP2WPKH(program))
+            return transactionBag.isPubKeyHashMine(Arrays.copyOfRange(program, ScriptPattern.P2WPKH_HASH_OFFSET,
+                    ScriptPattern.P2WPKH_HASH_OFFSET + SegwitAddress.WITNESS_PROGRAM_LENGTH_PKH),
+                    Script.ScriptType.P2WPKH);
+        if (ScriptPattern.isP2SH(program))
+            return transactionBag.isPayToScriptHashMine(Arrays.copyOfRange(program, ScriptPattern.P2SH_HASH_OFFSET,
+                    ScriptPattern.P2SH_HASH_OFFSET + LegacyAddress.LENGTH));
+        if (ScriptPattern.isP2PK(program))
+            return transactionBag.isPubKeyMine(Arrays.copyOfRange(program, ScriptPattern.P2PK_KEY_OFFSET,
+                    program.length - 1));
         try {
             Script script = getScriptPubKey();
             if (ScriptPattern.isP2PK(script))
@@ -16,9 +16,12 @@
 
 package org.tdcoinj.core;
 
+import com.google.common.io.ByteStreams;
+
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.ArrayList;
 import java.util.LinkedList;
 import java.util.List;
 
@@ -27,8 +30,17 @@ import java.util.List;
  * {@link AbstractBlockChain#connectTransactions(int, Block)}. It contains the full list of transaction outputs created
  * and spent in a block. It DOES contain outputs created that were spent later in the block, as those are needed for
  * BIP30 (no duplicate txid creation if the previous one was not fully spent prior to this block) verification.</p>
+ *
+ * <p>It is serialized with the values and scripts of the outputs in their compact form, see
+ * {@link UTXO#serializeCompact(OutputStream)}. An outpoint hash is only written when it differs from the one before,
+ * as the outputs of a transaction come one after another, and heights as the difference to the height before, which
+ * is nothing for the outputs created, as they all have the height of the block. The original serialization, with every
+ * output at full size, can still be read.</p>
  */
 public class TransactionOutputChanges {
+    // Written in place of the number of created outputs the original serialization starts with.
+    private static final long COMPACT_MARKER = 0xffffffffL;
+
     public final List<UTXO> txOutsCreated;
     public final List<UTXO> txOutsSpent;
     
@@ -38,7 +50,13 @@ public class TransactionOutputChanges {
     }
     
     public TransactionOutputChanges(InputStream in) throws IOException {
-        int numOutsCreated = (int) Utils.readUint32FromStream(in);
+        long first = Utils.readUint32FromStream(in);
+        if (first == COMPACT_MARKER) {
+            txOutsCreated = deserializeCompact(in);
+            txOutsSpent = deserializeCompact(in);
+            return;
+        }
+        int numOutsCreated = (int) first;
         txOutsCreated = new LinkedList<>();
         for (int i = 0; i < numOutsCreated; i++)
             txOutsCreated.add(new UTXO(in));
@@ -50,16 +68,52 @@ public class TransactionOutputChanges {
     }
 
     public void serializeToStream(OutputStream bos) throws IOException {
-        int numOutsCreated = txOutsCreated.size();
-        Utils.uint32ToByteStreamLE(numOutsCreated, bos);
-        for (UTXO output : txOutsCreated) {
-            output.serializeToStream(bos);
+        Utils.uint32ToByteStreamLE(COMPACT_MARKER, bos);
+        serializeCompact(txOutsCreated, bos);
+        serializeCompact(txOutsSpent, bos);
+    }
+
+    private static void serializeCompact(List<UTXO> outputs, OutputStream out) throws IOException {
+        UTXO.writeVarLong(outputs.size(), out);
+        Sha256Hash previousHash = null;
+        long previousHeight = 0;
+        for (UTXO output : outputs) {
+            // The lowest bit tells whether the hash is the same as the one of the output before.
+            boolean sameHash = output.getHash().equals(previousHash);
+            UTXO.writeVarLong(output.getIndex() << 1 | (sameHash ? 1 : 0), out);
+            if (!sameHash)
+                out.write(output.getHash().getBytes());
+            // The difference in height is zigzag encoded, so that small differences either way take one byte.
+            long delta = output.getHeight() - previousHeight;
+            UTXO.writeVarLong((delta << 1 ^ delta >> 63) << 1 | (output.isCoinbase() ? 1 : 0), out);
+            output.serializeCompactOutput(out);
+            previousHash = output.getHash();
+            previousHeight = output.getHeight();
         }
-        
-        int numOutsSpent = txOutsSpent.size();
-        Utils.uint32ToByteStreamLE(numOutsSpent, bos);
-        for (UTXO output : txOutsSpent) {
-            output.serializeToStream(bos);
+    }
+
+    private static List<UTXO> deserializeCompact(InputStream in) throws IOException {
+        long count = UTXO.readVarLong(in);
+        if (count > Block.MAX_BLOCK_SIZE)
+            throw new IOException("Too many outputs: " + count);
+        List<UTXO> outputs = new ArrayList<>((int) count);
+        Sha256Hash hash = null;
+        long height = 0;
+        for (long i = 0; i < count; i++) {
+            long indexAndSameHash = UTXO.readVarLong(in);
+            if ((indexAndSameHash & 1) == 0) {
+                byte[] hashBytes = new byte[32];
+                ByteStreams.readFully(in, hashBytes);
+                hash = Sha256Hash.wrap(hashBytes);
+            } else if (hash == null) {
+                throw new IOException("No hash for the first output");
+            }
+            long deltaAndCoinbase = UTXO.readVarLong(in);
+            long delta = deltaAndCoinbase >>> 2 ^ -(deltaAndCoinbase >>> 1 & 1);
+            height += delta;
+            outputs.add(UTXO.deserializeCompactOutput(hash, indexAndSameHash >>> 1, (int) height,
+                    (deltaAndCoinbase & 1) != 0, in));
         }
+        return outputs;
     }
 }
@@ -0,0 +1,409 @@
+/*
+ * Copyright by the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.tdcoinj.core;
+
+import javax.annotation.Nullable;
+import java.util.Arrays;
+
+import static com.google.common.base.Preconditions.checkElementIndex;
+
+/**
+ * <p>A read-only view of a serialized transaction that decodes its fields on demand, straight from the buffer it was
+ * received in. Creating a view only records where each input, output and witness starts, so it doesn't create the
+ * inputs, outputs, outpoints, scripts and witnesses a {@link Transaction} is made of. That is worth it when only the
+ * ids or a few fields of a transaction are needed, for example to find the transactions of a block that are relevant
+ * to a wallet before parsing them. {@link #materialize()} creates the full transaction.</p>
+ *
+ * <p>Script and witness accessors return copies. The offset and length accessors allow reading scripts in place
+ * through {@link #getPayload()}, which must not be changed. Views can be shared between threads. The ids are calculated
+ * and cached on first use, which does no harm if two threads do it at the same time.</p>
+ */
+public final class TransactionView {
+    // An outpoint, an empty script and a sequence number, and a value and an empty script.
+    private static final int MIN_INPUT_LENGTH = TransactionOutPoint.MESSAGE_LENGTH + 1 + 4;
+    private static final int MIN_OUTPUT_LENGTH = 8 + 1;
+
+    private final NetworkParameters params;
+    private final byte[] payload;
+    private final int offset, length;
+    private final boolean segwit;
+    // Start offsets of the inputs, outputs and witnesses, each followed by the offset where the last one ends.
+    private final int[] inputOffsets, outputOffsets;
+    @Nullable private final int[] witnessOffsets;
+    @Nullable private Sha256Hash txId, wtxId;
+
+    private TransactionView(NetworkParameters params, byte[] payload, int offset, int length, boolean segwit,
+                            int[] inputOffsets, int[] outputOffsets, @Nullable int[] witnessOffsets) {
+        this.params = params;
+        this.payload = payload;
+        this.offset = offset;
+        this.length = length;
+        this.segwit = segwit;
+        this.inputOffsets = inputOffsets;
+        this.outputOffsets = outputOffsets;
+        this.witnessOffsets = witnessOffsets;
+    }
+
+    /**
+     * Creates a view of the transaction serialized at the given offset of the given buffer, which must not be changed
+     * while the view is used.
+     *
+     * @throws ProtocolException if the transaction is truncated
+     */
+    public static TransactionView wrap(NetworkParameters params, byte[] payload, int offset) throws ProtocolException {
+        return wrap(params, payload, offset, payload.length);
+    }
+
+    static TransactionView wrap(NetworkParameters params, byte[] payload, int offset, int end)
+            throws ProtocolException {
+        Reader reader = new Reader(payload, offset, end);
+        reader.skip(4);
+        boolean segwit = reader.peek() == 0;
+        if (segwit)
+            reader.skip(2);
+        int[] inputOffsets = new int[reader.count(MIN_INPUT_LENGTH) + 1];
+        for (int i = 0; i < inputOffsets.length - 1; i++) {
+            inputOffsets[i] = reader.position;
+            reader.skip(TransactionOutPoint.MESSAGE_LENGTH);
+            reader.skip(reader.varInt());
+            reader.skip(4);
+        }
+        inputOffsets[inputOffsets.length - 1] = reader.position;
+        int[] outputOffsets = new int[reader.count(MIN_OUTPUT_LENGTH) + 1];
+        for (int i = 0; i < outputOffsets.length - 1; i++) {
+            outputOffsets[i] = reader.position;
+            reader.skip(8);
+            reader.skip(reader.varInt());
+        }
+        outputOffsets[outputOffsets.length - 1] = reader.position;
+        int[] witnessOffsets = null;
+        if (segwit) {
+            witnessOffsets = new int[inputOffsets.length];
+            for (int i = 0; i < witnessOffsets.length - 1; i++) {
+                witnessOffsets[i] = reader.position;
+                reader.skipWitness();
+            }
+            witnessOffsets[witnessOffsets.length - 1] = reader.position;
+        }
+        reader.skip(4);
+        return new TransactionView(params, payload, offset, reader.position - offset, segwit, inputOffsets,
+                outputOffsets, witnessOffsets);
+    }
+
+    /**
+     * Returns the offset where the transaction serialized at the given offset ends, without creating anything.
+     *
+     * @throws ProtocolException if the transaction is truncated
+     */
+    static int skip(byte[] payload, int offset, int end) throws ProtocolException {
+        Reader reader = new Reader(payload, offset, end);
+        reader.skip(4);
+        boolean segwit = reader.peek() == 0;
+        if (segwit)
+            reader.skip(2);
+        long inputs = reader.count(MIN_INPUT_LENGTH);
+        for (long i = 0; i < inputs; i++) {
+            reader.skip(TransactionOutPoint.MESSAGE_LENGTH);
+            reader.skip(reader.varInt());
+            reader.skip(4);
+        }
+        long outputs = reader.count(MIN_OUTPUT_LENGTH);
+        for (long i = 0; i < outputs; i++) {
+            reader.skip(8);
+            reader.skip(reader.varInt());
+        }
+        if (segwit)
+            for (long i = 0; i < inputs; i++)
+                reader.skipWitness();
+        reader.skip(4);
+        return reader.position;
+    }
+
+    /** Creates the full transaction from the bytes of this view. */
+    public Transaction materialize() throws ProtocolException {
+        return params.getDefaultSerializer().makeTransaction(payload, offset, length, null);
+    }
+
+    /** Returns the buffer the transaction is read from. It must not be changed. */
+    public byte[] getPayload() {
+        return payload;
+    }
+
+    /** Returns the offset of the transaction in {@link #getPayload()}. */
+    public int getOffset() {
+        return offset;
+    }
+
+    /** Returns the length of the serialized transaction, including witnesses. */
+    public int getMessageSize() {
+        return length;
+    }
+
+    public long getVersion() {
+        return Utils.readUint32(payload, offset);
+    }
+
+    public long getLockTime() {
+        return Utils.readUint32(payload, offset + length - 4);
+    }
+
+    /** Returns whether the transaction was serialized with witnesses. */
+    public boolean hasWitnesses() {
+        return segwit;
+    }
+
+    /** Returns the transaction id, which doesn't cover the witnesses. See {@link Transaction#getTxId()}. */
+    public Sha256Hash getTxId() {
+        if (txId == null) {
+            if (!segwit) {
+                txId = getWTxId();
+            } else {
+                txId = Transaction.hashSegwitTxId(payload, offset, outputOffsets[outputOffsets.length - 1],
+                        offset + length);
+            }
+        }
+        return txId;
+    }
+
+    /** Returns the witness id, which covers the whole serialization. See {@link Transaction#getWTxId()}. */
+    public Sha256Hash getWTxId() {
+        if (wtxId == null)
+            wtxId = Sha256Hash.wrapReversed(Sha256Hash.hashTwice(payload, offset, length));
+        return wtxId;
+    }
+
+    public int getInputCount() {
+        return inputOffsets.length - 1;
+    }
+
+    public int getOutputCount() {
+        return outputOffsets.length - 1;
+    }
+
+    /** Returns the hash of the transaction whose output the given input spends. */
+    public Sha256Hash getOutpointHash(int input) {
+        int start = inputOffset(input);
+        return Sha256Hash.wrapReversed(Arrays.copyOfRange(payload, start, start + Sha256Hash.LENGTH));
+    }
+
+    /** Returns the index of the output the given input spends. */
+    public long getOutpointIndex(int input) {
+        return Utils.readUint32(payload, inputOffset(input) + Sha256Hash.LENGTH);
+    }
+
+    /** Returns whether the given input spends the given output, without creating the outpoint hash. */
+    public boolean spends(int input, Sha256Hash txId, long index) {
+        int start = inputOffset(input);
+        byte[] hash = txId.getBytes();
+        for (int i = 0; i < Sha256Hash.LENGTH; i++)
+            if (payload[start + i] != hash[Sha256Hash.LENGTH - 1 - i])
+                return false;
+        return Utils.readUint32(payload, start + Sha256Hash.LENGTH) == index;
+    }
+
+    /** Returns the offset of the script of the given input in {@link #getPayload()}. */
+    public int getScriptSigOffset(int input) {
+        int start = inputOffset(input) + TransactionOutPoint.MESSAGE_LENGTH;
+        return start + new VarInt(payload, start).getOriginalSizeInBytes();
+    }
+
+    /** Returns the length of the script of the given input. */
+    public int getScriptSigLength(int input) {
+        return inputOffsets[input + 1] - 4 - getScriptSigOffset(input);
+    }
+
+    /** Returns a copy of the script of the given input. */
+    public byte[] getScriptSigBytes(int input) {
+        int start = getScriptSigOffset(input);
+        return Arrays.copyOfRange(payload, start, start + getScriptSigLength(input));
+    }
+
+    public long getSequenceNumber(int input) {
+        checkElementIndex(input, getInputCount());
+        return Utils.readUint32(payload, inputOffsets[input + 1] - 4);
+    }
+
+    public Coin getOutputValue(int output) {
+        return Coin.valueOf(Utils.readInt64(payload, outputOffset(output)));
+    }
+
+    /** Returns the offset of the script of the given output in {@link #getPayload()}. */
+    public int getScriptPubKeyOffset(int output) {
+        int start = outputOffset(output) + 8;
+        return start + new VarInt(payload, start).getOriginalSizeInBytes();
+    }
+
+    /** Returns the length of the script of the given output. */
+    public int getScriptPubKeyLength(int output) {
+        return outputOffsets[output + 1] - getScriptPubKeyOffset(output);
+    }
+
+    /** Returns a copy of the script of the given output. */
+    public byte[] getScriptPubKeyBytes(int output) {
+        return Arrays.copyOfRange(payload, getScriptPubKeyOffset(output), outputOffsets[output + 1]);
+    }
+
+    /** Returns the number of pushes of the witness of the given input, 0 if the transaction has no witnesses. */
+    public int getWitnessPushCount(int input) {
+        checkElementIndex(input, getInputCount());
+        return witnessOffsets == null ? 0 : (int) new VarInt(payload, witnessOffsets[input]).value;
+    }
+
+    /** Returns a copy of the given push of the witness of the given input. */
+    public byte[] getWitnessPush(int input, int push) {
+        checkElementIndex(push, getWitnessPushCount(input));
+        int position = witnessOffsets[input];
+        position += new VarInt(payload, position).getOriginalSizeInBytes();
+        for (int i = 0; ; i++) {
+            VarInt size = new VarInt(payload, position);
+            position += size.getOriginalSizeInBytes();
+            if (i == push)
+                return Arrays.copyOfRange(payload, position, position + (int) size.value);
+            position += size.value;
+        }
+    }
+
+    /**
+     * Checks the transaction in the ways {@link Transaction#verify()} does, reading the outpoints, values and script
+     * lengths straight from the buffer, so that a block can be checked before any of its transactions are created.
+     *
+     * @throws VerificationException if the transaction fails one of the checks
+     */
+    public void verify() throws VerificationException {
+        int inputs = getInputCount(), outputs = getOutputCount();
+        if (inputs == 0 || outputs == 0)
+            throw new VerificationException.EmptyInputsOrOutputs();
+        if (length > Block.MAX_BLOCK_SIZE)
+            throw new VerificationException.LargerThanMaxBlockSize();
+
+        TransactionChecks.checkNoDuplicates(new InputOutPoints());
+
+        long valueOut = 0;
+        for (int output = 0; output < outputs; output++) {
+            long value = Utils.readInt64(payload, outputOffsets[output]);
+            valueOut = TransactionChecks.addOutputValue(params, valueOut, value);
+        }
+
+        if (inputs == 1 && spendsCoinbaseOutPoint(0)) {
+            TransactionChecks.checkCoinbaseScriptLength(getScriptSigLength(0));
+        } else {
+            for (int input = 0; input < inputs; input++)
+                if (spendsCoinbaseOutPoint(input))
+                    throw new VerificationException.UnexpectedCoinbaseInput();
+        }
+    }
+
+    // Whether the input has the outpoint of the input of a coinbase transaction, see TransactionInput.isCoinBase().
+    private boolean spendsCoinbaseOutPoint(int input) {
+        int start = inputOffsets[input];
+        if (Utils.readUint32(payload, start + Sha256Hash.LENGTH) != 0xFFFFFFFFL)
+            return false;
+        for (int i = 0; i < Sha256Hash.LENGTH; i++)
+            if (payload[start + i] != 0)
+                return false;
+        return true;
+    }
+
+    // The outpoints of the inputs, compared in place for the duplicate check of verify().
+    private final class InputOutPoints implements TransactionChecks.OutPoints {
+        @Override
+        public int count() {
+            return getInputCount();
+        }
+
+        @Override
+        public long bits(int input) {
+            int start = inputOffsets[input];
+            return TransactionChecks.mix(Utils.readInt64(payload, start),
+                    Utils.readUint32(payload, start + Sha256Hash.LENGTH));
+        }
+
+        @Override
+        public boolean same(int input, int other) {
+            int start = inputOffsets[input], otherStart = inputOffsets[other];
+            // From the index back, as inputs spending outputs of the same transaction differ only there.
+            for (int i = TransactionOutPoint.MESSAGE_LENGTH - 1; i >= 0; i--)
+                if (payload[start + i] != payload[otherStart + i])
+                    return false;
+            return true;
+        }
+    }
+
+    private int inputOffset(int input) {
+        checkElementIndex(input, getInputCount());
+        return inputOffsets[input];
+    }
+
+    private int outputOffset(int output) {
+        checkElementIndex(output, getOutputCount());
+        return outputOffsets[output];
+    }
+
+    @Override
+    public String toString() {
+        return "TransactionView " + getTxId() + ", " + getInputCount() + " inputs, " + getOutputCount() + " outputs";
+    }
+
+    /** Reads the structure of serialized messages with bounds checks. */
+    static final class Reader {
+        private final byte[] payload;
+        private final int end;
+        int position;
+
+        Reader(byte[] payload, int offset, int end) {
+            this.payload = payload;
+            this.position = offset;
+            this.end = end;
+        }
+
+        int peek() throws ProtocolException {
+            if (position >= end)
+                throw new ProtocolException("Message truncated at offset " + position);
+            return payload[position] & 0xff;
+        }
+
+        long varInt() throws ProtocolException {
+            int first = peek();
+            int size = first < 253 ? 1 : first == 253 ? 3 : first == 254 ? 5 : 9;
+            if (end - position < size)
+                throw new ProtocolException("Message truncated at offset " + position);
+            long value = new VarInt(payload, position).value;
+            position += size;
+            return value;
+        }
+
+        // Reads a count of items that take at least the given number of bytes each.
+        int count(int minItemLength) throws ProtocolException {
+            long count = varInt();
+            if (count < 0 || count > (end - position) / minItemLength)
+                throw new ProtocolException("Count of " + count + " exceeds the message size");
+            return (int) count;
+        }
+
+        void skip(long bytes) throws ProtocolException {
+            if (bytes < 0 || bytes > end - position)
+                throw new ProtocolException("Message truncated at offset " + position);
+            position += bytes;
+        }
+
+        void skipWitness() throws ProtocolException {
+            long pushes = count(1);
+            for (long i = 0; i < pushes; i++)
+                skip(varInt());
+        }
+    }
+}
@@ -71,6 +71,28 @@ public class TransactionWitness {
         }
     }
 
+    /** Returns the number of bytes {@link #tdcoinSerializeToStream(OutputStream)} writes. */
+    int getSerializedSize() {
+        int size = VarInt.sizeOf(pushes.size());
+        for (int i = 0; i < pushes.size(); i++) {
+            int pushLength = pushes.get(i).length;
+            size += VarInt.sizeOf(pushLength) + pushLength;
+        }
+        return size;
+    }
+
+    /** Writes the witness into the given array at the given offset and returns the offset after it. */
+    int tdcoinSerializeToArray(byte[] buf, int offset) {
+        offset += VarInt.encode(pushes.size(), buf, offset);
+        for (int i = 0; i < pushes.size(); i++) {
+            byte[] push = pushes.get(i);
+            offset += VarInt.encode(push.length, buf, offset);
+            System.arraycopy(push, 0, buf, offset, push.length);
+            offset += push.length;
+        }
+        return offset;
+    }
+
     @Override
     public String toString() {
         List<String> stringPushes = new ArrayList<>(pushes.size());
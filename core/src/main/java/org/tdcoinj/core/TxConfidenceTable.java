@@ -69,6 +69,8 @@ public class TxConfidenceTable {
     }
 
     TxConfidenceTable(final int size, TransactionConfidence.Factory confidenceFactory){
+        // Not a Sha256HashMap: the keys are hashes peers announce, which they can choose freely, and a LinkedHashMap
+        // keeps lookups fast even when many of them collide.
         table = new LinkedHashMap<Sha256Hash, WeakConfidenceReference>() {
             @Override
             protected boolean removeEldestEntry(Map.Entry<Sha256Hash, WeakConfidenceReference> entry) {
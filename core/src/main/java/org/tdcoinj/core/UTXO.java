@@ -18,24 +18,54 @@ package org.tdcoinj.core;
 
 import org.tdcoinj.script.*;
 
+import com.google.common.io.ByteStreams;
+
 import java.io.*;
 import java.math.*;
 import java.util.Locale;
 import java.util.Objects;
 
+import static com.google.common.base.Preconditions.checkArgument;
+import static org.tdcoinj.script.ScriptOpCodes.*;
+
 // TODO: Fix this class: should not talk about addresses, height should be optional/support mempool height etc
 
 /**
- * A UTXO message contains the information necessary to check a spending transaction.
+ * <p>A UTXO message contains the information necessary to check a spending transaction.
  * It avoids having to store the entire parentTransaction just to get the hash and index.
- * Useful when working with free standing outputs.
+ * Useful when working with free standing outputs.</p>
+ *
+ * <p>The value and script are kept as a number and the raw program, and the {@link Script} is only created when asked
+ * for. {@link #serializeCompact(OutputStream)} writes the output without its outpoint, with variable length numbers
+ * and standard scripts reduced to their type and hash or key, which is how block stores keep the set of unspent
+ * outputs and their undo data.</p>
  */
 public class UTXO implements Serializable {
 
     private static final long serialVersionUID = 4736241649298988166L;
 
-    private Coin value;
-    private Script script;
+    // The standard scripts written as a type byte followed by the part of the program after the prefix and before the
+    // suffix, in the order of the type bytes. Other programs are written as their length plus the number of these.
+    private static final byte[][] COMPACT_SCRIPT_PREFIXES = {
+            { (byte) OP_DUP, (byte) OP_HASH160, 20 }, // P2PKH
+            { (byte) OP_HASH160, 20 }, // P2SH
+            { OP_0, 20 }, // P2WPKH
+            { OP_0, 32 }, // P2WSH
+            { 33 }, // P2PK, compressed key
+            { 65 }, // P2PK, uncompressed key
+    };
+    private static final byte[][] COMPACT_SCRIPT_SUFFIXES = {
+            { (byte) OP_EQUALVERIFY, (byte) OP_CHECKSIG },
+            { (byte) OP_EQUAL },
+            { },
+            { },
+            { (byte) OP_CHECKSIG },
+            { (byte) OP_CHECKSIG },
+    };
+    private static final int[] COMPACT_SCRIPT_LENGTHS = { 25, 23, 22, 34, 35, 67 };
+
+    private long value;
+    private byte[] program;
     private Sha256Hash hash;
     private long index;
     private int height;
@@ -57,11 +87,15 @@ public class UTXO implements Serializable {
                 int height,
                 boolean coinbase,
                 Script script) {
+        this(hash, index, value.value, height, coinbase, script.getProgram());
+    }
+
+    private UTXO(Sha256Hash hash, long index, long value, int height, boolean coinbase, byte[] program) {
         this.hash = hash;
         this.index = index;
         this.value = value;
         this.height = height;
-        this.script = script;
+        this.program = program;
         this.coinbase = coinbase;
         this.address = "";
     }
@@ -93,12 +127,15 @@ public class UTXO implements Serializable {
 
     /** The value which this Transaction output holds. */
     public Coin getValue() {
-        return value;
+        return Coin.valueOf(value);
     }
 
-    /** The Script object which you can use to get address, script bytes or script type. */
+    /**
+     * The Script object which you can use to get address, script bytes or script type. A new one is created each time,
+     * so callers needing it more than once should keep it.
+     */
     public Script getScript() {
-        return script;
+        return new Script(program);
     }
 
     /** The hash of the transaction which holds this output. */
@@ -128,7 +165,7 @@ public class UTXO implements Serializable {
 
     @Override
     public String toString() {
-        return String.format(Locale.US, "Stored TxOut of %s (%s:%d)", value.toFriendlyString(), hash, index);
+        return String.format(Locale.US, "Stored TxOut of %s (%s:%d)", getValue().toFriendlyString(), hash, index);
     }
 
     @Override
@@ -145,10 +182,9 @@ public class UTXO implements Serializable {
     }
 
     public void serializeToStream(OutputStream bos) throws IOException {
-        Utils.uint64ToByteStreamLE(BigInteger.valueOf(value.value), bos);
-        byte[] scriptBytes = script.getProgram();
-        Utils.uint32ToByteStreamLE(scriptBytes.length, bos);
-        bos.write(scriptBytes);
+        Utils.uint64ToByteStreamLE(BigInteger.valueOf(value), bos);
+        Utils.uint32ToByteStreamLE(program.length, bos);
+        bos.write(program);
         bos.write(hash.getBytes());
         Utils.uint32ToByteStreamLE(index, bos);
         Utils.uint32ToByteStreamLE(height, bos);
@@ -159,13 +195,14 @@ public class UTXO implements Serializable {
         byte[] valueBytes = new byte[8];
         if (in.read(valueBytes, 0, 8) != 8)
             throw new EOFException();
-        value = Coin.valueOf(Utils.readInt64(valueBytes, 0));
+        value = Utils.readInt64(valueBytes, 0);
 
         int scriptBytesLength = (int) Utils.readUint32FromStream(in);
         byte[] scriptBytes = new byte[scriptBytesLength];
         if (in.read(scriptBytes) != scriptBytesLength)
             throw new EOFException();
-        script = new Script(scriptBytes);
+        new Script(scriptBytes); // Checks the program can be parsed.
+        program = scriptBytes;
 
         byte[] hashBytes = new byte[32];
         if (in.read(hashBytes) != 32)
@@ -182,6 +219,144 @@ public class UTXO implements Serializable {
         byte[] coinbaseByte = new byte[1];
         in.read(coinbaseByte);
         coinbase = coinbaseByte[0] == 1;
+        address = "";
+    }
+
+    /**
+     * Writes the height, coinbase flag, value and script of this output, but not its outpoint or address. Numbers are
+     * written in as few bytes as they need, values with their trailing decimal zeros compressed, and standard scripts
+     * as their type and the hash or key they pay to, so an output paying to an address takes about 25 bytes. Read back
+     * with {@link #deserializeCompact(Sha256Hash, long, InputStream)}.
+     */
+    public void serializeCompact(OutputStream out) throws IOException {
+        writeVarLong((height & 0xffffffffL) << 1 | (coinbase ? 1 : 0), out);
+        serializeCompactOutput(out);
+    }
+
+    // Writes the value and script of serializeCompact(), for callers that write the height themselves.
+    void serializeCompactOutput(OutputStream out) throws IOException {
+        writeVarLong(compressAmount(value), out);
+        int type = compactScriptType(program);
+        if (type < 0) {
+            writeVarLong(program.length + COMPACT_SCRIPT_LENGTHS.length, out);
+            out.write(program);
+        } else {
+            out.write(type);
+            int prefixLength = COMPACT_SCRIPT_PREFIXES[type].length;
+            out.write(program, prefixLength, program.length - prefixLength - COMPACT_SCRIPT_SUFFIXES[type].length);
+        }
+    }
+
+    /** Reads an output written by {@link #serializeCompact(OutputStream)}, given the outpoint it was stored under. */
+    public static UTXO deserializeCompact(Sha256Hash hash, long index, InputStream in) throws IOException {
+        long heightAndCoinbase = readVarLong(in);
+        return deserializeCompactOutput(hash, index, (int) (heightAndCoinbase >>> 1), (heightAndCoinbase & 1) != 0, in);
+    }
+
+    // Reads what serializeCompactOutput() wrote.
+    static UTXO deserializeCompactOutput(Sha256Hash hash, long index, int height, boolean coinbase, InputStream in)
+            throws IOException {
+        long value = decompressAmount(readVarLong(in));
+        long type = readVarLong(in);
+        byte[] program;
+        if (type >= COMPACT_SCRIPT_LENGTHS.length) {
+            long length = type - COMPACT_SCRIPT_LENGTHS.length;
+            if (length > Block.MAX_BLOCK_SIZE)
+                throw new IOException("Script too long: " + length);
+            program = new byte[(int) length];
+            ByteStreams.readFully(in, program);
+        } else {
+            int t = (int) type;
+            byte[] prefix = COMPACT_SCRIPT_PREFIXES[t], suffix = COMPACT_SCRIPT_SUFFIXES[t];
+            program = new byte[COMPACT_SCRIPT_LENGTHS[t]];
+            System.arraycopy(prefix, 0, program, 0, prefix.length);
+            ByteStreams.readFully(in, program, prefix.length, program.length - prefix.length - suffix.length);
+            System.arraycopy(suffix, 0, program, program.length - suffix.length, suffix.length);
+        }
+        return new UTXO(hash, index, value, height, coinbase, program);
+    }
+
+    /**
+     * Makes values with trailing decimal zeros, which most values paid are, small numbers: the number without up to 9
+     * of its trailing zeros is combined with how many there were. Values up to {@code Long.MAX_VALUE / 10} can be
+     * compressed, far more than could ever exist.
+     */
+    static long compressAmount(long value) {
+        checkArgument(value >= 0 && value <= Long.MAX_VALUE / 10, "Value out of range: %s", value);
+        if (value == 0)
+            return 0;
+        int exponent = 0;
+        while (value % 10 == 0 && exponent < 9) {
+            value /= 10;
+            exponent++;
+        }
+        if (exponent < 9) {
+            // The last digit isn't zero, so it only takes 9 values.
+            long digit = value % 10;
+            value /= 10;
+            return 1 + (value * 9 + digit - 1) * 10 + exponent;
+        }
+        return 1 + (value - 1) * 10 + 9;
+    }
+
+    static long decompressAmount(long compressed) throws IOException {
+        if (compressed < 0)
+            throw new IOException("Compressed value out of range: " + compressed);
+        if (compressed == 0)
+            return 0;
+        compressed--;
+        int exponent = (int) (compressed % 10);
+        compressed /= 10;
+        long value;
+        if (exponent < 9) {
+            long digit = compressed % 9 + 1;
+            value = compressed / 9 * 10 + digit;
+        } else {
+            value = compressed + 1;
+        }
+        for (int i = 0; i < exponent; i++) {
+            if (value > Long.MAX_VALUE / 10)
+                throw new IOException("Compressed value too large");
+            value *= 10;
+        }
+        return value;
+    }
+
+    // Returns the index of the standard script in COMPACT_SCRIPT_PREFIXES the program is, or -1.
+    private static int compactScriptType(byte[] program) {
+        if (ScriptPattern.isP2PKH(program))
+            return 0;
+        if (ScriptPattern.isP2SH(program))
+            return 1;
+        if (ScriptPattern.isP2WPKH(program))
+            return 2;
+        if (ScriptPattern.isP2WSH(program))
+            return 3;
+        if (ScriptPattern.isP2PK(program))
+            return program.length == 35 ? 4 : 5;
+        return -1;
+    }
+
+    /** Writes the number as 7 bits per byte, least significant first, with the top bit set in all but the last byte. */
+    static void writeVarLong(long value, OutputStream out) throws IOException {
+        while ((value & ~0x7fL) != 0) {
+            out.write((int) (value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    static long readVarLong(InputStream in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.read();
+            if (b < 0)
+                throw new EOFException();
+            value |= (long) (b & 0x7f) << shift;
+            if ((b & 0x80) == 0)
+                return value;
+        }
+        throw new IOException("Variable length number too long");
     }
     
     
@@ -264,18 +264,47 @@ public class Utils {
         return buf;
     }
 
+    // The RIPEMD-160 digest and SHA-256 output buffer of sha256hash160, one per thread.
+    private static final class Hash160State {
+        final RIPEMD160Digest ripemd160 = new RIPEMD160Digest();
+        final byte[] sha256 = new byte[Sha256Hash.LENGTH];
+    }
+
+    private static final ThreadLocal<Hash160State> hash160States = new ThreadLocal<Hash160State>() {
+        @Override
+        protected Hash160State initialValue() {
+            return new Hash160State();
+        }
+    };
+
     /**
      * Calculates RIPEMD160(SHA256(input)). This is used in Address calculations.
      */
     public static byte[] sha256hash160(byte[] input) {
-        byte[] sha256 = Sha256Hash.hash(input);
-        RIPEMD160Digest digest = new RIPEMD160Digest();
-        digest.update(sha256, 0, sha256.length);
+        return sha256hash160(input, 0, input.length);
+    }
+
+    /**
+     * Calculates RIPEMD160(SHA256(input)) of the given byte range.
+     */
+    public static byte[] sha256hash160(byte[] input, int offset, int length) {
         byte[] out = new byte[20];
-        digest.doFinal(out, 0);
+        sha256hash160(input, offset, length, out, 0);
         return out;
     }
 
+    /**
+     * Calculates RIPEMD160(SHA256(input)) of the given byte range into the 20 bytes at the given offset of the output
+     * array, without allocating.
+     */
+    public static void sha256hash160(byte[] input, int offset, int length, byte[] output, int outputOffset) {
+        Hash160State state = hash160States.get();
+        Sha256Hash.hash(input, offset, length, state.sha256, 0);
+        state.ripemd160.reset();
+        state.ripemd160.update(state.sha256, 0, state.sha256.length);
+        state.ripemd160.doFinal(output, outputOffset);
+    }
+
     /**
      * MPI encoded numbers are produced by the OpenSSL BN_bn2mpi function. They consist of
      * a 4 byte big endian length field, followed by the stated number of bytes representing
@@ -91,25 +91,36 @@ public class VarInt {
      * @return the minimal encoded bytes of the value
      */
     public byte[] encode() {
-        byte[] bytes;
-        switch (sizeOf(value)) {
+        byte[] bytes = new byte[sizeOf(value)];
+        encode(value, bytes, 0);
+        return bytes;
+    }
+
+    /**
+     * Encodes the given value into its minimal representation at the given offset of the given array.
+     *
+     * @param value the unsigned long value (beware widening conversion of negatives!)
+     * @return the number of bytes written
+     */
+    public static int encode(long value, byte[] buf, int offset) {
+        int size = sizeOf(value);
+        switch (size) {
             case 1:
-                return new byte[]{(byte) value};
+                buf[offset] = (byte) value;
+                break;
             case 3:
-                bytes = new byte[3];
-                bytes[0] = (byte) 253;
-                Utils.uint16ToByteArrayLE((int) value, bytes, 1);
-                return bytes;
+                buf[offset] = (byte) 253;
+                Utils.uint16ToByteArrayLE((int) value, buf, offset + 1);
+                break;
             case 5:
-                bytes = new byte[5];
-                bytes[0] = (byte) 254;
-                Utils.uint32ToByteArrayLE(value, bytes, 1);
-                return bytes;
+                buf[offset] = (byte) 254;
+                Utils.uint32ToByteArrayLE(value, buf, offset + 1);
+                break;
             default:
-                bytes = new byte[9];
-                bytes[0] = (byte) 255;
-                Utils.int64ToByteArrayLE(value, bytes, 1);
-                return bytes;
+                buf[offset] = (byte) 255;
+                Utils.int64ToByteArrayLE(value, buf, offset + 1);
+                break;
         }
+        return size;
     }
 }
@@ -18,7 +18,10 @@ package org.tdcoinj.crypto;
 
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Maps;
+import org.tdcoinj.crypto.HDKeyDerivation.ChildPublicKeys;
 
+import javax.annotation.Nullable;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
@@ -45,6 +48,9 @@ public class DeterministicHierarchy {
     private final ImmutableList<ChildNumber> rootPath;
     // Keep track of how many child keys each node has. This is kind of weak.
     private final Map<ImmutableList<ChildNumber>, ChildNumber> lastChildNumbers = Maps.newHashMap();
+    // Children derived in bulk, by the path of their parent and in the order they were inserted. Their keys are only
+    // created when asked for.
+    private final Map<ImmutableList<ChildNumber>, List<ChildPublicKeys>> children = Maps.newHashMap();
 
     public static final int BIP32_STANDARDISATION_TIME_SECS = 1369267200;
 
@@ -71,6 +77,49 @@ public class DeterministicHierarchy {
         keys.put(path, key);
     }
 
+    /**
+     * Inserts children derived in bulk into the hierarchy, without creating a key for each of them. Like with
+     * {@link #putKey(DeterministicKey)}, the children of a parent must be inserted in order.
+     */
+    public final void putChildren(ChildPublicKeys children) {
+        if (children.size() == 0)
+            return;
+        ImmutableList<ChildNumber> parentPath = children.getParent().getPath();
+        List<ChildPublicKeys> list = this.children.get(parentPath);
+        if (list == null) {
+            list = new ArrayList<>();
+            this.children.put(parentPath, list);
+        }
+        list.add(children);
+        lastChildNumbers.put(parentPath, children.getChildNumber(children.size() - 1));
+    }
+
+    // Creates the key for the given path if it was inserted with putChildren.
+    @Nullable
+    private DeterministicKey getChild(ImmutableList<ChildNumber> path) {
+        if (path.isEmpty())
+            return null;
+        List<ChildPublicKeys> list = children.get(path.subList(0, path.size() - 1));
+        if (list == null)
+            return null;
+        int num = path.get(path.size() - 1).i();
+        // The children of a parent are inserted in order, so search for the last one starting at or before num.
+        int low = 0, high = list.size() - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            ChildPublicKeys candidate = list.get(middle);
+            int from = candidate.getChildNumber(0).i();
+            if (num < from) {
+                high = middle - 1;
+            } else if (num >= from + candidate.size()) {
+                low = middle + 1;
+            } else {
+                return candidate.getKey(num - from);
+            }
+        }
+        return null;
+    }
+
     /**
      * Returns a key for the given path, optionally creating it.
      *
@@ -85,6 +134,9 @@ public class DeterministicHierarchy {
                 ? ImmutableList.<ChildNumber>builder().addAll(rootPath).addAll(path).build()
                 : ImmutableList.copyOf(path);
         if (!keys.containsKey(absolutePath)) {
+            DeterministicKey child = getChild(absolutePath);
+            if (child != null)
+                return child;
             if (!create)
                 throw new IllegalArgumentException(String.format(Locale.US, "No key found for %s path %s.",
                     relativePath ? "relative" : "absolute", HDUtils.formatPath(path)));
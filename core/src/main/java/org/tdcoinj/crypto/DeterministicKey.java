@@ -61,6 +61,9 @@ public class DeterministicKey extends ECKey {
     /** 32 bytes */
     private final byte[] chainCode;
 
+    // The hash of the public key when it was known when creating the key, see HDKeyDerivation.ChildPublicKeys.
+    @Nullable private byte[] knownPubKeyHash;
+
     /** Constructs a key from its components. This is not normally something you should use. */
     public DeterministicKey(ImmutableList<ChildNumber> childNumberPath,
                             byte[] chainCode,
@@ -76,6 +79,20 @@ public class DeterministicKey extends ECKey {
         this.parentFingerprint = (parent != null) ? parent.getFingerprint() : 0;
     }
 
+    /** Constructs a public key only key whose public key hash is already known, so that it isn't computed again. */
+    DeterministicKey(DeterministicKey parent, ImmutableList<ChildNumber> childNumberPath, byte[] chainCode,
+                     LazyECPoint publicAsPoint, byte[] pubKeyHash) {
+        super(null, compressPoint(checkNotNull(publicAsPoint)));
+        checkArgument(chainCode.length == 32);
+        checkArgument(pubKeyHash.length == 20);
+        this.parent = parent;
+        this.childNumberPath = checkNotNull(childNumberPath);
+        this.chainCode = Arrays.copyOf(chainCode, chainCode.length);
+        this.depth = parent.depth + 1;
+        this.parentFingerprint = parent.getFingerprint();
+        this.knownPubKeyHash = pubKeyHash;
+    }
+
     public DeterministicKey(ImmutableList<ChildNumber> childNumberPath,
                             byte[] chainCode,
                             ECPoint publicAsPoint,
@@ -266,6 +283,11 @@ public class DeterministicKey extends ECKey {
             return new DeterministicKey(getPath(), getChainCode(), pub, null, parent);
     }
 
+    @Override
+    public byte[] getPubKeyHash() {
+        return knownPubKeyHash != null ? knownPubKeyHash : super.getPubKeyHash();
+    }
+
     /**
      * <p>Returns the same key with the parent pointer removed (it still knows its own path and the parent fingerprint).</p>
      *
@@ -18,12 +18,17 @@ package org.tdcoinj.crypto;
 
 import com.google.common.collect.*;
 import org.tdcoinj.core.*;
+import org.tdcoinj.utils.Threading;
+import org.bouncycastle.crypto.digests.RIPEMD160Digest;
+import org.bouncycastle.crypto.macs.HMac;
 import org.bouncycastle.math.ec.*;
 
+import javax.annotation.Nullable;
 import java.math.*;
 import java.nio.*;
 import java.security.*;
 import java.util.*;
+import java.util.concurrent.Executor;
 
 import static com.google.common.base.Preconditions.*;
 
@@ -43,6 +48,12 @@ public final class HDKeyDerivation {
     // Some arbitrary random number. Doesn't matter what it is.
     private static final BigInteger RAND_INT;
 
+    private static final byte[] N_BYTES = Utils.bigIntegerToBytes(ECKey.CURVE.getN(), 32);
+    // deriveChildPublicKeys converts this many children to affine coordinates with one inversion.
+    private static final int BULK_BATCH = 256;
+    // deriveChildPublicKeys doesn't split the work into slices smaller than this.
+    private static final int BULK_MIN_SLICE = 64;
+
     private HDKeyDerivation() { }
 
     /**
@@ -224,6 +235,103 @@ public final class HDKeyDerivation {
         return new RawKeyBytes(Ki.getEncoded(true), chainCode);
     }
 
+    /**
+     * Derives the children from (inclusive) to to (exclusive) of the given parent, like
+     * {@link #deriveChildKeyFromPublic(DeterministicKey, ChildNumber, PublicDeriveMode)} does one by one. The work is
+     * split over {@link Threading#THREAD_POOL}, with one task per available processor.
+     *
+     * @throws HDDerivationException if one of the children is invalid. Use
+     * {@link #deriveThisOrNextChildKey(DeterministicKey, int)} to skip it.
+     */
+    public static ChildPublicKeys deriveChildPublicKeys(DeterministicKey parent, int from, int to)
+            throws HDDerivationException {
+        return deriveChildPublicKeys(parent, from, to, Threading.THREAD_POOL,
+                Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * <p>Derives the children from (inclusive) to to (exclusive) of the given parent, like
+     * {@link #deriveChildKeyFromPublic(DeterministicKey, ChildNumber, PublicDeriveMode)} does one by one. Only the
+     * public key of the parent is used, so the children are not hardened and have no private keys.</p>
+     *
+     * <p>This is much faster than deriving the children one by one. Each I<sub>L</sub>*G is computed with a table of
+     * precomputed multiples of G, the parent point is decoded only once, the points of many children are converted to
+     * affine coordinates with a single inversion, and the range is split into up to parallelism tasks run by the given
+     * executor. The results are kept in flat arrays, ready to be indexed without creating a key per child.</p>
+     *
+     * @throws HDDerivationException if one of the children is invalid. Use
+     * {@link #deriveThisOrNextChildKey(DeterministicKey, int)} to skip it.
+     */
+    public static ChildPublicKeys deriveChildPublicKeys(final DeterministicKey parent, final int from, int to,
+            Executor executor, int parallelism) throws HDDerivationException {
+        checkArgument(from >= 0 && to >= from, "Invalid range of non-hardened children: %s to %s", from, to);
+        checkArgument(parallelism > 0, "parallelism must be positive: %s", parallelism);
+        final ChildPublicKeys result = new ChildPublicKeys(parent, from, new byte[(to - from) * 33],
+                new byte[(to - from) * 20], new byte[(to - from) * 32]);
+        final byte[] parentPublicKey = parent.getPubKeyPoint().getEncoded(true);
+        Threading.runSlices(to - from, BULK_MIN_SLICE, executor, parallelism, new Threading.Slice() {
+            @Override
+            public void run(int start, int end) {
+                deriveChildPublicKeys(parentPublicKey, parent.getChainCode(), from + start, from + end, result);
+            }
+        });
+        return result;
+    }
+
+    // Derives the children from start to end into the given result.
+    private static void deriveChildPublicKeys(byte[] parentPublicKey, byte[] parentChainCode, int start, int end,
+                                              ChildPublicKeys result) {
+        Secp256k1Group group = new Secp256k1Group(BULK_BATCH);
+        int[] parentX = Secp256k1Field.create(), parentY = Secp256k1Field.create();
+        group.decodePoint(parentPublicKey, parentX, parentY);
+        HMac hmac = HDUtils.createHmacSha512Digest(parentChainCode);
+        MessageDigest sha256 = Sha256Hash.newDigest();
+        RIPEMD160Digest ripemd160 = new RIPEMD160Digest();
+        byte[] data = Arrays.copyOf(parentPublicKey, 37);
+        byte[] i = new byte[64];
+        for (int batch = start; batch < end; batch += BULK_BATCH) {
+            int batchEnd = Math.min(end, batch + BULK_BATCH);
+            for (int child = batch; child < batchEnd; child++) {
+                Utils.uint32ToByteArrayBE(child, data, 33);
+                hmac.update(data, 0, data.length);
+                hmac.doFinal(i, 0);
+                if (!lessThanN(i))
+                    throw new HDDerivationException("Illegal derived key: I_L >= n");
+                group.multiplyGenerator(i, 0);
+                group.addPoint(parentX, parentY);
+                if (group.qInfinity)
+                    throw new HDDerivationException("Illegal derived key: derived public key equals infinity.");
+                group.storeAccumulator(child - batch);
+                System.arraycopy(i, 32, result.chainCodes, (child - result.from) * 32, 32);
+            }
+            group.toAffine(batchEnd - batch, 1, null, false);
+            for (int child = batch; child < batchEnd; child++) {
+                int index = child - result.from;
+                Secp256k1Group.encodeCompressed(group.tableX[child - batch], group.tableY[child - batch],
+                        result.pubKeys, index * 33);
+                hash160(result.pubKeys, index, sha256, ripemd160, result.pubKeyHashes);
+            }
+        }
+    }
+
+    // Writes the hash of the compressed public key at the given index to the hashes at the same index.
+    private static void hash160(byte[] pubKeys, int index, MessageDigest sha256, RIPEMD160Digest ripemd160,
+                                byte[] hashes) {
+        sha256.update(pubKeys, index * 33, 33);
+        ripemd160.update(sha256.digest(), 0, 32);
+        ripemd160.doFinal(hashes, index * 20);
+    }
+
+    // Whether the 32 byte big endian number at the start of the given array is below n.
+    private static boolean lessThanN(byte[] bytes) {
+        for (int i = 0; i < 32; i++) {
+            int a = bytes[i] & 0xff, b = N_BYTES[i] & 0xff;
+            if (a != b)
+                return a < b;
+        }
+        return false;
+    }
+
     private static void assertNonZero(BigInteger integer, String errorMessage) {
         if (integer.equals(BigInteger.ZERO))
             throw new HDDerivationException(errorMessage);
@@ -247,4 +355,117 @@ public final class HDKeyDerivation {
             this.chainCode = chainCode;
         }
     }
+
+    /**
+     * The public keys, their hashes and the chain codes of a range of children of one parent, as derived by
+     * {@link #deriveChildPublicKeys(DeterministicKey, int, int)}. They are stored back to back in flat arrays: 33
+     * bytes per compressed public key, 20 bytes per hash and 32 bytes per chain code. The {@link DeterministicKey} of a
+     * child is only created when it is asked for, and kept from then on, so that it stays the same instance.
+     */
+    public static class ChildPublicKeys {
+        private final DeterministicKey parent;
+        private final int from, size;
+        private final byte[] pubKeys, pubKeyHashes, chainCodes;
+        // The keys created so far, allocated with the first one.
+        @Nullable private DeterministicKey[] keys;
+
+        private ChildPublicKeys(DeterministicKey parent, int from, byte[] pubKeys, byte[] pubKeyHashes,
+                                byte[] chainCodes) {
+            this.parent = parent;
+            this.from = from;
+            this.size = pubKeys.length / 33;
+            this.pubKeys = pubKeys;
+            this.pubKeyHashes = pubKeyHashes;
+            this.chainCodes = chainCodes;
+        }
+
+        /**
+         * Creates the children from (inclusive) of the given parent from their compressed public keys and chain codes,
+         * for example as read from a wallet file. Only the hashes of the public keys are computed, the keys are
+         * neither derived nor checked. The arrays are not copied.
+         */
+        public static ChildPublicKeys fromPublicKeys(DeterministicKey parent, int from, byte[] pubKeys,
+                                                     byte[] chainCodes) {
+            int size = pubKeys.length / 33;
+            checkArgument(from >= 0 && pubKeys.length == size * 33 && chainCodes.length == size * 32,
+                    "Invalid public keys or chain codes");
+            byte[] pubKeyHashes = new byte[size * 20];
+            MessageDigest sha256 = Sha256Hash.newDigest();
+            RIPEMD160Digest ripemd160 = new RIPEMD160Digest();
+            for (int i = 0; i < size; i++)
+                hash160(pubKeys, i, sha256, ripemd160, pubKeyHashes);
+            return new ChildPublicKeys(parent, from, pubKeys, pubKeyHashes, chainCodes);
+        }
+
+        /**
+         * Returns the same children under another instance of their parent, sharing the arrays. This is what
+         * {@link DeterministicKey#DeterministicKey(DeterministicKey, DeterministicKey)} does for a single key, for
+         * example to move keys into an encrypted hierarchy.
+         */
+        public ChildPublicKeys withParent(DeterministicKey newParent) {
+            checkArgument(newParent.getPath().equals(parent.getPath()), "Parent has a different path");
+            return new ChildPublicKeys(newParent, from, pubKeys, pubKeyHashes, chainCodes);
+        }
+
+        /** Returns the parent of the children. */
+        public DeterministicKey getParent() {
+            return parent;
+        }
+
+        /** Returns the number of children. */
+        public int size() {
+            return size;
+        }
+
+        /** Returns the child number of the child at the given index. */
+        public ChildNumber getChildNumber(int index) {
+            checkElementIndex(index, size);
+            return new ChildNumber(from + index);
+        }
+
+        /** Returns the compressed public keys of all children. The array is not copied. */
+        public byte[] getPubKeys() {
+            return pubKeys;
+        }
+
+        /** Returns the RIPEMD160(SHA256(pubkey)) hashes of all children. The array is not copied. */
+        public byte[] getPubKeyHashes() {
+            return pubKeyHashes;
+        }
+
+        /** Returns the chain codes of all children. The array is not copied. */
+        public byte[] getChainCodes() {
+            return chainCodes;
+        }
+
+        /** Returns the compressed public key of the child at the given index. */
+        public byte[] getPubKey(int index) {
+            checkElementIndex(index, size);
+            return Arrays.copyOfRange(pubKeys, index * 33, index * 33 + 33);
+        }
+
+        /** Returns the public key hash of the child at the given index. */
+        public byte[] getPubKeyHash(int index) {
+            checkElementIndex(index, size);
+            return Arrays.copyOfRange(pubKeyHashes, index * 20, index * 20 + 20);
+        }
+
+        /**
+         * Returns the public key only {@link DeterministicKey} of the child at the given index, which is created the
+         * first time it is asked for.
+         */
+        public synchronized DeterministicKey getKey(int index) {
+            checkElementIndex(index, size);
+            if (keys == null)
+                keys = new DeterministicKey[size];
+            DeterministicKey key = keys[index];
+            if (key == null) {
+                key = new DeterministicKey(parent, HDUtils.append(parent.getPath(), getChildNumber(index)),
+                        Arrays.copyOfRange(chainCodes, index * 32, index * 32 + 32),
+                        new LazyECPoint(ECKey.CURVE.getCurve(), getPubKey(index)), getPubKeyHash(index));
+                keys[index] = key;
+            }
+            return key;
+        }
+    }
 }
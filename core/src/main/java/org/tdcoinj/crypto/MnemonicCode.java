@@ -23,6 +23,9 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.google.common.base.Stopwatch;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
 
 import java.io.BufferedReader;
 import java.io.FileNotFoundException;
@@ -34,6 +37,7 @@ import java.security.MessageDigest;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.Callable;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 import static org.tdcoinj.core.Utils.HEX;
@@ -140,6 +144,25 @@ public class MnemonicCode {
         return seed;
     }
 
+    /**
+     * Converts many mnemonic word lists to seeds on the given executor, one task per mnemonic, for example to restore
+     * wallets in bulk without blocking the calling thread. The seeds are in the same order as the mnemonics.
+     */
+    public static ListenableFuture<List<byte[]>> toSeeds(List<List<String>> mnemonics, final String passphrase,
+                                                          ListeningExecutorService executor) {
+        checkNotNull(passphrase, "A null passphrase is not allowed.");
+        List<ListenableFuture<byte[]>> seeds = new ArrayList<>(mnemonics.size());
+        for (final List<String> words : mnemonics) {
+            seeds.add(executor.submit(new Callable<byte[]>() {
+                @Override
+                public byte[] call() {
+                    return toSeed(words, passphrase);
+                }
+            }));
+        }
+        return Futures.allAsList(seeds);
+    }
+
     /**
      * Convert mnemonic word list to original entropy value.
      */
@@ -23,12 +23,10 @@
 
 package org.tdcoinj.crypto;
 
-import javax.crypto.Mac;
-import javax.crypto.spec.SecretKeySpec;
+import org.bouncycastle.crypto.digests.SHA512Digest;
+import org.bouncycastle.crypto.macs.HMac;
+import org.bouncycastle.crypto.params.KeyParameter;
 
-import java.io.ByteArrayOutputStream;
-import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
 import java.nio.charset.StandardCharsets;
 
 /**
@@ -40,75 +38,50 @@ import java.nio.charset.StandardCharsets;
  *
  * <p>http://cryptofreek.org/2012/11/29/pbkdf2-pure-java-implementation/<br>
  * Modified to use SHA-512 - Ken Sedgwick ken@bonsai.com</p>
+ *
+ * <p>The rounds run on one HMAC instance that keeps the key's inner and outer padding states, writing into the same
+ * buffers each round, so they don't allocate.</p>
  */
 public class PBKDF2SHA512 {
-    public static byte[] derive(String P, String S, int c, int dkLen) {
-        ByteArrayOutputStream baos = new ByteArrayOutputStream();
-
-        try {
-            int hLen = 20;
+    private static final int H_LEN = 64; // Length of a SHA-512 hash.
 
-            if (dkLen > ((Math.pow(2, 32)) - 1) * hLen) {
-                throw new IllegalArgumentException("derived key too long");
-            } else {
-                int l = (int) Math.ceil((double) dkLen / (double) hLen);
-                // int r = dkLen - (l-1)*hLen;
-
-                for (int i = 1; i <= l; i++) {
-                    byte[] T = F(P, S, c, i);
-                    baos.write(T);
-                }
-            }
-        } catch (Exception e) {
-            throw new RuntimeException(e);
-        }
+    public static byte[] derive(String P, String S, int c, int dkLen) {
+        return derive(P.getBytes(StandardCharsets.UTF_8), S.getBytes(StandardCharsets.UTF_8), c, dkLen);
+    }
 
+    public static byte[] derive(byte[] P, byte[] S, int c, int dkLen) {
+        if (dkLen > ((Math.pow(2, 32)) - 1) * H_LEN)
+            throw new IllegalArgumentException("derived key too long");
+        HMac mac = new HMac(new SHA512Digest());
+        mac.init(new KeyParameter(P));
+        int l = (dkLen + H_LEN - 1) / H_LEN;
         byte[] baDerived = new byte[dkLen];
-        System.arraycopy(baos.toByteArray(), 0, baDerived, 0, baDerived.length);
-
+        byte[] U = new byte[H_LEN];
+        byte[] T = new byte[H_LEN];
+        byte[] baI = new byte[4];
+        for (int i = 1; i <= l; i++) {
+            F(mac, S, c, i, baI, U, T);
+            int offset = (i - 1) * H_LEN;
+            System.arraycopy(T, 0, baDerived, offset, Math.min(H_LEN, dkLen - offset));
+        }
         return baDerived;
     }
 
-    private static byte[] F(String P, String S, int c, int i) throws Exception {
-        byte[] U_LAST = null;
-        byte[] U_XOR = null;
-
-        SecretKeySpec key = new SecretKeySpec(P.getBytes(StandardCharsets.UTF_8), "HmacSHA512");
-        Mac mac = Mac.getInstance(key.getAlgorithm());
-        mac.init(key);
-
-        for (int j = 0; j < c; j++) {
-            if (j == 0) {
-                byte[] baS = S.getBytes(StandardCharsets.UTF_8);
-                byte[] baI = INT(i);
-                byte[] baU = new byte[baS.length + baI.length];
-
-                System.arraycopy(baS, 0, baU, 0, baS.length);
-                System.arraycopy(baI, 0, baU, baS.length, baI.length);
-
-                U_XOR = mac.doFinal(baU);
-                U_LAST = U_XOR;
-                mac.reset();
-            } else {
-                byte[] baU = mac.doFinal(U_LAST);
-                mac.reset();
-
-                for (int k = 0; k < U_XOR.length; k++) {
-                    U_XOR[k] = (byte) (U_XOR[k] ^ baU[k]);
-                }
-
-                U_LAST = baU;
-            }
+    // Calculates block i of the derived key into T, using U as the buffer for the intermediate hashes.
+    private static void F(HMac mac, byte[] S, int c, int i, byte[] baI, byte[] U, byte[] T) {
+        baI[0] = (byte) (i >>> 24);
+        baI[1] = (byte) (i >>> 16);
+        baI[2] = (byte) (i >>> 8);
+        baI[3] = (byte) i;
+        mac.update(S, 0, S.length);
+        mac.update(baI, 0, baI.length);
+        mac.doFinal(U, 0);
+        System.arraycopy(U, 0, T, 0, H_LEN);
+        for (int j = 1; j < c; j++) {
+            mac.update(U, 0, H_LEN);
+            mac.doFinal(U, 0);
+            for (int k = 0; k < H_LEN; k++)
+                T[k] ^= U[k];
         }
-
-        return U_XOR;
-    }
-
-    private static byte[] INT(int i) {
-        ByteBuffer bb = ByteBuffer.allocate(4);
-        bb.order(ByteOrder.BIG_ENDIAN);
-        bb.putInt(i);
-
-        return bb.array();
     }
 }
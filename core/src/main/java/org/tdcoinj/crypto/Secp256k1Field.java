@@ -0,0 +1,694 @@
+/*
+ * Copyright by the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.tdcoinj.crypto;
+
+import java.math.BigInteger;
+
+/**
+ * <p>Arithmetic in the prime field of the secp256k1 curve, p = 2<sup>256</sup> - 2<sup>32</sup> - 977. Elements are
+ * {@code int[8]} arrays holding the value as little endian unsigned 32 bit limbs, and are always fully reduced.
+ * Results are written to an array given by the caller, which may be one of the operands, so none of the operations
+ * allocate.</p>
+ *
+ * <p>Multiplication and squaring are unrolled and keep the 512 bit product in local variables. It is then reduced
+ * using 2<sup>256</sup> = 2<sup>32</sup> + 977 (mod p). An instance holds the scratch space needed for inversion and
+ * square roots, so it must only be used by one thread at a time.</p>
+ */
+final class Secp256k1Field {
+    static final BigInteger P = new BigInteger(
+            "FFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFEFFFFFC2F", 16);
+
+    private static final long M = 0xFFFFFFFFL;
+    private static final int P0 = 0xFFFFFC2F;
+    private static final int P1 = 0xFFFFFFFE;
+    // 2^256 - p = 2^32 + 977, the factor used to fold the upper half of a product into the lower half.
+    private static final long R977 = 977;
+
+    private final int[] x2 = new int[8], x3 = new int[8], x6 = new int[8], x11 = new int[8], x22 = new int[8],
+            x44 = new int[8], acc = new int[8];
+
+    static int[] create() {
+        return new int[8];
+    }
+
+    static int[] fromBigInteger(BigInteger value) {
+        int[] r = new int[8];
+        setBigInteger(r, value);
+        return r;
+    }
+
+    /** Sets r to the given value, which must be non-negative and below 2<sup>256</sup>. */
+    static void setBigInteger(int[] r, BigInteger value) {
+        byte[] bytes = value.toByteArray();
+        int end = bytes.length;
+        for (int i = 0; i < 8; i++) {
+            int limb = 0;
+            for (int j = 0; j < 4; j++) {
+                int index = end - 4 * i - j - 1;
+                if (index >= 0)
+                    limb |= (bytes[index] & 0xff) << (8 * j);
+            }
+            r[i] = limb;
+        }
+    }
+
+    static BigInteger toBigInteger(int[] a) {
+        byte[] bytes = new byte[32];
+        toBytes(a, bytes, 0);
+        return new BigInteger(1, bytes);
+    }
+
+    /**
+     * Reads a big endian 32 byte value.
+     * @return false if the value is not below p, in which case r is left undefined
+     */
+    static boolean setBytes(int[] r, byte[] buf, int offset) {
+        for (int i = 0; i < 8; i++) {
+            int o = offset + 28 - 4 * i;
+            r[i] = (buf[o] & 0xff) << 24 | (buf[o + 1] & 0xff) << 16 | (buf[o + 2] & 0xff) << 8 | (buf[o + 3] & 0xff);
+        }
+        return !isAtLeastP(r);
+    }
+
+    /** Writes the element as a big endian 32 byte value. */
+    static void toBytes(int[] a, byte[] buf, int offset) {
+        for (int i = 0; i < 8; i++) {
+            int o = offset + 28 - 4 * i;
+            buf[o] = (byte) (a[i] >>> 24);
+            buf[o + 1] = (byte) (a[i] >>> 16);
+            buf[o + 2] = (byte) (a[i] >>> 8);
+            buf[o + 3] = (byte) a[i];
+        }
+    }
+
+    static void set(int[] r, int[] a) {
+        System.arraycopy(a, 0, r, 0, 8);
+    }
+
+    static void setOne(int[] r) {
+        r[0] = 1;
+        for (int i = 1; i < 8; i++)
+            r[i] = 0;
+    }
+
+    static boolean isZero(int[] a) {
+        int bits = 0;
+        for (int i = 0; i < 8; i++)
+            bits |= a[i];
+        return bits == 0;
+    }
+
+    static boolean isOdd(int[] a) {
+        return (a[0] & 1) != 0;
+    }
+
+    static boolean equals(int[] a, int[] b) {
+        int diff = 0;
+        for (int i = 0; i < 8; i++)
+            diff |= a[i] ^ b[i];
+        return diff == 0;
+    }
+
+    static void add(int[] r, int[] a, int[] b) {
+        long c = 0;
+        for (int i = 0; i < 8; i++) {
+            c += (a[i] & M) + (b[i] & M);
+            r[i] = (int) c;
+            c >>>= 32;
+        }
+        // Subtract p if the sum carried out or is at least p, that is if adding 2^256 - p carries out.
+        long d = ((r[0] & M) + R977) >>> 32;
+        d = (d + (r[1] & M) + 1) >>> 32;
+        for (int i = 2; i < 8; i++)
+            d = (d + (r[i] & M)) >>> 32;
+        addComplement(r, -(c | d));
+    }
+
+    static void sub(int[] r, int[] a, int[] b) {
+        long c = 0;
+        for (int i = 0; i < 8; i++) {
+            c += (a[i] & M) - (b[i] & M);
+            r[i] = (int) c;
+            c >>= 32;
+        }
+        // Add p if the difference is negative, in which case c is -1.
+        subComplement(r, c);
+    }
+
+    static void twice(int[] r, int[] a) {
+        add(r, a, a);
+    }
+
+    static void negate(int[] r, int[] a) {
+        int bits = 0;
+        for (int i = 0; i < 8; i++)
+            bits |= a[i];
+        // All ones unless a is zero, whose negation is zero rather than p.
+        long mask = ((bits | -bits) >> 31) & M;
+        long c = (P0 & M) - (a[0] & M);
+        r[0] = (int) (c & mask);
+        c >>= 32;
+        c += (P1 & M) - (a[1] & M);
+        r[1] = (int) (c & mask);
+        c >>= 32;
+        for (int i = 2; i < 8; i++) {
+            c += M - (a[i] & M);
+            r[i] = (int) (c & mask);
+            c >>= 32;
+        }
+    }
+
+    /** Sets r to a if select is 1 and leaves it unchanged if it is 0, in constant time. */
+    static void conditionalSet(int[] r, int[] a, int select) {
+        int mask = -select;
+        for (int i = 0; i < 8; i++)
+            r[i] ^= (r[i] ^ a[i]) & mask;
+    }
+
+    void mul(int[] r, int[] a, int[] b) {
+        long a0 = a[0] & M, a1 = a[1] & M, a2 = a[2] & M, a3 = a[3] & M, a4 = a[4] & M, a5 = a[5] & M, a6 = a[6] & M, a7 = a[7] & M;
+        long b0 = b[0] & M, b1 = b[1] & M, b2 = b[2] & M, b3 = b[3] & M, b4 = b[4] & M, b5 = b[5] & M, b6 = b[6] & M, b7 = b[7] & M;
+        long p;
+        p = a0 * b0;
+        long t0 = p & M;
+        p = (p >>> 32) + a0 * b1;
+        long t1 = p & M;
+        p = (p >>> 32) + a0 * b2;
+        long t2 = p & M;
+        p = (p >>> 32) + a0 * b3;
+        long t3 = p & M;
+        p = (p >>> 32) + a0 * b4;
+        long t4 = p & M;
+        p = (p >>> 32) + a0 * b5;
+        long t5 = p & M;
+        p = (p >>> 32) + a0 * b6;
+        long t6 = p & M;
+        p = (p >>> 32) + a0 * b7;
+        long t7 = p & M;
+        long t8 = p >>> 32;
+        p = a1 * b0 + t1;
+        t1 = p & M;
+        p = (p >>> 32) + a1 * b1 + t2;
+        t2 = p & M;
+        p = (p >>> 32) + a1 * b2 + t3;
+        t3 = p & M;
+        p = (p >>> 32) + a1 * b3 + t4;
+        t4 = p & M;
+        p = (p >>> 32) + a1 * b4 + t5;
+        t5 = p & M;
+        p = (p >>> 32) + a1 * b5 + t6;
+        t6 = p & M;
+        p = (p >>> 32) + a1 * b6 + t7;
+        t7 = p & M;
+        p = (p >>> 32) + a1 * b7 + t8;
+        t8 = p & M;
+        long t9 = p >>> 32;
+        p = a2 * b0 + t2;
+        t2 = p & M;
+        p = (p >>> 32) + a2 * b1 + t3;
+        t3 = p & M;
+        p = (p >>> 32) + a2 * b2 + t4;
+        t4 = p & M;
+        p = (p >>> 32) + a2 * b3 + t5;
+        t5 = p & M;
+        p = (p >>> 32) + a2 * b4 + t6;
+        t6 = p & M;
+        p = (p >>> 32) + a2 * b5 + t7;
+        t7 = p & M;
+        p = (p >>> 32) + a2 * b6 + t8;
+        t8 = p & M;
+        p = (p >>> 32) + a2 * b7 + t9;
+        t9 = p & M;
+        long t10 = p >>> 32;
+        p = a3 * b0 + t3;
+        t3 = p & M;
+        p = (p >>> 32) + a3 * b1 + t4;
+        t4 = p & M;
+        p = (p >>> 32) + a3 * b2 + t5;
+        t5 = p & M;
+        p = (p >>> 32) + a3 * b3 + t6;
+        t6 = p & M;
+        p = (p >>> 32) + a3 * b4 + t7;
+        t7 = p & M;
+        p = (p >>> 32) + a3 * b5 + t8;
+        t8 = p & M;
+        p = (p >>> 32) + a3 * b6 + t9;
+        t9 = p & M;
+        p = (p >>> 32) + a3 * b7 + t10;
+        t10 = p & M;
+        long t11 = p >>> 32;
+        p = a4 * b0 + t4;
+        t4 = p & M;
+        p = (p >>> 32) + a4 * b1 + t5;
+        t5 = p & M;
+        p = (p >>> 32) + a4 * b2 + t6;
+        t6 = p & M;
+        p = (p >>> 32) + a4 * b3 + t7;
+        t7 = p & M;
+        p = (p >>> 32) + a4 * b4 + t8;
+        t8 = p & M;
+        p = (p >>> 32) + a4 * b5 + t9;
+        t9 = p & M;
+        p = (p >>> 32) + a4 * b6 + t10;
+        t10 = p & M;
+        p = (p >>> 32) + a4 * b7 + t11;
+        t11 = p & M;
+        long t12 = p >>> 32;
+        p = a5 * b0 + t5;
+        t5 = p & M;
+        p = (p >>> 32) + a5 * b1 + t6;
+        t6 = p & M;
+        p = (p >>> 32) + a5 * b2 + t7;
+        t7 = p & M;
+        p = (p >>> 32) + a5 * b3 + t8;
+        t8 = p & M;
+        p = (p >>> 32) + a5 * b4 + t9;
+        t9 = p & M;
+        p = (p >>> 32) + a5 * b5 + t10;
+        t10 = p & M;
+        p = (p >>> 32) + a5 * b6 + t11;
+        t11 = p & M;
+        p = (p >>> 32) + a5 * b7 + t12;
+        t12 = p & M;
+        long t13 = p >>> 32;
+        p = a6 * b0 + t6;
+        t6 = p & M;
+        p = (p >>> 32) + a6 * b1 + t7;
+        t7 = p & M;
+        p = (p >>> 32) + a6 * b2 + t8;
+        t8 = p & M;
+        p = (p >>> 32) + a6 * b3 + t9;
+        t9 = p & M;
+        p = (p >>> 32) + a6 * b4 + t10;
+        t10 = p & M;
+        p = (p >>> 32) + a6 * b5 + t11;
+        t11 = p & M;
+        p = (p >>> 32) + a6 * b6 + t12;
+        t12 = p & M;
+        p = (p >>> 32) + a6 * b7 + t13;
+        t13 = p & M;
+        long t14 = p >>> 32;
+        p = a7 * b0 + t7;
+        t7 = p & M;
+        p = (p >>> 32) + a7 * b1 + t8;
+        t8 = p & M;
+        p = (p >>> 32) + a7 * b2 + t9;
+        t9 = p & M;
+        p = (p >>> 32) + a7 * b3 + t10;
+        t10 = p & M;
+        p = (p >>> 32) + a7 * b4 + t11;
+        t11 = p & M;
+        p = (p >>> 32) + a7 * b5 + t12;
+        t12 = p & M;
+        p = (p >>> 32) + a7 * b6 + t13;
+        t13 = p & M;
+        p = (p >>> 32) + a7 * b7 + t14;
+        t14 = p & M;
+        long t15 = p >>> 32;
+        long c = t0 + t8 * R977;
+        long r0 = c & M;
+        c >>>= 32;
+        c += t1 + t9 * R977 + t8;
+        long r1 = c & M;
+        c >>>= 32;
+        c += t2 + t10 * R977 + t9;
+        long r2 = c & M;
+        c >>>= 32;
+        c += t3 + t11 * R977 + t10;
+        long r3 = c & M;
+        c >>>= 32;
+        c += t4 + t12 * R977 + t11;
+        long r4 = c & M;
+        c >>>= 32;
+        c += t5 + t13 * R977 + t12;
+        long r5 = c & M;
+        c >>>= 32;
+        c += t6 + t14 * R977 + t13;
+        long r6 = c & M;
+        c >>>= 32;
+        c += t7 + t15 * R977 + t14;
+        long r7 = c & M;
+        c >>>= 32;
+        long top = c + t15;
+        c = r0 + top * R977;
+        r0 = c & M;
+        c = (c >>> 32) + r1 + top;
+        r1 = c & M;
+        c = (c >>> 32) + r2;
+        r2 = c & M;
+        c = (c >>> 32) + r3;
+        r3 = c & M;
+        c = (c >>> 32) + r4;
+        r4 = c & M;
+        c = (c >>> 32) + r5;
+        r5 = c & M;
+        c = (c >>> 32) + r6;
+        r6 = c & M;
+        c = (c >>> 32) + r7;
+        r7 = c & M;
+        c >>>= 32;
+        if (c != 0 || (r7 & r6 & r5 & r4 & r3 & r2) == M && (r1 > (P1 & M) || r1 == (P1 & M) && r0 >= (P0 & M))) {
+            c = r0 + R977;
+            r0 = c & M;
+            c = (c >>> 32) + r1 + 1;
+            r1 = c & M;
+            c = (c >>> 32) + r2;
+            r2 = c & M;
+            c = (c >>> 32) + r3;
+            r3 = c & M;
+            c = (c >>> 32) + r4;
+            r4 = c & M;
+            c = (c >>> 32) + r5;
+            r5 = c & M;
+            c = (c >>> 32) + r6;
+            r6 = c & M;
+            c = (c >>> 32) + r7;
+            r7 = c & M;
+        }
+        r[0] = (int) r0;
+        r[1] = (int) r1;
+        r[2] = (int) r2;
+        r[3] = (int) r3;
+        r[4] = (int) r4;
+        r[5] = (int) r5;
+        r[6] = (int) r6;
+        r[7] = (int) r7;
+    }
+
+    void sqr(int[] r, int[] a) {
+        long a0 = a[0] & M, a1 = a[1] & M, a2 = a[2] & M, a3 = a[3] & M, a4 = a[4] & M, a5 = a[5] & M, a6 = a[6] & M, a7 = a[7] & M;
+        // The products of different limbs appear twice, so compute them once and double them.
+        long p;
+        p = a0 * a1;
+        long t1 = p & M;
+        p = (p >>> 32) + a0 * a2;
+        long t2 = p & M;
+        p = (p >>> 32) + a0 * a3;
+        long t3 = p & M;
+        p = (p >>> 32) + a0 * a4;
+        long t4 = p & M;
+        p = (p >>> 32) + a0 * a5;
+        long t5 = p & M;
+        p = (p >>> 32) + a0 * a6;
+        long t6 = p & M;
+        p = (p >>> 32) + a0 * a7;
+        long t7 = p & M;
+        long t8 = p >>> 32;
+        p = a1 * a2 + t3;
+        t3 = p & M;
+        p = (p >>> 32) + a1 * a3 + t4;
+        t4 = p & M;
+        p = (p >>> 32) + a1 * a4 + t5;
+        t5 = p & M;
+        p = (p >>> 32) + a1 * a5 + t6;
+        t6 = p & M;
+        p = (p >>> 32) + a1 * a6 + t7;
+        t7 = p & M;
+        p = (p >>> 32) + a1 * a7 + t8;
+        t8 = p & M;
+        long t9 = p >>> 32;
+        p = a2 * a3 + t5;
+        t5 = p & M;
+        p = (p >>> 32) + a2 * a4 + t6;
+        t6 = p & M;
+        p = (p >>> 32) + a2 * a5 + t7;
+        t7 = p & M;
+        p = (p >>> 32) + a2 * a6 + t8;
+        t8 = p & M;
+        p = (p >>> 32) + a2 * a7 + t9;
+        t9 = p & M;
+        long t10 = p >>> 32;
+        p = a3 * a4 + t7;
+        t7 = p & M;
+        p = (p >>> 32) + a3 * a5 + t8;
+        t8 = p & M;
+        p = (p >>> 32) + a3 * a6 + t9;
+        t9 = p & M;
+        p = (p >>> 32) + a3 * a7 + t10;
+        t10 = p & M;
+        long t11 = p >>> 32;
+        p = a4 * a5 + t9;
+        t9 = p & M;
+        p = (p >>> 32) + a4 * a6 + t10;
+        t10 = p & M;
+        p = (p >>> 32) + a4 * a7 + t11;
+        t11 = p & M;
+        long t12 = p >>> 32;
+        p = a5 * a6 + t11;
+        t11 = p & M;
+        p = (p >>> 32) + a5 * a7 + t12;
+        t12 = p & M;
+        long t13 = p >>> 32;
+        p = a6 * a7 + t13;
+        t13 = p & M;
+        long t14 = p >>> 32;
+        long t15 = t14 >>> 31;
+        t14 = (t14 << 1 | t13 >>> 31) & M;
+        t13 = (t13 << 1 | t12 >>> 31) & M;
+        t12 = (t12 << 1 | t11 >>> 31) & M;
+        t11 = (t11 << 1 | t10 >>> 31) & M;
+        t10 = (t10 << 1 | t9 >>> 31) & M;
+        t9 = (t9 << 1 | t8 >>> 31) & M;
+        t8 = (t8 << 1 | t7 >>> 31) & M;
+        t7 = (t7 << 1 | t6 >>> 31) & M;
+        t6 = (t6 << 1 | t5 >>> 31) & M;
+        t5 = (t5 << 1 | t4 >>> 31) & M;
+        t4 = (t4 << 1 | t3 >>> 31) & M;
+        t3 = (t3 << 1 | t2 >>> 31) & M;
+        t2 = (t2 << 1 | t1 >>> 31) & M;
+        t1 = (t1 << 1) & M;
+        p = a0 * a0;
+        long t0 = p & M;
+        long c = (p >>> 32) + t1;
+        t1 = c & M;
+        p = a1 * a1;
+        c = (c >>> 32) + t2 + (p & M);
+        t2 = c & M;
+        c = (c >>> 32) + t3 + (p >>> 32);
+        t3 = c & M;
+        p = a2 * a2;
+        c = (c >>> 32) + t4 + (p & M);
+        t4 = c & M;
+        c = (c >>> 32) + t5 + (p >>> 32);
+        t5 = c & M;
+        p = a3 * a3;
+        c = (c >>> 32) + t6 + (p & M);
+        t6 = c & M;
+        c = (c >>> 32) + t7 + (p >>> 32);
+        t7 = c & M;
+        p = a4 * a4;
+        c = (c >>> 32) + t8 + (p & M);
+        t8 = c & M;
+        c = (c >>> 32) + t9 + (p >>> 32);
+        t9 = c & M;
+        p = a5 * a5;
+        c = (c >>> 32) + t10 + (p & M);
+        t10 = c & M;
+        c = (c >>> 32) + t11 + (p >>> 32);
+        t11 = c & M;
+        p = a6 * a6;
+        c = (c >>> 32) + t12 + (p & M);
+        t12 = c & M;
+        c = (c >>> 32) + t13 + (p >>> 32);
+        t13 = c & M;
+        p = a7 * a7;
+        c = (c >>> 32) + t14 + (p & M);
+        t14 = c & M;
+        c = (c >>> 32) + t15 + (p >>> 32);
+        t15 = c & M;
+        c = t0 + t8 * R977;
+        long r0 = c & M;
+        c >>>= 32;
+        c += t1 + t9 * R977 + t8;
+        long r1 = c & M;
+        c >>>= 32;
+        c += t2 + t10 * R977 + t9;
+        long r2 = c & M;
+        c >>>= 32;
+        c += t3 + t11 * R977 + t10;
+        long r3 = c & M;
+        c >>>= 32;
+        c += t4 + t12 * R977 + t11;
+        long r4 = c & M;
+        c >>>= 32;
+        c += t5 + t13 * R977 + t12;
+        long r5 = c & M;
+        c >>>= 32;
+        c += t6 + t14 * R977 + t13;
+        long r6 = c & M;
+        c >>>= 32;
+        c += t7 + t15 * R977 + t14;
+        long r7 = c & M;
+        c >>>= 32;
+        long top = c + t15;
+        c = r0 + top * R977;
+        r0 = c & M;
+        c = (c >>> 32) + r1 + top;
+        r1 = c & M;
+        c = (c >>> 32) + r2;
+        r2 = c & M;
+        c = (c >>> 32) + r3;
+        r3 = c & M;
+        c = (c >>> 32) + r4;
+        r4 = c & M;
+        c = (c >>> 32) + r5;
+        r5 = c & M;
+        c = (c >>> 32) + r6;
+        r6 = c & M;
+        c = (c >>> 32) + r7;
+        r7 = c & M;
+        c >>>= 32;
+        if (c != 0 || (r7 & r6 & r5 & r4 & r3 & r2) == M && (r1 > (P1 & M) || r1 == (P1 & M) && r0 >= (P0 & M))) {
+            c = r0 + R977;
+            r0 = c & M;
+            c = (c >>> 32) + r1 + 1;
+            r1 = c & M;
+            c = (c >>> 32) + r2;
+            r2 = c & M;
+            c = (c >>> 32) + r3;
+            r3 = c & M;
+            c = (c >>> 32) + r4;
+            r4 = c & M;
+            c = (c >>> 32) + r5;
+            r5 = c & M;
+            c = (c >>> 32) + r6;
+            r6 = c & M;
+            c = (c >>> 32) + r7;
+            r7 = c & M;
+        }
+        r[0] = (int) r0;
+        r[1] = (int) r1;
+        r[2] = (int) r2;
+        r[3] = (int) r3;
+        r[4] = (int) r4;
+        r[5] = (int) r5;
+        r[6] = (int) r6;
+        r[7] = (int) r7;
+    }
+
+
+    /** Sets r to a<sup>-1</sup>, or to zero if a is zero. */
+    void inv(int[] r, int[] a) {
+        // a^(p - 2). The exponent is 223 ones, a zero, 22 ones and then 0000101101.
+        powerChain(a);
+        sqrN(acc, 23);
+        mul(acc, acc, x22);
+        sqrN(acc, 5);
+        mul(acc, acc, a);
+        sqrN(acc, 3);
+        mul(acc, acc, x2);
+        sqrN(acc, 2);
+        mul(r, acc, a);
+    }
+
+    /**
+     * Sets r to a square root of a.
+     * @return false if a has no square root, in which case r is left undefined
+     */
+    boolean sqrt(int[] r, int[] a) {
+        // a^((p + 1) / 4), which works as p = 3 mod 4. The exponent is 223 ones, a zero, 22 ones and then 00001100.
+        powerChain(a);
+        sqrN(acc, 23);
+        mul(acc, acc, x22);
+        sqrN(acc, 6);
+        mul(acc, acc, x2);
+        sqrN(acc, 2);
+        sqr(x3, acc);
+        if (!equals(x3, a))
+            return false;
+        set(r, acc);
+        return true;
+    }
+
+    // Sets x2, x3 and x22 to a^(2^n - 1) for n = 2, 3 and 22, and acc to a^(2^223 - 1).
+    private void powerChain(int[] a) {
+        sqr(x2, a);
+        mul(x2, x2, a);
+        sqr(x3, x2);
+        mul(x3, x3, a);
+        set(x6, x3);
+        sqrN(x6, 3);
+        mul(x6, x6, x3);
+        set(acc, x6);   // x9
+        sqrN(acc, 3);
+        mul(acc, acc, x3);
+        set(x11, acc);
+        sqrN(x11, 2);
+        mul(x11, x11, x2);
+        set(x22, x11);
+        sqrN(x22, 11);
+        mul(x22, x22, x11);
+        set(x44, x22);
+        sqrN(x44, 22);
+        mul(x44, x44, x22);
+        set(acc, x44);  // x88
+        sqrN(acc, 44);
+        mul(acc, acc, x44);
+        set(x6, acc);   // x88, x6 is no longer needed
+        sqrN(acc, 88);  // x176
+        mul(acc, acc, x6);
+        sqrN(acc, 44);  // x220
+        mul(acc, acc, x44);
+        sqrN(acc, 3);   // x223
+        mul(acc, acc, x3);
+    }
+
+    private void sqrN(int[] r, int n) {
+        for (int i = 0; i < n; i++)
+            sqr(r, r);
+    }
+
+    private static boolean isAtLeastP(int[] a) {
+        for (int i = 7; i > 1; i--)
+            if (a[i] != -1)
+                return false;
+        long a1 = a[1] & M;
+        return a1 > (P1 & M) || (a1 == (P1 & M) && (a[0] & M) >= (P0 & M));
+    }
+
+    // If mask is all ones, adds 2^256 - p and drops the carry out of the top limb, which subtracts p from a value in
+    // [p, 2^257). Does the same amount of work either way.
+    private static void addComplement(int[] r, long mask) {
+        long c = (r[0] & M) + (R977 & mask);
+        r[0] = (int) c;
+        c >>>= 32;
+        c += (r[1] & M) + (1 & mask);
+        r[1] = (int) c;
+        c >>>= 32;
+        for (int i = 2; i < 8; i++) {
+            c += r[i] & M;
+            r[i] = (int) c;
+            c >>>= 32;
+        }
+    }
+
+    // If mask is all ones, subtracts 2^256 - p and drops the borrow out of the top limb, which adds p to a negative
+    // value. Does the same amount of work either way.
+    private static void subComplement(int[] r, long mask) {
+        long c = (r[0] & M) - (R977 & mask);
+        r[0] = (int) c;
+        c >>= 32;
+        c += (r[1] & M) - (1 & mask);
+        r[1] = (int) c;
+        c >>= 32;
+        for (int i = 2; i < 8; i++) {
+            c += r[i] & M;
+            r[i] = (int) c;
+            c >>= 32;
+        }
+    }
+}
@@ -0,0 +1,331 @@
+/*
+ * Copyright by the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.tdcoinj.crypto;
+
+import org.tdcoinj.core.ECKey;
+import org.bouncycastle.math.ec.ECPoint;
+
+import javax.annotation.Nullable;
+import java.math.BigInteger;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static org.tdcoinj.crypto.Secp256k1Field.*;
+
+/**
+ * <p>Point arithmetic on the secp256k1 curve, y<sup>2</sup> = x<sup>3</sup> + 7, using {@link Secp256k1Field}. Points
+ * are kept as separate coordinate arrays, in Jacobian coordinates (X / Z<sup>2</sup>, Y / Z<sup>3</sup>) while
+ * computing and in affine coordinates in tables.</p>
+ *
+ * <p>An instance holds the scratch space: temporaries, an accumulator point q and a table of points whose size is
+ * given on creation. Instances must only be used by one thread at a time.</p>
+ */
+class Secp256k1Group {
+    static final BigInteger N = ECKey.CURVE.getN();
+    private static final int[] B = fromBigInteger(BigInteger.valueOf(7));
+    // A cube root of unity modulo p. The endomorphism (x, y) -> (beta * x, y) multiplies points by a cube root of
+    // unity modulo n, see Secp256k1Verifier.LAMBDA.
+    static final int[] BETA = fromBigInteger(
+            new BigInteger("7ae96a2b657c07106e64479eac3434e99cf0497512f58995c1396c28719501ee", 16));
+
+    final Secp256k1Field f = new Secp256k1Field();
+    final int[] t1 = create(), t2 = create(), t3 = create(), t4 = create(), t5 = create(), t6 = create(),
+            t7 = create();
+    // The point being accumulated, in Jacobian coordinates.
+    final int[] qx = create(), qy = create(), qz = create();
+    boolean qInfinity;
+    // Twice the point whose odd multiples are being computed.
+    final int[] dx = create(), dy = create(), dz = create();
+    // A table of points, first in Jacobian coordinates and then converted to affine ones in place. tableLambdaX
+    // optionally holds beta * x.
+    final int[][] tableX, tableY, tableZ, tableLambdaX, prefix;
+    private final int[] gx = create(), gy = create();
+
+    Secp256k1Group(int tableSize) {
+        tableX = new int[tableSize][8];
+        tableY = new int[tableSize][8];
+        tableZ = new int[tableSize][8];
+        tableLambdaX = new int[tableSize][8];
+        prefix = new int[tableSize][8];
+    }
+
+    /** Sets x and y to the affine coordinates of the generator G. */
+    static void setGenerator(int[] x, int[] y) {
+        ECPoint g = ECKey.CURVE.getG().normalize();
+        setBigInteger(x, g.getAffineXCoord().toBigInteger());
+        setBigInteger(y, g.getAffineYCoord().toBigInteger());
+    }
+
+    /**
+     * Sets the accumulated point q to k * G, for the 32 byte big endian scalar k at the given offset. This adds one
+     * precomputed multiple of G per non-zero byte of k and needs no doublings.
+     */
+    void multiplyGenerator(byte[] k, int offset) {
+        int[] xs = FixedBase.X, ys = FixedBase.Y;
+        qInfinity = true;
+        for (int window = 0; window < 32; window++) {
+            int value = k[offset + 31 - window] & 0xff;
+            if (value == 0)
+                continue;
+            int entry = (window * 255 + value - 1) * 8;
+            System.arraycopy(xs, entry, gx, 0, 8);
+            System.arraycopy(ys, entry, gy, 0, 8);
+            addPoint(gx, gy);
+        }
+    }
+
+    /** Copies the accumulated point to the given entry of the table. */
+    void storeAccumulator(int index) {
+        set(tableX[index], qx);
+        set(tableY[index], qy);
+        set(tableZ[index], qz);
+    }
+
+    /** Writes the compressed encoding of the given affine point. */
+    static void encodeCompressed(int[] x, int[] y, byte[] buf, int offset) {
+        buf[offset] = (byte) (isOdd(y) ? 0x03 : 0x02);
+        toBytes(x, buf, offset + 1);
+    }
+
+    /**
+     * Decodes a public key to affine coordinates, accepting the same encodings as Bouncy Castle.
+     * @throws IllegalArgumentException if the encoding is invalid or the point is not on the curve
+     */
+    void decodePoint(byte[] encoded, int[] x, int[] y) {
+        checkArgument(encoded.length > 0, "Empty point encoding");
+        byte type = encoded[0];
+        switch (type) {
+            case 0x00:
+                checkArgument(encoded.length == 1, "Incorrect length for infinity encoding");
+                throw new IllegalArgumentException("Point at infinity");
+            case 0x02:
+            case 0x03:
+                checkArgument(encoded.length == 33, "Incorrect length for compressed encoding");
+                checkArgument(setBytes(x, encoded, 1), "Invalid x coordinate");
+                curveRightSide(t1, x);
+                checkArgument(f.sqrt(y, t1), "Invalid point compression");
+                if (isOdd(y) != (type == 0x03))
+                    negate(y, y);
+                break;
+            case 0x04:
+            case 0x06:
+            case 0x07:
+                checkArgument(encoded.length == 65, "Incorrect length for uncompressed or hybrid encoding");
+                checkArgument(setBytes(x, encoded, 1), "Invalid x coordinate");
+                checkArgument(setBytes(y, encoded, 33), "Invalid y coordinate");
+                checkArgument(type == 0x04 || isOdd(y) == (type == 0x07),
+                        "Inconsistent Y coordinate in hybrid encoding");
+                curveRightSide(t1, x);
+                f.sqr(t2, y);
+                checkArgument(Secp256k1Field.equals(t1, t2), "Invalid point coordinates");
+                break;
+            default:
+                throw new IllegalArgumentException("Invalid point encoding 0x" + Integer.toString(type, 16));
+        }
+    }
+
+    // x^3 + 7
+    private void curveRightSide(int[] r, int[] x) {
+        f.sqr(r, x);
+        f.mul(r, r, x);
+        add(r, r, B);
+    }
+
+    /**
+     * Given a point in Jacobian coordinates at the given index of the table, fills the following count - 1
+     * entries with its odd multiples 3P, 5P, and so on.
+     */
+    void oddMultiples(int index, int count) {
+        dbl(dx, dy, dz, tableX[index], tableY[index], tableZ[index]);
+        for (int i = index + 1; i < index + count; i++)
+            addJacobian(tableX[i], tableY[i], tableZ[i], tableX[i - 1], tableY[i - 1], tableZ[i - 1], dx, dy, dz);
+    }
+
+    /**
+     * Converts the first size entries of the table to affine coordinates with a single inversion, using
+     * Montgomery's trick, and fills in tableLambdaX if lambda is set. If valid is given, it tells for each group of
+     * groupSize entries whether it is in use.
+     */
+    void toAffine(int size, int groupSize, @Nullable boolean[] valid, boolean lambda) {
+        int last = -1;
+        for (int i = 0; i < size; i++) {
+            if (valid != null && !valid[i / groupSize])
+                continue;
+            if (last < 0)
+                set(prefix[i], tableZ[i]);
+            else
+                f.mul(prefix[i], prefix[last], tableZ[i]);
+            last = i;
+        }
+        if (last < 0)
+            return;
+        f.inv(t1, prefix[last]);
+        for (int i = last; i >= 0; i--) {
+            if (valid != null && !valid[i / groupSize])
+                continue;
+            // t1 is the inverse of the product of all z up to i, so t2 becomes the inverse of z[i].
+            int previous = i - 1;
+            while (previous >= 0 && valid != null && !valid[previous / groupSize])
+                previous--;
+            if (previous >= 0) {
+                f.mul(t2, t1, prefix[previous]);
+                f.mul(t1, t1, tableZ[i]);
+            } else {
+                set(t2, t1);
+            }
+            f.sqr(t3, t2);
+            f.mul(tableX[i], tableX[i], t3);
+            f.mul(t3, t3, t2);
+            f.mul(tableY[i], tableY[i], t3);
+            setOne(tableZ[i]);
+            if (lambda)
+                f.mul(tableLambdaX[i], tableX[i], BETA);
+        }
+    }
+
+    /** Sets r to 2 * a, all in Jacobian coordinates. r may be a. */
+    void dbl(int[] rx, int[] ry, int[] rz, int[] ax, int[] ay, int[] az) {
+        f.sqr(t1, ax);              // A = X^2
+        f.sqr(t2, ay);              // B = Y^2
+        f.sqr(t3, t2);              // C = B^2
+        add(t4, ax, t2);
+        f.sqr(t4, t4);
+        sub(t4, t4, t1);
+        sub(t4, t4, t3);
+        twice(t4, t4);              // D = 2 * ((X + B)^2 - A - C)
+        add(t5, t1, t1);
+        add(t5, t5, t1);            // E = 3 * A
+        f.sqr(t6, t5);              // F = E^2
+        f.mul(rz, ay, az);
+        twice(rz, rz);              // Z3 = 2 * Y * Z
+        twice(t7, t4);
+        sub(rx, t6, t7);            // X3 = F - 2 * D
+        sub(t4, t4, rx);
+        f.mul(t4, t5, t4);
+        twice(t3, t3);
+        twice(t3, t3);
+        twice(t3, t3);
+        sub(ry, t4, t3);            // Y3 = E * (D - X3) - 8 * C
+    }
+
+    /**
+     * Sets r to a + b, all in Jacobian coordinates. r may be a, and a and b must neither be equal nor opposite
+     * points, which is the case for the odd multiples of a point.
+     */
+    void addJacobian(int[] rx, int[] ry, int[] rz, int[] ax, int[] ay, int[] az, int[] bx, int[] by, int[] bz) {
+        f.sqr(t1, az);              // Z1^2
+        f.sqr(t2, bz);              // Z2^2
+        f.mul(t3, ax, t2);          // U1 = X1 * Z2^2
+        f.mul(t4, bx, t1);          // U2 = X2 * Z1^2
+        f.mul(t5, ay, bz);
+        f.mul(t5, t5, t2);          // S1 = Y1 * Z2^3
+        f.mul(t6, by, az);
+        f.mul(t6, t6, t1);          // S2 = Y2 * Z1^3
+        sub(t4, t4, t3);            // H = U2 - U1
+        sub(t6, t6, t5);            // R = S2 - S1
+        f.mul(rz, az, bz);
+        f.mul(rz, rz, t4);          // Z3 = Z1 * Z2 * H
+        f.sqr(t1, t4);              // H^2
+        f.mul(t2, t1, t4);          // H^3
+        f.mul(t3, t3, t1);          // V = U1 * H^2
+        f.sqr(rx, t6);
+        sub(rx, rx, t2);
+        sub(rx, rx, t3);
+        sub(rx, rx, t3);            // X3 = R^2 - H^3 - 2 * V
+        sub(t3, t3, rx);
+        f.mul(t3, t6, t3);
+        f.mul(t5, t5, t2);
+        sub(ry, t3, t5);            // Y3 = R * (V - X3) - S1 * H^3
+    }
+
+    /**
+     * Adds the affine table entry for the given odd digit, negated if the digit is negative or negate is set, to the
+     * accumulated point.
+     */
+    void addAffine(int[][] xs, int[][] ys, int base, int digit, boolean negate) {
+        int index = base + ((digit < 0 ? -digit : digit) >> 1);
+        int[] y = ys[index];
+        if ((digit < 0) != negate) {
+            negate(t7, y);
+            y = t7;
+        }
+        addPoint(xs[index], y);
+    }
+
+    /** Adds the given affine point to the accumulated point. y must not be t1 to t6. */
+    void addPoint(int[] x, int[] y) {
+        if (qInfinity) {
+            set(qx, x);
+            set(qy, y);
+            setOne(qz);
+            qInfinity = false;
+            return;
+        }
+        f.sqr(t1, qz);              // Z1^2
+        f.mul(t2, x, t1);           // U2 = X2 * Z1^2
+        f.mul(t3, qz, t1);
+        f.mul(t3, y, t3);           // S2 = Y2 * Z1^3
+        sub(t2, t2, qx);            // H = U2 - X1
+        sub(t3, t3, qy);            // R = S2 - Y1
+        if (isZero(t2)) {
+            if (isZero(t3))
+                dbl(qx, qy, qz, qx, qy, qz);
+            else
+                qInfinity = true;
+            return;
+        }
+        f.mul(qz, qz, t2);          // Z3 = Z1 * H
+        f.sqr(t1, t2);              // H^2
+        f.mul(t4, t1, t2);          // H^3
+        f.mul(t5, qx, t1);          // V = X1 * H^2
+        f.sqr(qx, t3);
+        sub(qx, qx, t4);
+        sub(qx, qx, t5);
+        sub(qx, qx, t5);            // X3 = R^2 - H^3 - 2 * V
+        sub(t5, t5, qx);
+        f.mul(t5, t3, t5);
+        f.mul(t4, qy, t4);
+        sub(qy, t5, t4);            // Y3 = R * (V - X3) - Y1 * H^3
+    }
+
+    /**
+     * The multiples v * 256^w * G for v = 1 to 255 and w = 0 to 31 in affine coordinates, 255 consecutive entries of 8
+     * limbs per window. Loaded on first use, as only key derivation needs them.
+     */
+    private static final class FixedBase {
+        static final int[] X = new int[32 * 255 * 8], Y = new int[32 * 255 * 8];
+
+        static {
+            Secp256k1Group group = new Secp256k1Group(256);
+            int[] baseX = create(), baseY = create();
+            setGenerator(baseX, baseY);
+            for (int window = 0; window < 32; window++) {
+                group.qInfinity = true;
+                for (int value = 1; value <= 256; value++) {
+                    group.addPoint(baseX, baseY);
+                    group.storeAccumulator(value - 1);
+                }
+                group.toAffine(256, 256, null, false);
+                for (int value = 1; value <= 255; value++) {
+                    System.arraycopy(group.tableX[value - 1], 0, X, (window * 255 + value - 1) * 8, 8);
+                    System.arraycopy(group.tableY[value - 1], 0, Y, (window * 255 + value - 1) * 8, 8);
+                }
+                set(baseX, group.tableX[255]);
+                set(baseY, group.tableY[255]);
+            }
+        }
+    }
+}
@@ -0,0 +1,298 @@
+/*
+ * Copyright by the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.tdcoinj.crypto;
+
+import org.tdcoinj.core.ECKey;
+import org.tdcoinj.core.ECKey.ECDSASignature;
+import org.bouncycastle.crypto.digests.SHA256Digest;
+import org.bouncycastle.crypto.macs.HMac;
+import org.bouncycastle.crypto.params.KeyParameter;
+import org.bouncycastle.math.ec.ECPoint;
+
+import java.math.BigInteger;
+import java.security.SecureRandom;
+import java.util.Arrays;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static org.tdcoinj.crypto.Secp256k1Field.*;
+
+/**
+ * <p>Creates ECDSA signatures and public keys on the secp256k1 curve in pure Java. This is what
+ * {@link ECKey#sign(org.tdcoinj.core.Sha256Hash)} and {@link ECKey#publicPointFromPrivate(BigInteger)} use when the
+ * native libsecp256k1 isn't available. Signatures are the same as those of the Bouncy Castle signer with deterministic
+ * RFC 6979 nonces, canonicalised to low S.</p>
+ *
+ * <p>k * G is computed from a table of the odd multiples 1 to 15 of 16<sup>w</sup> * G for each of the 64 windows w
+ * of a 256 bit scalar. The scalar, made odd by replacing it with n - k if needed, is recoded into 64 odd digits
+ * between -15 and 15, so one table entry is added per window, always the same number of additions and no doublings.
+ * Each entry is read by scanning all entries of its window, and negations are done with masks, so neither the memory
+ * accesses nor the branches depend on the scalar. The special cases of the point addition only occur for a handful of
+ * scalars, which still get the right result.</p>
+ *
+ * <p>The HMAC used to generate nonces and all scratch space are kept per thread. The scalar arithmetic modulo n uses
+ * {@link BigInteger}, which isn't constant time, so the private key and the nonce are multiplied by the same fresh
+ * random factor before anything else is done with them, and the factor cancels out in s. What BigInteger sees of them
+ * is that one multiplication each.</p>
+ *
+ * <p>Like the Bouncy Castle signer, private keys of up to 32 bytes are accepted even if they are not below the curve
+ * order. They are used modulo n, except for deriving the nonce, which takes the 32 bytes as they are.</p>
+ */
+public final class Secp256k1Signer {
+    private static final BigInteger N = Secp256k1Group.N;
+    private static final int[] N_LIMBS = fromBigInteger(N);
+    private static final long M = 0xFFFFFFFFL;
+
+    private static final int WINDOWS = 64;
+    private static final int ENTRIES = 8;
+
+    private static final ThreadLocal<Context> contexts = new ThreadLocal<Context>() {
+        @Override
+        protected Context initialValue() {
+            return new Context();
+        }
+    };
+
+    private Secp256k1Signer() {
+    }
+
+    /**
+     * Signs the given hash with the given private key.
+     *
+     * @param hash 32 byte hash to sign
+     * @param privKey private key, which must be positive and fit in 32 bytes
+     * @return the canonical signature
+     */
+    public static ECDSASignature sign(byte[] hash, BigInteger privKey) {
+        checkArgument(hash.length == 32, "Hash must be 32 bytes");
+        checkArgument(privKey.signum() > 0 && privKey.bitLength() <= 256, "Private key out of range");
+        return contexts.get().sign(hash, privKey);
+    }
+
+    /**
+     * Returns the public key point of the given private key, in affine coordinates.
+     *
+     * @param privKey private key, which must be positive and not a multiple of the curve order
+     */
+    public static ECPoint publicPoint(BigInteger privKey) {
+        checkArgument(privKey.signum() > 0, "Private key out of range");
+        BigInteger d = privKey.mod(N);
+        checkArgument(d.signum() > 0, "Private key is a multiple of the curve order");
+        Context context = contexts.get();
+        setBigInteger(context.scalar, d);
+        context.multiply(context.scalar);
+        ECPoint point = ECKey.CURVE.getCurve().createPoint(toBigInteger(context.x), toBigInteger(context.y));
+        Arrays.fill(context.scalar, 0);
+        return point;
+    }
+
+    /** Per thread scratch space for signing. */
+    private static final class Context extends Secp256k1Group {
+        final int[] scalar = create(), k = create(), negK = create(), x = create(), y = create(), zInv = create(),
+                entryX = create(), entryY = create(), negY = create();
+        final int[] digits = new int[WINDOWS];
+        final HMac hmac = new HMac(new SHA256Digest());
+        final byte[] v = new byte[32], key = new byte[32], privBytes = new byte[32], messageBytes = new byte[32];
+        final SecureRandom random = new SecureRandom();
+
+        Context() {
+            super(0);
+        }
+
+        ECDSASignature sign(byte[] hash, BigInteger privKey) {
+            try {
+                setBigInteger(scalar, privKey);
+                toBytes(scalar, privBytes, 0);
+                // Both are below 2^256 < 2n, so subtracting n once reduces them.
+                BigInteger d = privKey.compareTo(N) >= 0 ? privKey.subtract(N) : privKey;
+                BigInteger e = new BigInteger(1, hash);
+                if (e.compareTo(N) >= 0)
+                    e = e.subtract(N);
+                setBigInteger(scalar, e);
+                toBytes(scalar, messageBytes, 0);
+                initNonces();
+                while (true) {
+                    BigInteger nonce = nextNonce();
+                    setBigInteger(scalar, nonce);
+                    multiply(scalar);
+                    BigInteger r = toBigInteger(x).mod(N);
+                    if (r.signum() == 0)
+                        continue;
+                    // s = (e + d * r) / k = (e * b + (d * b) * r) / (k * b) for a random b.
+                    BigInteger blind = randomScalar();
+                    BigInteger blindedKey = d.multiply(blind).mod(N);
+                    BigInteger blindedNonceInverse = nonce.multiply(blind).mod(N).modInverse(N);
+                    BigInteger s = e.multiply(blind).add(blindedKey.multiply(r)).multiply(blindedNonceInverse).mod(N);
+                    if (s.signum() == 0)
+                        continue;
+                    return new ECDSASignature(r, s).toCanonicalised();
+                }
+            } finally {
+                Arrays.fill(scalar, 0);
+                Arrays.fill(k, 0);
+                Arrays.fill(negK, 0);
+                Arrays.fill(privBytes, (byte) 0);
+                Arrays.fill(v, (byte) 0);
+                Arrays.fill(key, (byte) 0);
+            }
+        }
+
+        // The RFC 6979 state for the private key and message, in the same steps as Bouncy Castle's HMacDSAKCalculator.
+        private void initNonces() {
+            Arrays.fill(v, (byte) 0x01);
+            Arrays.fill(key, (byte) 0x00);
+            for (int round = 0; round < 2; round++) {
+                hmac.init(new KeyParameter(key));
+                hmac.update(v, 0, v.length);
+                hmac.update((byte) round);
+                hmac.update(privBytes, 0, privBytes.length);
+                hmac.update(messageBytes, 0, messageBytes.length);
+                hmac.doFinal(key, 0);
+                hmac.init(new KeyParameter(key));
+                hmac.update(v, 0, v.length);
+                hmac.doFinal(v, 0);
+            }
+        }
+
+        private BigInteger nextNonce() {
+            while (true) {
+                hmac.update(v, 0, v.length);
+                hmac.doFinal(v, 0);
+                BigInteger nonce = new BigInteger(1, v);
+                if (nonce.signum() > 0 && nonce.compareTo(N) < 0)
+                    return nonce;
+                hmac.update(v, 0, v.length);
+                hmac.update((byte) 0x00);
+                hmac.doFinal(key, 0);
+                hmac.init(new KeyParameter(key));
+                hmac.update(v, 0, v.length);
+                hmac.doFinal(v, 0);
+            }
+        }
+
+        private BigInteger randomScalar() {
+            while (true) {
+                BigInteger value = new BigInteger(256, random);
+                if (value.signum() > 0 && value.compareTo(N) < 0)
+                    return value;
+            }
+        }
+
+        /** Sets x and y to the affine coordinates of a * G, for the limbs of a scalar 0 &lt; a &lt; n. */
+        void multiply(int[] a) {
+            // n - a is odd if a is even, as n is odd. Use whichever is odd and negate the result if it was n - a.
+            int even = ~a[0] & 1;
+            long c = 0;
+            for (int i = 0; i < 8; i++) {
+                c += (N_LIMBS[i] & M) - (a[i] & M);
+                negK[i] = (int) c;
+                c >>= 32;
+            }
+            set(k, a);
+            conditionalSet(k, negK, even);
+            recode();
+            lookup(0, digits[0]);
+            set(qx, entryX);
+            set(qy, entryY);
+            setOne(qz);
+            qInfinity = false;
+            for (int window = 1; window < WINDOWS; window++) {
+                lookup(window, digits[window]);
+                addPoint(entryX, entryY);
+            }
+            f.inv(zInv, qz);
+            f.sqr(t1, zInv);
+            f.mul(x, qx, t1);
+            f.mul(t1, t1, zInv);
+            f.mul(y, qy, t1);
+            negate(negY, y);
+            conditionalSet(y, negY, even);
+        }
+
+        // Writes the odd k as the sum of digits[w] * 16^w, with each digit odd and between -15 and 15, destroying k.
+        private void recode() {
+            for (int window = 0; window < WINDOWS - 1; window++) {
+                int digit = (k[0] & 31) - 16;
+                digits[window] = digit;
+                // k = (k - digit) / 16, which is exact as k - digit is 16 modulo 32.
+                long c = -(long) digit;
+                for (int i = 0; i < 8; i++) {
+                    c += k[i] & M;
+                    k[i] = (int) c;
+                    c >>= 32;
+                }
+                for (int i = 0; i < 7; i++)
+                    k[i] = (k[i] >>> 4) | (k[i + 1] << 28);
+                k[7] >>>= 4;
+            }
+            // What is left is odd and below 16.
+            digits[WINDOWS - 1] = k[0];
+        }
+
+        // Sets entryX and entryY to digit * 16^window * G by reading every entry of the window.
+        private void lookup(int window, int digit) {
+            int sign = digit >> 31;
+            int index = ((digit ^ sign) - sign) >>> 1;
+            int[] xs = GeneratorTable.X, ys = GeneratorTable.Y;
+            Arrays.fill(entryX, 0);
+            Arrays.fill(entryY, 0);
+            for (int entry = 0; entry < ENTRIES; entry++) {
+                int mask = ((entry ^ index) - 1) >> 31;
+                int offset = (window * ENTRIES + entry) * 8;
+                for (int i = 0; i < 8; i++) {
+                    entryX[i] |= xs[offset + i] & mask;
+                    entryY[i] |= ys[offset + i] & mask;
+                }
+            }
+            negate(negY, entryY);
+            conditionalSet(entryY, negY, sign & 1);
+        }
+    }
+
+    /**
+     * The multiples (2j + 1) * 16^w * G for j = 0 to 7 and w = 0 to 63 in affine coordinates, 8 consecutive entries of
+     * 8 limbs per window.
+     */
+    private static final class GeneratorTable {
+        static final int[] X = new int[WINDOWS * ENTRIES * 8], Y = new int[WINDOWS * ENTRIES * 8];
+
+        static {
+            Secp256k1Group group = new Secp256k1Group(ENTRIES);
+            int[][] xs = group.tableX, ys = group.tableY;
+            int[] baseX = create(), baseY = create();
+            Secp256k1Group.setGenerator(baseX, baseY);
+            for (int window = 0; window < WINDOWS; window++) {
+                set(xs[0], baseX);
+                set(ys[0], baseY);
+                setOne(group.tableZ[0]);
+                group.oddMultiples(0, ENTRIES);
+                group.toAffine(ENTRIES, ENTRIES, null, false);
+                for (int entry = 0; entry < ENTRIES; entry++) {
+                    System.arraycopy(xs[entry], 0, X, (window * ENTRIES + entry) * 8, 8);
+                    System.arraycopy(ys[entry], 0, Y, (window * ENTRIES + entry) * 8, 8);
+                }
+                // The base of the next window is 16 * base = 15 * base + base.
+                group.qInfinity = true;
+                group.addPoint(xs[ENTRIES - 1], ys[ENTRIES - 1]);
+                group.addPoint(baseX, baseY);
+                group.storeAccumulator(0);
+                group.toAffine(1, 1, null, false);
+                set(baseX, xs[0]);
+                set(baseY, ys[0]);
+            }
+        }
+    }
+}
@@ -0,0 +1,283 @@
+/*
+ * Copyright by the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.tdcoinj.crypto;
+
+import org.tdcoinj.core.ECKey;
+import org.tdcoinj.core.ECKey.ECDSASignature;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static org.tdcoinj.crypto.Secp256k1Field.*;
+import static org.tdcoinj.crypto.Secp256k1Group.N;
+
+/**
+ * <p>Verifies ECDSA signatures on the secp256k1 curve in pure Java. This is what {@link ECKey#verify(byte[],
+ * ECDSASignature, byte[])} uses when the native libsecp256k1 isn't available, and is a good deal faster than the
+ * generic Bouncy Castle code.</p>
+ *
+ * <p>The check computes u1*G + u2*Q in Jacobian coordinates with 32 bit limb field arithmetic that works on
+ * preallocated, per thread scratch space. u1*G uses two large tables of precomputed odd multiples of G and
+ * 2<sup>128</sup>*G, so that only 128 doublings are needed. u2*Q is split into two halves of about 128 bits using the
+ * GLV endomorphism of the curve, and all three parts are added in as windowed non-adjacent forms while the doublings
+ * are shared. The result is compared with r without converting it to affine coordinates.</p>
+ *
+ * <p>{@link #verifyAll(byte[][], ECDSASignature[], byte[][])} checks many signatures at once. Besides avoiding the
+ * per call overhead, it converts the precomputed multiples of all public keys to affine coordinates with a single
+ * field inversion, and inverts all s values with a single inversion modulo the curve order.</p>
+ */
+public final class Secp256k1Verifier {
+    // x coordinates in [n, p) reduce to r = x - n, so x may also be r + n if that is below p.
+    private static final BigInteger P_MINUS_N = P.subtract(N);
+
+    // The endomorphism (x, y) -> (beta * x, y) multiplies points by lambda, see Secp256k1Group.BETA.
+    static final BigInteger LAMBDA = new BigInteger(
+            "5363ad4cc05c30e0a5261c028812645a122e22ea20816678df02967c1b23bd72", 16);
+    // Basis of the lattice used to split scalars, and the rounded constants 2^272 * b2 / n and 2^272 * -b1 / n.
+    private static final BigInteger A1 = new BigInteger("3086d221a7d46bcde86c90e49284eb15", 16);
+    private static final BigInteger B1 = new BigInteger("-e4437ed6010e88286f547fa90abfe4c3", 16);
+    private static final BigInteger A2 = new BigInteger("114ca50f7a8e2f3f657c1108d9d44cfd8", 16);
+    private static final BigInteger B2 = A1;
+    private static final BigInteger G1 = new BigInteger("3086d221a7d46bcde86c90e49284eb153dab", 16);
+    private static final BigInteger G2 = new BigInteger("e4437ed6010e88286f547fa90abfe4c42212", 16);
+    private static final int SPLIT_SHIFT = 272;
+
+    // Window sizes of the non-adjacent forms. A window of w uses a table of 2^(w-2) odd multiples.
+    private static final int WINDOW_G = 10;
+    private static final int WINDOW_Q = 5;
+    private static final int TABLE_G = 1 << (WINDOW_G - 2);
+    private static final int TABLE_Q = 1 << (WINDOW_Q - 2);
+    private static final int MAX_WNAF = 256 + WINDOW_G + 1;
+
+    // Signatures are processed in chunks of this size, which bounds the per thread scratch space.
+    private static final int CHUNK = 64;
+
+    // Odd multiples G, 3G, 5G, ... and the same for H = 2^128 * G, in affine coordinates.
+    private static final int[][] G_X, G_Y, H_X, H_Y;
+
+    static {
+        Secp256k1Group context = new Secp256k1Group(2 * TABLE_G);
+        int[][] xs = context.tableX, ys = context.tableY, zs = context.tableZ;
+        Secp256k1Group.setGenerator(xs[0], ys[0]);
+        setOne(zs[0]);
+        set(xs[TABLE_G], xs[0]);
+        set(ys[TABLE_G], ys[0]);
+        set(zs[TABLE_G], zs[0]);
+        for (int i = 0; i < 128; i++)
+            context.dbl(xs[TABLE_G], ys[TABLE_G], zs[TABLE_G], xs[TABLE_G], ys[TABLE_G], zs[TABLE_G]);
+        context.oddMultiples(0, TABLE_G);
+        context.oddMultiples(TABLE_G, TABLE_G);
+        context.toAffine(2 * TABLE_G, 2 * TABLE_G, null, false);
+        G_X = Arrays.copyOfRange(xs, 0, TABLE_G);
+        G_Y = Arrays.copyOfRange(ys, 0, TABLE_G);
+        H_X = Arrays.copyOfRange(xs, TABLE_G, 2 * TABLE_G);
+        H_Y = Arrays.copyOfRange(ys, TABLE_G, 2 * TABLE_G);
+    }
+
+    private static final ThreadLocal<Context> contexts = new ThreadLocal<Context>() {
+        @Override
+        protected Context initialValue() {
+            return new Context();
+        }
+    };
+
+    private Secp256k1Verifier() {
+    }
+
+    /**
+     * Verifies the given signature against the given hash using the given public key.
+     *
+     * @param data hash of the data to verify
+     * @param signature signature to verify
+     * @param pub public key in compressed, uncompressed or hybrid encoding
+     * @throws IllegalArgumentException if the public key is not a valid point on the curve
+     */
+    public static boolean verify(byte[] data, ECDSASignature signature, byte[] pub) {
+        boolean[] results = new boolean[1];
+        contexts.get().verifyChunk(new byte[][] { data }, new ECDSASignature[] { signature }, new byte[][] { pub },
+                0, 1, results, true);
+        return results[0];
+    }
+
+    /**
+     * Verifies many signatures at once. The result for each signature is the same as that of
+     * {@link #verify(byte[], ECDSASignature, byte[])}, except that signatures with invalid public keys are reported
+     * as invalid rather than causing an exception.
+     *
+     * @param data hashes of the data to verify
+     * @param signatures signatures to verify, each against the hash at the same index
+     * @param pubs public keys, each for the signature at the same index
+     * @return for each signature, whether it is valid
+     */
+    public static boolean[] verifyAll(byte[][] data, ECDSASignature[] signatures, byte[][] pubs) {
+        checkArgument(data.length == signatures.length && data.length == pubs.length, "Array lengths differ");
+        boolean[] results = new boolean[data.length];
+        Context context = contexts.get();
+        for (int from = 0; from < data.length; from += CHUNK)
+            context.verifyChunk(data, signatures, pubs, from, Math.min(from + CHUNK, data.length), results, false);
+        return results;
+    }
+
+    /** Splits k into k1 + k2 * lambda (mod n), with k1 and k2 of about 128 bits each. */
+    static BigInteger[] split(BigInteger k) {
+        BigInteger c1 = roundedShift(k.multiply(G1));
+        BigInteger c2 = roundedShift(k.multiply(G2));
+        BigInteger k1 = k.subtract(c1.multiply(A1).add(c2.multiply(A2)));
+        BigInteger k2 = c1.multiply(B1).add(c2.multiply(B2)).negate();
+        return new BigInteger[] { k1, k2 };
+    }
+
+    private static BigInteger roundedShift(BigInteger value) {
+        BigInteger shifted = value.shiftRight(SPLIT_SHIFT);
+        return value.testBit(SPLIT_SHIFT - 1) ? shifted.add(BigInteger.ONE) : shifted;
+    }
+
+    /**
+     * Writes the windowed non-adjacent form of the given bits of k to wnaf, so that the sum of wnaf[i] * 2^i is the
+     * value of the bits. Non-zero digits are odd, below 2^(w-1) in magnitude and at least w positions apart.
+     * @return one more than the position of the highest non-zero digit
+     */
+    static int wnaf(int[] wnaf, BigInteger k, int offset, int bits, int w) {
+        Arrays.fill(wnaf, 0);
+        int carry = 0, bit = 0, length = 0;
+        while (bit < bits || carry != 0) {
+            if (bit(k, offset, bits, bit) == carry) {
+                bit++;
+                continue;
+            }
+            int word = carry;
+            for (int i = 0; i < w; i++)
+                word += bit(k, offset, bits, bit + i) << i;
+            carry = (word >> (w - 1)) & 1;
+            word -= carry << w;
+            wnaf[bit] = word;
+            length = bit + 1;
+            bit += w;
+        }
+        return length;
+    }
+
+    private static int bit(BigInteger k, int offset, int bits, int bit) {
+        return bit < bits && k.testBit(offset + bit) ? 1 : 0;
+    }
+
+    /** Per thread scratch space for verification. */
+    private static final class Context extends Secp256k1Group {
+        final boolean[] valid = new boolean[CHUNK];
+        final BigInteger[] s = new BigInteger[CHUNK], sInverse = new BigInteger[CHUNK];
+        final int[] wnafLo = new int[MAX_WNAF], wnafHi = new int[MAX_WNAF], wnaf1 = new int[MAX_WNAF],
+                wnaf2 = new int[MAX_WNAF];
+
+        Context() {
+            super(CHUNK * TABLE_Q);
+        }
+
+        void verifyChunk(byte[][] data, ECDSASignature[] signatures, byte[][] pubs, int from, int to,
+                         boolean[] results, boolean throwOnInvalidKey) {
+            int count = to - from;
+            for (int i = 0; i < count; i++) {
+                ECDSASignature signature = signatures[from + i];
+                valid[i] = false;
+                try {
+                    decodePoint(pubs[from + i], tableX[i * TABLE_Q], tableY[i * TABLE_Q]);
+                } catch (IllegalArgumentException x) {
+                    if (throwOnInvalidKey)
+                        throw x;
+                    continue;
+                }
+                if (signature.r.signum() <= 0 || signature.r.compareTo(N) >= 0 || signature.s.signum() <= 0
+                        || signature.s.compareTo(N) >= 0)
+                    continue;
+                valid[i] = true;
+                s[i] = signature.s;
+                setOne(tableZ[i * TABLE_Q]);
+                oddMultiples(i * TABLE_Q, TABLE_Q);
+            }
+            toAffine(count * TABLE_Q, TABLE_Q, valid, true);
+            invertScalars(count);
+            for (int i = 0; i < count; i++) {
+                results[from + i] = valid[i] && check(i, data[from + i], signatures[from + i].r);
+                s[i] = sInverse[i] = null;
+            }
+        }
+
+        // Sets sInverse[i] to the inverse of s[i] for all valid i, with a single modular inversion.
+        private void invertScalars(int count) {
+            BigInteger product = BigInteger.ONE;
+            for (int i = 0; i < count; i++) {
+                if (valid[i]) {
+                    sInverse[i] = product;
+                    product = product.multiply(s[i]).mod(N);
+                }
+            }
+            BigInteger inverse = product.modInverse(N);
+            for (int i = count - 1; i >= 0; i--) {
+                if (valid[i]) {
+                    sInverse[i] = sInverse[i].multiply(inverse).mod(N);
+                    inverse = inverse.multiply(s[i]).mod(N);
+                }
+            }
+        }
+
+        private boolean check(int slot, byte[] data, BigInteger r) {
+            BigInteger e = new BigInteger(1, data);
+            if (data.length > 32)
+                e = e.shiftRight(8 * data.length - 256);
+            BigInteger w = sInverse[slot];
+            BigInteger u1 = e.multiply(w).mod(N);
+            BigInteger[] split = split(r.multiply(w).mod(N));
+            BigInteger k1 = split[0], k2 = split[1];
+            boolean negate1 = k1.signum() < 0, negate2 = k2.signum() < 0;
+            k1 = k1.abs();
+            k2 = k2.abs();
+            int length = wnaf(wnafLo, u1, 0, 128, WINDOW_G);
+            length = Math.max(length, wnaf(wnafHi, u1, 128, 128, WINDOW_G));
+            length = Math.max(length, wnaf(wnaf1, k1, 0, k1.bitLength(), WINDOW_Q));
+            length = Math.max(length, wnaf(wnaf2, k2, 0, k2.bitLength(), WINDOW_Q));
+
+            int base = slot * TABLE_Q;
+            qInfinity = true;
+            for (int i = length - 1; i >= 0; i--) {
+                if (!qInfinity)
+                    dbl(qx, qy, qz, qx, qy, qz);
+                int digit;
+                if ((digit = wnafLo[i]) != 0)
+                    addAffine(G_X, G_Y, 0, digit, false);
+                if ((digit = wnafHi[i]) != 0)
+                    addAffine(H_X, H_Y, 0, digit, false);
+                if ((digit = wnaf1[i]) != 0)
+                    addAffine(tableX, tableY, base, digit, negate1);
+                if ((digit = wnaf2[i]) != 0)
+                    addAffine(tableLambdaX, tableY, base, digit, negate2);
+            }
+            if (qInfinity)
+                return false;
+            // The affine x is X / Z^2, which must be r or r + n.
+            f.sqr(t1, qz);
+            setBigInteger(t2, r);
+            f.mul(t2, t2, t1);
+            if (Secp256k1Field.equals(t2, qx))
+                return true;
+            if (r.compareTo(P_MINUS_N) >= 0)
+                return false;
+            setBigInteger(t2, r.add(N));
+            f.mul(t2, t2, t1);
+            return Secp256k1Field.equals(t2, qx);
+        }
+    }
+}
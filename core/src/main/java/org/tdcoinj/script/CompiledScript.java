@@ -0,0 +1,73 @@
+/*
+ * Copyright by the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.tdcoinj.script;
+
+import java.util.List;
+
+import static org.tdcoinj.script.ScriptOpCodes.*;
+
+/**
+ * The form of a {@link Script} run by {@link ScriptInterpreter}: its instructions in flat arrays, along with what
+ * the interpreter would otherwise work out from the chunks each time the script is run. Created once per script, see
+ * {@link Script#getCompiled()}, and immutable.
+ */
+final class CompiledScript {
+    static final byte[] EMPTY = new byte[0];
+
+    /** The program the instructions were read from. Must not be changed. */
+    final byte[] program;
+    /** The opcode of each instruction. */
+    final int[] opcodes;
+    /** The data pushed by each instruction, or null for instructions that aren't data pushes. */
+    final byte[][] data;
+    /** The offset in the program after each instruction, where OP_CODESEPARATOR starts the signed script. */
+    final int[] ends;
+    /** Whether each data push is not done the shortest possible way, which MINIMALDATA rejects. */
+    final boolean[] nonMinimal;
+    /** Whether all instructions push data, see {@link ScriptChunk#isPushData()}. */
+    final boolean pushOnly;
+
+    CompiledScript(byte[] program, List<ScriptChunk> chunks) {
+        this.program = program;
+        int count = chunks.size();
+        opcodes = new int[count];
+        data = new byte[count][];
+        ends = new int[count];
+        nonMinimal = new boolean[count];
+        boolean pushOnly = true;
+        int end = 0;
+        for (int i = 0; i < count; i++) {
+            ScriptChunk chunk = chunks.get(i);
+            int opcode = chunk.opcode;
+            opcodes[i] = opcode;
+            if (opcode == OP_0)
+                data[i] = EMPTY;
+            else if (opcode <= OP_PUSHDATA4)
+                data[i] = chunk.data;
+            end += chunk.size();
+            ends[i] = end;
+            if (opcode <= OP_PUSHDATA4)
+                nonMinimal[i] = !chunk.isShortestPossiblePushData();
+            pushOnly &= chunk.isPushData();
+        }
+        this.pushOnly = pushOnly;
+    }
+
+    int size() {
+        return opcodes.length;
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright by the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.tdcoinj.script;
+
+import org.tdcoinj.core.ECKey;
+import org.tdcoinj.core.ECKey.ECDSASignature;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * <p>Collects the signature checks of OP_CHECKSIG and OP_CHECKMULTISIG instead of doing them right away, so they can
+ * be verified together with {@link ECKey#verifyAll(byte[][], ECDSASignature[], byte[][])}.</p>
+ *
+ * <p>While a collection is active on a thread, scripts executed on that thread treat every signature as valid. As a
+ * failing check can change how a script executes, such a run is only conclusive if all scripts passed and
+ * {@link #verifyAll()} returns true. In any other case the scripts have to be run again without deferring the checks,
+ * to get the same outcome as if they had never been deferred. This also happens for valid scripts, for example for
+ * an OP_CHECKMULTISIG whose signatures don't belong to the first of its keys:</p>
+ *
+ * <pre>
+ * DeferredSignatureChecks checks = DeferredSignatureChecks.begin();
+ * try {
+ *     ... run scripts ...
+ * } finally {
+ *     checks.end();
+ * }
+ * if (!scriptsPassed || !checks.verifyAll())
+ *     ... run the scripts again ...
+ * </pre>
+ */
+public class DeferredSignatureChecks {
+    private static final ThreadLocal<DeferredSignatureChecks> active = new ThreadLocal<>();
+
+    private final List<byte[]> hashes = new ArrayList<>();
+    private final List<ECDSASignature> signatures = new ArrayList<>();
+    private final List<byte[]> pubKeys = new ArrayList<>();
+
+    private DeferredSignatureChecks() {
+    }
+
+    /** Starts collecting the signature checks of scripts executed on the current thread. */
+    public static DeferredSignatureChecks begin() {
+        checkState(active.get() == null, "Signature checks are already being deferred on this thread");
+        DeferredSignatureChecks checks = new DeferredSignatureChecks();
+        active.set(checks);
+        return checks;
+    }
+
+    /** Stops collecting signature checks on the current thread. */
+    public void end() {
+        checkState(active.get() == this, "Not collecting on this thread");
+        active.remove();
+    }
+
+    /**
+     * If signature checks are being deferred on the current thread, records the given check and returns true.
+     * Otherwise verifies the signature right away.
+     */
+    static boolean verify(byte[] hash, ECDSASignature signature, byte[] pubKey) {
+        DeferredSignatureChecks checks = active.get();
+        if (checks == null)
+            return ECKey.verify(hash, signature, pubKey);
+        checks.hashes.add(hash);
+        checks.signatures.add(signature);
+        checks.pubKeys.add(pubKey);
+        return true;
+    }
+
+    /** Returns the number of signature checks collected so far. */
+    public int size() {
+        return hashes.size();
+    }
+
+    /** Verifies all collected signatures, and returns true if all of them are valid. */
+    public boolean verifyAll() {
+        int size = hashes.size();
+        boolean[] results = ECKey.verifyAll(hashes.toArray(new byte[size][]),
+                signatures.toArray(new ECDSASignature[size]), pubKeys.toArray(new byte[size][]));
+        for (boolean result : results)
+            if (!result)
+                return false;
+        return true;
+    }
+}
@@ -0,0 +1,849 @@
+/*
+ * Copyright by the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.tdcoinj.script;
+
+import org.tdcoinj.core.*;
+import org.tdcoinj.crypto.TransactionSignature;
+import org.tdcoinj.script.Script.VerifyFlag;
+import org.bouncycastle.crypto.digests.RIPEMD160Digest;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Set;
+
+import static org.tdcoinj.script.ScriptOpCodes.*;
+
+/**
+ * <p>The script interpreter behind {@link Script#executeScript(Transaction, long, Script, java.util.LinkedList, Set)}
+ * and {@link Script#correctlySpends(Transaction, long, Script, Set)}.</p>
+ *
+ * <p>Scripts are run in their {@link CompiledScript} form, which is created once per script, on a {@link ScriptStack}.
+ * Numbers are at most 4 bytes long, 5 for CHECKLOCKTIMEVERIFY and CHECKSEQUENCEVERIFY, so they are handled as longs
+ * instead of BigIntegers. Like Tdcoin Core, the OP_IF nesting is tracked by its depth and the depth of the outermost
+ * branch that isn't taken, so deciding whether to execute an instruction doesn't depend on the nesting.</p>
+ */
+final class ScriptInterpreter {
+    private static final Logger log = LoggerFactory.getLogger(ScriptInterpreter.class);
+
+    private static final int MAX_OPS_PER_SCRIPT = 201;
+    static final int MAX_STACK_SIZE = 1000;
+    private static final int MAX_PUBKEYS_PER_MULTISIG = 20;
+
+    // The depth of the outermost condition that is false, when there is none.
+    private static final int NO_FALSE_CONDITION = -1;
+
+    private ScriptInterpreter() {
+    }
+
+    /** Runs the given script on the given stack, see {@link Script#executeScript(Transaction, long, Script, java.util.LinkedList, Set)}. */
+    static void execute(@Nullable Transaction txContainingThis, int index, Script script, ScriptStack stack,
+                        Set<VerifyFlag> verifyFlags) throws ScriptException {
+        CompiledScript compiled = script.getCompiled();
+        int[] opcodes = compiled.opcodes;
+        byte[][] data = compiled.data;
+        boolean requireMinimal = verifyFlags.contains(VerifyFlag.MINIMALDATA);
+        boolean discourageUpgradableNops = verifyFlags.contains(VerifyFlag.DISCOURAGE_UPGRADABLE_NOPS);
+
+        int opCount = 0;
+        int lastCodeSepLocation = 0;
+        ScriptStack altstack = null;
+        int ifDepth = 0;
+        int firstFalseCondition = NO_FALSE_CONDITION;
+
+        for (int pc = 0; pc < opcodes.length; pc++) {
+            boolean shouldExecute = firstFalseCondition == NO_FALSE_CONDITION;
+            int opcode = opcodes[pc];
+
+            // Check stack element size
+            if (data[pc] != null && data[pc].length > Script.MAX_SCRIPT_ELEMENT_SIZE)
+                throw new ScriptException(ScriptError.SCRIPT_ERR_PUSH_SIZE, "Attempted to push a data string larger than 520 bytes");
+
+            // Note how OP_RESERVED does not count towards the opcode limit.
+            if (opcode > OP_16) {
+                opCount++;
+                if (opCount > MAX_OPS_PER_SCRIPT)
+                    throw new ScriptException(ScriptError.SCRIPT_ERR_OP_COUNT, "More script operations than is allowed");
+                if (isDisabled(opcode))
+                    throw new ScriptException(ScriptError.SCRIPT_ERR_DISABLED_OPCODE, "Script included a disabled Script Op.");
+            }
+
+            if (shouldExecute && opcode <= OP_PUSHDATA4) {
+                // Check minimal push
+                if (requireMinimal && compiled.nonMinimal[pc])
+                    throw new ScriptException(ScriptError.SCRIPT_ERR_MINIMALDATA, "Script included a not minimal push operation.");
+                stack.push(data[pc]);
+            } else if (shouldExecute || (OP_IF <= opcode && opcode <= OP_ENDIF)) {
+
+                switch (opcode) {
+                case OP_IF:
+                case OP_NOTIF:
+                    boolean condition = false;
+                    if (shouldExecute) {
+                        if (stack.size() < 1)
+                            throw new ScriptException(ScriptError.SCRIPT_ERR_UNBALANCED_CONDITIONAL, "Attempted OP_IF/OP_NOTIF on an empty stack");
+                        condition = castToBool(stack.pop()) == (opcode == OP_IF);
+                    }
+                    if (!condition && firstFalseCondition == NO_FALSE_CONDITION)
+                        firstFalseCondition = ifDepth;
+                    ifDepth++;
+                    continue;
+                case OP_ELSE:
+                    if (ifDepth == 0)
+                        throw new ScriptException(ScriptError.SCRIPT_ERR_UNBALANCED_CONDITIONAL, "Attempted OP_ELSE without OP_IF/NOTIF");
+                    // Only the innermost condition changes. If an outer one is false, nothing is executed anyway.
+                    if (firstFalseCondition == NO_FALSE_CONDITION)
+                        firstFalseCondition = ifDepth - 1;
+                    else if (firstFalseCondition == ifDepth - 1)
+                        firstFalseCondition = NO_FALSE_CONDITION;
+                    continue;
+                case OP_ENDIF:
+                    if (ifDepth == 0)
+                        throw new ScriptException(ScriptError.SCRIPT_ERR_UNBALANCED_CONDITIONAL, "Attempted OP_ENDIF without OP_IF/NOTIF");
+                    ifDepth--;
+                    if (firstFalseCondition == ifDepth)
+                        firstFalseCondition = NO_FALSE_CONDITION;
+                    continue;
+
+                // OP_0 is no opcode
+                case OP_1NEGATE:
+                    stack.push(encodeNumber(-1));
+                    break;
+                case OP_1:
+                case OP_2:
+                case OP_3:
+                case OP_4:
+                case OP_5:
+                case OP_6:
+                case OP_7:
+                case OP_8:
+                case OP_9:
+                case OP_10:
+                case OP_11:
+                case OP_12:
+                case OP_13:
+                case OP_14:
+                case OP_15:
+                case OP_16:
+                    stack.push(encodeNumber(Script.decodeFromOpN(opcode)));
+                    break;
+                case OP_NOP:
+                    break;
+                case OP_VERIFY:
+                    if (stack.size() < 1)
+                        throw new ScriptException(ScriptError.SCRIPT_ERR_INVALID_STACK_OPERATION, "Attempted OP_VERIFY on an empty stack");
+                    if (!castToBool(stack.pop()))
+                        throw new ScriptException(ScriptError.SCRIPT_ERR_VERIFY, "OP_VERIFY failed");
+                    break;
+                case OP_RETURN:
+                    throw new ScriptException(ScriptError.SCRIPT_ERR_OP_RETURN, "Script called OP_RETURN");
+                case OP_TOALTSTACK:
+                    if (stack.size() < 1)
+                        throw new ScriptException(ScriptError.SCRIPT_ERR_INVALID_STACK_OPERATION, "Attempted OP_TOALTSTACK on an empty stack");
+                    if (altstack == null)
+                        altstack = new ScriptStack();
+                    altstack.push(stack.pop());
+                    break;
+                case OP_FROMALTSTACK:
+                    if (altstack == null || altstack.size() < 1)
+                        throw new ScriptException(ScriptError.SCRIPT_ERR_INVALID_ALTSTACK_OPERATION, "Attempted OP_FROMALTSTACK on an empty altstack");
+                    stack.push(altstack.pop());
+                    break;
+                case OP_2DROP:
+                    if (stack.size() < 2)
+                        throw new ScriptException(ScriptError.SCRIPT_ERR_INVALID_STACK_OPERATION, "Attempted OP_2DROP on a stack with size < 2");
+                    stack.pop();
+                    stack.pop();
+                    break;
+                case OP_2DUP:
+                    if (stack.size() < 2)
+                        throw new ScriptException(ScriptError.SCRIPT_ERR_INVALID_STACK_OPERATION, "Attempted OP_2DUP on a stack with size < 2");
+                    stack.push(stack.peek(1));
+                    stack.push(stack.peek(1));
+                    break;
+                case OP_3DUP:
+                    if (stack.size() < 3)
+                        throw new ScriptException(ScriptError.SCRIPT_ERR_INVALID_STACK_OPERATION, "Attempted OP_3DUP on a stack with size < 3");
+                    stack.push(stack.peek(2));
+                    stack.push(stack.peek(2));
+                    stack.push(stack.peek(2));
+                    break;
+                case OP_2OVER:
+                    if (stack.size() < 4)
+                        throw new ScriptException(ScriptError.SCRIPT_ERR_INVALID_STACK_OPERATION, "Attempted OP_2OVER on a stack with size < 4");
+                    stack.push(stack.peek(3));
+                    stack.push(stack.peek(3));
+                    break;
+                case OP_2ROT:
+                    if (stack.size() < 6)
+                        throw new ScriptException(ScriptError.SCRIPT_ERR_INVALID_STACK_OPERATION, "Attempted OP_2ROT on a stack with size < 6");
+                    byte[] OP2ROTtmpChunk1 = stack.remove(5);
+                    byte[] OP2ROTtmpChunk2 = stack.remove(4);
+                    stack.push(OP2ROTtmpChunk1);
+                    stack.push(OP2ROTtmpChunk2);
+                    break;
+                case OP_2SWAP:
+                    if (stack.size() < 4)
+                        throw new ScriptException(ScriptError.SCRIPT_ERR_INVALID_STACK_OPERATION, "Attempted OP_2SWAP on a stack with size < 4");
+                    stack.swap(3, 1);
+                    stack.swap(2, 0);
+                    break;
+                case OP_IFDUP:
+                    if (stack.size() < 1)
+                        throw new ScriptException(ScriptError.SCRIPT_ERR_INVALID_STACK_OPERATION, "Attempted OP_IFDUP on an empty stack");
+                    if (castToBool(stack.peek()))
+                        stack.push(stack.peek());
+                    break;
+                case OP_DEPTH:
+                    stack.push(encodeNumber(stack.size()));
+                    break;
+                case OP_DROP:
+                    if (stack.size() < 1)
+                        throw new ScriptException(ScriptError.SCRIPT_ERR_INVALID_STACK_OPERATION, "Attempted OP_DROP on an empty stack");
+                    stack.pop();
+                    break;
+                case OP_DUP:
+                    if (stack.size() < 1)
+                        throw new ScriptException(ScriptError.SCRIPT_ERR_INVALID_STACK_OPERATION, "Attempted OP_DUP on an empty stack");
+                    stack.push(stack.peek());
+                    break;
+                case OP_NIP:
+                    if (stack.size() < 2)
+                        throw new ScriptException(ScriptError.SCRIPT_ERR_INVALID_STACK_OPERATION, "Attempted OP_NIP on a stack with size < 2");
+                    stack.remove(1);
+                    break;
+                case OP_OVER:
+                    if (stack.size() < 2)
+                        throw new ScriptException(ScriptError.SCRIPT_ERR_INVALID_STACK_OPERATION, "Attempted OP_OVER on a stack with size < 2");
+                    stack.push(stack.peek(1));
+                    break;
+                case OP_PICK:
+                case OP_ROLL:
+                    if (stack.size() < 1)
+                        throw new ScriptException(ScriptError.SCRIPT_ERR_INVALID_STACK_OPERATION, "Attempted OP_PICK/OP_ROLL on an empty stack");
+                    long val = castToLong(stack.pop(), 4, requireMinimal);
+                    if (val < 0 || val >= stack.size())
+                        throw new ScriptException(ScriptError.SCRIPT_ERR_INVALID_STACK_OPERATION, "OP_PICK/OP_ROLL attempted to get data deeper than stack size");
+                    stack.push(opcode == OP_ROLL ? stack.remove((int) val) : stack.peek((int) val));
+                    break;
+                case OP_ROT:
+                    if (stack.size() < 3)
+                        throw new ScriptException(ScriptError.SCRIPT_ERR_INVALID_STACK_OPERATION, "Attempted OP_ROT on a stack with size < 3");
+                    stack.push(stack.remove(2));
+                    break;
+                case OP_SWAP:
+                case OP_TUCK:
+                    if (stack.size() < 2)
+                        throw new ScriptException(ScriptError.SCRIPT_ERR_INVALID_STACK_OPERATION, "Attempted OP_SWAP on a stack with size < 2");
+                    stack.swap(0, 1);
+                    if (opcode == OP_TUCK)
+                        stack.push(stack.peek(1));
+                    break;
+                case OP_SIZE:
+                    if (stack.size() < 1)
+                        throw new ScriptException(ScriptError.SCRIPT_ERR_INVALID_STACK_OPERATION, "Attempted OP_SIZE on an empty stack");
+                    stack.push(encodeNumber(stack.peek().length));
+                    break;
+                case OP_EQUAL:
+                    if (stack.size() < 2)
+                        throw new ScriptException(ScriptError.SCRIPT_ERR_INVALID_STACK_OPERATION, "Attempted OP_EQUAL on a stack with size < 2");
+                    stack.push(encodeBool(Arrays.equals(stack.pop(), stack.pop())));
+                    break;
+                case OP_EQUALVERIFY:
+                    if (stack.size() < 2)
+                        throw new ScriptException(ScriptError.SCRIPT_ERR_INVALID_STACK_OPERATION, "Attempted OP_EQUALVERIFY on a stack with size < 2");
+                    if (!Arrays.equals(stack.pop(), stack.pop()))
+                        throw new ScriptException(ScriptError.SCRIPT_ERR_EQUALVERIFY, "OP_EQUALVERIFY: non-equal data");
+                    break;
+                case OP_1ADD:
+                case OP_1SUB:
+                case OP_NEGATE:
+                case OP_ABS:
+                case OP_NOT:
+                case OP_0NOTEQUAL:
+                    if (stack.size() < 1)
+                        throw new ScriptException(ScriptError.SCRIPT_ERR_INVALID_STACK_OPERATION, "Attempted a numeric op on an empty stack");
+                    long numericOPnum = castToLong(stack.pop(), 4, requireMinimal);
+
+                    switch (opcode) {
+                    case OP_1ADD:
+                        numericOPnum = numericOPnum + 1;
+                        break;
+                    case OP_1SUB:
+                        numericOPnum = numericOPnum - 1;
+                        break;
+                    case OP_NEGATE:
+                        numericOPnum = -numericOPnum;
+                        break;
+                    case OP_ABS:
+                        numericOPnum = Math.abs(numericOPnum);
+                        break;
+                    case OP_NOT:
+                        numericOPnum = numericOPnum == 0 ? 1 : 0;
+                        break;
+                    case OP_0NOTEQUAL:
+                        numericOPnum = numericOPnum == 0 ? 0 : 1;
+                        break;
+                    default:
+                        throw new AssertionError("Unreachable");
+                    }
+
+                    stack.push(encodeNumber(numericOPnum));
+                    break;
+                case OP_ADD:
+                case OP_SUB:
+                case OP_BOOLAND:
+                case OP_BOOLOR:
+                case OP_NUMEQUAL:
+                case OP_NUMNOTEQUAL:
+                case OP_LESSTHAN:
+                case OP_GREATERTHAN:
+                case OP_LESSTHANOREQUAL:
+                case OP_GREATERTHANOREQUAL:
+                case OP_MIN:
+                case OP_MAX:
+                    if (stack.size() < 2)
+                        throw new ScriptException(ScriptError.SCRIPT_ERR_INVALID_STACK_OPERATION, "Attempted a numeric op on a stack with size < 2");
+                    long numericOPnum2 = castToLong(stack.pop(), 4, requireMinimal);
+                    long numericOPnum1 = castToLong(stack.pop(), 4, requireMinimal);
+
+                    long numericOPresult;
+                    switch (opcode) {
+                    case OP_ADD:
+                        numericOPresult = numericOPnum1 + numericOPnum2;
+                        break;
+                    case OP_SUB:
+                        numericOPresult = numericOPnum1 - numericOPnum2;
+                        break;
+                    case OP_BOOLAND:
+                        numericOPresult = numericOPnum1 != 0 && numericOPnum2 != 0 ? 1 : 0;
+                        break;
+                    case OP_BOOLOR:
+                        numericOPresult = numericOPnum1 != 0 || numericOPnum2 != 0 ? 1 : 0;
+                        break;
+                    case OP_NUMEQUAL:
+                        numericOPresult = numericOPnum1 == numericOPnum2 ? 1 : 0;
+                        break;
+                    case OP_NUMNOTEQUAL:
+                        numericOPresult = numericOPnum1 != numericOPnum2 ? 1 : 0;
+                        break;
+                    case OP_LESSTHAN:
+                        numericOPresult = numericOPnum1 < numericOPnum2 ? 1 : 0;
+                        break;
+                    case OP_GREATERTHAN:
+                        numericOPresult = numericOPnum1 > numericOPnum2 ? 1 : 0;
+                        break;
+                    case OP_LESSTHANOREQUAL:
+                        numericOPresult = numericOPnum1 <= numericOPnum2 ? 1 : 0;
+                        break;
+                    case OP_GREATERTHANOREQUAL:
+                        numericOPresult = numericOPnum1 >= numericOPnum2 ? 1 : 0;
+                        break;
+                    case OP_MIN:
+                        numericOPresult = Math.min(numericOPnum1, numericOPnum2);
+                        break;
+                    case OP_MAX:
+                        numericOPresult = Math.max(numericOPnum1, numericOPnum2);
+                        break;
+                    default:
+                        throw new RuntimeException("Opcode switched at runtime?");
+                    }
+
+                    stack.push(encodeNumber(numericOPresult));
+                    break;
+                case OP_NUMEQUALVERIFY:
+                    if (stack.size() < 2)
+                        throw new ScriptException(ScriptError.SCRIPT_ERR_INVALID_STACK_OPERATION, "Attempted OP_NUMEQUALVERIFY on a stack with size < 2");
+                    long OPNUMEQUALVERIFYnum2 = castToLong(stack.pop(), 4, requireMinimal);
+                    long OPNUMEQUALVERIFYnum1 = castToLong(stack.pop(), 4, requireMinimal);
+
+                    if (OPNUMEQUALVERIFYnum1 != OPNUMEQUALVERIFYnum2)
+                        throw new ScriptException(ScriptError.SCRIPT_ERR_NUMEQUALVERIFY, "OP_NUMEQUALVERIFY failed");
+                    break;
+                case OP_WITHIN:
+                    if (stack.size() < 3)
+                        throw new ScriptException(ScriptError.SCRIPT_ERR_INVALID_STACK_OPERATION, "Attempted OP_WITHIN on a stack with size < 3");
+                    long OPWITHINnum3 = castToLong(stack.pop(), 4, requireMinimal);
+                    long OPWITHINnum2 = castToLong(stack.pop(), 4, requireMinimal);
+                    long OPWITHINnum1 = castToLong(stack.pop(), 4, requireMinimal);
+                    stack.push(encodeBool(OPWITHINnum2 <= OPWITHINnum1 && OPWITHINnum1 < OPWITHINnum3));
+                    break;
+                case OP_RIPEMD160:
+                    if (stack.size() < 1)
+                        throw new ScriptException(ScriptError.SCRIPT_ERR_INVALID_STACK_OPERATION, "Attempted OP_RIPEMD160 on an empty stack");
+                    RIPEMD160Digest digest = new RIPEMD160Digest();
+                    byte[] dataToHash = stack.pop();
+                    digest.update(dataToHash, 0, dataToHash.length);
+                    byte[] ripmemdHash = new byte[20];
+                    digest.doFinal(ripmemdHash, 0);
+                    stack.push(ripmemdHash);
+                    break;
+                case OP_SHA1:
+                    if (stack.size() < 1)
+                        throw new ScriptException(ScriptError.SCRIPT_ERR_INVALID_STACK_OPERATION, "Attempted OP_SHA1 on an empty stack");
+                    try {
+                        stack.push(MessageDigest.getInstance("SHA-1").digest(stack.pop()));
+                    } catch (NoSuchAlgorithmException e) {
+                        throw new RuntimeException(e);  // Cannot happen.
+                    }
+                    break;
+                case OP_SHA256:
+                    if (stack.size() < 1)
+                        throw new ScriptException(ScriptError.SCRIPT_ERR_INVALID_STACK_OPERATION, "Attempted OP_SHA256 on an empty stack");
+                    stack.push(Sha256Hash.hash(stack.pop()));
+                    break;
+                case OP_HASH160:
+                    if (stack.size() < 1)
+                        throw new ScriptException(ScriptError.SCRIPT_ERR_INVALID_STACK_OPERATION, "Attempted OP_HASH160 on an empty stack");
+                    stack.push(Utils.sha256hash160(stack.pop()));
+                    break;
+                case OP_HASH256:
+                    if (stack.size() < 1)
+                        throw new ScriptException(ScriptError.SCRIPT_ERR_INVALID_STACK_OPERATION, "Attempted OP_SHA256 on an empty stack");
+                    stack.push(Sha256Hash.hashTwice(stack.pop()));
+                    break;
+                case OP_CODESEPARATOR:
+                    lastCodeSepLocation = compiled.ends[pc];
+                    break;
+                case OP_CHECKSIG:
+                case OP_CHECKSIGVERIFY:
+                    if (txContainingThis == null)
+                        throw new IllegalStateException("Script attempted signature check but no tx was provided");
+                    executeCheckSig(txContainingThis, index, compiled, stack, lastCodeSepLocation, opcode, verifyFlags);
+                    break;
+                case OP_CHECKMULTISIG:
+                case OP_CHECKMULTISIGVERIFY:
+                    if (txContainingThis == null)
+                        throw new IllegalStateException("Script attempted signature check but no tx was provided");
+                    opCount = executeMultiSig(txContainingThis, index, compiled, stack, opCount, lastCodeSepLocation, opcode, verifyFlags);
+                    break;
+                case OP_CHECKLOCKTIMEVERIFY:
+                    if (!verifyFlags.contains(VerifyFlag.CHECKLOCKTIMEVERIFY)) {
+                        // not enabled; treat as a NOP2
+                        if (discourageUpgradableNops) {
+                            throw new ScriptException(ScriptError.SCRIPT_ERR_DISCOURAGE_UPGRADABLE_NOPS, "Script used a reserved opcode " + opcode);
+                        }
+                        break;
+                    }
+                    executeCheckLockTimeVerify(txContainingThis, index, stack, requireMinimal);
+                    break;
+                case OP_CHECKSEQUENCEVERIFY:
+                    if (!verifyFlags.contains(VerifyFlag.CHECKSEQUENCEVERIFY)) {
+                        // not enabled; treat as a NOP3
+                        if (discourageUpgradableNops) {
+                            throw new ScriptException(ScriptError.SCRIPT_ERR_DISCOURAGE_UPGRADABLE_NOPS, "Script used a reserved opcode " + opcode);
+                        }
+                        break;
+                    }
+                    executeCheckSequenceVerify(txContainingThis, index, stack, requireMinimal);
+                    break;
+                case OP_NOP1:
+                case OP_NOP4:
+                case OP_NOP5:
+                case OP_NOP6:
+                case OP_NOP7:
+                case OP_NOP8:
+                case OP_NOP9:
+                case OP_NOP10:
+                    if (discourageUpgradableNops) {
+                        throw new ScriptException(ScriptError.SCRIPT_ERR_DISCOURAGE_UPGRADABLE_NOPS, "Script used a reserved opcode " + opcode);
+                    }
+                    break;
+
+                default:
+                    throw new ScriptException(ScriptError.SCRIPT_ERR_BAD_OPCODE, "Script used a reserved or disabled opcode: " + opcode);
+                }
+            }
+
+            if (stack.size() + (altstack == null ? 0 : altstack.size()) > MAX_STACK_SIZE)
+                throw new ScriptException(ScriptError.SCRIPT_ERR_STACK_SIZE, "Stack size exceeded range");
+        }
+
+        if (ifDepth != 0)
+            throw new ScriptException(ScriptError.SCRIPT_ERR_UNBALANCED_CONDITIONAL, "OP_IF/OP_NOTIF without OP_ENDIF");
+    }
+
+    private static boolean isDisabled(int opcode) {
+        return opcode == OP_CAT || opcode == OP_SUBSTR || opcode == OP_LEFT || opcode == OP_RIGHT ||
+                opcode == OP_INVERT || opcode == OP_AND || opcode == OP_OR || opcode == OP_XOR ||
+                opcode == OP_2MUL || opcode == OP_2DIV || opcode == OP_MUL || opcode == OP_DIV ||
+                opcode == OP_MOD || opcode == OP_LSHIFT || opcode == OP_RSHIFT;
+    }
+
+    /**
+     * Checks a scriptSig of two data pushes against a P2PKH scriptPubKey, with the same outcome as running both
+     * scripts, but without the interpreter loop: the hash of the public key is compared with the one in the
+     * scriptPubKey and the signature checked. Returns false without doing anything if the scripts are of other forms,
+     * which includes scriptSigs that MINIMALDATA would reject.
+     */
+    static boolean correctlySpendsP2PKH(Transaction txContainingThis, int index, Script scriptSig,
+                                        Script scriptPubKey, Set<VerifyFlag> verifyFlags) throws ScriptException {
+        CompiledScript pubKeyScript = scriptPubKey.getCompiled();
+        if (!ScriptPattern.isP2PKH(pubKeyScript.program))
+            return false;
+        CompiledScript sigScript = scriptSig.getCompiled();
+        if (sigScript.size() != 2)
+            return false;
+        boolean requireMinimal = verifyFlags.contains(VerifyFlag.MINIMALDATA);
+        for (int i = 0; i < 2; i++) {
+            byte[] push = sigScript.data[i];
+            if (sigScript.opcodes[i] > OP_PUSHDATA4 || push == null || push.length > Script.MAX_SCRIPT_ELEMENT_SIZE
+                    || (requireMinimal && sigScript.nonMinimal[i]))
+                return false;
+        }
+        byte[] sigBytes = sigScript.data[0];
+        byte[] pubKey = sigScript.data[1];
+
+        // OP_DUP OP_HASH160 <hash> OP_EQUALVERIFY
+        byte[] hash = Utils.sha256hash160(pubKey);
+        for (int i = 0; i < hash.length; i++)
+            if (hash[i] != pubKeyScript.program[ScriptPattern.P2PKH_HASH_OFFSET + i])
+                throw new ScriptException(ScriptError.SCRIPT_ERR_EQUALVERIFY, "OP_EQUALVERIFY: non-equal data");
+        // OP_CHECKSIG
+        if (txContainingThis == null)
+            throw new IllegalStateException("Script attempted signature check but no tx was provided");
+        byte[] connectedScript = removeSignature(pubKeyScript.program, sigBytes);
+        if (!checkSignature(txContainingThis, index, connectedScript, sigBytes, pubKey, verifyFlags))
+            throw new ScriptException(ScriptError.SCRIPT_ERR_EVAL_FALSE,
+                    "Script resulted in a non-true stack: " + Utils.toString(Collections.singletonList(CompiledScript.EMPTY)));
+        return true;
+    }
+
+    // This is more or less a direct translation of the code in Tdcoin Core
+    private static void executeCheckLockTimeVerify(Transaction txContainingThis, int index, ScriptStack stack, boolean requireMinimal) throws ScriptException {
+        if (stack.size() < 1)
+            throw new ScriptException(ScriptError.SCRIPT_ERR_INVALID_STACK_OPERATION, "Attempted OP_CHECKLOCKTIMEVERIFY on a stack with size < 1");
+
+        // Thus as a special case we tell CScriptNum to accept up
+        // to 5-byte bignums to avoid year 2038 issue.
+        final long nLockTime = castToLong(stack.peek(), 5, requireMinimal);
+
+        if (nLockTime < 0)
+            throw new ScriptException(ScriptError.SCRIPT_ERR_NEGATIVE_LOCKTIME, "Negative locktime");
+
+        // There are two kinds of nLockTime, need to ensure we're comparing apples-to-apples
+        long txLockTime = txContainingThis.getLockTime();
+        if (!(
+            ((txLockTime <  Transaction.LOCKTIME_THRESHOLD) && (nLockTime <  Transaction.LOCKTIME_THRESHOLD)) ||
+            ((txLockTime >= Transaction.LOCKTIME_THRESHOLD) && (nLockTime >= Transaction.LOCKTIME_THRESHOLD)))
+        )
+            throw new ScriptException(ScriptError.SCRIPT_ERR_UNSATISFIED_LOCKTIME, "Locktime requirement type mismatch");
+
+        // Now that we know we're comparing apples-to-apples, the
+        // comparison is a simple numeric one.
+        if (nLockTime > txLockTime)
+            throw new ScriptException(ScriptError.SCRIPT_ERR_UNSATISFIED_LOCKTIME, "Locktime requirement not satisfied");
+
+        // Finally the nLockTime feature can be disabled and thus
+        // CHECKLOCKTIMEVERIFY bypassed if every txin has been
+        // finalized by setting nSequence to maxint. The
+        // transaction would be allowed into the blockchain, making
+        // the opcode ineffective.
+        //
+        // Testing if this vin is not final is sufficient to
+        // prevent this condition. Alternatively we could test all
+        // inputs, but testing just this input minimizes the data
+        // required to prove correct CHECKLOCKTIMEVERIFY execution.
+        if (!txContainingThis.getInput(index).hasSequence())
+            throw new ScriptException(ScriptError.SCRIPT_ERR_UNSATISFIED_LOCKTIME, "Transaction contains a final transaction input for a CHECKLOCKTIMEVERIFY script.");
+    }
+
+    private static void executeCheckSequenceVerify(Transaction txContainingThis, int index, ScriptStack stack, boolean requireMinimal) throws ScriptException {
+        if (stack.size() < 1)
+            throw new ScriptException(ScriptError.SCRIPT_ERR_INVALID_STACK_OPERATION, "Attempted OP_CHECKSEQUENCEVERIFY on a stack with size < 1");
+
+        // Note that elsewhere numeric opcodes are limited to
+        // operands in the range -2**31+1 to 2**31-1, however it is
+        // legal for opcodes to produce results exceeding that
+        // range. This limitation is implemented by CScriptNum's
+        // default 4-byte limit.
+        //
+        // Thus as a special case we tell CScriptNum to accept up
+        // to 5-byte bignums, which are good until 2**39-1, well
+        // beyond the 2**32-1 limit of the nSequence field itself.
+        final long nSequence = castToLong(stack.peek(), 5, requireMinimal);
+
+        // In the rare event that the argument may be < 0 due to
+        // some arithmetic being done first, you can always use
+        // 0 MAX CHECKSEQUENCEVERIFY.
+        if (nSequence < 0)
+            throw new ScriptException(ScriptError.SCRIPT_ERR_NEGATIVE_LOCKTIME, "Negative sequence");
+
+        // To provide for future soft-fork extensibility, if the
+        // operand has the disabled lock-time flag set,
+        // CHECKSEQUENCEVERIFY behaves as a NOP.
+        if ((nSequence & TransactionInput.SEQUENCE_LOCKTIME_DISABLE_FLAG) != 0)
+            return;
+
+        // Compare the specified sequence number with the input.
+        checkSequence(nSequence, txContainingThis, index);
+    }
+
+    private static void checkSequence(long nSequence, Transaction txContainingThis, int index) {
+        // Relative lock times are supported by comparing the passed
+        // in operand to the sequence number of the input.
+        long txToSequence = txContainingThis.getInput(index).getSequenceNumber();
+
+        // Fail if the transaction's version number is not set high
+        // enough to trigger BIP 68 rules.
+        if (txContainingThis.getVersion() < 2)
+            throw new ScriptException(ScriptError.SCRIPT_ERR_UNSATISFIED_LOCKTIME, "Transaction version is < 2");
+
+        // Sequence numbers with their most significant bit set are not
+        // consensus constrained. Testing that the transaction's sequence
+        // number do not have this bit set prevents using this property
+        // to get around a CHECKSEQUENCEVERIFY check.
+        if ((txToSequence & TransactionInput.SEQUENCE_LOCKTIME_DISABLE_FLAG) != 0)
+            throw new ScriptException(ScriptError.SCRIPT_ERR_UNSATISFIED_LOCKTIME, "Sequence disable flag is set");
+
+        // Mask off any bits that do not have consensus-enforced meaning
+        // before doing the integer comparisons
+        long nLockTimeMask =  TransactionInput.SEQUENCE_LOCKTIME_TYPE_FLAG | TransactionInput.SEQUENCE_LOCKTIME_MASK;
+        long txToSequenceMasked = txToSequence & nLockTimeMask;
+        long nSequenceMasked = nSequence & nLockTimeMask;
+
+        // There are two kinds of nSequence: lock-by-blockheight
+        // and lock-by-blocktime, distinguished by whether
+        // nSequenceMasked < CTxIn::SEQUENCE_LOCKTIME_TYPE_FLAG.
+        //
+        // We want to compare apples to apples, so fail the script
+        // unless the type of nSequenceMasked being tested is the same as
+        // the nSequenceMasked in the transaction.
+        if (!((txToSequenceMasked < TransactionInput.SEQUENCE_LOCKTIME_TYPE_FLAG && nSequenceMasked < TransactionInput.SEQUENCE_LOCKTIME_TYPE_FLAG) ||
+              (txToSequenceMasked >= TransactionInput.SEQUENCE_LOCKTIME_TYPE_FLAG && nSequenceMasked >= TransactionInput.SEQUENCE_LOCKTIME_TYPE_FLAG))) {
+            throw new ScriptException(ScriptError.SCRIPT_ERR_UNSATISFIED_LOCKTIME, "Relative locktime requirement type mismatch");
+        }
+
+        // Now that we know we're comparing apples-to-apples, the
+        // comparison is a simple numeric one.
+        if (nSequenceMasked > txToSequenceMasked)
+            throw new ScriptException(ScriptError.SCRIPT_ERR_UNSATISFIED_LOCKTIME, "Relative locktime requirement not satisfied");
+    }
+
+    private static void executeCheckSig(Transaction txContainingThis, int index, CompiledScript script, ScriptStack stack,
+                                        int lastCodeSepLocation, int opcode,
+                                        Set<VerifyFlag> verifyFlags) throws ScriptException {
+        if (stack.size() < 2)
+            throw new ScriptException(ScriptError.SCRIPT_ERR_INVALID_STACK_OPERATION, "Attempted OP_CHECKSIG(VERIFY) on a stack with size < 2");
+        byte[] pubKey = stack.pop();
+        byte[] sigBytes = stack.pop();
+
+        byte[] connectedScript = removeSignature(connectedScript(script, lastCodeSepLocation), sigBytes);
+        boolean sigValid = checkSignature(txContainingThis, index, connectedScript, sigBytes, pubKey, verifyFlags);
+
+        if (opcode == OP_CHECKSIG)
+            stack.push(encodeBool(sigValid));
+        else if (opcode == OP_CHECKSIGVERIFY)
+            if (!sigValid)
+                throw new ScriptException(ScriptError.SCRIPT_ERR_CHECKSIGVERIFY, "Script failed OP_CHECKSIGVERIFY");
+    }
+
+    private static boolean checkSignature(Transaction txContainingThis, int index, byte[] connectedScript,
+                                          byte[] sigBytes, byte[] pubKey, Set<VerifyFlag> verifyFlags)
+            throws ScriptException {
+        final boolean requireCanonical = verifyFlags.contains(VerifyFlag.STRICTENC)
+            || verifyFlags.contains(VerifyFlag.DERSIG)
+            || verifyFlags.contains(VerifyFlag.LOW_S);
+        // TODO: Use int for indexes everywhere, we can't have that many inputs/outputs
+        boolean sigValid = false;
+        try {
+            TransactionSignature sig = TransactionSignature.decodeFromTdcoin(sigBytes, requireCanonical,
+                verifyFlags.contains(VerifyFlag.LOW_S));
+
+            // TODO: Should check hash type is known
+            Sha256Hash hash = txContainingThis.hashForSignature(index, connectedScript, (byte) sig.sighashFlags);
+            sigValid = DeferredSignatureChecks.verify(hash.getBytes(), sig, pubKey);
+        } catch (VerificationException.NoncanonicalSignature e) {
+            throw new ScriptException(ScriptError.SCRIPT_ERR_SIG_DER, "Script contains non-canonical signature");
+        } catch (SignatureDecodeException e) {
+            // This exception occurs when signing as we run partial/invalid scripts to see if they need more
+            // signing work to be done inside LocalTransactionSigner.signInputs.
+            // FIXME don't rely on exception message
+            if (e.getMessage() != null && !e.getMessage().contains("Reached past end of ASN.1 stream"))
+                // Don't put critical code here; the above check is not reliable on HotSpot due to optimization:
+                // http://jawspeak.com/2010/05/26/hotspot-caused-exceptions-to-lose-their-stack-traces-in-production-and-the-fix/
+                log.warn("Signature parsing failed!", e);
+        } catch (Exception e) {
+            log.warn("Signature checking failed!", e);
+        }
+        return sigValid;
+    }
+
+    private static int executeMultiSig(Transaction txContainingThis, int index, CompiledScript script, ScriptStack stack,
+                                       int opCount, int lastCodeSepLocation, int opcode,
+                                       Set<VerifyFlag> verifyFlags) throws ScriptException {
+        final boolean requireCanonical = verifyFlags.contains(VerifyFlag.STRICTENC)
+            || verifyFlags.contains(VerifyFlag.DERSIG)
+            || verifyFlags.contains(VerifyFlag.LOW_S);
+        final boolean requireMinimal = verifyFlags.contains(VerifyFlag.MINIMALDATA);
+        if (stack.size() < 1)
+            throw new ScriptException(ScriptError.SCRIPT_ERR_INVALID_STACK_OPERATION, "Attempted OP_CHECKMULTISIG(VERIFY) on a stack with size < 2");
+        int pubKeyCount = (int) castToLong(stack.pop(), 4, requireMinimal);
+        if (pubKeyCount < 0 || pubKeyCount > MAX_PUBKEYS_PER_MULTISIG)
+            throw new ScriptException(ScriptError.SCRIPT_ERR_PUBKEY_COUNT, "OP_CHECKMULTISIG(VERIFY) with pubkey count out of range");
+        opCount += pubKeyCount;
+        if (opCount > MAX_OPS_PER_SCRIPT)
+            throw new ScriptException(ScriptError.SCRIPT_ERR_OP_COUNT, "Total op count > 201 during OP_CHECKMULTISIG(VERIFY)");
+        if (stack.size() < pubKeyCount + 1)
+            throw new ScriptException(ScriptError.SCRIPT_ERR_INVALID_STACK_OPERATION, "Attempted OP_CHECKMULTISIG(VERIFY) on a stack with size < num_of_pubkeys + 2");
+
+        byte[][] pubKeys = new byte[pubKeyCount][];
+        for (int i = 0; i < pubKeyCount; i++)
+            pubKeys[i] = stack.pop();
+
+        int sigCount = (int) castToLong(stack.pop(), 4, requireMinimal);
+        if (sigCount < 0 || sigCount > pubKeyCount)
+            throw new ScriptException(ScriptError.SCRIPT_ERR_SIG_COUNT, "OP_CHECKMULTISIG(VERIFY) with sig count out of range");
+        if (stack.size() < sigCount + 1)
+            throw new ScriptException(ScriptError.SCRIPT_ERR_INVALID_STACK_OPERATION, "Attempted OP_CHECKMULTISIG(VERIFY) on a stack with size < num_of_pubkeys + num_of_signatures + 3");
+
+        byte[][] sigs = new byte[sigCount][];
+        for (int i = 0; i < sigCount; i++)
+            sigs[i] = stack.pop();
+
+        byte[] connectedScript = connectedScript(script, lastCodeSepLocation);
+        for (byte[] sig : sigs)
+            connectedScript = removeSignature(connectedScript, sig);
+
+        // The signatures have to be in the order of the keys, so each key is tried on the first signature that isn't
+        // matched yet.
+        boolean valid = true;
+        int nextSig = 0, nextPubKey = 0;
+        while (nextSig < sigCount) {
+            byte[] pubKey = pubKeys[nextPubKey++];
+            // We could reasonably move this out of the loop, but because signature verification is significantly
+            // more expensive than hashing, its not a big deal.
+            try {
+                TransactionSignature sig = TransactionSignature.decodeFromTdcoin(sigs[nextSig], requireCanonical, false);
+                Sha256Hash hash = txContainingThis.hashForSignature(index, connectedScript, (byte) sig.sighashFlags);
+                if (DeferredSignatureChecks.verify(hash.getBytes(), sig, pubKey))
+                    nextSig++;
+            } catch (Exception e) {
+                // There is (at least) one exception that could be hit here (EOFException, if the sig is too short)
+                // Because I can't verify there aren't more, we use a very generic Exception catch
+            }
+
+            if (sigCount - nextSig > pubKeyCount - nextPubKey) {
+                valid = false;
+                break;
+            }
+        }
+
+        // We uselessly remove a stack object to emulate a Tdcoin Core bug.
+        byte[] nullDummy = stack.pop();
+        if (verifyFlags.contains(VerifyFlag.NULLDUMMY) && nullDummy.length > 0)
+            throw new ScriptException(ScriptError.SCRIPT_ERR_SIG_NULLFAIL, "OP_CHECKMULTISIG(VERIFY) with non-null nulldummy: " + Arrays.toString(nullDummy));
+
+        if (opcode == OP_CHECKMULTISIG) {
+            stack.push(encodeBool(valid));
+        } else if (opcode == OP_CHECKMULTISIGVERIFY) {
+            if (!valid)
+                throw new ScriptException(ScriptError.SCRIPT_ERR_SIG_NULLFAIL, "Script failed OP_CHECKMULTISIGVERIFY");
+        }
+        return opCount;
+    }
+
+    // The part of the program after the last OP_CODESEPARATOR. Not copied if there was none.
+    private static byte[] connectedScript(CompiledScript script, int lastCodeSepLocation) {
+        byte[] program = script.program;
+        return lastCodeSepLocation == 0 ? program : Arrays.copyOfRange(program, lastCodeSepLocation, program.length);
+    }
+
+    /**
+     * Removes the pushes of the given signature from the given script, see {@link Script#removeAllInstancesOf(byte[], byte[])}.
+     * Scripts virtually never contain the signatures that sign them, so the script is only copied if the push occurs
+     * somewhere in it.
+     */
+    private static byte[] removeSignature(byte[] script, byte[] sigBytes) {
+        UnsafeByteArrayOutputStream outStream = new UnsafeByteArrayOutputStream(sigBytes.length + 5);
+        try {
+            Script.writeBytes(outStream, sigBytes);
+        } catch (IOException e) {
+            throw new RuntimeException(e); // Cannot happen
+        }
+        byte[] push = outStream.toByteArray();
+        return contains(script, push) ? Script.removeAllInstancesOf(script, push) : script;
+    }
+
+    private static boolean contains(byte[] array, byte[] target) {
+        outer:
+        for (int i = 0; i <= array.length - target.length; i++) {
+            for (int j = 0; j < target.length; j++)
+                if (array[i + j] != target[j])
+                    continue outer;
+            return true;
+        }
+        return false;
+    }
+
+    static boolean castToBool(byte[] data) {
+        for (int i = 0; i < data.length; i++)
+        {
+            // "Can be negative zero" - Tdcoin Core (see OpenSSL's BN_bn2mpi)
+            if (data[i] != 0)
+                return !(i == data.length - 1 && (data[i] & 0xFF) == 0x80);
+        }
+        return false;
+    }
+
+    /**
+     * Casts a script chunk to a number, like {@link Script#castToBigInteger(byte[], int, boolean)}. Chunks are little
+     * endian with the sign in the highest bit. At most 8 bytes fit in a long, and scripts use at most 5.
+     *
+     * @throws ScriptException if the chunk is longer than the given maximum, or not minimally encoded when required
+     */
+    static long castToLong(byte[] chunk, int maxLength, boolean requireMinimal) throws ScriptException {
+        if (chunk.length > maxLength)
+            throw new ScriptException(ScriptError.SCRIPT_ERR_UNKNOWN_ERROR, "Script attempted to use an integer larger than " + maxLength + " bytes");
+        if (chunk.length == 0)
+            return 0;
+        int last = chunk.length - 1;
+        // See Script.castToBigInteger() for this check.
+        if (requireMinimal && (chunk[last] & 0x7f) == 0 && (last == 0 || (chunk[last - 1] & 0x80) == 0))
+            throw new ScriptException(ScriptError.SCRIPT_ERR_UNKNOWN_ERROR, "non-minimally encoded script number");
+        long result = 0;
+        for (int i = 0; i < last; i++)
+            result |= (chunk[i] & 0xffL) << (8 * i);
+        result |= (chunk[last] & 0x7fL) << (8 * last);
+        return (chunk[last] & 0x80) != 0 ? -result : result;
+    }
+
+    /** Encodes a number the shortest possible way, the inverse of {@link #castToLong(byte[], int, boolean)}. */
+    static byte[] encodeNumber(long value) {
+        if (value == 0)
+            return CompiledScript.EMPTY;
+        long magnitude = Math.abs(value);
+        int length = (64 - Long.numberOfLeadingZeros(magnitude) + 7) / 8;
+        // Another byte is needed for the sign if the highest bit of the magnitude is taken.
+        boolean signByte = (magnitude >>> (8 * length - 1)) != 0;
+        byte[] result = new byte[signByte ? length + 1 : length];
+        for (int i = 0; i < length; i++)
+            result[i] = (byte) (magnitude >>> (8 * i));
+        if (value < 0)
+            result[result.length - 1] |= 0x80;
+        return result;
+    }
+
+    private static byte[] encodeBool(boolean value) {
+        return value ? new byte[] {1} : CompiledScript.EMPTY;
+    }
+}
@@ -21,6 +21,7 @@ import org.tdcoinj.core.LegacyAddress;
 import org.tdcoinj.core.SegwitAddress;
 import org.tdcoinj.core.Sha256Hash;
 import org.tdcoinj.core.Utils;
+import org.tdcoinj.script.Script.ScriptType;
 
 import java.math.BigInteger;
 import java.util.Arrays;
@@ -30,7 +31,11 @@ import static org.tdcoinj.script.Script.decodeFromOpN;
 import static org.tdcoinj.script.ScriptOpCodes.*;
 
 /**
- * This is a Script pattern matcher with some typical script patterns
+ * <p>This is a Script pattern matcher with some typical script patterns</p>
+ *
+ * <p>Scripts created from a program matching the exact byte template of a standard type (see
+ * {@link Script.ScriptType}) are matched and have their hash or key extracted from the program itself, without parsing
+ * it into chunks. Other scripts are matched by their chunks.</p>
  */
 public class ScriptPattern {
     /**
@@ -40,7 +45,9 @@ public class ScriptPattern {
      * way to make payments due to the short and recognizable base58 form addresses come in.
      */
     public static boolean isP2PKH(Script script) {
-        List<ScriptChunk> chunks = script.chunks;
+        if (script.template != null)
+            return script.template == ScriptType.P2PKH;
+        List<ScriptChunk> chunks = script.getQuickChunks();
         if (chunks.size() != 5)
             return false;
         if (!chunks.get(0).equalsOpCode(OP_DUP))
@@ -64,7 +71,9 @@ public class ScriptPattern {
      * will want to guard calls to this method with {@link #isP2PKH(Script)}.
      */
     public static byte[] extractHashFromP2PKH(Script script) {
-        return script.chunks.get(2).data;
+        if (script.template == ScriptType.P2PKH)
+            return slice(script.program, P2PKH_HASH_OFFSET, LegacyAddress.LENGTH);
+        return script.getQuickChunks().get(2).data;
     }
 
     /**
@@ -78,7 +87,9 @@ public class ScriptPattern {
      * </p>
      */
     public static boolean isP2SH(Script script) {
-        List<ScriptChunk> chunks = script.chunks;
+        if (script.template != null)
+            return script.template == ScriptType.P2SH;
+        List<ScriptChunk> chunks = script.getQuickChunks();
         // We check for the effective serialized form because BIP16 defines a P2SH output using an exact byte
         // template, not the logical program structure. Thus you can have two programs that look identical when
         // printed out but one is a P2SH script and the other isn't! :(
@@ -106,7 +117,9 @@ public class ScriptPattern {
      * will want to guard calls to this method with {@link #isP2SH(Script)}.
      */
     public static byte[] extractHashFromP2SH(Script script) {
-        return script.chunks.get(1).data;
+        if (script.template == ScriptType.P2SH)
+            return slice(script.program, P2SH_HASH_OFFSET, LegacyAddress.LENGTH);
+        return script.getQuickChunks().get(1).data;
     }
 
     /**
@@ -116,7 +129,9 @@ public class ScriptPattern {
      * useful more exotic types of transaction, but today most payments are to addresses.
      */
     public static boolean isP2PK(Script script) {
-        List<ScriptChunk> chunks = script.chunks;
+        if (script.template != null)
+            return script.template == ScriptType.P2PK;
+        List<ScriptChunk> chunks = script.getQuickChunks();
         if (chunks.size() != 2)
             return false;
         ScriptChunk chunk0 = chunks.get(0);
@@ -137,7 +152,9 @@ public class ScriptPattern {
      * want to guard calls to this method with {@link #isP2PK(Script)}.
      */
     public static byte[] extractKeyFromP2PK(Script script) {
-        return script.chunks.get(0).data;
+        if (script.template == ScriptType.P2PK)
+            return slice(script.program, P2PK_KEY_OFFSET, script.program.length - 2);
+        return script.getQuickChunks().get(0).data;
     }
 
     /**
@@ -145,7 +162,9 @@ public class ScriptPattern {
      * two script types were introduced with segwit.
      */
     public static boolean isP2WH(Script script) {
-        List<ScriptChunk> chunks = script.chunks;
+        if (script.template != null)
+            return script.template == ScriptType.P2WPKH || script.template == ScriptType.P2WSH;
+        List<ScriptChunk> chunks = script.getQuickChunks();
         if (chunks.size() != 2)
             return false;
         if (!chunks.get(0).equalsOpCode(OP_0))
@@ -164,9 +183,11 @@ public class ScriptPattern {
      * scriptPubKey. This script type was introduced with segwit.
      */
     public static boolean isP2WPKH(Script script) {
+        if (script.template != null)
+            return script.template == ScriptType.P2WPKH;
         if (!isP2WH(script))
             return false;
-        List<ScriptChunk> chunks = script.chunks;
+        List<ScriptChunk> chunks = script.getQuickChunks();
         if (!chunks.get(0).equalsOpCode(OP_0))
             return false;
         byte[] chunk1data = chunks.get(1).data;
@@ -178,9 +199,11 @@ public class ScriptPattern {
      * scriptPubKey. This script type was introduced with segwit.
      */
     public static boolean isP2WSH(Script script) {
+        if (script.template != null)
+            return script.template == ScriptType.P2WSH;
         if (!isP2WH(script))
             return false;
-        List<ScriptChunk> chunks = script.chunks;
+        List<ScriptChunk> chunks = script.getQuickChunks();
         if (!chunks.get(0).equalsOpCode(OP_0))
             return false;
         byte[] chunk1data = chunks.get(1).data;
@@ -193,7 +216,9 @@ public class ScriptPattern {
      * {@link #isP2WH(Script)}.
      */
     public static byte[] extractHashFromP2WH(Script script) {
-        return script.chunks.get(1).data;
+        if (script.template == ScriptType.P2WPKH || script.template == ScriptType.P2WSH)
+            return slice(script.program, P2WH_HASH_OFFSET, script.program.length - P2WH_HASH_OFFSET);
+        return script.getQuickChunks().get(1).data;
     }
 
     /**
@@ -201,7 +226,9 @@ public class ScriptPattern {
      * {@code [m] [keys...] [n] CHECKMULTISIG}
      */
     public static boolean isSentToMultisig(Script script) {
-        List<ScriptChunk> chunks = script.chunks;
+        if (script.template != null)
+            return false;
+        List<ScriptChunk> chunks = script.getQuickChunks();
         if (chunks.size() < 4) return false;
         ScriptChunk chunk = chunks.get(chunks.size() - 1);
         // Must end in OP_CHECKMULTISIG[VERIFY].
@@ -223,7 +250,9 @@ public class ScriptPattern {
      * Returns whether this script matches the format used for LOCKTIMEVERIFY transactions.
      */
     public static boolean isSentToCltvPaymentChannel(Script script) {
-        List<ScriptChunk> chunks = script.chunks;
+        if (script.template != null)
+            return false;
+        List<ScriptChunk> chunks = script.getQuickChunks();
         if (chunks.size() != 10) return false;
         // Check that opcodes match the pre-determined format.
         if (!chunks.get(0).equalsOpCode(OP_IF)) return false;
@@ -245,7 +274,7 @@ public class ScriptPattern {
      * {@link #isSentToCltvPaymentChannel(Script)}.
      */
     public static byte[] extractSenderPubKeyFromCltvPaymentChannel(Script script) {
-        return script.chunks.get(8).data;
+        return script.getQuickChunks().get(8).data;
     }
 
     /**
@@ -254,7 +283,7 @@ public class ScriptPattern {
      * {@link #isSentToCltvPaymentChannel(Script)}.
      */
     public static byte[] extractRecipientPubKeyFromCltvPaymentChannel(Script script) {
-        return script.chunks.get(1).data;
+        return script.getQuickChunks().get(1).data;
     }
 
     /**
@@ -262,14 +291,16 @@ public class ScriptPattern {
      * so you will want to guard calls to this method with {@link #isSentToCltvPaymentChannel(Script)}.
      */
     public static BigInteger extractExpiryFromCltvPaymentChannel(Script script) {
-        return Script.castToBigInteger(script.chunks.get(4).data, 5, false);
+        return Script.castToBigInteger(script.getQuickChunks().get(4).data, 5, false);
     }
 
     /**
      * Returns whether this script is using OP_RETURN to store arbitrary data.
      */
     public static boolean isOpReturn(Script script) {
-        List<ScriptChunk> chunks = script.chunks;
+        if (script.template != null)
+            return false;
+        List<ScriptChunk> chunks = script.getQuickChunks();
         return chunks.size() > 0 && chunks.get(0).equalsOpCode(ScriptOpCodes.OP_RETURN);
     }
 
@@ -280,7 +311,9 @@ public class ScriptPattern {
      * transaction).
      */
     public static boolean isWitnessCommitment(Script script) {
-        List<ScriptChunk> chunks = script.chunks;
+        if (script.template != null)
+            return false;
+        List<ScriptChunk> chunks = script.getQuickChunks();
         if (chunks.size() < 2)
             return false;
         if (!chunks.get(0).equalsOpCode(ScriptOpCodes.OP_RETURN))
@@ -297,6 +330,72 @@ public class ScriptPattern {
      * Retrieves the hash from a segwit commitment (in an output of the coinbase transaction).
      */
     public static Sha256Hash extractWitnessCommitmentHash(Script script) {
-        return Sha256Hash.wrap(Arrays.copyOfRange(script.chunks.get(1).data, 4, 36));
+        return Sha256Hash.wrap(Arrays.copyOfRange(script.getQuickChunks().get(1).data, 4, 36));
+    }
+
+    /** Offset of the pubkey hash in a P2PKH program accepted by {@link #isP2PKH(byte[])}. */
+    public static final int P2PKH_HASH_OFFSET = 3;
+    /** Offset of the script hash in a P2SH program accepted by {@link #isP2SH(byte[])}. */
+    public static final int P2SH_HASH_OFFSET = 2;
+    /** Offset of the pubkey hash in a P2WPKH program accepted by {@link #isP2WPKH(byte[])}. */
+    public static final int P2WPKH_HASH_OFFSET = 2;
+    /** Offset of the script hash in a P2WSH program accepted by {@link #isP2WSH(byte[])}. */
+    public static final int P2WSH_HASH_OFFSET = 2;
+    /** Offset of the public key in a P2PK program accepted by {@link #isP2PK(byte[])}. */
+    public static final int P2PK_KEY_OFFSET = 1;
+
+    private static final int P2WH_HASH_OFFSET = 2;
+
+    /**
+     * Returns true if the given raw program is a P2PKH scriptPubKey with the hash pushed by its minimal push opcode,
+     * which is how virtually all of them are encoded. Unlike {@link #isP2PKH(Script)} this doesn't need the program to
+     * be parsed into chunks first. The hash starts at {@link #P2PKH_HASH_OFFSET}.
+     */
+    public static boolean isP2PKH(byte[] program) {
+        return program.length == 25 && program[0] == (byte) OP_DUP && program[1] == (byte) OP_HASH160
+                && program[2] == LegacyAddress.LENGTH && program[23] == (byte) OP_EQUALVERIFY
+                && program[24] == (byte) OP_CHECKSIG;
+    }
+
+    /**
+     * Returns true if the given raw program is a P2SH scriptPubKey. BIP16 defines these by an exact byte template, so
+     * this agrees with {@link #isP2SH(Script)}. The hash starts at {@link #P2SH_HASH_OFFSET}.
+     */
+    public static boolean isP2SH(byte[] program) {
+        return program.length == 23 && program[0] == (byte) OP_HASH160 && program[1] == LegacyAddress.LENGTH
+                && program[22] == (byte) OP_EQUAL;
+    }
+
+    /**
+     * Returns true if the given raw program is a P2WPKH scriptPubKey with the hash pushed by its minimal push opcode.
+     * The hash starts at {@link #P2WPKH_HASH_OFFSET}.
+     */
+    public static boolean isP2WPKH(byte[] program) {
+        return program.length == 22 && program[0] == OP_0
+                && program[1] == SegwitAddress.WITNESS_PROGRAM_LENGTH_PKH;
+    }
+
+    /**
+     * Returns true if the given raw program is a P2WSH scriptPubKey with the hash pushed by its minimal push opcode.
+     * The hash starts at {@link #P2WSH_HASH_OFFSET}.
+     */
+    public static boolean isP2WSH(byte[] program) {
+        return program.length == 34 && program[0] == OP_0
+                && program[1] == SegwitAddress.WITNESS_PROGRAM_LENGTH_SH;
+    }
+
+    /**
+     * Returns true if the given raw program is a P2PK scriptPubKey with a compressed or uncompressed public key pushed
+     * by its minimal push opcode. The key starts at {@link #P2PK_KEY_OFFSET} and takes the rest of the program but the
+     * last byte.
+     */
+    public static boolean isP2PK(byte[] program) {
+        return (program.length == 35 && program[0] == 33 || program.length == 67 && program[0] == 65)
+                && program[program.length - 1] == (byte) OP_CHECKSIG;
+    }
+
+    // The hash or key of a script matched by its template, copied so that the program can't be changed through it.
+    private static byte[] slice(byte[] program, int offset, int length) {
+        return Arrays.copyOfRange(program, offset, offset + length);
     }
 }
@@ -0,0 +1,106 @@
+/*
+ * Copyright by the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.tdcoinj.script;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * The stack of the script interpreter, an array of the elements with the top at the end. Elements are shared, not
+ * copied: pushes of the script put the data of its chunks on the stack and copying the stack only copies references,
+ * so elements must not be changed.
+ */
+final class ScriptStack {
+    private byte[][] elements;
+    private int size;
+
+    ScriptStack() {
+        elements = new byte[8][];
+    }
+
+    /** Creates a stack holding the given elements, the last one on top. */
+    ScriptStack(Collection<byte[]> initial) {
+        elements = initial.toArray(new byte[Math.max(8, initial.size())][]);
+        size = initial.size();
+    }
+
+    private ScriptStack(ScriptStack other) {
+        elements = Arrays.copyOf(other.elements, Math.max(8, other.size));
+        size = other.size;
+    }
+
+    ScriptStack copy() {
+        return new ScriptStack(this);
+    }
+
+    int size() {
+        return size;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    void push(byte[] element) {
+        if (size == elements.length)
+            elements = Arrays.copyOf(elements, size * 2);
+        elements[size++] = element;
+    }
+
+    /** Removes the top element. The caller has to make sure the stack isn't empty. */
+    byte[] pop() {
+        byte[] element = elements[--size];
+        elements[size] = null;
+        return element;
+    }
+
+    /** Returns the element at the given depth, the top being at depth 0. */
+    byte[] peek(int depth) {
+        return elements[size - 1 - depth];
+    }
+
+    byte[] peek() {
+        return elements[size - 1];
+    }
+
+    /** Removes and returns the element at the given depth, the top being at depth 0. */
+    byte[] remove(int depth) {
+        int index = size - 1 - depth;
+        byte[] element = elements[index];
+        System.arraycopy(elements, index + 1, elements, index, depth);
+        elements[--size] = null;
+        return element;
+    }
+
+    /** Swaps the elements at the given depths. */
+    void swap(int depth1, int depth2) {
+        int index1 = size - 1 - depth1, index2 = size - 1 - depth2;
+        byte[] element = elements[index1];
+        elements[index1] = elements[index2];
+        elements[index2] = element;
+    }
+
+    /** Adds all elements to the given collection, bottom first. */
+    void copyTo(Collection<byte[]> target) {
+        target.addAll(asList());
+    }
+
+    List<byte[]> asList() {
+        return Arrays.asList(elements).subList(0, size);
+    }
+}
@@ -17,11 +17,15 @@
 
 package org.tdcoinj.signers;
 
+import java.util.ArrayList;
 import java.util.EnumSet;
+import java.util.List;
+import java.util.concurrent.Executor;
 
 import org.tdcoinj.core.Coin;
 import org.tdcoinj.core.ECKey;
 import org.tdcoinj.core.LegacyAddress;
+import org.tdcoinj.core.Sha256Hash;
 import org.tdcoinj.core.Transaction;
 import org.tdcoinj.core.TransactionInput;
 import org.tdcoinj.core.TransactionOutput;
@@ -33,6 +37,7 @@ import org.tdcoinj.script.ScriptBuilder;
 import org.tdcoinj.script.ScriptException;
 import org.tdcoinj.script.ScriptPattern;
 import org.tdcoinj.script.Script.VerifyFlag;
+import org.tdcoinj.utils.Threading;
 import org.tdcoinj.wallet.KeyBag;
 import org.tdcoinj.wallet.RedeemData;
 import org.slf4j.Logger;
@@ -49,6 +54,11 @@ import org.slf4j.LoggerFactory;
  * signers to use correct signing key for P2SH inputs, because all the keys involved in a single P2SH address have
  * the same derivation path.</p>
  * <p>This signer always uses {@link Transaction.SigHash#ALL} signing mode.</p>
+ * <p>If there are several inputs to sign, hashing and signing are spread over a number of worker threads, while
+ * preparing the inputs and inserting the signatures is done on the calling thread in input order, so the result is
+ * the same as signing sequentially. The signature hashes are calculated by the transaction itself, which doesn't
+ * change while the workers run, with the parts that all witness signature hashes share calculated once by
+ * {@link Transaction#precomputeWitnessHashes()}.</p>
  */
 public class LocalTransactionSigner implements TransactionSigner {
     private static final Logger log = LoggerFactory.getLogger(LocalTransactionSigner.class);
@@ -60,14 +70,63 @@ public class LocalTransactionSigner implements TransactionSigner {
     private static final EnumSet<VerifyFlag> MINIMUM_VERIFY_FLAGS = EnumSet.of(VerifyFlag.P2SH,
         VerifyFlag.NULLDUMMY);
 
+    private final Executor executor;
+    private final int parallelism;
+
+    /** Creates a signer that uses {@link Threading#THREAD_POOL} with one task per available processor. */
+    public LocalTransactionSigner() {
+        this(Threading.THREAD_POOL, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Creates a signer that signs the inputs of a transaction in up to the given number of tasks run by the given
+     * executor. A parallelism of 1 signs all inputs on the calling thread.
+     */
+    public LocalTransactionSigner(Executor executor, int parallelism) {
+        if (parallelism < 1)
+            throw new IllegalArgumentException("parallelism must be positive: " + parallelism);
+        this.executor = executor;
+        this.parallelism = parallelism;
+    }
+
     @Override
     public boolean isReady() {
         return true;
     }
 
+    // An input for which we have the key and know how to create the signature.
+    private static class InputToSign {
+        final int index;
+        final ECKey key;
+        final Script scriptPubKey;
+        final byte[] script;
+        final Coin value;
+        TransactionSignature signature;
+        RuntimeException exception;
+
+        InputToSign(int index, ECKey key, Script scriptPubKey, byte[] script, Coin value) {
+            this.index = index;
+            this.key = key;
+            this.scriptPubKey = scriptPubKey;
+            this.script = script;
+            this.value = value;
+        }
+
+        void sign(Transaction tx, Transaction.WitnessHashes witnessHashes) {
+            try {
+                Sha256Hash hash = value == null ? tx.hashForSignature(index, script, Transaction.SigHash.ALL, false)
+                        : tx.hashForWitnessSignature(index, script, value, witnessHashes);
+                signature = new TransactionSignature(key.sign(hash), Transaction.SigHash.ALL, false);
+            } catch (RuntimeException e) {
+                exception = e;
+            }
+        }
+    }
+
     @Override
     public boolean signInputs(ProposedTransaction propTx, KeyBag keyBag) {
         Transaction tx = propTx.partialTx;
+        List<InputToSign> toSign = new ArrayList<>();
         int numInputs = tx.getInputs().size();
         for (int i = 0; i < numInputs; i++) {
             TransactionInput txIn = tx.getInput(i);
@@ -108,48 +167,65 @@ public class LocalTransactionSigner implements TransactionSigner {
                 continue;
             }
 
-            Script inputScript = txIn.getScriptSig();
             // script here would be either a standard CHECKSIG program for P2PKH or P2PK inputs or
             // a CHECKMULTISIG program for P2SH inputs
             byte[] script = redeemData.redeemScript.getProgram();
-            try {
-                if (ScriptPattern.isP2PK(scriptPubKey) || ScriptPattern.isP2PKH(scriptPubKey)
-                        || ScriptPattern.isP2SH(scriptPubKey)) {
-                    TransactionSignature signature = tx.calculateSignature(i, key, script, Transaction.SigHash.ALL,
-                            false);
-
-                    // at this point we have incomplete inputScript with OP_0 in place of one or more signatures. We
-                    // already have calculated the signature using the local key and now need to insert it in the
-                    // correct place within inputScript. For P2PKH and P2PK script there is only one signature and it
-                    // always goes first in an inputScript (sigIndex = 0). In P2SH input scripts we need to figure out
-                    // our relative position relative to other signers. Since we don't have that information at this
-                    // point, and since we always run first, we have to depend on the other signers rearranging the
-                    // signatures as needed. Therefore, always place as first signature.
-                    int sigIndex = 0;
-                    inputScript = scriptPubKey.getScriptSigWithSignature(inputScript, signature.encodeToTdcoin(),
-                            sigIndex);
-                    txIn.setScriptSig(inputScript);
-                    txIn.setWitness(null);
-                } else if (ScriptPattern.isP2WPKH(scriptPubKey)) {
-                    Script scriptCode = new ScriptBuilder().data(
-                            ScriptBuilder.createOutputScript(LegacyAddress.fromKey(tx.getParams(), key)).getProgram())
-                            .build();
-                    Coin value = txIn.getValue();
-                    TransactionSignature signature = tx.calculateWitnessSignature(i, key, scriptCode, value,
-                            Transaction.SigHash.ALL, false);
-                    txIn.setScriptSig(ScriptBuilder.createEmpty());
-                    txIn.setWitness(TransactionWitness.redeemP2WPKH(signature, key));
-                } else {
-                    throw new IllegalStateException(script.toString());
-                }
-            } catch (ECKey.KeyIsEncryptedException e) {
-                throw e;
-            } catch (ECKey.MissingPrivateKeyException e) {
-                log.warn("No private key in keypair for input {}", i);
+            if (ScriptPattern.isP2PK(scriptPubKey) || ScriptPattern.isP2PKH(scriptPubKey)
+                    || ScriptPattern.isP2SH(scriptPubKey)) {
+                toSign.add(new InputToSign(i, key, scriptPubKey, script, null));
+            } else if (ScriptPattern.isP2WPKH(scriptPubKey)) {
+                Script scriptCode = new ScriptBuilder().data(
+                        ScriptBuilder.createOutputScript(LegacyAddress.fromKey(tx.getParams(), key)).getProgram())
+                        .build();
+                toSign.add(new InputToSign(i, key, scriptPubKey, scriptCode.getProgram(), txIn.getValue()));
+            } else {
+                throw new IllegalStateException(script.toString());
             }
+        }
+        if (toSign.isEmpty())
+            return true;
+
+        signAll(tx, tx.precomputeWitnessHashes(), toSign);
 
+        for (InputToSign input : toSign) {
+            if (input.exception instanceof ECKey.MissingPrivateKeyException
+                    && !(input.exception instanceof ECKey.KeyIsEncryptedException)) {
+                log.warn("No private key in keypair for input {}", input.index);
+                continue;
+            } else if (input.exception != null) {
+                throw input.exception;
+            }
+            TransactionInput txIn = tx.getInput(input.index);
+            if (input.value == null) {
+                // at this point we have incomplete inputScript with OP_0 in place of one or more signatures. We
+                // already have calculated the signature using the local key and now need to insert it in the
+                // correct place within inputScript. For P2PKH and P2PK script there is only one signature and it
+                // always goes first in an inputScript (sigIndex = 0). In P2SH input scripts we need to figure out
+                // our relative position relative to other signers. Since we don't have that information at this
+                // point, and since we always run first, we have to depend on the other signers rearranging the
+                // signatures as needed. Therefore, always place as first signature.
+                int sigIndex = 0;
+                Script inputScript = input.scriptPubKey.getScriptSigWithSignature(txIn.getScriptSig(),
+                        input.signature.encodeToTdcoin(), sigIndex);
+                txIn.setScriptSig(inputScript);
+                txIn.setWitness(null);
+            } else {
+                txIn.setScriptSig(ScriptBuilder.createEmpty());
+                txIn.setWitness(TransactionWitness.redeemP2WPKH(input.signature, input.key));
+            }
         }
         return true;
     }
 
+    // Hashes and signs the given inputs, splitting them into up to parallelism tasks. The transaction isn't touched.
+    private void signAll(final Transaction tx, final Transaction.WitnessHashes witnessHashes,
+                         final List<InputToSign> toSign) {
+        Threading.runSlices(toSign.size(), 1, executor, parallelism, new Threading.Slice() {
+            @Override
+            public void run(int start, int end) {
+                for (InputToSign input : toSign.subList(start, end))
+                    input.sign(tx, witnessHashes);
+            }
+        });
+    }
 }
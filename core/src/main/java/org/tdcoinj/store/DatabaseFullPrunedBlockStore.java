@@ -948,9 +948,10 @@ public abstract class DatabaseFullPrunedBlockStore implements FullPrunedBlockSto
             s.setInt(2, (int) out.getIndex());
             s.setInt(3, out.getHeight());
             s.setLong(4, out.getValue().value);
-            s.setBytes(5, out.getScript().getProgram());
+            Script script = out.getScript();
+            s.setBytes(5, script.getProgram());
             s.setString(6, out.getAddress());
-            ScriptType scriptType = out.getScript().getScriptType();
+            ScriptType scriptType = script.getScriptType();
             s.setInt(7, scriptType != null ? scriptType.id : 0);
             s.setBoolean(8, out.isCoinbase());
             s.executeUpdate();
@@ -24,6 +24,8 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 import java.io.*;
 import java.nio.ByteBuffer;
@@ -44,6 +46,7 @@ import org.tdcoinj.core.Utils;
 import org.tdcoinj.core.VerificationException;
 import org.tdcoinj.script.Script;
 import org.tdcoinj.script.ScriptException;
+import org.tdcoinj.utils.ContextPropagatingThreadFactory;
 import org.iq80.leveldb.*;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -115,14 +118,27 @@ public class LevelDBFullPrunedBlockStore implements FullPrunedBlockStore {
 
     // Size of cache for getTransactionOutput
     protected int openOutCache;
+    // Whether UTXOs are stored in their compact form. Stores created before it was introduced have no version setting
+    // and keep their UTXOs in the original form.
+    protected boolean compactUtxos;
     // Bloomfilter for caching calls to hasUnspentOutputs
     protected BloomFilter bloom;
+    // Deletes the undo data of blocks that have fallen out of the fullStoreDepth window, so that connecting blocks
+    // doesn't wait for it.
+    protected ExecutorService pruningExecutor;
+    // The height up to which undo data is deleted once the batch being written is committed, or -1.
+    protected int pendingPruneHeight = -1;
+    // The lowest height undo data may still be kept for. Only used on the pruning thread.
+    private int lowestUnprunedHeight;
 
     // Defaults for cache sizes
     static final long LEVELDB_READ_CACHE_DEFAULT = 100 * 1048576; // 100 meg
     static final int LEVELDB_WRITE_CACHE_DEFAULT = 10 * 1048576; // 10 meg
     static final int OPENOUT_CACHE_DEFAULT = 100000;
 
+    // The version of stores keeping UTXOs in their compact form, see UTXO.serializeCompact().
+    static final int COMPACT_UTXOS_VERSION = 2;
+
     // LRUCache
     public class LRUCache extends LinkedHashMap<ByteBuffer, UTXO> {
         private static final long serialVersionUID = 1L;
@@ -270,6 +286,8 @@ public class LevelDBFullPrunedBlockStore implements FullPrunedBlockStore {
         this.leveldbWriteCache = leveldbWriteCache;
         this.openOutCache = openOutCache;
         bloom = new BloomFilter();
+        pruningExecutor = Executors.newSingleThreadExecutor(
+                new ContextPropagatingThreadFactory("LevelDB pruning", Thread.MIN_PRIORITY));
         totalStopwatch = Stopwatch.createStarted();
         openDB();
         bloom.reloadCache(db);
@@ -305,6 +323,9 @@ public class LevelDBFullPrunedBlockStore implements FullPrunedBlockStore {
     }
 
     private void initFromDb() throws BlockStoreException {
+        byte[] version = batchGet(getKey(KeyType.VERSION_SETTING));
+        compactUtxos = version != null && Integer.parseInt(asString(version)) >= COMPACT_UTXOS_VERSION;
+
         Sha256Hash hash = Sha256Hash.wrap(batchGet(getKey(KeyType.CHAIN_HEAD_SETTING)));
         this.chainHeadBlock = get(hash);
         this.chainHeadHash = hash;
@@ -333,7 +354,9 @@ public class LevelDBFullPrunedBlockStore implements FullPrunedBlockStore {
             List<Transaction> genesisTransactions = new LinkedList<>();
             StoredUndoableBlock storedGenesis = new StoredUndoableBlock(params.getGenesisBlock().getHash(),
                     genesisTransactions);
+            compactUtxos = true;
             beginDatabaseBatchWrite();
+            batchPut(getKey(KeyType.VERSION_SETTING), bytes(Integer.toString(COMPACT_UTXOS_VERSION)));
             put(storedGenesisHeader, storedGenesis);
             setChainHead(storedGenesisHeader);
             setVerifiedChainHead(storedGenesisHeader);
@@ -409,6 +432,7 @@ public class LevelDBFullPrunedBlockStore implements FullPrunedBlockStore {
     @Override
     public void close() throws BlockStoreException {
         try {
+            finishPruning();
             db.close();
         } catch (IOException e) {
             throw new BlockStoreException("Could not close db", e);
@@ -463,7 +487,7 @@ public class LevelDBFullPrunedBlockStore implements FullPrunedBlockStore {
                     Script sc = txout.getScript();
                     Address address = sc.getToAddress(params, true);
                     UTXO output = new UTXO(txout.getHash(), txout.getIndex(), txout.getValue(), txout.getHeight(),
-                            txout.isCoinbase(), txout.getScript(), address.toString());
+                            txout.isCoinbase(), sc, address.toString());
                     results.add(output);
                 }
             }
@@ -741,7 +765,7 @@ public class LevelDBFullPrunedBlockStore implements FullPrunedBlockStore {
                 return null;
             }
             ByteArrayInputStream bis = new ByteArrayInputStream(inbytes);
-            UTXO txout = new UTXO(bis);
+            UTXO txout = compactUtxos ? UTXO.deserializeCompact(hash, index, bis) : new UTXO(bis);
 
             if (instrument)
                 endMethod("getTransactionOutput");
@@ -768,7 +792,10 @@ public class LevelDBFullPrunedBlockStore implements FullPrunedBlockStore {
         bloom.add(out.getHash());
         ByteArrayOutputStream bos = new ByteArrayOutputStream();
         try {
-            out.serializeToStream(bos);
+            if (compactUtxos)
+                out.serializeCompact(bos);
+            else
+                out.serializeToStream(bos);
         } catch (IOException e) {
             throw new BlockStoreException("problem serialising utxo", e);
         }
@@ -986,22 +1013,55 @@ public class LevelDBFullPrunedBlockStore implements FullPrunedBlockStore {
         batchPut(getKey(KeyType.VERIFIED_CHAIN_HEAD_SETTING), hash.getBytes());
         if (this.chainHeadBlock.getHeight() < chainHead.getHeight())
             setChainHead(chainHead);
-        removeUndoableBlocksWhereHeightIsLessThan(chainHead.getHeight() - fullStoreDepth);
+        pendingPruneHeight = chainHead.getHeight() - fullStoreDepth;
+        if (autoCommit)
+            schedulePruning();
         if (instrument)
             endMethod("setVerifiedChainHead");
     }
 
-    void removeUndoableBlocksWhereHeightIsLessThan(int height) {
+    // Deletes the undo data up to the pending height on the pruning thread. Only called once the verified chain head
+    // that height is derived from has been written, so an aborted batch never loses undo data.
+    private void schedulePruning() {
+        final int height = pendingPruneHeight;
+        pendingPruneHeight = -1;
         if (height < 0)
             return;
+        pruningExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                removeUndoableBlocksWhereHeightIsLessThan(height);
+            }
+        });
+    }
+
+    // Waits for the pruning thread to finish what it was given, as the database is about to be closed.
+    private void finishPruning() {
+        pruningExecutor.shutdown();
+        try {
+            if (!pruningExecutor.awaitTermination(1, TimeUnit.MINUTES))
+                log.warn("Undo data is still being pruned");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Deletes all undo data up to and including the given height in a batch of its own, starting from the lowest
+    // height kept, so nothing is left behind when blocks were connected several at a time.
+    void removeUndoableBlocksWhereHeightIsLessThan(int height) {
+        if (height < lowestUnprunedHeight)
+            return;
         DBIterator iterator = db.iterator();
+        WriteBatch pruneBatch = db.createWriteBatch();
         ByteBuffer keyBuf = ByteBuffer.allocate(5);
         keyBuf.put((byte) KeyType.HEIGHT_UNDOABLEBLOCKS.ordinal());
-        keyBuf.putInt(height);
+        keyBuf.putInt(lowestUnprunedHeight);
 
         for (iterator.seek(keyBuf.array()); iterator.hasNext(); iterator.next()) {
 
             byte[] bytekey = iterator.peekNext().getKey();
+            if (bytekey[0] != (byte) KeyType.HEIGHT_UNDOABLEBLOCKS.ordinal())
+                break;
             ByteBuffer buff = ByteBuffer.wrap(bytekey);
             buff.get(); // Just remove byte from buffer.
             int keyHeight = buff.getInt();
@@ -1012,11 +1072,14 @@ public class LevelDBFullPrunedBlockStore implements FullPrunedBlockStore {
             if (keyHeight > height)
                 break;
 
-            batchDelete(getKey(KeyType.UNDOABLEBLOCKS_ALL, hashbytes));
-            batchDelete(bytekey);
+            pruneBatch.delete(getKey(KeyType.UNDOABLEBLOCKS_ALL, hashbytes));
+            pruneBatch.delete(bytekey);
         }
         try {
+            db.write(pruneBatch);
+            pruneBatch.close();
             iterator.close();
+            lowestUnprunedHeight = height + 1;
         } catch (IOException e) {
             log.error("Error closing iterator", e);
         }
@@ -1068,6 +1131,7 @@ public class LevelDBFullPrunedBlockStore implements FullPrunedBlockStore {
         utxoUncommittedDeletedCache = null;
 
         autoCommit = true;
+        schedulePruning();
 
         try {
             batch.close();
@@ -1097,6 +1161,7 @@ public class LevelDBFullPrunedBlockStore implements FullPrunedBlockStore {
             uncommitedDeletes = null;
             utxoUncommittedCache = null;
             utxoUncommittedDeletedCache = null;
+            pendingPruneHeight = -1;
             autoCommit = true;
             if (batch != null) {
                 batch.close();
@@ -1111,12 +1176,17 @@ public class LevelDBFullPrunedBlockStore implements FullPrunedBlockStore {
         // only used in unit tests.
         // bit dangerous and deletes files!
         try {
+            finishPruning();
             db.close();
             uncommited = null;
             uncommitedDeletes = null;
             autoCommit = true;
             bloom = new BloomFilter();
             utxoCache = new LRUCache(openOutCache, 0.75f);
+            pendingPruneHeight = -1;
+            lowestUnprunedHeight = 0;
+            pruningExecutor = Executors.newSingleThreadExecutor(
+                    new ContextPropagatingThreadFactory("LevelDB pruning", Thread.MIN_PRIORITY));
         } catch (IOException e) {
             log.error("Exception in resetStore.", e);
         }
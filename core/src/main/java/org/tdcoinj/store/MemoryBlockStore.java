@@ -18,14 +18,13 @@ package org.tdcoinj.store;
 
 import org.tdcoinj.core.*;
 
-import java.util.LinkedHashMap;
 import java.util.Map;
 
 /**
  * Keeps {@link StoredBlock}s in memory. Used primarily for unit testing.
  */
 public class MemoryBlockStore implements BlockStore {
-    private LinkedHashMap<Sha256Hash, StoredBlock> blockMap = new LinkedHashMap<Sha256Hash, StoredBlock>() {
+    private Sha256HashMap<StoredBlock> blockMap = new Sha256HashMap<StoredBlock>() {
         @Override
         protected boolean removeEldestEntry(Map.Entry<Sha256Hash, StoredBlock> eldest) {
             return blockMap.size() > 5000;
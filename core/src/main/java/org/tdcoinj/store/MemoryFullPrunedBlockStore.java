@@ -17,9 +17,14 @@
 package org.tdcoinj.store;
 
 import org.tdcoinj.core.*;
+import org.tdcoinj.script.Script;
+import org.tdcoinj.script.ScriptException;
 import com.google.common.base.Preconditions;
 
 import javax.annotation.Nullable;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.util.*;
 
 /**
@@ -128,6 +133,10 @@ class TransactionalHashMap<KeyType, ValueType> {
         return map.get(key);
     }
 
+    public List<KeyType> keys() {
+        return new ArrayList<>(map.keySet());
+    }
+
     public List<ValueType> values() {
         List<ValueType> valueTypes = new ArrayList<>();
         for (KeyType keyType : map.keySet()) {
@@ -228,7 +237,8 @@ class TransactionalMultiKeyHashMap<UniqueKeyType, MultiKeyType, ValueType> {
 
 /**
  * Keeps {@link StoredBlock}s, {@link StoredUndoableBlock}s and {@link UTXO}s in memory.
- * Used primarily for unit testing.
+ * Used primarily for unit testing. UTXOs and the output changes of undoable blocks are kept in their compact
+ * serialized form, see {@link UTXO#serializeCompact(java.io.OutputStream)}, and decoded when they are read.
  */
 public class MemoryFullPrunedBlockStore implements FullPrunedBlockStore {
     protected static class StoredBlockAndWasUndoableFlag {
@@ -236,10 +246,45 @@ public class MemoryFullPrunedBlockStore implements FullPrunedBlockStore {
         public boolean wasUndoable;
         public StoredBlockAndWasUndoableFlag(StoredBlock block, boolean wasUndoable) { this.block = block; this.wasUndoable = wasUndoable; }
     }
+
+    /** A {@link StoredUndoableBlock} with its output changes, if it has them, kept serialized. */
+    private static class CompactUndoableBlock {
+        private final Sha256Hash hash;
+        @Nullable private final List<Transaction> transactions;
+        @Nullable private final byte[] txOutChanges;
+
+        CompactUndoableBlock(StoredUndoableBlock block) {
+            hash = block.getHash();
+            transactions = block.getTransactions();
+            if (block.getTxOutChanges() != null) {
+                try {
+                    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+                    block.getTxOutChanges().serializeToStream(bos);
+                    txOutChanges = bos.toByteArray();
+                } catch (IOException e) {
+                    throw new RuntimeException(e);  // Cannot happen.
+                }
+            } else {
+                txOutChanges = null;
+            }
+        }
+
+        StoredUndoableBlock toStoredUndoableBlock() {
+            if (txOutChanges == null)
+                return new StoredUndoableBlock(hash, transactions);
+            try {
+                return new StoredUndoableBlock(hash,
+                        new TransactionOutputChanges(new ByteArrayInputStream(txOutChanges)));
+            } catch (IOException e) {
+                throw new RuntimeException(e);  // Cannot happen, we serialized it.
+            }
+        }
+    }
+
     private TransactionalHashMap<Sha256Hash, StoredBlockAndWasUndoableFlag> blockMap;
-    private TransactionalMultiKeyHashMap<Sha256Hash, Integer, StoredUndoableBlock> fullBlockMap;
+    private TransactionalMultiKeyHashMap<Sha256Hash, Integer, CompactUndoableBlock> fullBlockMap;
     //TODO: Use something more suited to remove-heavy use?
-    private TransactionalHashMap<StoredTransactionOutPoint, UTXO> transactionOutputMap;
+    private TransactionalHashMap<StoredTransactionOutPoint, byte[]> transactionOutputMap;
     private StoredBlock chainHead;
     private StoredBlock verifiedChainHead;
     private int fullStoreDepth;
@@ -283,7 +328,7 @@ public class MemoryFullPrunedBlockStore implements FullPrunedBlockStore {
     public synchronized final void put(StoredBlock storedBlock, StoredUndoableBlock undoableBlock) throws BlockStoreException {
         Preconditions.checkNotNull(blockMap, "MemoryFullPrunedBlockStore is closed");
         Sha256Hash hash = storedBlock.getHeader().getHash();
-        fullBlockMap.put(hash, storedBlock.getHeight(), undoableBlock);
+        fullBlockMap.put(hash, storedBlock.getHeight(), new CompactUndoableBlock(undoableBlock));
         blockMap.put(hash, new StoredBlockAndWasUndoableFlag(storedBlock, true));
     }
 
@@ -307,7 +352,8 @@ public class MemoryFullPrunedBlockStore implements FullPrunedBlockStore {
     @Nullable
     public synchronized StoredUndoableBlock getUndoBlock(Sha256Hash hash) throws BlockStoreException {
         Preconditions.checkNotNull(fullBlockMap, "MemoryFullPrunedBlockStore is closed");
-        return fullBlockMap.get(hash);
+        CompactUndoableBlock block = fullBlockMap.get(hash);
+        return block == null ? null : block.toStoredUndoableBlock();
     }
 
     @Override
@@ -350,13 +396,28 @@ public class MemoryFullPrunedBlockStore implements FullPrunedBlockStore {
     @Nullable
     public synchronized UTXO getTransactionOutput(Sha256Hash hash, long index) throws BlockStoreException {
         Preconditions.checkNotNull(transactionOutputMap, "MemoryFullPrunedBlockStore is closed");
-        return transactionOutputMap.get(new StoredTransactionOutPoint(hash, index));
+        byte[] serialized = transactionOutputMap.get(new StoredTransactionOutPoint(hash, index));
+        return serialized == null ? null : deserialize(hash, index, serialized);
     }
 
     @Override
     public synchronized void addUnspentTransactionOutput(UTXO out) throws BlockStoreException {
         Preconditions.checkNotNull(transactionOutputMap, "MemoryFullPrunedBlockStore is closed");
-        transactionOutputMap.put(new StoredTransactionOutPoint(out), out);
+        try {
+            ByteArrayOutputStream bos = new ByteArrayOutputStream(32);
+            out.serializeCompact(bos);
+            transactionOutputMap.put(new StoredTransactionOutPoint(out), bos.toByteArray());
+        } catch (IOException e) {
+            throw new RuntimeException(e);  // Cannot happen.
+        }
+    }
+
+    private static UTXO deserialize(Sha256Hash hash, long index, byte[] serialized) {
+        try {
+            return UTXO.deserializeCompact(hash, index, new ByteArrayInputStream(serialized));
+        } catch (IOException e) {
+            throw new RuntimeException(e);  // Cannot happen, we serialized it.
+        }
     }
 
     @Override
@@ -414,13 +475,28 @@ public class MemoryFullPrunedBlockStore implements FullPrunedBlockStore {
         // This is *NOT* optimal: We go through all the outputs and select the ones we are looking for.
         // If someone uses this store for production then they have a lot more to worry about than an inefficient impl :)
         List<UTXO> foundOutputs = new ArrayList<>();
-        List<UTXO> outputsList = transactionOutputMap.values();
-        for (UTXO output : outputsList) {
-            for (ECKey key : keys) {
-                // TODO switch to pubKeyHash in order to support native segwit addresses
-                Address address = LegacyAddress.fromKey(params, key);
-                if (output.getAddress().equals(address.toString())) {
-                    foundOutputs.add(output);
+        List<String> addresses = new ArrayList<>();
+        for (ECKey key : keys) {
+            // TODO switch to pubKeyHash in order to support native segwit addresses
+            addresses.add(LegacyAddress.fromKey(params, key).toString());
+        }
+        for (StoredTransactionOutPoint outPoint : transactionOutputMap.keys()) {
+            byte[] serialized = transactionOutputMap.get(outPoint);
+            if (serialized == null)
+                continue;
+            UTXO output = deserialize(outPoint.getHash(), outPoint.getIndex(), serialized);
+            // The address isn't stored, it is worked out like FullPrunedBlockChain does when creating the UTXO.
+            Script script = output.getScript();
+            String address;
+            try {
+                address = script.getToAddress(params, true).toString();
+            } catch (ScriptException | IllegalArgumentException e) {
+                continue;
+            }
+            for (String keyAddress : addresses) {
+                if (address.equals(keyAddress)) {
+                    foundOutputs.add(new UTXO(output.getHash(), output.getIndex(), output.getValue(),
+                            output.getHeight(), output.isCoinbase(), script, address));
                 }
             }
         }
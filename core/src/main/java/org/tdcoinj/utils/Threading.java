@@ -26,6 +26,8 @@ import org.slf4j.LoggerFactory;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.*;
 import java.util.concurrent.locks.ReentrantLock;
 
@@ -196,4 +198,73 @@ public class Threading {
                 }
             })
     );
+
+    /** A part of some work that is split over several threads, see {@link #runWorkers(int, Executor, Worker)}. */
+    public interface Worker {
+        /** Does the part of the work with the given index, 0 being the one on the calling thread. */
+        void run(int index);
+    }
+
+    /** A range of some work that is split over several threads, see {@link #runSlices}. */
+    public interface Slice {
+        /** Does the work from start (inclusive) to end (exclusive). */
+        void run(int start, int end);
+    }
+
+    /**
+     * Runs the given number of workers, all but the first on the given executor and the first on the calling thread,
+     * and waits for all of them. If a worker throws, the workers that haven't finished yet are cancelled and the
+     * exception is rethrown; checked exceptions are wrapped in a RuntimeException.
+     */
+    public static void runWorkers(int workers, Executor executor, final Worker worker) {
+        if (workers <= 1) {
+            worker.run(0);
+            return;
+        }
+        List<Future<Void>> futures = new ArrayList<>(workers - 1);
+        try {
+            for (int i = 1; i < workers; i++) {
+                final int index = i;
+                FutureTask<Void> future = new FutureTask<>(new Runnable() {
+                    @Override
+                    public void run() {
+                        worker.run(index);
+                    }
+                }, null);
+                executor.execute(future);
+                futures.add(future);
+            }
+            worker.run(0);
+            for (Future<Void> future : futures)
+                future.get();
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+            if (cause instanceof Error)
+                throw (Error) cause;
+            throw new RuntimeException(cause);
+        } finally {
+            for (Future<Void> future : futures)
+                future.cancel(true);
+        }
+    }
+
+    /**
+     * Splits the range from 0 (inclusive) to count (exclusive) into at most parallelism slices of at least minSlice
+     * items, and runs them with {@link #runWorkers(int, Executor, Worker)}. The calling thread runs the first slice,
+     * which is all of them if the range is too small to split.
+     */
+    public static void runSlices(final int count, int minSlice, Executor executor, int parallelism,
+                                 final Slice slice) {
+        final int slices = Math.max(1, Math.min(parallelism, count / minSlice));
+        runWorkers(slices, executor, new Worker() {
+            @Override
+            public void run(int index) {
+                slice.run((int) ((long) index * count / slices), (int) ((long) (index + 1) * count / slices));
+            }
+        });
+    }
 }
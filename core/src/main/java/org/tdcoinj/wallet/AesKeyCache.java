@@ -0,0 +1,171 @@
+/*
+ * Copyright by the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.tdcoinj.wallet;
+
+import org.tdcoinj.core.Utils;
+import org.tdcoinj.crypto.KeyCrypter;
+import org.tdcoinj.crypto.KeyCrypterException;
+import org.tdcoinj.utils.Threading;
+import org.tdcoinj.wallet.Wallet.BadWalletEncryptionKeyException;
+import org.bouncycastle.crypto.params.KeyParameter;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+
+import javax.annotation.Nullable;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * <p>Keeps the AES keys of unlocked wallets for a limited time, so a service handling many encrypted wallets only pays
+ * for the key derivation from the password once per unlock. Deriving the key, which takes long on purpose, runs on an
+ * executor instead of the calling thread and without holding the wallet lock, so many wallets can be unlocked at the
+ * same time.</p>
+ *
+ * <p>Each key expires after the lifetime given when unlocking, or earlier when it is removed with {@link #lock(Wallet)}
+ * or {@link #lockAll()}. Expired keys are dropped whenever the cache is accessed. Wallets are only weakly referenced,
+ * so a wallet that is no longer used doesn't stay in memory because of its key.</p>
+ */
+public class AesKeyCache {
+    private final ListeningExecutorService executor;
+    private final ReentrantLock lock = Threading.lock("aeskeycache");
+    private final Map<Wallet, Entry> keys = new WeakHashMap<>();
+
+    private static class Entry {
+        final KeyParameter aesKey;
+        final long expiryTimeMillis;
+
+        Entry(KeyParameter aesKey, long expiryTimeMillis) {
+            this.aesKey = aesKey;
+            this.expiryTimeMillis = expiryTimeMillis;
+        }
+    }
+
+    /** Creates a cache that derives keys on {@link Threading#THREAD_POOL}. */
+    public AesKeyCache() {
+        this(Threading.THREAD_POOL);
+    }
+
+    /** Creates a cache that derives keys on the given executor. */
+    public AesKeyCache(ListeningExecutorService executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * Derives the AES key of the given encrypted wallet from the password on the executor, checks it against the
+     * wallet and keeps it for the given time. The returned future fails with a {@link BadWalletEncryptionKeyException}
+     * if the password is wrong, in which case a key cached earlier is kept.
+     */
+    public ListenableFuture<KeyParameter> unlock(final Wallet wallet, final CharSequence password, long lifetime,
+                                                 TimeUnit unit) {
+        checkArgument(lifetime > 0, "Lifetime must be positive");
+        final long lifetimeMillis = unit.toMillis(lifetime);
+        final KeyCrypter keyCrypter = wallet.getKeyCrypter();
+        checkState(keyCrypter != null, "Wallet is not encrypted");
+        return executor.submit(new Callable<KeyParameter>() {
+            @Override
+            public KeyParameter call() throws Exception {
+                KeyParameter aesKey = keyCrypter.deriveKey(password);
+                if (!wallet.checkAESKey(aesKey))
+                    throw new BadWalletEncryptionKeyException(new KeyCrypterException("Wrong password"));
+                put(wallet, aesKey, Utils.currentTimeMillis() + lifetimeMillis);
+                return aesKey;
+            }
+        });
+    }
+
+    /**
+     * Keeps the given AES key of the given wallet for the given time, for example one that was derived elsewhere.
+     * The key is not checked against the wallet.
+     */
+    public void put(Wallet wallet, KeyParameter aesKey, long lifetime, TimeUnit unit) {
+        checkArgument(lifetime > 0, "Lifetime must be positive");
+        put(wallet, aesKey, Utils.currentTimeMillis() + unit.toMillis(lifetime));
+    }
+
+    private void put(Wallet wallet, KeyParameter aesKey, long expiryTimeMillis) {
+        lock.lock();
+        try {
+            keys.put(wallet, new Entry(aesKey, expiryTimeMillis));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Returns the AES key of the given wallet, or null if it isn't unlocked or its key has expired. */
+    @Nullable
+    public KeyParameter get(Wallet wallet) {
+        lock.lock();
+        try {
+            removeExpired();
+            Entry entry = keys.get(wallet);
+            return entry != null ? entry.aesKey : null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Returns whether the given wallet has a key that hasn't expired. */
+    public boolean isUnlocked(Wallet wallet) {
+        return get(wallet) != null;
+    }
+
+    /** Removes the key of the given wallet, if any. */
+    public void lock(Wallet wallet) {
+        lock.lock();
+        try {
+            keys.remove(wallet);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Removes all keys. */
+    public void lockAll() {
+        lock.lock();
+        try {
+            keys.clear();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Returns the number of keys that haven't expired. */
+    public int size() {
+        lock.lock();
+        try {
+            removeExpired();
+            return keys.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void removeExpired() {
+        long now = Utils.currentTimeMillis();
+        for (Iterator<Entry> it = keys.values().iterator(); it.hasNext(); )
+            if (it.next().expiryTimeMillis <= now)
+                it.remove();
+    }
+}
@@ -21,6 +21,7 @@ import org.tdcoinj.core.BloomFilter;
 import org.tdcoinj.core.ECKey;
 import org.tdcoinj.core.NetworkParameters;
 import org.tdcoinj.crypto.*;
+import org.tdcoinj.crypto.HDKeyDerivation.ChildPublicKeys;
 import org.tdcoinj.utils.ListenerRegistration;
 import org.tdcoinj.utils.Threading;
 import org.tdcoinj.wallet.listeners.KeyChainEventListener;
@@ -45,9 +46,9 @@ import static com.google.common.base.Preconditions.*;
 public class BasicKeyChain implements EncryptableKeyChain {
     private final ReentrantLock lock = Threading.lock("BasicKeyChain");
 
-    // Maps used to let us quickly look up a key given data we find in transactions or the block chain.
-    private final LinkedHashMap<ByteString, ECKey> hashToKeys;
-    private final LinkedHashMap<ByteString, ECKey> pubkeyToKeys;
+    // The keys in insertion order, indexed by raw bytes to let us quickly look up a key given data we find in
+    // transactions or the block chain, without copying it.
+    private final KeyTable keys;
     @Nullable private final KeyCrypter keyCrypter;
     private boolean isWatching;
 
@@ -59,8 +60,7 @@ public class BasicKeyChain implements EncryptableKeyChain {
 
     public BasicKeyChain(@Nullable KeyCrypter crypter) {
         this.keyCrypter = crypter;
-        hashToKeys = new LinkedHashMap<>();
-        pubkeyToKeys = new LinkedHashMap<>();
+        keys = new KeyTable();
         listeners = new CopyOnWriteArrayList<>();
     }
 
@@ -80,13 +80,13 @@ public class BasicKeyChain implements EncryptableKeyChain {
     public ECKey getKey(@Nullable KeyPurpose ignored) {
         lock.lock();
         try {
-            if (hashToKeys.isEmpty()) {
+            if (keys.size() == 0) {
                 checkState(keyCrypter == null);   // We will refuse to encrypt an empty key chain.
                 final ECKey key = new ECKey();
                 importKeyLocked(key);
                 queueOnKeysAdded(ImmutableList.of(key));
             }
-            return hashToKeys.values().iterator().next();
+            return keys.first();
         } finally {
             lock.unlock();
         }
@@ -97,23 +97,23 @@ public class BasicKeyChain implements EncryptableKeyChain {
         checkArgument(numberOfKeys > 0);
         lock.lock();
         try {
-            if (hashToKeys.size() < numberOfKeys) {
+            if (keys.size() < numberOfKeys) {
                 checkState(keyCrypter == null);
 
-                List<ECKey> keys = new ArrayList<>();
-                for (int i = 0; i < numberOfKeys - hashToKeys.size(); i++) {
-                    keys.add(new ECKey());
+                List<ECKey> newKeys = new ArrayList<>();
+                for (int i = 0; i < numberOfKeys - keys.size(); i++) {
+                    newKeys.add(new ECKey());
                 }
 
-                ImmutableList<ECKey> immutableKeys = ImmutableList.copyOf(keys);
+                ImmutableList<ECKey> immutableKeys = ImmutableList.copyOf(newKeys);
                 importKeysLocked(immutableKeys);
                 queueOnKeysAdded(immutableKeys);
             }
 
             List<ECKey> keysToReturn = new ArrayList<>();
             int count = 0;
-            while (hashToKeys.values().iterator().hasNext() && numberOfKeys != count) {
-                keysToReturn.add(hashToKeys.values().iterator().next());
+            while (keys.size() > 0 && numberOfKeys != count) {
+                keysToReturn.add(keys.first());
                 count++;
             }
             return keysToReturn;
@@ -126,12 +126,23 @@ public class BasicKeyChain implements EncryptableKeyChain {
     public List<ECKey> getKeys() {
         lock.lock();
         try {
-            return new ArrayList<>(hashToKeys.values());
+            return getKeysLocked();
         } finally {
             lock.unlock();
         }
     }
 
+    // Keys imported with importChildKeys are created here, as they are only stored in their compact form.
+    private List<ECKey> getKeysLocked() {
+        List<ECKey> result = new ArrayList<>(keys.size());
+        for (int entry = 0; entry < keys.entries(); entry++) {
+            ECKey key = keys.get(entry);
+            if (key != null)
+                result.add(key);
+        }
+        return result;
+    }
+
     public int importKeys(ECKey... keys) {
         return importKeys(ImmutableList.copyOf(keys));
     }
@@ -169,8 +180,8 @@ public class BasicKeyChain implements EncryptableKeyChain {
             throw new KeyCrypterException("Key encrypted under different parameters to chain");
     }
 
-    private void importKeyLocked(ECKey key) {
-        if (hashToKeys.isEmpty()) {
+    private void checkWatchingStateMatches(ECKey key) {
+        if (keys.size() == 0) {
             isWatching = key.isWatching();
         } else {
             if (key.isWatching() && !isWatching)
@@ -178,9 +189,11 @@ public class BasicKeyChain implements EncryptableKeyChain {
             if (!key.isWatching() && isWatching)
                 throw new IllegalArgumentException("Key is not watching but chain is");
         }
-        ECKey previousKey = pubkeyToKeys.put(ByteString.copyFrom(key.getPubKey()), key);
-        hashToKeys.put(ByteString.copyFrom(key.getPubKeyHash()), key);
-        checkState(previousKey == null);
+    }
+
+    private void importKeyLocked(ECKey key) {
+        checkWatchingStateMatches(key);
+        keys.add(key);
     }
 
     private void importKeysLocked(List<ECKey> keys) {
@@ -189,6 +202,100 @@ public class BasicKeyChain implements EncryptableKeyChain {
         }
     }
 
+    /**
+     * Imports children derived in bulk, skipping the ones that are present already. Only their compact form is
+     * stored, and their keys are created whenever they are asked for.
+     */
+    void importChildKeys(List<ChildPublicKeys> children) {
+        lock.lock();
+        try {
+            List<ChildPublicKeys> addedChildren = new ArrayList<>();
+            List<Integer> addedIndexes = new ArrayList<>();
+            for (ChildPublicKeys c : children) {
+                if (c.size() == 0)
+                    continue;
+                // The children share their parent, so one of them tells the state of all.
+                ECKey sample = c.getKey(0);
+                checkKeyEncryptionStateMatches(sample);
+                checkWatchingStateMatches(sample);
+                for (int i = 0; i < c.size(); i++) {
+                    if (keys.containsPubKey(c.getPubKeys(), i * 33, 33))
+                        continue;
+                    keys.add(c, i);
+                    addedChildren.add(c);
+                    addedIndexes.add(i);
+                }
+            }
+            if (!addedChildren.isEmpty())
+                queueOnKeysAdded(new ChildKeyList(addedChildren, addedIndexes));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Imports the key at the given index of children derived in bulk, storing only its compact form. Unlike
+     * {@link #importChildKeys(List)}, this doesn't check the key or notify listeners, like the copying and
+     * deserialization code of {@link DeterministicKeyChain} needs.
+     */
+    void importChildKey(ChildPublicKeys children, int index) {
+        lock.lock();
+        try {
+            keys.add(children, index);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Receives the keys of a chain in insertion order, see {@link #copyKeys(KeyCopier)}. */
+    interface KeyCopier {
+        /** Called for a key that is stored as an object. */
+        void copyKey(ECKey key);
+
+        /** Called for the key at the given index of children that were imported in bulk. */
+        void copyChildKey(ChildPublicKeys children, int index);
+    }
+
+    /** Passes all keys in insertion order to the given copier, without creating the keys imported in bulk. */
+    void copyKeys(KeyCopier copier) {
+        lock.lock();
+        try {
+            for (int entry = 0; entry < keys.entries(); entry++) {
+                ChildPublicKeys children = keys.getChildren(entry);
+                if (children != null) {
+                    copier.copyChildKey(children, keys.getChildIndex(entry));
+                } else {
+                    ECKey key = keys.get(entry);
+                    if (key != null)
+                        copier.copyKey(key);
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // The keys added by importChildKeys, created when they are asked for.
+    private static class ChildKeyList extends AbstractList<ECKey> {
+        private final List<ChildPublicKeys> children;
+        private final List<Integer> indexes;
+
+        ChildKeyList(List<ChildPublicKeys> children, List<Integer> indexes) {
+            this.children = children;
+            this.indexes = indexes;
+        }
+
+        @Override
+        public ECKey get(int index) {
+            return children.get(index).getKey(indexes.get(index));
+        }
+
+        @Override
+        public int size() {
+            return children.size();
+        }
+    }
+
     /**
      * Imports a key to the key chain. If key is present in the key chain, ignore it.
      */
@@ -205,18 +312,30 @@ public class BasicKeyChain implements EncryptableKeyChain {
     }
 
     public ECKey findKeyFromPubHash(byte[] pubKeyHash) {
+        return findKeyFromPubHash(pubKeyHash, 0, pubKeyHash.length);
+    }
+
+    /** Locates a key given the hash of its public key, which sits at the given offset of the given array. */
+    @Nullable
+    public ECKey findKeyFromPubHash(byte[] buf, int offset, int length) {
         lock.lock();
         try {
-            return hashToKeys.get(ByteString.copyFrom(pubKeyHash));
+            return keys.findByHash(buf, offset, length);
         } finally {
             lock.unlock();
         }
     }
 
     public ECKey findKeyFromPubKey(byte[] pubKey) {
+        return findKeyFromPubKey(pubKey, 0, pubKey.length);
+    }
+
+    /** Locates a key given its public key, which sits at the given offset of the given array. */
+    @Nullable
+    public ECKey findKeyFromPubKey(byte[] buf, int offset, int length) {
         lock.lock();
         try {
-            return pubkeyToKeys.get(ByteString.copyFrom(pubKey));
+            return keys.findByPubKey(buf, offset, length);
         } finally {
             lock.unlock();
         }
@@ -224,12 +343,18 @@ public class BasicKeyChain implements EncryptableKeyChain {
 
     @Override
     public boolean hasKey(ECKey key) {
-        return findKeyFromPubKey(key.getPubKey()) != null;
+        byte[] pubKey = key.getPubKey();
+        lock.lock();
+        try {
+            return keys.containsPubKey(pubKey, 0, pubKey.length);
+        } finally {
+            lock.unlock();
+        }
     }
 
     @Override
     public int numKeys() {
-        return pubkeyToKeys.size();
+        return keys.size();
     }
 
     /** Whether this basic key chain is empty, full of regular (usable for signing) keys, or full of watching keys. */
@@ -246,7 +371,7 @@ public class BasicKeyChain implements EncryptableKeyChain {
     public State isWatching() {
         lock.lock();
         try {
-            if (hashToKeys.isEmpty())
+            if (keys.size() == 0)
                 return State.EMPTY;
             return isWatching ? State.WATCHING : State.REGULAR;
         } finally {
@@ -262,10 +387,7 @@ public class BasicKeyChain implements EncryptableKeyChain {
     public boolean removeKey(ECKey key) {
         lock.lock();
         try {
-            boolean a = hashToKeys.remove(ByteString.copyFrom(key.getPubKeyHash())) != null;
-            boolean b = pubkeyToKeys.remove(ByteString.copyFrom(key.getPubKey())) != null;
-            checkState(a == b);   // Should be in both maps or neither.
-            return a;
+            return keys.remove(key.getPubKey());
         } finally {
             lock.unlock();
         }
@@ -276,8 +398,9 @@ public class BasicKeyChain implements EncryptableKeyChain {
         lock.lock();
         try {
             long time = Long.MAX_VALUE;
-            for (ECKey key : hashToKeys.values())
-                time = Math.min(key.getCreationTimeSeconds(), time);
+            for (int entry = 0; entry < keys.entries(); entry++)
+                if (keys.isPresent(entry))
+                    time = Math.min(keys.getCreationTimeSeconds(entry), time);
             return time;
         } finally {
             lock.unlock();
@@ -296,7 +419,7 @@ public class BasicKeyChain implements EncryptableKeyChain {
 
     Map<ECKey, Protos.Key.Builder> serializeToEditableProtobufs() {
         Map<ECKey, Protos.Key.Builder> result = new LinkedHashMap<>();
-        for (ECKey ecKey : hashToKeys.values()) {
+        for (ECKey ecKey : getKeysLocked()) {
             Protos.Key.Builder protoKey = serializeEncryptableItem(ecKey);
             protoKey.setPublicKey(ByteString.copyFrom(ecKey.getPubKey()));
             result.put(ecKey, protoKey);
@@ -362,7 +485,7 @@ public class BasicKeyChain implements EncryptableKeyChain {
     private void deserializeFromProtobuf(List<Protos.Key> keys) throws UnreadableWalletException {
         lock.lock();
         try {
-            checkState(hashToKeys.isEmpty(), "Tried to deserialize into a non-empty chain");
+            checkState(this.keys.size() == 0, "Tried to deserialize into a non-empty chain");
             for (Protos.Key key : keys) {
                 if (key.getType() != Protos.Key.Type.ORIGINAL && key.getType() != Protos.Key.Type.ENCRYPTED_SCRYPT_AES)
                     continue;
@@ -459,22 +582,40 @@ public class BasicKeyChain implements EncryptableKeyChain {
      */
     @Override
     public BasicKeyChain toEncrypted(KeyCrypter keyCrypter, KeyParameter aesKey) {
+        return toEncrypted(keyCrypter, aesKey, Threading.THREAD_POOL, Runtime.getRuntime().availableProcessors(), null);
+    }
+
+    /**
+     * Like {@link #toEncrypted(KeyCrypter, KeyParameter)}, but encrypts the keys on up to the given number of threads
+     * and reports the progress. Chains with few keys are encrypted on the calling thread only.
+     *
+     * @param executor executor to run all but the first worker on
+     * @param parallelism maximum number of threads, 1 to do all the work on the calling thread
+     * @param progress receives the fraction of keys encrypted, on the calling thread, or null
+     * @throws KeyCrypterException Thrown if the wallet encryption fails. If so, the wallet state is unchanged.
+     */
+    public BasicKeyChain toEncrypted(final KeyCrypter keyCrypter, final KeyParameter aesKey, Executor executor,
+                                     int parallelism, @Nullable ProgressCallback progress) {
         lock.lock();
         try {
             checkNotNull(keyCrypter);
             checkState(this.keyCrypter == null, "Key chain is already encrypted");
+            List<ECKey> encryptedKeys = KeyCryptoPipeline.transform(getKeysLocked(), new KeyCryptoPipeline.KeyTransform() {
+                @Override
+                public ECKey apply(ECKey key) {
+                    ECKey encryptedKey = key.encrypt(keyCrypter, aesKey);
+                    // Check that the encrypted key can be successfully decrypted.
+                    // This is done as it is a critical failure if the private key cannot be decrypted successfully
+                    // (all tdcoin controlled by that private key is lost forever).
+                    // For a correctly constructed keyCrypter the encryption should always be reversible so it is just
+                    // being as cautious as possible.
+                    if (!ECKey.encryptionIsReversible(key, encryptedKey, keyCrypter, aesKey))
+                        throw new KeyCrypterException("The key " + key.toString() + " cannot be successfully decrypted after encryption so aborting wallet encryption.");
+                    return encryptedKey;
+                }
+            }, executor, parallelism, progress);
             BasicKeyChain encrypted = new BasicKeyChain(keyCrypter);
-            for (ECKey key : hashToKeys.values()) {
-                ECKey encryptedKey = key.encrypt(keyCrypter, aesKey);
-                // Check that the encrypted key can be successfully decrypted.
-                // This is done as it is a critical failure if the private key cannot be decrypted successfully
-                // (all tdcoin controlled by that private key is lost forever).
-                // For a correctly constructed keyCrypter the encryption should always be reversible so it is just
-                // being as cautious as possible.
-                if (!ECKey.encryptionIsReversible(key, encryptedKey, keyCrypter, aesKey))
-                    throw new KeyCrypterException("The key " + key.toString() + " cannot be successfully decrypted after encryption so aborting wallet encryption.");
-                encrypted.importKeyLocked(encryptedKey);
-            }
+            encrypted.importKeysLocked(encryptedKeys);
             return encrypted;
         } finally {
             lock.unlock();
@@ -490,16 +631,34 @@ public class BasicKeyChain implements EncryptableKeyChain {
 
     @Override
     public BasicKeyChain toDecrypted(KeyParameter aesKey) {
+        return toDecrypted(aesKey, Threading.THREAD_POOL, Runtime.getRuntime().availableProcessors(), null);
+    }
+
+    /**
+     * Like {@link #toDecrypted(KeyParameter)}, but decrypts the keys on up to the given number of threads and reports
+     * the progress. Chains with few keys are decrypted on the calling thread only.
+     *
+     * @param executor executor to run all but the first worker on
+     * @param parallelism maximum number of threads, 1 to do all the work on the calling thread
+     * @param progress receives the fraction of keys decrypted, on the calling thread, or null
+     * @throws KeyCrypterException Thrown if the wallet decryption fails. If so, the wallet state is unchanged.
+     */
+    public BasicKeyChain toDecrypted(final KeyParameter aesKey, Executor executor, int parallelism,
+                                     @Nullable ProgressCallback progress) {
         lock.lock();
         try {
             checkState(keyCrypter != null, "Wallet is already decrypted");
             // Do an up-front check.
             if (numKeys() > 0 && !checkAESKey(aesKey))
                 throw new KeyCrypterException("Password/key was incorrect.");
+            List<ECKey> decryptedKeys = KeyCryptoPipeline.transform(getKeysLocked(), new KeyCryptoPipeline.KeyTransform() {
+                @Override
+                public ECKey apply(ECKey key) {
+                    return key.decrypt(aesKey);
+                }
+            }, executor, parallelism, progress);
             BasicKeyChain decrypted = new BasicKeyChain();
-            for (ECKey key : hashToKeys.values()) {
-                decrypted.importKeyLocked(key.decrypt(aesKey));
-            }
+            decrypted.importKeysLocked(decryptedKeys);
             return decrypted;
         } finally {
             lock.unlock();
@@ -527,12 +686,12 @@ public class BasicKeyChain implements EncryptableKeyChain {
         lock.lock();
         try {
             // If no keys then cannot decrypt.
-            if (hashToKeys.isEmpty()) return false;
+            if (keys.size() == 0) return false;
             checkState(keyCrypter != null, "Key chain is not encrypted");
 
             // Find the first encrypted key in the wallet.
             ECKey first = null;
-            for (ECKey key : hashToKeys.values()) {
+            for (ECKey key : getKeysLocked()) {
                 if (key.isEncrypted()) {
                     first = key;
                     break;
@@ -564,8 +723,17 @@ public class BasicKeyChain implements EncryptableKeyChain {
         lock.lock();
         try {
             BloomFilter filter = new BloomFilter(size, falsePositiveRate, tweak);
-            for (ECKey key : hashToKeys.values())
-                filter.insert(key);
+            for (int entry = 0; entry < keys.entries(); entry++) {
+                ChildPublicKeys children = keys.getChildren(entry);
+                if (children != null) {
+                    // Insert the bytes straight from the compact form, without creating the key.
+                    int index = keys.getChildIndex(entry);
+                    filter.insert(children.getPubKey(index));
+                    filter.insert(children.getPubKeyHash(index));
+                } else if (keys.isPresent(entry)) {
+                    filter.insert(keys.get(entry));
+                }
+            }
             return filter;
         } finally {
             lock.unlock();
@@ -589,15 +757,17 @@ public class BasicKeyChain implements EncryptableKeyChain {
     public ECKey findOldestKeyAfter(long timeSecs) {
         lock.lock();
         try {
-            ECKey oldest = null;
-            for (ECKey key : hashToKeys.values()) {
-                final long keyTime = key.getCreationTimeSeconds();
+            int oldest = -1;
+            for (int entry = 0; entry < keys.entries(); entry++) {
+                if (!keys.isPresent(entry))
+                    continue;
+                final long keyTime = keys.getCreationTimeSeconds(entry);
                 if (keyTime > timeSecs) {
-                    if (oldest == null || oldest.getCreationTimeSeconds() > keyTime)
-                        oldest = key;
+                    if (oldest < 0 || keys.getCreationTimeSeconds(oldest) > keyTime)
+                        oldest = entry;
                 }
             }
-            return oldest;
+            return oldest < 0 ? null : keys.get(oldest);
         } finally {
             lock.unlock();
         }
@@ -608,10 +778,12 @@ public class BasicKeyChain implements EncryptableKeyChain {
         lock.lock();
         try {
             List<ECKey> results = new LinkedList<>();
-            for (ECKey key : hashToKeys.values()) {
-                final long keyTime = key.getCreationTimeSeconds();
+            for (int entry = 0; entry < keys.entries(); entry++) {
+                if (!keys.isPresent(entry))
+                    continue;
+                final long keyTime = keys.getCreationTimeSeconds(entry);
                 if (keyTime < timeSecs) {
-                    results.add(key);
+                    results.add(keys.get(entry));
                 }
             }
             return results;
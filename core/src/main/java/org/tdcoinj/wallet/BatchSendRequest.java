@@ -0,0 +1,162 @@
+/*
+ * Copyright by the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.tdcoinj.wallet;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.tdcoinj.core.Address;
+import org.tdcoinj.core.Coin;
+import org.tdcoinj.core.Context;
+import org.tdcoinj.core.NetworkParameters;
+import org.tdcoinj.core.Transaction;
+import org.tdcoinj.utils.ExchangeRate;
+import org.tdcoinj.wallet.Wallet.MissingSigsMode;
+import org.bouncycastle.crypto.params.KeyParameter;
+
+import com.google.common.base.MoreObjects;
+
+/**
+ * <p>A BatchSendRequest describes a payout to many recipients at once, for use with
+ * {@link Wallet#sendCoinsOffline(BatchSendRequest)}. The recipients are split into transactions of at most
+ * {@link #maxOutputsPerTransaction} payments each, in the order they were added, and into smaller ones where the
+ * inputs selected for a transaction would make it larger than {@link Transaction#MAX_STANDARD_TX_SIZE} once signed.
+ * The wallet selects disjoint inputs for all of these transactions from a single list of spend candidates, signs them
+ * in parallel and commits them together with one wallet save.</p>
+ *
+ * <p>The fields have the same meaning as the equally named fields of {@link SendRequest} and are applied to every
+ * transaction of the batch.</p>
+ */
+public class BatchSendRequest {
+    /** Default for {@link #maxOutputsPerTransaction}, which keeps transactions well below the standard size limit. */
+    public static final int DEFAULT_MAX_OUTPUTS_PER_TRANSACTION = 500;
+
+    private final NetworkParameters params;
+    private final List<Address> addresses = new ArrayList<>();
+    private final List<Coin> values = new ArrayList<>();
+
+    /**
+     * Maximum number of recipients paid by one transaction of the batch, not counting the change output. Transactions
+     * that would be too large with their inputs are split further, so this only needs to be lowered to get smaller
+     * transactions.
+     */
+    public int maxOutputsPerTransaction = DEFAULT_MAX_OUTPUTS_PER_TRANSACTION;
+
+    /** @see SendRequest#changeAddress */
+    public Address changeAddress = null;
+
+    /** @see SendRequest#feePerKb */
+    public Coin feePerKb = Context.get().getFeePerKb();
+
+    /** @see SendRequest#ensureMinRequiredFee */
+    public boolean ensureMinRequiredFee = Context.get().isEnsureMinRequiredFee();
+
+    /** @see SendRequest#aesKey */
+    public KeyParameter aesKey = null;
+
+    /** @see SendRequest#coinSelector */
+    public CoinSelector coinSelector = null;
+
+    /** @see SendRequest#shuffleOutputs */
+    public boolean shuffleOutputs = true;
+
+    /** @see SendRequest#missingSigsMode */
+    public MissingSigsMode missingSigsMode = MissingSigsMode.THROW;
+
+    /** @see SendRequest#exchangeRate */
+    public ExchangeRate exchangeRate = null;
+
+    /** @see SendRequest#memo */
+    public String memo = null;
+
+    /**
+     * Number of threads used to sign the transactions of the batch. All {@link org.tdcoinj.signers.TransactionSigner}s
+     * added to the wallet must be safe to use from several threads at once if this is greater than one. Defaults to
+     * the number of available processors.
+     */
+    public int signingThreads = Runtime.getRuntime().availableProcessors();
+
+    // Tracks if this has been passed to the wallet already: just a safety check.
+    boolean completed;
+
+    public BatchSendRequest(NetworkParameters params) {
+        this.params = checkNotNull(params);
+    }
+
+    /** Adds a payment of the given value to the given address. */
+    public BatchSendRequest addRecipient(Address address, Coin value) {
+        checkArgument(params.equals(address.getParameters()), "Address is for a different network: %s", address);
+        checkArgument(value.isPositive(), "Value must be positive: %s", value);
+        addresses.add(address);
+        values.add(value);
+        return this;
+    }
+
+    /** Returns the number of payments in this batch. */
+    public int getRecipientCount() {
+        return addresses.size();
+    }
+
+    /** Returns the total value paid to all recipients. */
+    public Coin getTotalValue() {
+        Coin total = Coin.ZERO;
+        for (Coin value : values)
+            total = total.add(value);
+        return total;
+    }
+
+    /**
+     * Creates the request of one transaction of the batch, paying the recipients from the first index up to but
+     * excluding the second and carrying over the settings of the batch.
+     */
+    SendRequest toSendRequest(int start, int end) {
+        checkArgument(0 <= start && start < end && end <= addresses.size(), "Bad range: %s to %s", start, end);
+        Transaction tx = new Transaction(params);
+        for (int i = start; i < end; i++)
+            tx.addOutput(values.get(i), addresses.get(i));
+        SendRequest req = SendRequest.forTx(tx);
+        req.changeAddress = changeAddress;
+        req.feePerKb = feePerKb;
+        req.ensureMinRequiredFee = ensureMinRequiredFee;
+        req.aesKey = aesKey;
+        req.coinSelector = coinSelector;
+        req.shuffleOutputs = shuffleOutputs;
+        req.missingSigsMode = missingSigsMode;
+        req.exchangeRate = exchangeRate;
+        req.memo = memo;
+        return req;
+    }
+
+    @Override
+    public String toString() {
+        // print only the user-settable fields
+        MoreObjects.ToStringHelper helper = MoreObjects.toStringHelper(this).omitNullValues();
+        helper.add("recipients", addresses.size());
+        helper.add("maxOutputsPerTransaction", maxOutputsPerTransaction);
+        helper.add("changeAddress", changeAddress);
+        helper.add("feePerKb", feePerKb);
+        helper.add("ensureMinRequiredFee", ensureMinRequiredFee);
+        helper.add("aesKey", aesKey != null ? "set" : null); // careful to not leak the key
+        helper.add("coinSelector", coinSelector);
+        helper.add("shuffleOutputs", shuffleOutputs);
+        helper.add("signingThreads", signingThreads);
+        return helper.toString();
+    }
+}
@@ -0,0 +1,199 @@
+/*
+ * Copyright by the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.tdcoinj.wallet;
+
+import org.tdcoinj.core.Coin;
+import org.tdcoinj.core.NetworkParameters;
+import org.tdcoinj.core.TransactionOutput;
+import com.google.common.annotations.VisibleForTesting;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * <p>A {@link CoinSelector} that searches for a set of outputs whose value matches the target exactly, or exceeds it
+ * by no more than a given cost of change, so that the transaction needs no change output at all. This avoids dusty
+ * change and keeps the number of inputs low. The search is a depth first branch and bound over the candidate values
+ * sorted in descending order, like the one used by Tdcoin Core.</p>
+ *
+ * <p>The search is bounded both by a number of tries and by time. If no changeless selection is found within these
+ * bounds, selection falls back to {@link DefaultCoinSelector}. Note that {@link Wallet#completeTx(SendRequest)} turns
+ * any excess over the target into change unless it is dust, so to stay changeless the cost of change should not
+ * exceed the dust threshold of the change output.</p>
+ */
+public class BranchAndBoundCoinSelector extends DefaultCoinSelector {
+    /** Default number of search steps before giving up. */
+    public static final int DEFAULT_MAX_TRIES = 100000;
+    /** Default time after which the search gives up, in milliseconds. */
+    public static final long DEFAULT_MAX_TIME_MILLIS = 100;
+
+    private final Coin costOfChange;
+    private final int maxTries;
+    private final long maxTimeNanos;
+
+    /**
+     * Creates a selector that accepts selections exceeding the target by at most the given cost of change, using the
+     * default search bounds.
+     */
+    public BranchAndBoundCoinSelector(Coin costOfChange) {
+        this(costOfChange, DEFAULT_MAX_TRIES, DEFAULT_MAX_TIME_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @param costOfChange maximum amount the selection may exceed the target by, which ends up in the fee
+     * @param maxTries maximum number of search steps
+     * @param maxTime maximum time to search
+     * @param unit unit of maxTime
+     */
+    public BranchAndBoundCoinSelector(Coin costOfChange, int maxTries, long maxTime, TimeUnit unit) {
+        checkArgument(!costOfChange.isNegative(), "costOfChange must not be negative");
+        checkArgument(maxTries > 0, "maxTries must be positive");
+        this.costOfChange = costOfChange;
+        this.maxTries = maxTries;
+        this.maxTimeNanos = unit.toNanos(maxTime);
+    }
+
+    @Override
+    public CoinSelection select(Coin target, List<TransactionOutput> candidates) {
+        // Selecting everything (e.g. for the balance) needs no search.
+        if (target.equals(NetworkParameters.MAX_MONEY) || !target.isPositive())
+            return super.select(target, candidates);
+        List<TransactionOutput> selectable = new ArrayList<>(candidates.size());
+        long[] values = new long[candidates.size()];
+        int count = 0;
+        for (TransactionOutput output : candidates) {
+            if (!shouldSelect(output.getParentTransaction()))
+                continue;
+            selectable.add(output);
+            values[count++] = output.getValue().value;
+        }
+        values = Arrays.copyOf(values, count);
+        Arrays.sort(values);
+        reverse(values);
+        long[] selectedValues = search(values, target.value, costOfChange.value, maxTries, maxTimeNanos);
+        if (selectedValues == null)
+            return super.select(target, candidates);
+        return gather(selectable, selectedValues);
+    }
+
+    /**
+     * Runs the branch and bound search over values sorted in descending order.
+     * @return the values of the best selection found, or null if there is none
+     */
+    @VisibleForTesting
+    static long[] search(long[] values, long target, long costOfChange, int maxTries, long maxTimeNanos) {
+        final int n = values.length;
+        // remaining[i] is the sum of values[i..n-1], so we know when a branch can't reach the target anymore.
+        long[] remaining = new long[n + 1];
+        for (int i = n - 1; i >= 0; i--)
+            remaining[i] = remaining[i + 1] + values[i];
+        if (remaining[0] < target)
+            return null;
+
+        final long deadline = System.nanoTime() + maxTimeNanos;
+        boolean[] included = new boolean[n];
+        boolean[] best = null;
+        int bestDepth = 0;
+        long bestWaste = Long.MAX_VALUE;
+        int depth = 0;
+        long value = 0;
+        for (int tries = 0; tries < maxTries; tries++) {
+            if ((tries & 0x3ff) == 0 && System.nanoTime() - deadline > 0)
+                break;
+            boolean backtrack = false;
+            if (value + remaining[depth] < target || value > target + costOfChange) {
+                backtrack = true;
+            } else if (value >= target) {
+                long waste = value - target;
+                if (waste <= bestWaste) {
+                    best = Arrays.copyOf(included, depth);
+                    bestDepth = depth;
+                    bestWaste = waste;
+                    if (waste == 0)
+                        break;
+                }
+                backtrack = true;
+            }
+            if (backtrack) {
+                // Walk back to the last included value and try the branch that omits it.
+                while (depth > 0 && !included[depth - 1])
+                    depth--;
+                if (depth == 0)
+                    break;
+                included[depth - 1] = false;
+                value -= values[depth - 1];
+            } else if (depth > 0 && !included[depth - 1] && values[depth] == values[depth - 1]) {
+                // Including an equal value to the one just omitted would only repeat the search of that branch.
+                included[depth++] = false;
+            } else {
+                included[depth] = true;
+                value += values[depth++];
+            }
+        }
+        if (best == null)
+            return null;
+        int selected = 0;
+        for (int i = 0; i < bestDepth; i++)
+            if (best[i])
+                selected++;
+        long[] result = new long[selected];
+        for (int i = 0, j = 0; i < bestDepth; i++)
+            if (best[i])
+                result[j++] = values[i];
+        return result;
+    }
+
+    // Picks outputs matching the selected values from the candidates, in a single pass.
+    private static CoinSelection gather(List<TransactionOutput> candidates, long[] selectedValues) {
+        Map<Long, Integer> needed = new HashMap<>();
+        for (long value : selectedValues) {
+            Integer count = needed.get(value);
+            needed.put(value, count == null ? 1 : count + 1);
+        }
+        List<TransactionOutput> gathered = new ArrayList<>(selectedValues.length);
+        long total = 0;
+        for (TransactionOutput output : candidates) {
+            long value = output.getValue().value;
+            Integer count = needed.get(value);
+            if (count == null)
+                continue;
+            if (count == 1)
+                needed.remove(value);
+            else
+                needed.put(value, count - 1);
+            gathered.add(output);
+            total += value;
+            if (needed.isEmpty())
+                break;
+        }
+        return new CoinSelection(Coin.valueOf(total), gathered);
+    }
+
+    private static void reverse(long[] values) {
+        for (int i = 0, j = values.length - 1; i < j; i++, j--) {
+            long tmp = values[i];
+            values[i] = values[j];
+            values[j] = tmp;
+        }
+    }
+}
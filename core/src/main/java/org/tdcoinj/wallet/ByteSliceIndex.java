@@ -0,0 +1,174 @@
+/*
+ * Copyright by the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.tdcoinj.wallet;
+
+import javax.annotation.Nullable;
+import java.util.Arrays;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * <p>An open addressed hash table from byte strings, like public key hashes, script hashes or public keys, to values.
+ * Lookups take a slice of an array, so a hash can be looked up right where it sits inside a scriptPubKey without
+ * copying it out or wrapping it into an object first.</p>
+ *
+ * <p>The keys are expected to be hashes or public keys, whose last eight bytes are already uniformly distributed and
+ * serve as the hash code. Each slot keeps these eight bytes as a long, so a probe usually compares a single long
+ * before the key bytes. Not thread safe.</p>
+ */
+final class ByteSliceIndex<V> {
+    private static final int MIN_CAPACITY = 16;
+
+    private long[] fingerprints;
+    private byte[][] keys;
+    private Object[] values;
+    private int size;
+
+    ByteSliceIndex() {
+        allocate(MIN_CAPACITY);
+    }
+
+    private void allocate(int capacity) {
+        fingerprints = new long[capacity];
+        keys = new byte[capacity][];
+        values = new Object[capacity];
+    }
+
+    int size() {
+        return size;
+    }
+
+    /** Returns the value for the given key, or null if there is none. */
+    @Nullable
+    V get(byte[] key) {
+        return get(key, 0, key.length);
+    }
+
+    /** Returns the value for the key at the given slice of the given array, or null if there is none. */
+    @Nullable
+    @SuppressWarnings("unchecked")
+    V get(byte[] buf, int offset, int length) {
+        long fingerprint = fingerprint(buf, offset, length);
+        int mask = keys.length - 1;
+        for (int slot = slot(fingerprint, mask); keys[slot] != null; slot = (slot + 1) & mask) {
+            if (fingerprints[slot] == fingerprint && equals(keys[slot], buf, offset, length))
+                return (V) values[slot];
+        }
+        return null;
+    }
+
+    /**
+     * Maps the given key to the given value. The key array is stored as it is, so it must not be modified afterwards.
+     * @return the previous value for the key, or null if there was none
+     */
+    @Nullable
+    @SuppressWarnings("unchecked")
+    V put(byte[] key, V value) {
+        checkArgument(value != null);
+        if (2 * (size + 1) > keys.length)
+            resize(keys.length * 2);
+        long fingerprint = fingerprint(key, 0, key.length);
+        int mask = keys.length - 1;
+        int slot = slot(fingerprint, mask);
+        for (; keys[slot] != null; slot = (slot + 1) & mask) {
+            if (fingerprints[slot] == fingerprint && equals(keys[slot], key, 0, key.length)) {
+                V previous = (V) values[slot];
+                values[slot] = value;
+                return previous;
+            }
+        }
+        fingerprints[slot] = fingerprint;
+        keys[slot] = key;
+        values[slot] = value;
+        size++;
+        return null;
+    }
+
+    /**
+     * Removes the given key.
+     * @return the value the key was mapped to, or null if there was none
+     */
+    @Nullable
+    @SuppressWarnings("unchecked")
+    V remove(byte[] key) {
+        long fingerprint = fingerprint(key, 0, key.length);
+        int mask = keys.length - 1;
+        int slot = slot(fingerprint, mask);
+        for (; keys[slot] != null; slot = (slot + 1) & mask) {
+            if (fingerprints[slot] == fingerprint && equals(keys[slot], key, 0, key.length))
+                break;
+        }
+        if (keys[slot] == null)
+            return null;
+        V previous = (V) values[slot];
+        // Shift the following entries of the probe sequence back, so no tombstones are needed.
+        int gap = slot;
+        for (int next = (gap + 1) & mask; keys[next] != null; next = (next + 1) & mask) {
+            int home = slot(fingerprints[next], mask);
+            // Move the entry into the gap unless its home slot lies cyclically in (gap, next].
+            if (((next - home) & mask) >= ((next - gap) & mask)) {
+                fingerprints[gap] = fingerprints[next];
+                keys[gap] = keys[next];
+                values[gap] = values[next];
+                gap = next;
+            }
+        }
+        keys[gap] = null;
+        values[gap] = null;
+        size--;
+        return previous;
+    }
+
+    void clear() {
+        Arrays.fill(keys, null);
+        Arrays.fill(values, null);
+        size = 0;
+    }
+
+    @SuppressWarnings("unchecked")
+    private void resize(int capacity) {
+        byte[][] oldKeys = keys;
+        Object[] oldValues = values;
+        allocate(capacity);
+        size = 0;
+        for (int i = 0; i < oldKeys.length; i++)
+            if (oldKeys[i] != null)
+                put(oldKeys[i], (V) oldValues[i]);
+    }
+
+    static int slot(long fingerprint, int mask) {
+        // Use the high bits of a multiplicative hash, the low bits of the key bytes may be less random for short keys.
+        return (int) ((fingerprint * 0x9E3779B97F4A7C15L) >>> 32) & mask;
+    }
+
+    // The last eight bytes of the key, or all of it if it is shorter, as a long.
+    static long fingerprint(byte[] buf, int offset, int length) {
+        long fingerprint = length;
+        for (int i = Math.max(0, length - 8); i < length; i++)
+            fingerprint = (fingerprint << 8) | (buf[offset + i] & 0xff);
+        return fingerprint;
+    }
+
+    private static boolean equals(byte[] key, byte[] buf, int offset, int length) {
+        if (key.length != length)
+            return false;
+        for (int i = 0; i < length; i++)
+            if (key[i] != buf[offset + i])
+                return false;
+        return true;
+    }
+}
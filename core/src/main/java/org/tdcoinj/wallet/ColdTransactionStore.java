@@ -0,0 +1,322 @@
+/*
+ * Copyright by the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.tdcoinj.wallet;
+
+import org.tdcoinj.core.NetworkParameters;
+import org.tdcoinj.core.Sha256Hash;
+import org.tdcoinj.core.Sha256HashMap;
+import org.tdcoinj.core.Transaction;
+import org.tdcoinj.utils.Threading;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * <p>An append-only file that holds wallet transactions which have been evicted from memory by
+ * {@link Wallet#setColdTransactionStore(ColdTransactionStore, int)}. Only fully spent transactions buried deeper than
+ * the eviction depth are moved here: they are needed for history browsing but not for spending or re-orgs.</p>
+ *
+ * <p>Transactions are kept in the same protobuf form the {@link WalletProtobufSerializer} uses, prefixed by their
+ * txid and update time. An index of txid and update time for every record is kept in memory, so lookups by hash and
+ * walking the history ordered by time only touch the disk for the records actually returned.</p>
+ *
+ * <p>The wallet file doesn't contain the evicted transactions, only the path of the store and the number of
+ * transactions in it, in a mandatory extension with the ID {@link #WALLET_EXTENSION_ID}. So the store has to be kept
+ * together with the wallet file, and set again after loading the wallet.</p>
+ */
+public class ColdTransactionStore {
+    private static final Logger log = LoggerFactory.getLogger(ColdTransactionStore.class);
+
+    /** The ID of the wallet extension that the {@link WalletProtobufSerializer} keeps the state of eviction in. */
+    public static final String WALLET_EXTENSION_ID = "org.tdcoinj.wallet.ColdTransactionStore";
+
+    private static final byte[] HEADER_MAGIC = "TDCT".getBytes(StandardCharsets.US_ASCII);
+    // txid, update time, length of the serialized transaction
+    private static final int RECORD_HEADER_BYTES = 32 + 8 + 4;
+
+    private static class Entry {
+        final Sha256Hash txId;
+        final long updateTime;
+        final long offset;
+        final int length;
+
+        Entry(Sha256Hash txId, long updateTime, long offset, int length) {
+            this.txId = txId;
+            this.updateTime = updateTime;
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+
+    // Same order as Transaction.SORT_TX_BY_UPDATE_TIME: newest first, ties broken by txid.
+    private static final Comparator<Entry> SORT_BY_UPDATE_TIME = new Comparator<Entry>() {
+        @Override
+        public int compare(Entry e1, Entry e2) {
+            int updateTimeComparison = -(Long.compare(e1.updateTime, e2.updateTime));
+            return updateTimeComparison != 0 ? updateTimeComparison : e1.txId.compareTo(e2.txId);
+        }
+    };
+
+    private final ReentrantLock lock = Threading.lock("ColdTransactionStore");
+    private final NetworkParameters params;
+    private final File file;
+    private final RandomAccessFile randomAccessFile;
+    private final FileLock fileLock;
+    private final WalletProtobufSerializer serializer = new WalletProtobufSerializer();
+    private final Map<Sha256Hash, Entry> byTxId = new Sha256HashMap<>();
+    private final TreeSet<Entry> byTime = new TreeSet<>(SORT_BY_UPDATE_TIME);
+
+    /**
+     * Opens the given store file, creating it if it doesn't exist yet, and reads the index of all records into
+     * memory. A partially written record at the end of the file (e.g. because of a crash) is discarded.
+     * @param params network parameters of the stored transactions
+     * @param file file to use for the store
+     * @throws IOException if the file cannot be read or is not a cold transaction store
+     */
+    public ColdTransactionStore(NetworkParameters params, File file) throws IOException {
+        this.params = checkNotNull(params);
+        this.file = checkNotNull(file);
+        this.randomAccessFile = new RandomAccessFile(file, "rw");
+        this.fileLock = randomAccessFile.getChannel().tryLock();
+        if (fileLock == null) {
+            randomAccessFile.close();
+            throw new IOException("Store file is already locked by another process: " + file);
+        }
+        if (randomAccessFile.length() == 0) {
+            log.info("Creating new cold transaction store {}", file);
+            randomAccessFile.write(HEADER_MAGIC);
+        } else {
+            readIndex();
+        }
+    }
+
+    private void readIndex() throws IOException {
+        byte[] magic = new byte[HEADER_MAGIC.length];
+        randomAccessFile.seek(0);
+        randomAccessFile.readFully(magic);
+        if (!Arrays.equals(magic, HEADER_MAGIC))
+            throw new IOException("Header bytes do not equal " + new String(HEADER_MAGIC, StandardCharsets.US_ASCII));
+        long fileLength = randomAccessFile.length();
+        long offset = HEADER_MAGIC.length;
+        byte[] hash = new byte[32];
+        while (offset + RECORD_HEADER_BYTES <= fileLength) {
+            randomAccessFile.seek(offset);
+            randomAccessFile.readFully(hash);
+            long updateTime = randomAccessFile.readLong();
+            int length = randomAccessFile.readInt();
+            if (length < 0 || offset + RECORD_HEADER_BYTES + length > fileLength)
+                break;
+            index(new Entry(Sha256Hash.wrap(hash.clone()), updateTime, offset + RECORD_HEADER_BYTES, length));
+            offset += RECORD_HEADER_BYTES + length;
+        }
+        if (offset != fileLength) {
+            log.warn("Truncating incomplete record at the end of {}: {} bytes", file, fileLength - offset);
+            randomAccessFile.setLength(offset);
+        }
+        log.info("Opened cold transaction store {} with {} transactions", file, byTxId.size());
+    }
+
+    private void index(Entry entry) {
+        Entry previous = byTxId.put(entry.txId, entry);
+        if (previous != null)
+            byTime.remove(previous);
+        byTime.add(entry);
+    }
+
+    /**
+     * Appends the given transaction to the store. Does nothing if a transaction with the same txid is already stored.
+     * @return true if the transaction was written
+     */
+    public boolean put(Transaction tx) throws IOException {
+        lock.lock();
+        try {
+            Sha256Hash txId = tx.getTxId();
+            if (byTxId.containsKey(txId))
+                return false;
+            byte[] bytes = WalletProtobufSerializer
+                    .makeTxProto(new WalletTransaction(WalletTransaction.Pool.SPENT, tx)).toByteArray();
+            long updateTime = tx.getUpdateTime().getTime();
+            long offset = randomAccessFile.length();
+            randomAccessFile.seek(offset);
+            randomAccessFile.write(txId.getBytes());
+            randomAccessFile.writeLong(updateTime);
+            randomAccessFile.writeInt(bytes.length);
+            randomAccessFile.write(bytes);
+            index(new Entry(txId, updateTime, offset + RECORD_HEADER_BYTES, bytes.length));
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Forces the transactions appended so far to disk. The wallet calls this before it saves a wallet file that refers
+     * to them, so that the file never promises more transactions than the store holds after a crash.
+     */
+    public void sync() throws IOException {
+        lock.lock();
+        try {
+            randomAccessFile.getChannel().force(false);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Returns true if a transaction with the given txid is stored. */
+    public boolean contains(Sha256Hash txId) {
+        lock.lock();
+        try {
+            return byTxId.containsKey(txId);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Returns the file of the store. */
+    public File getFile() {
+        return file;
+    }
+
+    /** Returns the number of stored transactions. */
+    public int size() {
+        lock.lock();
+        try {
+            return byTxId.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Reads the transaction with the given txid back from disk. The returned object is detached from the wallet: its
+     * outputs are not connected to the inputs spending them, and it is a new instance on every call.
+     * @return the transaction, or null if it isn't stored
+     */
+    @Nullable
+    public Transaction get(Sha256Hash txId) throws IOException {
+        lock.lock();
+        try {
+            Entry entry = byTxId.get(txId);
+            if (entry == null)
+                return null;
+            return readTransaction(entry);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the txids of the stored transactions, ordered by decreasing update time like
+     * {@link Transaction#SORT_TX_BY_UPDATE_TIME}.
+     * @param max maximum number of txids to return, or 0 for all of them
+     */
+    public List<Sha256Hash> getTxIdsByTime(int max) {
+        checkArgument(max >= 0);
+        lock.lock();
+        try {
+            int size = max == 0 ? byTime.size() : Math.min(max, byTime.size());
+            List<Sha256Hash> txIds = new ArrayList<>(size);
+            Iterator<Entry> it = byTime.iterator();
+            while (txIds.size() < size)
+                txIds.add(it.next().txId);
+            return txIds;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Reads the stored transactions back from disk, ordered by decreasing update time like
+     * {@link Transaction#SORT_TX_BY_UPDATE_TIME}.
+     * @param max maximum number of transactions to return, or 0 for all of them
+     */
+    public List<Transaction> getTransactionsByTime(int max) throws IOException {
+        lock.lock();
+        try {
+            List<Transaction> txns = new ArrayList<>();
+            for (Sha256Hash txId : getTxIdsByTime(max))
+                txns.add(readTransaction(byTxId.get(txId)));
+            return txns;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Deletes all stored transactions, e.g. because the wallet is being reset for a block chain replay. */
+    public void clear() throws IOException {
+        lock.lock();
+        try {
+            randomAccessFile.setLength(HEADER_MAGIC.length);
+            byTxId.clear();
+            byTime.clear();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Releases the file lock and closes the store file. */
+    public void close() throws IOException {
+        lock.lock();
+        try {
+            fileLock.release();
+            randomAccessFile.close();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private Transaction readTransaction(Entry entry) throws IOException {
+        Protos.Transaction txProto = Protos.Transaction.parseFrom(readBytes(entry));
+        try {
+            Transaction tx = serializer.readDetachedTransaction(params, txProto);
+            checkState(tx.getTxId().equals(entry.txId));
+            return tx;
+        } catch (UnreadableWalletException e) {
+            throw new IOException("Could not read transaction " + entry.txId + " from " + file, e);
+        }
+    }
+
+    private byte[] readBytes(Entry entry) throws IOException {
+        byte[] bytes = new byte[entry.length];
+        randomAccessFile.seek(entry.offset);
+        randomAccessFile.readFully(bytes);
+        return bytes;
+    }
+
+    @Override
+    public String toString() {
+        return "cold transaction store " + file + " (" + size() + " transactions)";
+    }
+}
@@ -24,6 +24,7 @@ import javax.annotation.Nullable;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 
@@ -31,10 +32,16 @@ import static com.google.common.base.Preconditions.checkNotNull;
  * A DecryptingKeyBag filters a pre-existing key bag, decrypting keys as they are requested using the provided
  * AES key. If the keys are encrypted and no AES key provided, {@link ECKey.KeyIsEncryptedException}
  * will be thrown.
+ *
+ * <p>Each key is decrypted only once: the decrypted keys are kept for the lifetime of the bag, so signing many inputs
+ * that spend to the same key doesn't decrypt it again. Create one bag per transaction to sign and drop it afterwards,
+ * so the decrypted keys don't stay in memory.</p>
  */
 public class DecryptingKeyBag implements KeyBag {
     protected final KeyBag target;
     protected final KeyParameter aesKey;
+    // Decrypted keys by their encrypted form.
+    private final ConcurrentHashMap<ECKey, ECKey> decryptedKeys = new ConcurrentHashMap<>();
 
     public DecryptingKeyBag(KeyBag target, @Nullable KeyParameter aesKey) {
         this.target = checkNotNull(target);
@@ -48,7 +55,12 @@ public class DecryptingKeyBag implements KeyBag {
         else if (key.isEncrypted()) {
             if (aesKey == null)
                 throw new ECKey.KeyIsEncryptedException();
-            return key.decrypt(aesKey);
+            ECKey decryptedKey = decryptedKeys.get(key);
+            if (decryptedKey == null) {
+                decryptedKey = key.decrypt(aesKey);
+                decryptedKeys.putIfAbsent(key, decryptedKey);
+            }
+            return decryptedKey;
         } else {
             return key;
         }
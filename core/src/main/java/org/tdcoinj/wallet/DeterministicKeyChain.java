@@ -21,6 +21,7 @@ import org.tdcoinj.core.ECKey;
 import org.tdcoinj.core.NetworkParameters;
 import org.tdcoinj.core.Utils;
 import org.tdcoinj.crypto.*;
+import org.tdcoinj.crypto.HDKeyDerivation.ChildPublicKeys;
 import org.tdcoinj.script.Script;
 import org.tdcoinj.utils.Threading;
 import org.tdcoinj.wallet.listeners.KeyChainEventListener;
@@ -36,6 +37,7 @@ import org.slf4j.LoggerFactory;
 import org.bouncycastle.crypto.params.KeyParameter;
 
 import javax.annotation.Nullable;
+import java.io.ByteArrayOutputStream;
 import java.math.BigInteger;
 import java.security.SecureRandom;
 import java.util.*;
@@ -417,15 +419,7 @@ public class DeterministicKeyChain implements EncryptableKeyChain {
 
         // Now copy the (pubkey only) leaf keys across to avoid rederiving them. The private key bytes are missing
         // anyway so there's nothing to encrypt.
-        for (ECKey eckey : chain.basicKeyChain.getKeys()) {
-            DeterministicKey key = (DeterministicKey) eckey;
-            if (key.getPath().size() != getAccountPath().size() + 2) continue; // Not a leaf key.
-            DeterministicKey parent = hierarchy.get(checkNotNull(key.getParent()).getPath(), false, false);
-            // Clone the key to the new encrypted hierarchy.
-            key = new DeterministicKey(key.dropPrivateBytes(), parent);
-            hierarchy.putKey(key);
-            basicKeyChain.importKey(key);
-        }
+        chain.basicKeyChain.copyKeys(new LeafKeyCopier(this, false));
     }
 
     public ImmutableList<ChildNumber> getAccountPath() {
@@ -499,8 +493,7 @@ public class DeterministicKeyChain implements EncryptableKeyChain {
             //
             // It's safe to do this because when a network thread tries to calculate a Bloom filter, we'll go ahead
             // and calculate the full lookahead zone there, so network requests will always use the right amount.
-            List<DeterministicKey> lookahead = maybeLookAhead(parentKey, index, 0, 0);
-            basicKeyChain.importKeys(lookahead);
+            basicKeyChain.importChildKeys(maybeLookAhead(parentKey, index, 0, 0));
             List<DeterministicKey> keys = new ArrayList<>(numberOfKeys);
             for (int i = 0; i < numberOfKeys; i++) {
                 ImmutableList<ChildNumber> path = HDUtils.append(parentKey.getPath(), new ChildNumber(index - numberOfKeys + i, false));
@@ -550,18 +543,30 @@ public class DeterministicKeyChain implements EncryptableKeyChain {
     }
 
     public DeterministicKey findKeyFromPubHash(byte[] pubkeyHash) {
+        return findKeyFromPubHash(pubkeyHash, 0, pubkeyHash.length);
+    }
+
+    /** Locates a key given the hash of its public key, which sits at the given offset of the given array. */
+    @Nullable
+    public DeterministicKey findKeyFromPubHash(byte[] buf, int offset, int length) {
         lock.lock();
         try {
-            return (DeterministicKey) basicKeyChain.findKeyFromPubHash(pubkeyHash);
+            return (DeterministicKey) basicKeyChain.findKeyFromPubHash(buf, offset, length);
         } finally {
             lock.unlock();
         }
     }
 
     public DeterministicKey findKeyFromPubKey(byte[] pubkey) {
+        return findKeyFromPubKey(pubkey, 0, pubkey.length);
+    }
+
+    /** Locates a key given its public key, which sits at the given offset of the given array. */
+    @Nullable
+    public DeterministicKey findKeyFromPubKey(byte[] buf, int offset, int length) {
         lock.lock();
         try {
-            return (DeterministicKey) basicKeyChain.findKeyFromPubKey(pubkey);
+            return (DeterministicKey) basicKeyChain.findKeyFromPubKey(buf, offset, length);
         } finally {
             lock.unlock();
         }
@@ -741,7 +746,7 @@ public class DeterministicKeyChain implements EncryptableKeyChain {
     protected List<Protos.Key> serializeMyselfToProtobuf() {
         // Most of the serialization work is delegated to the basic key chain, which will serialize the bulk of the
         // data (handling encryption along the way), and letting us patch it up with the extra data we care about.
-        LinkedList<Protos.Key> entries = new LinkedList<>();
+        final LinkedList<Protos.Key> entries = new LinkedList<>();
         if (seed != null) {
             Protos.Key.Builder mnemonicEntry = BasicKeyChain.serializeEncryptableItem(seed);
             mnemonicEntry.setType(Protos.Key.Type.DETERMINISTIC_MNEMONIC);
@@ -751,36 +756,56 @@ public class DeterministicKeyChain implements EncryptableKeyChain {
             }
             entries.add(mnemonicEntry.build());
         }
-        Map<ECKey, Protos.Key.Builder> keys = basicKeyChain.serializeToEditableProtobufs();
-        for (Map.Entry<ECKey, Protos.Key.Builder> entry : keys.entrySet()) {
-            DeterministicKey key = (DeterministicKey) entry.getKey();
-            Protos.Key.Builder proto = entry.getValue();
-            proto.setType(Protos.Key.Type.DETERMINISTIC_KEY);
-            final Protos.DeterministicKey.Builder detKey = proto.getDeterministicKeyBuilder();
-            detKey.setChainCode(ByteString.copyFrom(key.getChainCode()));
-            for (ChildNumber num : key.getPath())
-                detKey.addPath(num.i());
-            if (key.equals(externalParentKey)) {
-                detKey.setIssuedSubkeys(issuedExternalKeys);
-                detKey.setLookaheadSize(lookaheadSize);
-                detKey.setSigsRequiredToSpend(getSigsRequiredToSpend());
-            } else if (key.equals(internalParentKey)) {
-                detKey.setIssuedSubkeys(issuedInternalKeys);
-                detKey.setLookaheadSize(lookaheadSize);
-                detKey.setSigsRequiredToSpend(getSigsRequiredToSpend());
-            }
-            // Flag the very first key of following keychain.
-            if (entries.isEmpty() && isFollowing()) {
-                detKey.setIsFollowing(true);
+        basicKeyChain.copyKeys(new BasicKeyChain.KeyCopier() {
+            @Override
+            public void copyKey(ECKey ecKey) {
+                DeterministicKey key = (DeterministicKey) ecKey;
+                Protos.Key.Builder proto = BasicKeyChain.serializeEncryptableItem(key);
+                proto.setPublicKey(ByteString.copyFrom(key.getPubKey()));
+                proto.setType(Protos.Key.Type.DETERMINISTIC_KEY);
+                final Protos.DeterministicKey.Builder detKey = proto.getDeterministicKeyBuilder();
+                detKey.setChainCode(ByteString.copyFrom(key.getChainCode()));
+                for (ChildNumber num : key.getPath())
+                    detKey.addPath(num.i());
+                if (key.equals(externalParentKey)) {
+                    detKey.setIssuedSubkeys(issuedExternalKeys);
+                    detKey.setLookaheadSize(lookaheadSize);
+                    detKey.setSigsRequiredToSpend(getSigsRequiredToSpend());
+                } else if (key.equals(internalParentKey)) {
+                    detKey.setIssuedSubkeys(issuedInternalKeys);
+                    detKey.setLookaheadSize(lookaheadSize);
+                    detKey.setSigsRequiredToSpend(getSigsRequiredToSpend());
+                }
+                // Flag the very first key of following keychain.
+                if (entries.isEmpty() && isFollowing()) {
+                    detKey.setIsFollowing(true);
+                }
+                if (key.getParent() != null) {
+                    // HD keys inherit the timestamp of their parent if they have one, so no need to serialize it.
+                    proto.clearCreationTimestamp();
+                } else {
+                    proto.setOutputScriptType(Protos.Key.OutputScriptType.valueOf(outputScriptType.name()));
+                }
+                entries.add(proto.build());
             }
-            if (key.getParent() != null) {
-                // HD keys inherit the timestamp of their parent if they have one, so no need to serialize it.
-                proto.clearCreationTimestamp();
-            } else {
-                proto.setOutputScriptType(Protos.Key.OutputScriptType.valueOf(outputScriptType.name()));
+
+            // Written straight from the compact form, the same as copyKey would write the public key only key.
+            @Override
+            public void copyChildKey(ChildPublicKeys children, int index) {
+                Protos.Key.Builder proto = Protos.Key.newBuilder();
+                proto.setPublicKey(ByteString.copyFrom(children.getPubKeys(), index * 33, 33));
+                proto.setType(Protos.Key.Type.DETERMINISTIC_KEY);
+                final Protos.DeterministicKey.Builder detKey = proto.getDeterministicKeyBuilder();
+                detKey.setChainCode(ByteString.copyFrom(children.getChainCodes(), index * 32, 32));
+                for (ChildNumber num : children.getParent().getPath())
+                    detKey.addPath(num.i());
+                detKey.addPath(children.getChildNumber(index).i());
+                if (entries.isEmpty() && isFollowing()) {
+                    detKey.setIsFollowing(true);
+                }
+                entries.add(proto.build());
             }
-            entries.add(proto.build());
-        }
+        });
         return entries;
     }
 
@@ -802,6 +827,7 @@ public class DeterministicKeyChain implements EncryptableKeyChain {
 
         List<ChildNumber> accountPath = new ArrayList<>();
         Script.ScriptType outputScriptType = Script.ScriptType.P2PKH;
+        LeafKeyRun run = null;
         PeekingIterator<Protos.Key> iter = Iterators.peekingIterator(keys.iterator());
         while (iter.hasNext()) {
             Protos.Key key = iter.next();
@@ -814,6 +840,7 @@ public class DeterministicKeyChain implements EncryptableKeyChain {
                 if (accountPath.isEmpty())
                     accountPath = ACCOUNT_ZERO_PATH;
                 if (chain != null) {
+                    run = LeafKeyRun.flush(run);
                     checkState(lookaheadSize >= 0);
                     chain.setLookaheadSize(lookaheadSize);
                     chain.setSigsRequiredToSpend(sigsRequiredToSpend);
@@ -857,7 +884,8 @@ public class DeterministicKeyChain implements EncryptableKeyChain {
                 for (int i : key.getDeterministicKey().getPathList())
                     path.add(new ChildNumber(i));
                 // Deserialize the public key and path.
-                LazyECPoint pubkey = new LazyECPoint(ECKey.CURVE.getCurve(), key.getPublicKey().toByteArray());
+                byte[] pubKeyBytes = key.getPublicKey().toByteArray();
+                LazyECPoint pubkey = new LazyECPoint(ECKey.CURVE.getCurve(), pubKeyBytes);
                 final ImmutableList<ChildNumber> immutablePath = ImmutableList.copyOf(path);
                 if (key.hasOutputScriptType())
                     outputScriptType = Script.ScriptType.valueOf(key.getOutputScriptType().name());
@@ -869,6 +897,7 @@ public class DeterministicKeyChain implements EncryptableKeyChain {
                 // placed in new following key chain
                 if (key.getDeterministicKey().getIsFollowing()) {
                     if (chain != null) {
+                        run = LeafKeyRun.flush(run);
                         checkState(lookaheadSize >= 0);
                         chain.setLookaheadSize(lookaheadSize);
                         chain.setSigsRequiredToSpend(sigsRequiredToSpend);
@@ -910,6 +939,18 @@ public class DeterministicKeyChain implements EncryptableKeyChain {
                     parent = chain.hierarchy.get(path, false, false);
                     path.add(index);
                 }
+                // Leaf keys that are nothing but a public key and a chain code are stored in bulk, like lookahead keys.
+                if (parent != null && path.size() == chain.getAccountPath().size() + 2 && !key.hasSecretBytes()
+                        && !key.hasEncryptedData() && !key.hasCreationTimestamp() && pubKeyBytes.length == 33
+                        && chainCode.length == 32 && !path.getLast().isHardened()) {
+                    if (run == null || !run.continues(parent, path.getLast())) {
+                        LeafKeyRun.flush(run);
+                        run = new LeafKeyRun(chain, parent, path.getLast().num());
+                    }
+                    run.append(pubKeyBytes, chainCode);
+                    continue;
+                }
+                run = LeafKeyRun.flush(run);
                 DeterministicKey detkey;
                 if (key.hasSecretBytes()) {
                     // Not encrypted: private key is available.
@@ -966,6 +1007,7 @@ public class DeterministicKeyChain implements EncryptableKeyChain {
             }
         }
         if (chain != null) {
+            LeafKeyRun.flush(run);
             checkState(lookaheadSize >= 0);
             chain.setLookaheadSize(lookaheadSize);
             chain.setSigsRequiredToSpend(sigsRequiredToSpend);
@@ -975,6 +1017,45 @@ public class DeterministicKeyChain implements EncryptableKeyChain {
         return chains;
     }
 
+    // Consecutive leaf keys of a parent read from protobuf that have nothing but a public key and a chain code.
+    private static class LeafKeyRun {
+        private final DeterministicKeyChain chain;
+        private final DeterministicKey parent;
+        private final int from;
+        private final ByteArrayOutputStream pubKeys = new ByteArrayOutputStream();
+        private final ByteArrayOutputStream chainCodes = new ByteArrayOutputStream();
+        private int size;
+
+        LeafKeyRun(DeterministicKeyChain chain, DeterministicKey parent, int from) {
+            this.chain = chain;
+            this.parent = parent;
+            this.from = from;
+        }
+
+        boolean continues(DeterministicKey parent, ChildNumber childNumber) {
+            return this.parent == parent && childNumber.num() == from + size;
+        }
+
+        void append(byte[] pubKey, byte[] chainCode) {
+            pubKeys.write(pubKey, 0, pubKey.length);
+            chainCodes.write(chainCode, 0, chainCode.length);
+            size++;
+        }
+
+        // Inserts the keys of the given run, if any, into its chain. Returns null, for clearing the run.
+        @Nullable
+        static LeafKeyRun flush(@Nullable LeafKeyRun run) {
+            if (run != null) {
+                ChildPublicKeys children = ChildPublicKeys.fromPublicKeys(run.parent, run.from,
+                        run.pubKeys.toByteArray(), run.chainCodes.toByteArray());
+                run.chain.hierarchy.putChildren(children);
+                for (int i = 0; i < children.size(); i++)
+                    run.chain.basicKeyChain.importChildKey(children, i);
+            }
+            return null;
+        }
+    }
+
     //////////////////////////////////////////////////////////////////////////////////////////////////////////////////
     //
     // Encryption support
@@ -1021,21 +1102,50 @@ public class DeterministicKeyChain implements EncryptableKeyChain {
         chain.lookaheadSize = lookaheadSize;
         // Now copy the (pubkey only) leaf keys across to avoid rederiving them. The private key bytes are missing
         // anyway so there's nothing to decrypt.
-        for (ECKey eckey : basicKeyChain.getKeys()) {
-            DeterministicKey key = (DeterministicKey) eckey;
-            if (key.getPath().size() != getAccountPath().size() + 2) continue; // Not a leaf key.
-            checkState(key.isEncrypted());
-            DeterministicKey parent = chain.hierarchy.get(checkNotNull(key.getParent()).getPath(), false, false);
-            // Clone the key to the new decrypted hierarchy.
-            key = new DeterministicKey(key.dropPrivateBytes(), parent);
-            chain.hierarchy.putKey(key);
-            chain.basicKeyChain.importKey(key);
-        }
+        basicKeyChain.copyKeys(new LeafKeyCopier(chain, true));
         chain.issuedExternalKeys = issuedExternalKeys;
         chain.issuedInternalKeys = issuedInternalKeys;
         return chain;
     }
 
+    // Clones the leaf keys of a chain into the hierarchy of another chain, which must have the same parent keys.
+    // Children that were derived in bulk stay in their compact form.
+    private static class LeafKeyCopier implements BasicKeyChain.KeyCopier {
+        private final DeterministicKeyChain target;
+        private final boolean encrypted;
+        private final Map<ChildPublicKeys, ChildPublicKeys> copies = new IdentityHashMap<>();
+
+        LeafKeyCopier(DeterministicKeyChain target, boolean encrypted) {
+            this.target = target;
+            this.encrypted = encrypted;
+        }
+
+        @Override
+        public void copyKey(ECKey eckey) {
+            DeterministicKey key = (DeterministicKey) eckey;
+            if (key.getPath().size() != target.getAccountPath().size() + 2) return; // Not a leaf key.
+            if (encrypted)
+                checkState(key.isEncrypted());
+            DeterministicKey parent = target.hierarchy.get(checkNotNull(key.getParent()).getPath(), false, false);
+            // Clone the key to the new hierarchy.
+            key = new DeterministicKey(key.dropPrivateBytes(), parent);
+            target.hierarchy.putKey(key);
+            target.basicKeyChain.importKey(key);
+        }
+
+        @Override
+        public void copyChildKey(ChildPublicKeys children, int index) {
+            ChildPublicKeys copy = copies.get(children);
+            if (copy == null) {
+                DeterministicKey parent = target.hierarchy.get(children.getParent().getPath(), false, false);
+                copy = children.withParent(parent);
+                target.hierarchy.putChildren(copy);
+                copies.put(children, copy);
+            }
+            target.basicKeyChain.importChildKey(copy, index);
+        }
+    }
+
     /**
      * Factory method to create a key chain from a seed.
      * Subclasses should override this to create an instance of the subclass instead of a plain DKC.
@@ -1170,32 +1280,33 @@ public class DeterministicKeyChain implements EncryptableKeyChain {
     public void maybeLookAhead() {
         lock.lock();
         try {
-            List<DeterministicKey> keys = maybeLookAhead(externalParentKey, issuedExternalKeys);
-            keys.addAll(maybeLookAhead(internalParentKey, issuedInternalKeys));
-            if (keys.isEmpty())
+            List<ChildPublicKeys> children = maybeLookAhead(externalParentKey, issuedExternalKeys);
+            children.addAll(maybeLookAhead(internalParentKey, issuedInternalKeys));
+            if (children.isEmpty())
                 return;
             keyLookaheadEpoch++;
             // Batch add all keys at once so there's only one event listener invocation, as this will be listened to
             // by the wallet and used to rebuild/broadcast the Bloom filter. That's expensive so we don't want to do
             // it more often than necessary.
-            basicKeyChain.importKeys(keys);
+            basicKeyChain.importChildKeys(children);
         } finally {
             lock.unlock();
         }
     }
 
-    private List<DeterministicKey> maybeLookAhead(DeterministicKey parent, int issued) {
+    private List<ChildPublicKeys> maybeLookAhead(DeterministicKey parent, int issued) {
         checkState(lock.isHeldByCurrentThread());
         return maybeLookAhead(parent, issued, getLookaheadSize(), getLookaheadThreshold());
     }
 
     /**
      * Pre-generate enough keys to reach the lookahead size, but only if there are more than the lookaheadThreshold to
-     * be generated, so that the Bloom filter does not have to be regenerated that often.
+     * be generated, so that the Bloom filter does not have to be regenerated that often. The keys are derived in bulk
+     * and kept in their compact form, see {@link HDKeyDerivation#deriveChildPublicKeys(DeterministicKey, int, int)}.
      *
-     * The returned mutable list of keys must be inserted into the basic key chain.
+     * The returned mutable list of children must be inserted into the basic key chain.
      */
-    private List<DeterministicKey> maybeLookAhead(DeterministicKey parent, int issued, int lookaheadSize, int lookaheadThreshold) {
+    private List<ChildPublicKeys> maybeLookAhead(DeterministicKey parent, int issued, int lookaheadSize, int lookaheadThreshold) {
         checkState(lock.isHeldByCurrentThread());
         final int numChildren = hierarchy.getNumChildren(parent.getPath());
         final int needed = issued + lookaheadSize + lookaheadThreshold - numChildren;
@@ -1206,16 +1317,22 @@ public class DeterministicKeyChain implements EncryptableKeyChain {
         log.info("{} keys needed for {} = {} issued + {} lookahead size + {} lookahead threshold - {} num children",
                 needed, parent.getPathAsString(), issued, lookaheadSize, lookaheadThreshold, numChildren);
 
-        List<DeterministicKey> result  = new ArrayList<>(needed);
+        List<ChildPublicKeys> result = new ArrayList<>();
         final Stopwatch watch = Stopwatch.createStarted();
-        int nextChild = numChildren;
-        for (int i = 0; i < needed; i++) {
-            DeterministicKey key = HDKeyDerivation.deriveThisOrNextChildKey(parent, nextChild);
-            key = key.dropPrivateBytes();
-            hierarchy.putKey(key);
-            result.add(key);
-            nextChild = key.getChildNumber().num() + 1;
+        try {
+            result.add(HDKeyDerivation.deriveChildPublicKeys(parent, numChildren, numChildren + needed));
+        } catch (HDDerivationException e) {
+            // One of the children is invalid. Derive them one at a time and skip it, like deriveThisOrNextChildKey.
+            int derived = 0;
+            for (int child = numChildren; derived < needed; child++) {
+                try {
+                    result.add(HDKeyDerivation.deriveChildPublicKeys(parent, child, child + 1));
+                    derived++;
+                } catch (HDDerivationException ignore) { }
+            }
         }
+        for (ChildPublicKeys children : result)
+            hierarchy.putChildren(children);
         watch.stop();
         log.info("Took {}", watch);
         return result;
@@ -1263,28 +1380,42 @@ public class DeterministicKeyChain implements EncryptableKeyChain {
     }
 
     // For internal usage only
-    /* package */ List<DeterministicKey> getKeys(boolean includeLookahead, boolean includeParents) {
-        List<ECKey> keys = basicKeyChain.getKeys();
-        List<DeterministicKey> result = new LinkedList<>();
-        if (!includeLookahead) {
-            int treeSize = internalParentKey.getPath().size();
-            for (ECKey key : keys) {
+    /* package */ List<DeterministicKey> getKeys(final boolean includeLookahead, final boolean includeParents) {
+        final List<DeterministicKey> result = new LinkedList<>();
+        // Children kept in their compact form are only created if they are returned, so leaving out the lookahead
+        // doesn't create it. TODO includeParents is ignored if the lookahead is included
+        basicKeyChain.copyKeys(new BasicKeyChain.KeyCopier() {
+            @Override
+            public void copyKey(ECKey key) {
                 DeterministicKey detkey = (DeterministicKey) key;
-                DeterministicKey parent = detkey.getParent();
-                if (!includeParents && parent == null) continue;
-                if (!includeParents && detkey.getPath().size() <= treeSize) continue;
-                if (internalParentKey.equals(parent) && detkey.getChildNumber().i() >= issuedInternalKeys) continue;
-                if (externalParentKey.equals(parent) && detkey.getChildNumber().i() >= issuedExternalKeys) continue;
-                result.add(detkey);
+                if (includeLookahead || isIssued(detkey.getParent(), detkey.getPath().size(),
+                        detkey.getChildNumber().i(), includeParents))
+                    result.add(detkey);
             }
-        } else {
-            for (ECKey key : keys)
-                result.add((DeterministicKey) key);
-            // TODO includeParents is ignored here
-        }
+
+            @Override
+            public void copyChildKey(ChildPublicKeys children, int index) {
+                DeterministicKey parent = children.getParent();
+                if (includeLookahead || isIssued(parent, parent.getPath().size() + 1,
+                        children.getChildNumber(index).i(), includeParents))
+                    result.add(children.getKey(index));
+            }
+        });
         return result;
     }
 
+    // Whether the key with the given parent, path length and child number is not in the lookahead, and not a parent
+    // key unless those are included.
+    private boolean isIssued(@Nullable DeterministicKey parent, int pathSize, int childNumber, boolean includeParents) {
+        if (!includeParents && (parent == null || pathSize <= internalParentKey.getPath().size()))
+            return false;
+        if (internalParentKey.equals(parent) && childNumber >= issuedInternalKeys)
+            return false;
+        if (externalParentKey.equals(parent) && childNumber >= issuedExternalKeys)
+            return false;
+        return true;
+    }
+
     /**
      * Returns only the external keys that have been issued by this chain, lookahead not included.
      */
@@ -1441,4 +1572,14 @@ public class DeterministicKeyChain implements EncryptableKeyChain {
     public RedeemData findRedeemDataByScriptHash(ByteString bytes) {
         return null;
     }
+
+    /**
+     * Returns the redeem script by its hash, which sits at the given offset of the given array, or null if this
+     * keychain did not generate the script. Looks the hash up with {@link #findRedeemDataByScriptHash(ByteString)}
+     * unless overridden to look it up in place.
+     */
+    @Nullable
+    public RedeemData findRedeemDataByScriptHash(byte[] buf, int offset, int length) {
+        return findRedeemDataByScriptHash(ByteString.copyFrom(buf, offset, length));
+    }
 }
@@ -27,6 +27,11 @@ import javax.annotation.Nullable;
  * An encryptable key chain is a key-chain that can be encrypted with a user-provided password or AES key.
  */
 public interface EncryptableKeyChain extends KeyChain {
+    /** An interface for receiving the progress of encrypting or decrypting keys, from 0.0 to 1.0. */
+    interface ProgressCallback {
+        void onProgress(double progress);
+    }
+
     /**
      * Takes the given password, which should be strong, derives a key from it and then invokes
      * {@link #toEncrypted(KeyCrypter, KeyParameter)} with
@@ -25,6 +25,7 @@ import org.tdcoinj.core.BloomFilter;
 import org.tdcoinj.core.ECKey;
 import org.tdcoinj.core.LegacyAddress;
 import org.tdcoinj.core.NetworkParameters;
+import org.tdcoinj.core.SegwitAddress;
 import org.tdcoinj.core.Utils;
 import org.tdcoinj.crypto.*;
 import org.tdcoinj.script.*;
@@ -32,6 +33,7 @@ import org.tdcoinj.script.Script.ScriptType;
 import org.tdcoinj.utils.*;
 import org.tdcoinj.wallet.listeners.CurrentKeyChangeEventListener;
 import org.tdcoinj.wallet.listeners.KeyChainEventListener;
+import org.tdcoinj.wallet.EncryptableKeyChain.ProgressCallback;
 import org.slf4j.*;
 import org.bouncycastle.crypto.params.*;
 
@@ -506,11 +508,16 @@ public class KeyChainGroup implements KeyBag {
     @Override
     @Nullable
     public RedeemData findRedeemDataFromScriptHash(byte[] scriptHash) {
+        return findRedeemDataFromScriptHash(scriptHash, 0, scriptHash.length);
+    }
+
+    @Nullable
+    private RedeemData findRedeemDataFromScriptHash(byte[] buf, int offset, int length) {
         if (chains != null) {
             // Iterate in reverse order, since the active keychain is the one most likely to have the hit
             for (Iterator<DeterministicKeyChain> iter = chains.descendingIterator(); iter.hasNext();) {
                 DeterministicKeyChain chain = iter.next();
-                RedeemData redeemData = chain.findRedeemDataByScriptHash(ByteString.copyFrom(scriptHash));
+                RedeemData redeemData = chain.findRedeemDataByScriptHash(buf, offset, length);
                 if (redeemData != null)
                     return redeemData;
             }
@@ -536,22 +543,61 @@ public class KeyChainGroup implements KeyBag {
     @Nullable
     @Override
     public ECKey findKeyFromPubKeyHash(byte[] pubKeyHash, @Nullable Script.ScriptType scriptType) {
+        return findKeyFromPubKeyHash(pubKeyHash, 0, pubKeyHash.length, scriptType);
+    }
+
+    @Nullable
+    private ECKey findKeyFromPubKeyHash(byte[] buf, int offset, int length, @Nullable Script.ScriptType scriptType) {
         ECKey result;
         // BasicKeyChain can mix output script types.
-        if ((result = basic.findKeyFromPubHash(pubKeyHash)) != null)
+        if ((result = basic.findKeyFromPubHash(buf, offset, length)) != null)
             return result;
         if (chains != null) {
             for (DeterministicKeyChain chain : chains) {
                 // This check limits DeterministicKeyChain to specific output script usage.
                 if (scriptType != null && scriptType != chain.getOutputScriptType())
                     continue;
-                if ((result = chain.findKeyFromPubHash(pubKeyHash)) != null)
+                if ((result = chain.findKeyFromPubHash(buf, offset, length)) != null)
                     return result;
             }
         }
         return null;
     }
 
+    /**
+     * Returns true if the given scriptPubKey pays to one of the keys of this group, or to a P2SH script one of its
+     * chains created. Standard scripts are recognized from the raw program, and the hash or public key is then looked
+     * up right where it sits in the program, with a single probe of each key chain's index. Other programs are parsed
+     * and matched like {@link org.tdcoinj.core.TransactionOutput#isMine(org.tdcoinj.core.TransactionBag)} always did.
+     */
+    public boolean isOutputScriptMine(byte[] program) {
+        if (ScriptPattern.isP2PKH(program))
+            return findKeyFromPubKeyHash(program, ScriptPattern.P2PKH_HASH_OFFSET, LegacyAddress.LENGTH,
+                    ScriptType.P2PKH) != null;
+        if (ScriptPattern.isP2WPKH(program))
+            return findKeyFromPubKeyHash(program, ScriptPattern.P2WPKH_HASH_OFFSET,
+                    SegwitAddress.WITNESS_PROGRAM_LENGTH_PKH, ScriptType.P2WPKH) != null;
+        if (ScriptPattern.isP2SH(program))
+            return findRedeemDataFromScriptHash(program, ScriptPattern.P2SH_HASH_OFFSET, LegacyAddress.LENGTH) != null;
+        if (ScriptPattern.isP2PK(program))
+            return findKeyFromPubKey(program, ScriptPattern.P2PK_KEY_OFFSET, program.length - 2) != null;
+        try {
+            Script script = new Script(program);
+            if (ScriptPattern.isP2PK(script))
+                return findKeyFromPubKey(ScriptPattern.extractKeyFromP2PK(script)) != null;
+            else if (ScriptPattern.isP2PKH(script))
+                return findKeyFromPubKeyHash(ScriptPattern.extractHashFromP2PKH(script), ScriptType.P2PKH) != null;
+            else if (ScriptPattern.isP2WPKH(script))
+                return findKeyFromPubKeyHash(ScriptPattern.extractHashFromP2WH(script), ScriptType.P2WPKH) != null;
+            else
+                return false;
+        } catch (ScriptException e) {
+            // Just means we didn't understand the output script: it can't be ours.
+            log.debug("Could not parse output script: {}", e.toString());
+            return false;
+        }
+    }
+
     /**
      * Mark the DeterministicKeys as used, if they match the pubKeyHash
      * See {@link DeterministicKeyChain#markKeyAsUsed(DeterministicKey)} for more info on this.
@@ -608,12 +654,17 @@ public class KeyChainGroup implements KeyBag {
     @Nullable
     @Override
     public ECKey findKeyFromPubKey(byte[] pubKey) {
+        return findKeyFromPubKey(pubKey, 0, pubKey.length);
+    }
+
+    @Nullable
+    private ECKey findKeyFromPubKey(byte[] buf, int offset, int length) {
         ECKey result;
-        if ((result = basic.findKeyFromPubKey(pubKey)) != null)
+        if ((result = basic.findKeyFromPubKey(buf, offset, length)) != null)
             return result;
         if (chains != null)
             for (DeterministicKeyChain chain : chains)
-                if ((result = chain.findKeyFromPubKey(pubKey)) != null)
+                if ((result = chain.findKeyFromPubKey(buf, offset, length)) != null)
                     return result;
         return null;
     }
@@ -671,15 +722,30 @@ public class KeyChainGroup implements KeyBag {
      * @throws DeterministicUpgradeRequiredException Thrown if there are random keys but no HD chain.
      */
     public void encrypt(KeyCrypter keyCrypter, KeyParameter aesKey) {
+        encrypt(keyCrypter, aesKey, null);
+    }
+
+    /**
+     * Like {@link #encrypt(KeyCrypter, KeyParameter)}, but reports the progress. The imported keys are encrypted on
+     * all processors, see {@link BasicKeyChain#toEncrypted(KeyCrypter, KeyParameter, Executor, int,
+     * ProgressCallback)}.
+     *
+     * @param progress receives the fraction of the work done, on the calling thread, or null
+     */
+    public void encrypt(KeyCrypter keyCrypter, KeyParameter aesKey, @Nullable ProgressCallback progress) {
         checkNotNull(keyCrypter);
         checkNotNull(aesKey);
         checkState((chains != null && !chains.isEmpty()) || basic.numKeys() != 0, "can't encrypt entirely empty wallet");
 
-        BasicKeyChain newBasic = basic.toEncrypted(keyCrypter, aesKey);
+        double basicShare = basicShare();
+        BasicKeyChain newBasic = basic.toEncrypted(keyCrypter, aesKey, Threading.THREAD_POOL,
+                Runtime.getRuntime().availableProcessors(), KeyCryptoPipeline.scale(progress, 0, basicShare));
         List<DeterministicKeyChain> newChains = new ArrayList<>();
         if (chains != null) {
-            for (DeterministicKeyChain chain : chains)
+            for (DeterministicKeyChain chain : chains) {
                 newChains.add(chain.toEncrypted(keyCrypter, aesKey));
+                reportChainProgress(progress, basicShare, newChains.size());
+            }
         }
 
         // Code below this point must be exception safe.
@@ -698,13 +764,27 @@ public class KeyChainGroup implements KeyBag {
      * @throws org.tdcoinj.crypto.KeyCrypterException Thrown if the wallet decryption fails for some reason, leaving the group unchanged.
      */
     public void decrypt(KeyParameter aesKey) {
+        decrypt(aesKey, null);
+    }
+
+    /**
+     * Like {@link #decrypt(KeyParameter)}, but reports the progress. The imported keys are decrypted on all
+     * processors, see {@link BasicKeyChain#toDecrypted(KeyParameter, Executor, int, ProgressCallback)}.
+     *
+     * @param progress receives the fraction of the work done, on the calling thread, or null
+     */
+    public void decrypt(KeyParameter aesKey, @Nullable ProgressCallback progress) {
         checkNotNull(aesKey);
 
-        BasicKeyChain newBasic = basic.toDecrypted(aesKey);
+        double basicShare = basicShare();
+        BasicKeyChain newBasic = basic.toDecrypted(aesKey, Threading.THREAD_POOL,
+                Runtime.getRuntime().availableProcessors(), KeyCryptoPipeline.scale(progress, 0, basicShare));
         if (chains != null) {
             List<DeterministicKeyChain> newChains = new ArrayList<>(chains.size());
-            for (DeterministicKeyChain chain : chains)
+            for (DeterministicKeyChain chain : chains) {
                 newChains.add(chain.toDecrypted(aesKey));
+                reportChainProgress(progress, basicShare, newChains.size());
+            }
 
             // Code below this point must be exception safe.
             this.chains.clear();
@@ -714,6 +794,19 @@ public class KeyChainGroup implements KeyBag {
         this.keyCrypter = null;
     }
 
+    // The share of the imported keys in the work of encrypting or decrypting the group. The leaf keys of deterministic
+    // chains have no private bytes, so each of those chains counts like one imported key.
+    private double basicShare() {
+        int numChains = chains != null ? chains.size() : 0;
+        int numKeys = basic.numKeys();
+        return numKeys + numChains == 0 ? 1.0 : (double) numKeys / (numKeys + numChains);
+    }
+
+    private void reportChainProgress(@Nullable ProgressCallback progress, double basicShare, int chainsDone) {
+        if (progress != null)
+            progress.onProgress(basicShare + (1 - basicShare) * chainsDone / chains.size());
+    }
+
     /** Returns true if the group is encrypted. */
     public boolean isEncrypted() {
         return keyCrypter != null;
@@ -0,0 +1,115 @@
+/*
+ * Copyright by the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.tdcoinj.wallet;
+
+import org.tdcoinj.core.ECKey;
+import org.tdcoinj.utils.Threading;
+import org.tdcoinj.wallet.EncryptableKeyChain.ProgressCallback;
+
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Encrypts or decrypts many keys on several threads, as needed by {@link BasicKeyChain} for wallets with many imported
+ * keys. Most of the time per key goes into the elliptic curve multiplication that checks the result, so the keys are
+ * independent of each other. Workers take chunks of keys from a shared counter, with the calling thread working as
+ * well and reporting the progress between its chunks.
+ */
+final class KeyCryptoPipeline {
+    // Keys are handed out in chunks of this size. Fewer keys are done on the calling thread only.
+    private static final int CHUNK = 256;
+
+    /** Encrypts or decrypts one key. Called concurrently for different keys. */
+    interface KeyTransform {
+        ECKey apply(ECKey key);
+    }
+
+    private KeyCryptoPipeline() {
+    }
+
+    /**
+     * Applies the given transform to all given keys and returns the results in the same order. If the transform
+     * throws for any key, the remaining chunks are skipped and the exception is rethrown.
+     *
+     * @param executor executor to run all but the first worker on
+     * @param parallelism maximum number of workers, 1 to do all the work on the calling thread
+     * @param progress receives the fraction of keys done, on the calling thread, or null
+     */
+    static List<ECKey> transform(final List<ECKey> keys, final KeyTransform transform, Executor executor,
+                                 int parallelism, @Nullable final ProgressCallback progress) {
+        checkArgument(parallelism > 0, "Parallelism must be positive");
+        final int count = keys.size();
+        final ECKey[] results = new ECKey[count];
+        final int chunks = (count + CHUNK - 1) / CHUNK;
+        final AtomicInteger nextChunk = new AtomicInteger();
+        final AtomicInteger done = new AtomicInteger();
+        final AtomicBoolean failed = new AtomicBoolean();
+        Threading.runWorkers(Math.max(1, Math.min(parallelism, chunks)), executor, new Threading.Worker() {
+            @Override
+            public void run(int index) {
+                int chunk;
+                while (!failed.get() && (chunk = nextChunk.getAndIncrement()) < chunks) {
+                    runChunk(keys, transform, results, chunk, done, failed);
+                    // Only the calling thread reports progress.
+                    if (index == 0 && progress != null)
+                        progress.onProgress((double) done.get() / count);
+                }
+            }
+        });
+        if (progress != null)
+            progress.onProgress(1.0);
+        List<ECKey> list = new ArrayList<>(count);
+        for (ECKey result : results)
+            list.add(result);
+        return list;
+    }
+
+    /**
+     * Returns a callback that maps the progress of one step of a longer operation to the given part of the whole, or
+     * null if the given callback is null.
+     */
+    @Nullable
+    static ProgressCallback scale(@Nullable final ProgressCallback progress, final double from, final double to) {
+        if (progress == null)
+            return null;
+        return new ProgressCallback() {
+            @Override
+            public void onProgress(double stepProgress) {
+                progress.onProgress(from + (to - from) * stepProgress);
+            }
+        };
+    }
+
+    private static void runChunk(List<ECKey> keys, KeyTransform transform, ECKey[] results, int chunk,
+                                 AtomicInteger done, AtomicBoolean failed) {
+        int start = chunk * CHUNK, end = Math.min(start + CHUNK, keys.size());
+        try {
+            for (int i = start; i < end; i++)
+                results[i] = transform.apply(keys.get(i));
+        } catch (RuntimeException | Error e) {
+            failed.set(true);
+            throw e;
+        }
+        done.addAndGet(end - start);
+    }
+}
@@ -0,0 +1,291 @@
+/*
+ * Copyright by the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.tdcoinj.wallet;
+
+import org.tdcoinj.core.ECKey;
+import org.tdcoinj.crypto.DeterministicKey;
+import org.tdcoinj.crypto.HDKeyDerivation;
+import org.tdcoinj.crypto.HDKeyDerivation.ChildPublicKeys;
+
+import javax.annotation.Nullable;
+import java.util.Arrays;
+
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * <p>The keys of a {@link BasicKeyChain} in insertion order, indexed by public key hash and by public key. The indexes
+ * are open addressed tables of entry numbers, probed the same way as a {@link ByteSliceIndex}.</p>
+ *
+ * <p>A key is either kept as an object, or, if it was derived in bulk by
+ * {@link HDKeyDerivation#deriveChildPublicKeys(DeterministicKey, int, int)}, only as its {@link ChildPublicKeys} and
+ * its index there. The public key, its hash and its chain code then stay in the flat arrays of the ChildPublicKeys
+ * until the key is asked for, which creates its {@link DeterministicKey} once and keeps it in the ChildPublicKeys, so
+ * every lookup returns the same instance. Keys that are never asked for, like most of the lookahead, take a fraction of
+ * the memory of a key object with its path and the map entries pointing at it. Not thread safe.</p>
+ */
+final class KeyTable {
+    private static final int MIN_CAPACITY = 16;
+
+    // Per entry: the key, or the children it is created from and its index there. Removed entries have neither.
+    private ECKey[] keys = new ECKey[MIN_CAPACITY];
+    private ChildPublicKeys[] children = new ChildPublicKeys[MIN_CAPACITY];
+    private int[] childIndexes = new int[MIN_CAPACITY];
+    private int entries, size;
+
+    // Entry number + 1 per slot, 0 for free slots, and the fingerprint of the entry's bytes.
+    private int[] hashSlots, pubKeySlots;
+    private long[] hashFingerprints, pubKeyFingerprints;
+
+    KeyTable() {
+        allocateIndexes(MIN_CAPACITY);
+    }
+
+    private void allocateIndexes(int capacity) {
+        hashSlots = new int[capacity];
+        pubKeySlots = new int[capacity];
+        hashFingerprints = new long[capacity];
+        pubKeyFingerprints = new long[capacity];
+    }
+
+    /** Returns the number of keys. */
+    int size() {
+        return size;
+    }
+
+    /** Returns the number of entries, including removed ones. Entries are numbered in insertion order. */
+    int entries() {
+        return entries;
+    }
+
+    /** Returns whether the given entry has a key, that is, whether it was not removed. */
+    boolean isPresent(int entry) {
+        return keys[entry] != null || children[entry] != null;
+    }
+
+    /** Returns the key of the given entry, created the first time it is asked for, or null if it was removed. */
+    @Nullable
+    ECKey get(int entry) {
+        ChildPublicKeys c = children[entry];
+        return c != null ? c.getKey(childIndexes[entry]) : keys[entry];
+    }
+
+    /** Returns the children the key of the given entry is created from, or null if it is kept as an object. */
+    @Nullable
+    ChildPublicKeys getChildren(int entry) {
+        return children[entry];
+    }
+
+    /** Returns the index of the key of the given entry in its {@link #getChildren(int)}. */
+    int getChildIndex(int entry) {
+        return childIndexes[entry];
+    }
+
+    /** Returns the first key, or null if there is none. */
+    @Nullable
+    ECKey first() {
+        for (int entry = 0; entry < entries; entry++)
+            if (isPresent(entry))
+                return get(entry);
+        return null;
+    }
+
+    /** Adds a key. There must be no key with the same public key yet. */
+    void add(ECKey key) {
+        byte[] pubKey = key.getPubKey();
+        checkState(!containsPubKey(pubKey, 0, pubKey.length), "Duplicate public key");
+        int entry = addEntry();
+        keys[entry] = key;
+        index(entry);
+    }
+
+    /** Adds the key at the given index of the given children. There must be no key with the same public key yet. */
+    void add(ChildPublicKeys children, int index) {
+        checkState(!containsPubKey(children.getPubKeys(), index * 33, 33), "Duplicate public key");
+        int entry = addEntry();
+        this.children[entry] = children;
+        childIndexes[entry] = index;
+        index(entry);
+    }
+
+    private int addEntry() {
+        if (2 * (size + 1) > hashSlots.length)
+            reindex(hashSlots.length * 2);
+        if (entries == keys.length) {
+            int capacity = keys.length + (keys.length >> 1);
+            keys = Arrays.copyOf(keys, capacity);
+            children = Arrays.copyOf(children, capacity);
+            childIndexes = Arrays.copyOf(childIndexes, capacity);
+        }
+        return entries++;
+    }
+
+    private void index(int entry) {
+        insert(pubKeySlots, pubKeyFingerprints, entry, false);
+        insert(hashSlots, hashFingerprints, entry, true);
+        size++;
+    }
+
+    /** Returns the key with the hash at the given slice of the given array, or null if there is none. */
+    @Nullable
+    ECKey findByHash(byte[] buf, int offset, int length) {
+        int slot = find(hashSlots, hashFingerprints, true, buf, offset, length);
+        return slot < 0 ? null : get(hashSlots[slot] - 1);
+    }
+
+    /** Returns the key with the public key at the given slice of the given array, or null if there is none. */
+    @Nullable
+    ECKey findByPubKey(byte[] buf, int offset, int length) {
+        int slot = find(pubKeySlots, pubKeyFingerprints, false, buf, offset, length);
+        return slot < 0 ? null : get(pubKeySlots[slot] - 1);
+    }
+
+    /** Returns whether there is a key with the public key at the given slice of the given array. */
+    boolean containsPubKey(byte[] buf, int offset, int length) {
+        return find(pubKeySlots, pubKeyFingerprints, false, buf, offset, length) >= 0;
+    }
+
+    /** Returns the creation time of the key of the given entry, without creating the key. */
+    long getCreationTimeSeconds(int entry) {
+        ChildPublicKeys c = children[entry];
+        return c != null ? c.getParent().getCreationTimeSeconds() : keys[entry].getCreationTimeSeconds();
+    }
+
+    /**
+     * Removes the key with the given public key.
+     * @return whether there was such a key
+     */
+    boolean remove(byte[] pubKey) {
+        int pubKeySlot = find(pubKeySlots, pubKeyFingerprints, false, pubKey, 0, pubKey.length);
+        if (pubKeySlot < 0)
+            return false;
+        int entry = pubKeySlots[pubKeySlot] - 1;
+        ChildPublicKeys c = children[entry];
+        int hashSlot;
+        if (c != null) {
+            hashSlot = find(hashSlots, hashFingerprints, true, c.getPubKeyHashes(), childIndexes[entry] * 20, 20);
+        } else {
+            byte[] hash = keys[entry].getPubKeyHash();
+            hashSlot = find(hashSlots, hashFingerprints, true, hash, 0, hash.length);
+        }
+        delete(pubKeySlots, pubKeyFingerprints, pubKeySlot);
+        delete(hashSlots, hashFingerprints, hashSlot);
+        keys[entry] = null;
+        children[entry] = null;
+        size--;
+        if (entries > MIN_CAPACITY && 2 * size < entries)
+            compact();
+        return true;
+    }
+
+    // Drops removed entries, which renumbers the remaining ones.
+    private void compact() {
+        int live = 0;
+        for (int entry = 0; entry < entries; entry++) {
+            if (!isPresent(entry))
+                continue;
+            keys[live] = keys[entry];
+            children[live] = children[entry];
+            childIndexes[live] = childIndexes[entry];
+            live++;
+        }
+        Arrays.fill(keys, live, entries, null);
+        Arrays.fill(children, live, entries, null);
+        entries = live;
+        reindex(hashSlots.length);
+    }
+
+    private void reindex(int capacity) {
+        allocateIndexes(capacity);
+        for (int entry = 0; entry < entries; entry++) {
+            if (!isPresent(entry))
+                continue;
+            insert(pubKeySlots, pubKeyFingerprints, entry, false);
+            insert(hashSlots, hashFingerprints, entry, true);
+        }
+    }
+
+    // Returns the slot of the entry whose hash or public key is at the given slice, or -1 if there is none.
+    private int find(int[] slots, long[] fingerprints, boolean hash, byte[] buf, int offset, int length) {
+        long fingerprint = ByteSliceIndex.fingerprint(buf, offset, length);
+        int mask = slots.length - 1;
+        for (int slot = ByteSliceIndex.slot(fingerprint, mask); slots[slot] != 0; slot = (slot + 1) & mask) {
+            if (fingerprints[slot] == fingerprint && matches(slots[slot] - 1, hash, buf, offset, length))
+                return slot;
+        }
+        return -1;
+    }
+
+    // Inserts the given entry into an index, unless there already is an entry with the same bytes.
+    private void insert(int[] slots, long[] fingerprints, int entry, boolean hash) {
+        byte[] buf;
+        int offset, length;
+        ChildPublicKeys c = children[entry];
+        if (c != null) {
+            length = hash ? 20 : 33;
+            buf = hash ? c.getPubKeyHashes() : c.getPubKeys();
+            offset = childIndexes[entry] * length;
+        } else {
+            buf = hash ? keys[entry].getPubKeyHash() : keys[entry].getPubKey();
+            offset = 0;
+            length = buf.length;
+        }
+        long fingerprint = ByteSliceIndex.fingerprint(buf, offset, length);
+        int mask = slots.length - 1;
+        int slot = ByteSliceIndex.slot(fingerprint, mask);
+        for (; slots[slot] != 0; slot = (slot + 1) & mask) {
+            if (fingerprints[slot] == fingerprint && matches(slots[slot] - 1, hash, buf, offset, length))
+                return;
+        }
+        slots[slot] = entry + 1;
+        fingerprints[slot] = fingerprint;
+    }
+
+    // Removes the given slot from an index, shifting the following entries of the probe sequence back.
+    private static void delete(int[] slots, long[] fingerprints, int slot) {
+        int mask = slots.length - 1;
+        int gap = slot;
+        for (int next = (gap + 1) & mask; slots[next] != 0; next = (next + 1) & mask) {
+            int home = ByteSliceIndex.slot(fingerprints[next], mask);
+            // Move the entry into the gap unless its home slot lies cyclically in (gap, next].
+            if (((next - home) & mask) >= ((next - gap) & mask)) {
+                slots[gap] = slots[next];
+                fingerprints[gap] = fingerprints[next];
+                gap = next;
+            }
+        }
+        slots[gap] = 0;
+    }
+
+    // Whether the hash or public key of the given entry equals the given slice.
+    private boolean matches(int entry, boolean hash, byte[] buf, int offset, int length) {
+        ChildPublicKeys c = children[entry];
+        if (c != null) {
+            int entryLength = hash ? 20 : 33;
+            return length == entryLength && rangeEquals(hash ? c.getPubKeyHashes() : c.getPubKeys(),
+                    childIndexes[entry] * entryLength, buf, offset, length);
+        }
+        byte[] bytes = hash ? keys[entry].getPubKeyHash() : keys[entry].getPubKey();
+        return bytes.length == length && rangeEquals(bytes, 0, buf, offset, length);
+    }
+
+    private static boolean rangeEquals(byte[] a, int aOffset, byte[] b, int bOffset, int length) {
+        for (int i = 0; i < length; i++)
+            if (a[aOffset + i] != b[bOffset + i])
+                return false;
+        return true;
+    }
+}
@@ -59,6 +59,7 @@ public class MarriedKeyChain extends DeterministicKeyChain {
     // The map holds P2SH redeem script and corresponding ECKeys issued by this KeyChainGroup (including lookahead)
     // mapped to redeem script hashes.
     private LinkedHashMap<ByteString, RedeemData> marriedKeysRedeemData = new LinkedHashMap<>();
+    private ByteSliceIndex<RedeemData> marriedKeysRedeemDataIndex = new ByteSliceIndex<>();
 
     private List<DeterministicKeyChain> followingKeyChains;
 
@@ -267,6 +268,7 @@ public class MarriedKeyChain extends DeterministicKeyChain {
             RedeemData redeemData = getRedeemData(followedKey);
             Script scriptPubKey = ScriptBuilder.createP2SHOutputScript(redeemData.redeemScript);
             marriedKeysRedeemData.put(ByteString.copyFrom(scriptPubKey.getPubKeyHash()), redeemData);
+            marriedKeysRedeemDataIndex.put(scriptPubKey.getPubKeyHash(), redeemData);
         }
     }
 
@@ -276,6 +278,12 @@ public class MarriedKeyChain extends DeterministicKeyChain {
         return marriedKeysRedeemData.get(bytes);
     }
 
+    @Nullable
+    @Override
+    public RedeemData findRedeemDataByScriptHash(byte[] buf, int offset, int length) {
+        return marriedKeysRedeemDataIndex.get(buf, offset, length);
+    }
+
     @Override
     public BloomFilter getFilter(int size, double falsePositiveRate, long tweak) {
         lock.lock();
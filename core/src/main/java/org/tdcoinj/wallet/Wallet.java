@@ -40,6 +40,7 @@ import org.tdcoinj.core.Peer;
 import org.tdcoinj.core.PeerFilterProvider;
 import org.tdcoinj.core.PeerGroup;
 import org.tdcoinj.core.Sha256Hash;
+import org.tdcoinj.core.Sha256HashMap;
 import org.tdcoinj.core.StoredBlock;
 import org.tdcoinj.core.Transaction;
 import org.tdcoinj.core.TransactionBag;
@@ -248,6 +249,21 @@ public class Wallet extends BaseTaggableObject
     // If this is set then the wallet selects spendable candidate outputs from a UTXO provider.
     @Nullable private volatile UTXOProvider vUTXOProvider;
 
+    // If this is set then fully spent transactions buried deeper than coldStoreDepth are evicted from the spent pool
+    // to this store, and read back from it on demand.
+    @GuardedBy("lock") @Nullable private ColdTransactionStore coldStore;
+    @GuardedBy("lock") private int coldStoreDepth;
+    // Contributions of evicted transactions to getTotalReceived() and getTotalSent(), including the inputs of the
+    // transactions in memory that were disconnected from them.
+    @GuardedBy("lock") private Coin coldTotalReceived = Coin.ZERO;
+    @GuardedBy("lock") private Coin coldTotalSent = Coin.ZERO;
+    // Outputs of transactions in memory that are spent by evicted transactions. They are marked as spent, but without
+    // the spending input, so that they don't keep the evicted transactions in memory.
+    @GuardedBy("lock") private final Set<TransactionOutPoint> coldSpentOutputs = new HashSet<>();
+    // The path and size of the store that was last set, or that was read from the wallet file while none is set.
+    @GuardedBy("lock") @Nullable private String coldStorePath;
+    @GuardedBy("lock") private int coldStoreSize;
+
     /**
      * Creates a new, empty wallet with a randomly chosen seed and no transactions. Make sure to provide for sufficient
      * backup! Any keys will be derived from the seed. If you want to restore a wallet from disk instead, see
@@ -461,11 +477,11 @@ public class Wallet extends BaseTaggableObject
         this.params = checkNotNull(context.getParams());
         this.keyChainGroup = checkNotNull(keyChainGroup);
         watchedScripts = Sets.newHashSet();
-        unspent = new HashMap<>();
-        spent = new HashMap<>();
-        pending = new HashMap<>();
-        dead = new HashMap<>();
-        transactions = new HashMap<>();
+        unspent = new Sha256HashMap<>();
+        spent = new Sha256HashMap<>();
+        pending = new Sha256HashMap<>();
+        dead = new Sha256HashMap<>();
+        transactions = new Sha256HashMap<>();
         extensions = new HashMap<>();
         // Use a linked hash map to ensure ordering of event listeners is correct.
         confidenceChanged = new LinkedHashMap<>();
@@ -1307,17 +1323,11 @@ public class Wallet extends BaseTaggableObject
     /**
      * Convenience wrapper around {@link Wallet#encrypt(KeyCrypter,
      * org.bouncycastle.crypto.params.KeyParameter)} which uses the default Scrypt key derivation algorithm and
-     * parameters to derive a key from the given password.
+     * parameters to derive a key from the given password. The key is derived before taking the wallet lock.
      */
     public void encrypt(CharSequence password) {
-        keyChainGroupLock.lock();
-        try {
-            final KeyCrypterScrypt scrypt = new KeyCrypterScrypt();
-            keyChainGroup.encrypt(scrypt, scrypt.deriveKey(password));
-        } finally {
-            keyChainGroupLock.unlock();
-        }
-        saveNow();
+        final KeyCrypterScrypt scrypt = new KeyCrypterScrypt();
+        encrypt(scrypt, scrypt.deriveKey(password));
     }
 
     /**
@@ -1339,24 +1349,14 @@ public class Wallet extends BaseTaggableObject
     }
 
     /**
-     * Decrypt the wallet with the wallets keyCrypter and password.
+     * Decrypt the wallet with the wallets keyCrypter and password. The key is derived before taking the wallet lock.
      * @throws BadWalletEncryptionKeyException Thrown if the given password is wrong. If so, the wallet state is unchanged.
      * @throws KeyCrypterException Thrown if the wallet decryption fails. If so, the wallet state is unchanged.
      */
     public void decrypt(CharSequence password) throws BadWalletEncryptionKeyException {
-        keyChainGroupLock.lock();
-        try {
-            final KeyCrypter crypter = keyChainGroup.getKeyCrypter();
-            checkState(crypter != null, "Not encrypted");
-            keyChainGroup.decrypt(crypter.deriveKey(password));
-        } catch (KeyCrypterException.InvalidCipherText e) {
-            throw new BadWalletEncryptionKeyException(e);
-        } catch (KeyCrypterException.PublicPrivateMismatch e) {
-            throw new BadWalletEncryptionKeyException(e);
-        } finally {
-            keyChainGroupLock.unlock();
-        }
-        saveNow();
+        final KeyCrypter crypter = getKeyCrypter();
+        checkState(crypter != null, "Not encrypted");
+        decrypt(crypter.deriveKey(password));
     }
 
     /**
@@ -1388,12 +1388,10 @@ public class Wallet extends BaseTaggableObject
      *  @throws IllegalStateException if the wallet is not encrypted.
      */
     public boolean checkPassword(CharSequence password) {
-        keyChainGroupLock.lock();
-        try {
-            return keyChainGroup.checkPassword(password);
-        } finally {
-            keyChainGroupLock.unlock();
-        }
+        // Derive the key without holding the lock, as that takes long on purpose.
+        final KeyCrypter crypter = getKeyCrypter();
+        checkState(crypter != null, "Not encrypted");
+        return checkAESKey(crypter.deriveKey(password));
     }
 
     /**
@@ -1453,10 +1451,19 @@ public class Wallet extends BaseTaggableObject
      * @throws KeyCrypterException Thrown if the wallet decryption fails. If so, the wallet state is unchanged.
      */
     public void changeEncryptionPassword(CharSequence currentPassword, CharSequence newPassword) throws BadWalletEncryptionKeyException {
+        // Derive both keys before taking the lock, as that takes long on purpose.
+        final KeyCrypter currentCrypter = getKeyCrypter();
+        checkState(currentCrypter != null, "Not encrypted");
+        final KeyParameter currentAesKey = currentCrypter.deriveKey(currentPassword);
+        final KeyCrypterScrypt newCrypter = new KeyCrypterScrypt();
+        final KeyParameter newAesKey = newCrypter.deriveKey(newPassword);
         keyChainGroupLock.lock();
         try {
-            decrypt(currentPassword);
-            encrypt(newPassword);
+            // The current key was derived for the crypter the wallet had when we started.
+            if (keyChainGroup.getKeyCrypter() != currentCrypter)
+                throw new BadWalletEncryptionKeyException(new KeyCrypterException("Encryption changed concurrently"));
+            decrypt(currentAesKey);
+            encrypt(newCrypter, newAesKey);
         } finally {
             keyChainGroupLock.unlock();
         }
@@ -1477,6 +1484,32 @@ public class Wallet extends BaseTaggableObject
         }
     }
 
+    /**
+     * Like {@link #changeEncryptionKey(KeyCrypter, KeyParameter, KeyParameter)}, but reports the progress and saves
+     * the wallet only once, after the keys are encrypted with the new key. The imported keys are decrypted and
+     * encrypted again on all processors, which matters for wallets with many of them.
+     * @param progress receives the fraction of the work done, on the calling thread, or null
+     * @throws BadWalletEncryptionKeyException Thrown if the given currentAesKey is wrong. If so, the wallet state is unchanged.
+     * @throws KeyCrypterException Thrown if the wallet decryption fails. If so, the wallet state is unchanged.
+     */
+    public void changeEncryptionKey(KeyCrypter keyCrypter, KeyParameter currentAesKey, KeyParameter newAesKey,
+                                    @Nullable EncryptableKeyChain.ProgressCallback progress) throws BadWalletEncryptionKeyException {
+        keyChainGroupLock.lock();
+        try {
+            try {
+                keyChainGroup.decrypt(currentAesKey, KeyCryptoPipeline.scale(progress, 0, 0.5));
+            } catch (KeyCrypterException.InvalidCipherText e) {
+                throw new BadWalletEncryptionKeyException(e);
+            } catch (KeyCrypterException.PublicPrivateMismatch e) {
+                throw new BadWalletEncryptionKeyException(e);
+            }
+            keyChainGroup.encrypt(keyCrypter, newAesKey, KeyCryptoPipeline.scale(progress, 0.5, 1));
+        } finally {
+            keyChainGroupLock.unlock();
+        }
+        saveNow();
+    }
+
     //endregion
 
     // ***************************************************************************************************************
@@ -1784,12 +1817,14 @@ public class Wallet extends BaseTaggableObject
 
     /*
      * If isSpent - check that all my outputs spent, otherwise check that there at least
-     * one unspent.
+     * one unspent. Outputs spent by evicted transactions are spent without a spending input.
      */
     @VisibleForTesting
     boolean isTxConsistent(final Transaction tx, final boolean isSpent) {
         boolean isActuallySpent = true;
-        for (TransactionOutput o : tx.getOutputs()) {
+        List<TransactionOutput> outputs = tx.getOutputs();
+        for (int index = 0; index < outputs.size(); index++) {
+            TransactionOutput o = outputs.get(index);
             if (o.isAvailableForSpending()) {
                 if (o.isMineOrWatched(this)) isActuallySpent = false;
                 if (o.getSpentBy() != null) {
@@ -1797,7 +1832,8 @@ public class Wallet extends BaseTaggableObject
                     return false;
                 }
             } else {
-                if (o.getSpentBy() == null) {
+                if (o.getSpentBy() == null && (coldSpentOutputs.isEmpty()
+                        || !coldSpentOutputs.contains(new TransactionOutPoint(params, index, tx.getTxId())))) {
                     log.error("isAvailableForSpending != spentBy");
                     return false;
                 }
@@ -2344,6 +2380,8 @@ public class Wallet extends BaseTaggableObject
 
             informConfidenceListenersIfNotReorganizing();
             maybeQueueOnWalletChanged();
+            if (coldStore != null && !insideReorg)
+                evictColdTransactions();
 
             if (hardSaveOnNextBlock) {
                 saveNow();
@@ -2477,6 +2515,9 @@ public class Wallet extends BaseTaggableObject
                     // (2) A double spend from chain: this will be handled later by findDoubleSpendsAgainst()/killTxns().
                     //
                     // In any case, nothing to do here.
+                } else if (output.getSpentBy() == null) {
+                    // The output was spent by a transaction that was evicted to the cold store, deep in the chain.
+                    log.warn("Saw pending transaction {} double spend an evicted transaction", tx.getTxId());
                 } else {
                     // We saw two pending transactions that double spend each other. We don't know which will win.
                     // This can happen in the case of bad network nodes that mutate transactions. Do a hex dump
@@ -2621,78 +2662,8 @@ public class Wallet extends BaseTaggableObject
         tx.verify();
         lock.lock();
         try {
-            if (pending.containsKey(tx.getTxId()))
+            if (!commitTxLocked(tx))
                 return false;
-            log.info("commitTx of {}", tx.getTxId());
-            Coin balance = getBalance();
-            tx.setUpdateTime(Utils.now());
-            // Put any outputs that are sending money back to us into the unspents map, and calculate their total value.
-            Coin valueSentToMe = Coin.ZERO;
-            for (TransactionOutput o : tx.getOutputs()) {
-                if (!o.isMineOrWatched(this)) continue;
-                valueSentToMe = valueSentToMe.add(o.getValue());
-            }
-            // Mark the outputs we're spending as spent so we won't try and use them in future creations. This will also
-            // move any transactions that are now fully spent to the spent map so we can skip them when creating future
-            // spends.
-            updateForSpends(tx, false);
-
-            Set<Transaction> doubleSpendPendingTxns = findDoubleSpendsAgainst(tx, pending);
-            Set<Transaction> doubleSpendUnspentTxns = findDoubleSpendsAgainst(tx, unspent);
-            Set<Transaction> doubleSpendSpentTxns = findDoubleSpendsAgainst(tx, spent);
-
-            if (!doubleSpendUnspentTxns.isEmpty() ||
-                !doubleSpendSpentTxns.isEmpty() ||
-                !isNotSpendingTxnsInConfidenceType(tx, ConfidenceType.DEAD)) {
-                // tx is a double spend against a tx already in the best chain or spends outputs of a DEAD tx.
-                // Add tx to the dead pool and schedule confidence listener notifications.
-                log.info("->dead: {}", tx.getTxId());
-                tx.getConfidence().setConfidenceType(ConfidenceType.DEAD);
-                confidenceChanged.put(tx, TransactionConfidence.Listener.ChangeReason.TYPE);
-                addWalletTransaction(Pool.DEAD, tx);
-            } else if (!doubleSpendPendingTxns.isEmpty() ||
-                !isNotSpendingTxnsInConfidenceType(tx, ConfidenceType.IN_CONFLICT)) {
-                // tx is a double spend against a pending tx or spends outputs of a tx already IN_CONFLICT.
-                // Add tx to the pending pool. Update the confidence type of tx, the txns in conflict with tx and all
-                // their dependencies to IN_CONFLICT and schedule confidence listener notifications.
-                log.info("->pending (IN_CONFLICT): {}", tx.getTxId());
-                addWalletTransaction(Pool.PENDING, tx);
-                doubleSpendPendingTxns.add(tx);
-                addTransactionsDependingOn(doubleSpendPendingTxns, getTransactions(true));
-                for (Transaction doubleSpendTx : doubleSpendPendingTxns) {
-                    doubleSpendTx.getConfidence().setConfidenceType(ConfidenceType.IN_CONFLICT);
-                    confidenceChanged.put(doubleSpendTx, TransactionConfidence.Listener.ChangeReason.TYPE);
-                }
-            } else {
-                // No conflict detected.
-                // Add to the pending pool and schedule confidence listener notifications.
-                log.info("->pending: {}", tx.getTxId());
-                tx.getConfidence().setConfidenceType(ConfidenceType.PENDING);
-                confidenceChanged.put(tx, TransactionConfidence.Listener.ChangeReason.TYPE);
-                addWalletTransaction(Pool.PENDING, tx);
-            }
-            if (log.isInfoEnabled())
-                log.info("Estimated balance is now: {}", getBalance(BalanceType.ESTIMATED).toFriendlyString());
-
-            // Mark any keys used in the outputs as "used", this allows wallet UI's to auto-advance the current key
-            // they are showing to the user in qr codes etc.
-            markKeysAsUsed(tx);
-            try {
-                Coin valueSentFromMe = tx.getValueSentFromMe(this);
-                Coin newBalance = balance.add(valueSentToMe).subtract(valueSentFromMe);
-                if (valueSentToMe.signum() > 0) {
-                    checkBalanceFuturesLocked(null);
-                    queueOnCoinsReceived(tx, balance, newBalance);
-                }
-                if (valueSentFromMe.signum() > 0)
-                    queueOnCoinsSent(tx, balance, newBalance);
-
-                maybeQueueOnWalletChanged();
-            } catch (ScriptException e) {
-                // Cannot happen as we just created this transaction ourselves.
-                throw new RuntimeException(e);
-            }
-
             isConsistentOrThrow();
             informConfidenceListenersIfNotReorganizing();
             saveNow();
@@ -2702,6 +2673,84 @@ public class Wallet extends BaseTaggableObject
         return true;
     }
 
+    // Does the pool placement and event queueing of maybeCommitTx, but leaves the consistency check, confidence
+    // listener notification and saving to the caller so they can be done once for a whole batch.
+    private boolean commitTxLocked(Transaction tx) {
+        checkState(lock.isHeldByCurrentThread());
+        if (pending.containsKey(tx.getTxId()))
+            return false;
+        log.info("commitTx of {}", tx.getTxId());
+        Coin balance = getBalance();
+        tx.setUpdateTime(Utils.now());
+        // Put any outputs that are sending money back to us into the unspents map, and calculate their total value.
+        Coin valueSentToMe = Coin.ZERO;
+        for (TransactionOutput o : tx.getOutputs()) {
+            if (!o.isMineOrWatched(this)) continue;
+            valueSentToMe = valueSentToMe.add(o.getValue());
+        }
+        // Mark the outputs we're spending as spent so we won't try and use them in future creations. This will also
+        // move any transactions that are now fully spent to the spent map so we can skip them when creating future
+        // spends.
+        updateForSpends(tx, false);
+
+        Set<Transaction> doubleSpendPendingTxns = findDoubleSpendsAgainst(tx, pending);
+        Set<Transaction> doubleSpendUnspentTxns = findDoubleSpendsAgainst(tx, unspent);
+        Set<Transaction> doubleSpendSpentTxns = findDoubleSpendsAgainst(tx, spent);
+
+        if (!doubleSpendUnspentTxns.isEmpty() ||
+            !doubleSpendSpentTxns.isEmpty() ||
+            !isNotSpendingTxnsInConfidenceType(tx, ConfidenceType.DEAD)) {
+            // tx is a double spend against a tx already in the best chain or spends outputs of a DEAD tx.
+            // Add tx to the dead pool and schedule confidence listener notifications.
+            log.info("->dead: {}", tx.getTxId());
+            tx.getConfidence().setConfidenceType(ConfidenceType.DEAD);
+            confidenceChanged.put(tx, TransactionConfidence.Listener.ChangeReason.TYPE);
+            addWalletTransaction(Pool.DEAD, tx);
+        } else if (!doubleSpendPendingTxns.isEmpty() ||
+            !isNotSpendingTxnsInConfidenceType(tx, ConfidenceType.IN_CONFLICT)) {
+            // tx is a double spend against a pending tx or spends outputs of a tx already IN_CONFLICT.
+            // Add tx to the pending pool. Update the confidence type of tx, the txns in conflict with tx and all
+            // their dependencies to IN_CONFLICT and schedule confidence listener notifications.
+            log.info("->pending (IN_CONFLICT): {}", tx.getTxId());
+            addWalletTransaction(Pool.PENDING, tx);
+            doubleSpendPendingTxns.add(tx);
+            addTransactionsDependingOn(doubleSpendPendingTxns, getTransactions(true));
+            for (Transaction doubleSpendTx : doubleSpendPendingTxns) {
+                doubleSpendTx.getConfidence().setConfidenceType(ConfidenceType.IN_CONFLICT);
+                confidenceChanged.put(doubleSpendTx, TransactionConfidence.Listener.ChangeReason.TYPE);
+            }
+        } else {
+            // No conflict detected.
+            // Add to the pending pool and schedule confidence listener notifications.
+            log.info("->pending: {}", tx.getTxId());
+            tx.getConfidence().setConfidenceType(ConfidenceType.PENDING);
+            confidenceChanged.put(tx, TransactionConfidence.Listener.ChangeReason.TYPE);
+            addWalletTransaction(Pool.PENDING, tx);
+        }
+        if (log.isInfoEnabled())
+            log.info("Estimated balance is now: {}", getBalance(BalanceType.ESTIMATED).toFriendlyString());
+
+        // Mark any keys used in the outputs as "used", this allows wallet UI's to auto-advance the current key
+        // they are showing to the user in qr codes etc.
+        markKeysAsUsed(tx);
+        try {
+            Coin valueSentFromMe = tx.getValueSentFromMe(this);
+            Coin newBalance = balance.add(valueSentToMe).subtract(valueSentFromMe);
+            if (valueSentToMe.signum() > 0) {
+                checkBalanceFuturesLocked(null);
+                queueOnCoinsReceived(tx, balance, newBalance);
+            }
+            if (valueSentFromMe.signum() > 0)
+                queueOnCoinsSent(tx, balance, newBalance);
+
+            maybeQueueOnWalletChanged();
+        } catch (ScriptException e) {
+            // Cannot happen as we just created this transaction ourselves.
+            throw new RuntimeException(e);
+        }
+        return true;
+    }
+
     /**
      * <p>Updates the wallet with the given transaction: puts it into the pending pool, sets the spent flags and runs
      * the onCoinsSent/onCoinsReceived event listener. Used in two situations:</p>
@@ -3027,9 +3076,39 @@ public class Wallet extends BaseTaggableObject
     }
 
     /**
-     * Returns a set of all WalletTransactions in the wallet.
+     * Returns a set of all WalletTransactions in the wallet. If a {@link ColdTransactionStore} is set, this includes
+     * the evicted transactions, which are read back from disk as part of the {@link Pool#SPENT} pool.
      */
     public Iterable<WalletTransaction> getWalletTransactions() {
+        Set<WalletTransaction> all;
+        ColdTransactionStore store;
+        List<Sha256Hash> coldTxIds;
+        int height;
+        lock.lock();
+        try {
+            all = getResidentWalletTransactions();
+            if (coldStore == null)
+                return all;
+            store = coldStore;
+            coldTxIds = getColdTxIds(0);
+            height = lastBlockSeenHeight;
+        } finally {
+            lock.unlock();
+        }
+        // The disk is read without holding the wallet lock.
+        for (Sha256Hash txId : coldTxIds) {
+            Transaction tx = readColdTransaction(store, txId, height);
+            if (tx != null)
+                all.add(new WalletTransaction(Pool.SPENT, tx));
+        }
+        return all;
+    }
+
+    /**
+     * Returns a set of the WalletTransactions that are held in memory, i.e. not evicted to a
+     * {@link ColdTransactionStore}.
+     */
+    Set<WalletTransaction> getResidentWalletTransactions() {
         lock.lock();
         try {
             Set<WalletTransaction> all = new HashSet<>();
@@ -3098,7 +3177,8 @@ public class Wallet extends BaseTaggableObject
     }
 
     /**
-     * Returns all non-dead, active transactions ordered by recency.
+     * Returns all non-dead, active transactions ordered by recency. If a {@link ColdTransactionStore} is set, this
+     * includes the evicted transactions.
      */
     public List<Transaction> getTransactionsByTime() {
         return getRecentTransactions(0, false);
@@ -3109,44 +3189,332 @@ public class Wallet extends BaseTaggableObject
      * Dead transactions (overridden by double spends) are optionally included.</p>
      * <p>Note: the current implementation is O(num transactions in wallet). Regardless of how many transactions are
      * requested, the cost is always the same. In future, requesting smaller numbers of transactions may be faster
-     * depending on how the wallet is implemented (eg if backed by a database).</p>
+     * depending on how the wallet is implemented (eg if backed by a database). Transactions evicted to a
+     * {@link ColdTransactionStore} are an exception: only the requested number of them is read back from disk.</p>
      */
     public List<Transaction> getRecentTransactions(int numTransactions, boolean includeDead) {
+        checkArgument(numTransactions >= 0);
+        ArrayList<Transaction> all;
+        int size;
+        ColdTransactionStore store;
+        List<Sha256Hash> coldTxIds = Collections.emptyList();
+        int height;
         lock.lock();
         try {
-            checkArgument(numTransactions >= 0);
             // Firstly, put all transactions into an array.
-            int size = unspent.size() + spent.size() + pending.size();
-            if (numTransactions > size || numTransactions == 0) {
-                numTransactions = size;
+            size = unspent.size() + spent.size() + pending.size();
+            all = new ArrayList<>(getTransactions(includeDead));
+            store = coldStore;
+            if (store != null)
+                coldTxIds = getColdTxIds(numTransactions);
+            height = lastBlockSeenHeight;
+        } finally {
+            lock.unlock();
+        }
+        // The disk is read without holding the wallet lock.
+        for (Sha256Hash txId : coldTxIds) {
+            Transaction tx = readColdTransaction(store, txId, height);
+            if (tx != null) {
+                all.add(tx);
+                size++;
             }
-            ArrayList<Transaction> all = new ArrayList<>(getTransactions(includeDead));
-            // Order by update time.
-            Collections.sort(all, Transaction.SORT_TX_BY_UPDATE_TIME);
-            if (numTransactions == all.size()) {
-                return all;
-            } else {
-                all.subList(numTransactions, all.size()).clear();
-                return all;
+        }
+        if (numTransactions > size || numTransactions == 0) {
+            numTransactions = size;
+        }
+        // Order by update time.
+        Collections.sort(all, Transaction.SORT_TX_BY_UPDATE_TIME);
+        if (numTransactions == all.size()) {
+            return all;
+        } else {
+            all.subList(numTransactions, all.size()).clear();
+            return all;
+        }
+    }
+
+    /**
+     * Returns a transaction object given its hash, if it exists in this wallet, or null otherwise. Transactions
+     * evicted to a {@link ColdTransactionStore} are read back from disk; these are detached copies that are not part
+     * of any pool and whose outputs aren't connected to the inputs that spend them. This is also how to get at the
+     * transaction an input spends from if it was evicted, as the input is disconnected from it.
+     */
+    @Nullable
+    public Transaction getTransaction(Sha256Hash hash) {
+        ColdTransactionStore store;
+        int height;
+        lock.lock();
+        try {
+            Transaction tx = transactions.get(hash);
+            if (tx != null || coldStore == null)
+                return tx;
+            store = coldStore;
+            height = lastBlockSeenHeight;
+        } finally {
+            lock.unlock();
+        }
+        // The disk is read without holding the wallet lock.
+        return readColdTransaction(store, hash, height);
+    }
+
+    // The txids of the evicted transactions that are not in memory, newest first. See
+    // ColdTransactionStore.getTxIdsByTime(int).
+    private List<Sha256Hash> getColdTxIds(int max) {
+        checkState(lock.isHeldByCurrentThread());
+        List<Sha256Hash> txIds = coldStore.getTxIdsByTime(max);
+        for (Iterator<Sha256Hash> i = txIds.iterator(); i.hasNext();) {
+            if (transactions.containsKey(i.next()))
+                i.remove();
+        }
+        return txIds;
+    }
+
+    // Reads an evicted transaction, with its depth brought up to date with the given height of the last seen block.
+    // Returns null if it isn't in the store (any more, if the wallet was reset in the meantime).
+    @Nullable
+    private static Transaction readColdTransaction(ColdTransactionStore store, Sha256Hash hash, int height) {
+        try {
+            Transaction tx = store.get(hash);
+            if (tx == null)
+                return null;
+            // The stored depth is the one at eviction time.
+            TransactionConfidence confidence = tx.getConfidence();
+            if (confidence.getConfidenceType() == ConfidenceType.BUILDING
+                    && height >= confidence.getAppearedAtChainHeight())
+                confidence.setDepthInBlocks(height - confidence.getAppearedAtChainHeight() + 1);
+            return tx;
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * <p>Sets a store that fully spent transactions are evicted to once they, and all the transactions spending their
+     * outputs, are buried at least {@code depth} blocks deep. Evicted transactions no longer take up memory; they are
+     * read back from disk by {@link #getTransaction(Sha256Hash)}, {@link #getTransactionsByTime()},
+     * {@link #getRecentTransactions(int, boolean)} and {@link #getWalletTransactions()}. The transactions in memory are
+     * unlinked from them: outputs they spent stay marked as spent but without the spending input, and inputs spending
+     * their outputs are disconnected. Eviction happens right away and then on every new best block.</p>
+     *
+     * <p>The wallet file doesn't contain the evicted transactions, only the path and size of the store and what they
+     * added to {@link #getTotalReceived()} and {@link #getTotalSent()}. After loading the wallet, the same store has to
+     * be set again to read them.</p>
+     *
+     * <p>Re-orgs deeper than the eviction depth cannot be processed for evicted transactions, so it should be at least
+     * the {@link Context#getEventHorizon() event horizon}. The store is not closed by the wallet.</p>
+     *
+     * @param store store to evict to, or null to stop evicting (transactions already evicted stay in the store)
+     * @param depth minimum depth in blocks of evicted transactions
+     * @throws IllegalArgumentException if the store holds fewer transactions than were evicted from this wallet
+     */
+    public void setColdTransactionStore(@Nullable ColdTransactionStore store, int depth) {
+        checkArgument(depth > 0);
+        lock.lock();
+        try {
+            if (store != null && coldStorePath != null) {
+                checkArgument(store.size() >= coldStoreSize, "%s holds fewer transactions than the %s evicted to %s",
+                        store, coldStoreSize, coldStorePath);
+                if (!new File(coldStorePath).equals(store.getFile()))
+                    log.warn("Evicted transactions were stored in {}, using {}", coldStorePath, store.getFile());
             }
+            if (coldStore != null) {
+                coldStorePath = coldStore.getFile().getPath();
+                coldStoreSize = coldStore.size();
+            }
+            this.coldStore = store;
+            this.coldStoreDepth = depth;
+            if (store != null)
+                evictColdTransactions();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Sets a store that fully spent transactions are evicted to, using the {@link Context#getEventHorizon() event
+     * horizon} as eviction depth. See {@link #setColdTransactionStore(ColdTransactionStore, int)}.
+     */
+    public void setColdTransactionStore(@Nullable ColdTransactionStore store) {
+        setColdTransactionStore(store, context.getEventHorizon());
+    }
+
+    /** Returns the store fully spent transactions are evicted to, or null if eviction is disabled. */
+    @Nullable
+    public ColdTransactionStore getColdTransactionStore() {
+        lock.lock();
+        try {
+            return coldStore;
         } finally {
             lock.unlock();
         }
     }
 
     /**
-     * Returns a transaction object given its hash, if it exists in this wallet, or null otherwise.
+     * Returns what the wallet file holds in place of the transactions evicted to a {@link ColdTransactionStore}: the
+     * path and size of the store, the cold totals and the outputs spent by evicted transactions. Returns null if no
+     * transactions were evicted.
      */
     @Nullable
-    public Transaction getTransaction(Sha256Hash hash) {
+    byte[] serializeColdState() {
+        lock.lock();
+        try {
+            String path = coldStore != null ? coldStore.getFile().getPath() : coldStorePath;
+            int size = coldStore != null ? coldStore.size() : coldStoreSize;
+            if (path == null || size == 0)
+                return null;
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeUTF(path);
+            out.writeInt(size);
+            out.writeLong(coldTotalReceived.value);
+            out.writeLong(coldTotalSent.value);
+            out.writeInt(coldSpentOutputs.size());
+            for (TransactionOutPoint outpoint : coldSpentOutputs) {
+                out.write(outpoint.getHash().getBytes());
+                out.writeInt((int) outpoint.getIndex());
+            }
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            throw new RuntimeException(e);  // Cannot happen.
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Restores what {@link #serializeColdState()} returned, after the transactions in memory have been added. The
+     * outputs spent by evicted transactions are marked as spent again.
+     */
+    void deserializeColdState(byte[] data) throws UnreadableWalletException {
         lock.lock();
         try {
-            return transactions.get(hash);
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+            coldStorePath = in.readUTF();
+            coldStoreSize = in.readInt();
+            coldTotalReceived = Coin.valueOf(in.readLong());
+            coldTotalSent = Coin.valueOf(in.readLong());
+            int count = in.readInt();
+            byte[] hash = new byte[Sha256Hash.LENGTH];
+            for (int i = 0; i < count; i++) {
+                in.readFully(hash);
+                int index = in.readInt();
+                Transaction tx = transactions.get(Sha256Hash.wrap(hash));
+                if (tx == null || index < 0 || index >= tx.getOutputs().size())
+                    throw new UnreadableWalletException("Output spent by an evicted transaction is not in the wallet: "
+                            + Sha256Hash.wrap(hash) + ":" + index);
+                TransactionOutput output = tx.getOutput(index);
+                if (output.getSpentBy() != null)
+                    throw new UnreadableWalletException("Output spent twice: " + tx.getTxId() + ":" + index);
+                if (output.isAvailableForSpending()) {
+                    output.markAsSpent(null);
+                    myUnspents.remove(output);
+                }
+                coldSpentOutputs.add(new TransactionOutPoint(params, index, tx.getTxId()));
+            }
+        } catch (IOException e) {
+            throw new UnreadableWalletException("Could not read the state of the cold transaction store", e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Moves all spent transactions that are eligible for eviction to the {@link ColdTransactionStore}. This is done
+     * automatically on every new best block, so normally there is no need to call it.
+     * @return number of evicted transactions
+     */
+    public int evictColdTransactions() {
+        lock.lock();
+        try {
+            if (coldStore == null)
+                return 0;
+            int evicted = 0;
+            for (Iterator<Transaction> i = spent.values().iterator(); i.hasNext();) {
+                Transaction tx = i.next();
+                if (!isColdTransaction(tx))
+                    continue;
+                coldStore.put(tx);
+                i.remove();
+                transactions.remove(tx.getTxId());
+                coldTotalReceived = coldTotalReceived.add(getTotalReceived(tx));
+                coldTotalSent = coldTotalSent.add(getTotalSent(tx));
+                tx.getConfidence().removeEventListener(txConfidenceListener);
+                confidenceChanged.remove(tx);
+                unlinkColdTransaction(tx);
+                evicted++;
+            }
+            if (evicted > 0) {
+                coldStore.sync();
+                log.info("Evicted {} transactions to {}", evicted, coldStore);
+                saveLater();
+            }
+            return evicted;
+        } catch (IOException e) {
+            throw new RuntimeException(e);
         } finally {
             lock.unlock();
         }
     }
 
+    /*
+     * Unlinks an evicted transaction from the transactions in memory, so that they don't keep it alive. The outputs it
+     * spends stay marked as spent, without a spending input. The inputs spending its outputs are disconnected, which
+     * changes what their transactions add to the totals, so the difference goes to the cold totals.
+     */
+    private void unlinkColdTransaction(Transaction tx) {
+        for (TransactionInput input : tx.getInputs()) {
+            TransactionOutPoint outpoint = input.getOutpoint();
+            TransactionOutput connected = input.getConnectedOutput();
+            if (connected != null && input.disconnect() && transactions.get(outpoint.getHash()) != null) {
+                connected.markAsSpent(null);
+                coldSpentOutputs.add(new TransactionOutPoint(params, outpoint.getIndex(), outpoint.getHash()));
+            }
+        }
+        List<TransactionOutput> outputs = tx.getOutputs();
+        for (int index = 0; index < outputs.size(); index++) {
+            TransactionInput spentBy = outputs.get(index).getSpentBy();
+            if (spentBy == null) {
+                coldSpentOutputs.remove(new TransactionOutPoint(params, index, tx.getTxId()));
+                continue;
+            }
+            Transaction child = spentBy.getParentTransaction();
+            if (transactions.get(child.getTxId()) == child) {
+                Coin received = getTotalReceived(child), sent = getTotalSent(child);
+                spentBy.disconnect();
+                coldTotalReceived = coldTotalReceived.add(received).subtract(getTotalReceived(child));
+                coldTotalSent = coldTotalSent.add(sent).subtract(getTotalSent(child));
+            } else {
+                spentBy.disconnect();
+            }
+        }
+    }
+
+    /*
+     * A spent transaction can be evicted if it's buried deep enough, and so are all transactions spending its outputs.
+     * Otherwise a re-org or a dead spend could make its outputs spendable again. Outputs that are spent without a
+     * spending input are spent by transactions that were evicted already.
+     */
+    private boolean isColdTransaction(Transaction tx) {
+        if (!isBuriedForColdStore(tx))
+            return false;
+        for (TransactionOutput output : tx.getOutputs()) {
+            if (output.isAvailableForSpending()) {
+                if (output.isMineOrWatched(this))
+                    return false;
+                continue;
+            }
+            TransactionInput spentBy = output.getSpentBy();
+            if (spentBy != null && !isBuriedForColdStore(spentBy.getParentTransaction()))
+                return false;
+        }
+        return true;
+    }
+
+    private boolean isBuriedForColdStore(Transaction tx) {
+        TransactionConfidence confidence = tx.getConfidence();
+        return confidence.getConfidenceType() == ConfidenceType.BUILDING
+                && confidence.getDepthInBlocks() >= coldStoreDepth;
+    }
+
     @Override
     public Map<Sha256Hash, Transaction> getTransactionPool(Pool pool) {
         lock.lock();
@@ -3213,6 +3581,18 @@ public class Wallet extends BaseTaggableObject
         dead.clear();
         transactions.clear();
         myUnspents.clear();
+        if (coldStore != null) {
+            try {
+                coldStore.clear();
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+        coldTotalReceived = Coin.ZERO;
+        coldTotalSent = Coin.ZERO;
+        coldSpentOutputs.clear();
+        coldStorePath = null;
+        coldStoreSize = 0;
     }
 
     /**
@@ -3815,28 +4195,33 @@ public class Wallet extends BaseTaggableObject
      * @return the total amount of satoshis received, regardless of whether it was spent or not.
      */
     public Coin getTotalReceived() {
-        Coin total = Coin.ZERO;
+        lock.lock();
+        try {
+            Coin total = coldTotalReceived;
+            for (Transaction tx: transactions.values())
+                total = total.add(getTotalReceived(tx));
+            return total;
+        } finally {
+            lock.unlock();
+        }
+    }
 
+    private Coin getTotalReceived(Transaction tx) {
         // Include outputs to us if they were not just change outputs, ie the inputs to us summed to less
         // than the outputs to us.
-        for (Transaction tx: transactions.values()) {
-            Coin txTotal = Coin.ZERO;
-            for (TransactionOutput output : tx.getOutputs()) {
-                if (output.isMine(this)) {
-                    txTotal = txTotal.add(output.getValue());
-                }
+        Coin txTotal = Coin.ZERO;
+        for (TransactionOutput output : tx.getOutputs()) {
+            if (output.isMine(this)) {
+                txTotal = txTotal.add(output.getValue());
             }
-            for (TransactionInput in : tx.getInputs()) {
-                TransactionOutput prevOut = in.getConnectedOutput();
-                if (prevOut != null && prevOut.isMine(this)) {
-                    txTotal = txTotal.subtract(prevOut.getValue());
-                }
-            }
-            if (txTotal.isPositive()) {
-                total = total.add(txTotal);
+        }
+        for (TransactionInput in : tx.getInputs()) {
+            TransactionOutput prevOut = in.getConnectedOutput();
+            if (prevOut != null && prevOut.isMine(this)) {
+                txTotal = txTotal.subtract(prevOut.getValue());
             }
         }
-        return total;
+        return txTotal.isPositive() ? txTotal : Coin.ZERO;
     }
 
     /**
@@ -3848,40 +4233,46 @@ public class Wallet extends BaseTaggableObject
      * @return the total amount of satoshis sent by us
      */
     public Coin getTotalSent() {
-        Coin total = Coin.ZERO;
+        lock.lock();
+        try {
+            Coin total = coldTotalSent;
+            for (Transaction tx: transactions.values())
+                total = total.add(getTotalSent(tx));
+            return total;
+        } finally {
+            lock.unlock();
+        }
+    }
 
-        for (Transaction tx: transactions.values()) {
-            // Count spent outputs to only if they were not to us. This means we don't count change outputs.
-            Coin txOutputTotal = Coin.ZERO;
-            for (TransactionOutput out : tx.getOutputs()) {
-                if (out.isMine(this) == false) {
-                    txOutputTotal = txOutputTotal.add(out.getValue());
-                }
+    private Coin getTotalSent(Transaction tx) {
+        // Count spent outputs to only if they were not to us. This means we don't count change outputs.
+        Coin txOutputTotal = Coin.ZERO;
+        for (TransactionOutput out : tx.getOutputs()) {
+            if (out.isMine(this) == false) {
+                txOutputTotal = txOutputTotal.add(out.getValue());
             }
+        }
 
-            // Count the input values to us
-            Coin txOwnedInputsTotal = Coin.ZERO;
-            for (TransactionInput in : tx.getInputs()) {
-                TransactionOutput prevOut = in.getConnectedOutput();
-                if (prevOut != null && prevOut.isMine(this)) {
-                    txOwnedInputsTotal = txOwnedInputsTotal.add(prevOut.getValue());
-                }
+        // Count the input values to us
+        Coin txOwnedInputsTotal = Coin.ZERO;
+        for (TransactionInput in : tx.getInputs()) {
+            TransactionOutput prevOut = in.getConnectedOutput();
+            if (prevOut != null && prevOut.isMine(this)) {
+                txOwnedInputsTotal = txOwnedInputsTotal.add(prevOut.getValue());
             }
+        }
 
-            // If there is an input that isn't from us, i.e. this is a shared transaction
-            Coin txInputsTotal = tx.getInputSum();
-            if (txOwnedInputsTotal != txInputsTotal) {
-
-                // multiply our output total by the appropriate proportion to account for the inputs that we don't own
-                BigInteger txOutputTotalNum = new BigInteger(txOutputTotal.toString());
-                txOutputTotalNum = txOutputTotalNum.multiply(new BigInteger(txOwnedInputsTotal.toString()));
-                txOutputTotalNum = txOutputTotalNum.divide(new BigInteger(txInputsTotal.toString()));
-                txOutputTotal = Coin.valueOf(txOutputTotalNum.longValue());
-            }
-            total = total.add(txOutputTotal);
+        // If there is an input that isn't from us, i.e. this is a shared transaction
+        Coin txInputsTotal = tx.getInputSum();
+        if (txOwnedInputsTotal != txInputsTotal) {
 
+            // multiply our output total by the appropriate proportion to account for the inputs that we don't own
+            BigInteger txOutputTotalNum = new BigInteger(txOutputTotal.toString());
+            txOutputTotalNum = txOutputTotalNum.multiply(new BigInteger(txOwnedInputsTotal.toString()));
+            txOutputTotalNum = txOutputTotalNum.divide(new BigInteger(txInputsTotal.toString()));
+            txOutputTotal = Coin.valueOf(txOutputTotalNum.longValue());
         }
-        return total;
+        return txOutputTotal;
     }
 
     //endregion
@@ -3986,6 +4377,93 @@ public class Wallet extends BaseTaggableObject
         }
     }
 
+    /**
+     * <p>Pays all recipients of the given batch, using as many transactions as {@link BatchSendRequest#maxOutputsPerTransaction}
+     * and the size of the inputs require. This is much faster than completing and committing a {@link SendRequest} per transaction: the spend
+     * candidates are calculated only once, each transaction takes its inputs from what the previous ones left over so
+     * they never conflict, the transactions are signed in parallel and the wallet is saved only once.</p>
+     *
+     * <p>The batch is atomic: if any transaction can't be completed or signed, none of them is committed. The change
+     * keys of transactions completed so far stay marked as used, so the next change address differs.</p>
+     *
+     * @return the committed transactions, in the order of the recipients they pay
+     * @throws InsufficientMoneyException if the wallet can't pay all of the recipients
+     * @throws BadWalletEncryptionKeyException if the supplied {@link BatchSendRequest#aesKey} is wrong
+     */
+    public List<Transaction> sendCoinsOffline(BatchSendRequest batch)
+            throws InsufficientMoneyException, BadWalletEncryptionKeyException {
+        lock.lock();
+        try {
+            checkArgument(!batch.completed, "Given BatchSendRequest has already been completed.");
+            checkArgument(batch.maxOutputsPerTransaction > 0, "maxOutputsPerTransaction must be positive");
+            log.info("Completing batch of {} payments", batch.getRecipientCount());
+            List<TransactionOutput> candidates = calculateAllSpendCandidates(true,
+                    batch.missingSigsMode == MissingSigsMode.THROW);
+            List<SendRequest> requests = new ArrayList<>();
+            for (int start = 0, end; start < batch.getRecipientCount(); start = end) {
+                end = Math.min(start + batch.maxOutputsPerTransaction, batch.getRecipientCount());
+                SendRequest req = batch.toSendRequest(start, end);
+                addInputsAndChange(req, candidates);
+                // Pay fewer recipients at once while the transaction would be too large with its inputs signed. Nothing
+                // was taken from the candidates or marked as used yet, so the request can just be dropped.
+                while (end - start > 1 && estimateSignedSize(req.tx) > Transaction.MAX_STANDARD_TX_SIZE) {
+                    end = start + (end - start) / 2;
+                    req = batch.toSendRequest(start, end);
+                    addInputsAndChange(req, candidates);
+                }
+                requests.add(req);
+                // Remove the outputs spent by this transaction, so that the next ones select disjoint inputs.
+                Set<TransactionOutput> spent = new HashSet<>();
+                for (TransactionInput input : req.tx.getInputs())
+                    spent.add(input.getConnectedOutput());
+                candidates.removeAll(spent);
+                // Advance the change key, so that every transaction of the batch gets its own change address.
+                markKeysAsUsed(req.tx);
+            }
+            log.info("Signing batch in {} transactions", requests.size());
+            signTransactions(requests, batch.signingThreads);
+            List<Transaction> txns = new ArrayList<>(requests.size());
+            for (SendRequest req : requests) {
+                finishCompletedTx(req);
+                req.tx.verify();
+                txns.add(req.tx);
+            }
+            for (Transaction tx : txns)
+                checkState(commitTxLocked(tx), "Transaction already committed: %s", tx.getTxId());
+            batch.completed = true;
+            isConsistentOrThrow();
+            informConfidenceListenersIfNotReorganizing();
+            saveNow();
+            return txns;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Signs the given requests in up to the given number of slices on Threading.THREAD_POOL. The caller holds the
+    // wallet lock, the workers only need the keyChainGroupLock, and get a copy of the signers taken under the wallet
+    // lock.
+    private void signTransactions(final List<SendRequest> requests, int threads) throws BadWalletEncryptionKeyException {
+        checkState(lock.isHeldByCurrentThread());
+        final List<TransactionSigner> signers = new ArrayList<>(this.signers);
+        threads = Math.min(threads, requests.size());
+        if (threads <= 1) {
+            for (SendRequest req : requests)
+                signTransactionUnlocked(req, signers);
+            return;
+        }
+        final Context context = Context.get();
+        // Slices that fail stop the others, the batch isn't committed then anyway.
+        Threading.runSlices(requests.size(), 1, Threading.THREAD_POOL, threads, new Threading.Slice() {
+            @Override
+            public void run(int start, int end) {
+                Context.propagate(context);
+                for (SendRequest req : requests.subList(start, end))
+                    signTransactionUnlocked(req, signers);
+            }
+        });
+    }
+
     /**
      * <p>Sends coins to the given address, via the given {@link PeerGroup}. Change is returned to
      * {@link Wallet#currentChangeAddress()}. Note that a fee may be automatically added if one may be required for the
@@ -4163,113 +4641,128 @@ public class Wallet extends BaseTaggableObject
         lock.lock();
         try {
             checkArgument(!req.completed, "Given SendRequest has already been completed.");
-            // Calculate the amount of value we need to import.
-            Coin value = Coin.ZERO;
-            for (TransactionOutput output : req.tx.getOutputs()) {
-                value = value.add(output.getValue());
-            }
+            addInputsAndChange(req, null);
+            // Now sign the inputs, thus proving that we are entitled to redeem the connected outputs.
+            if (req.signInputs)
+                signTransaction(req);
+            finishCompletedTx(req);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Selects inputs for the request, adjusts output values for fees and adds the change output. The transaction isn't
+     * signed yet.
+     * @param candidates outputs to select from, or null to use {@link #calculateAllSpendCandidates(boolean, boolean)}
+     */
+    private void addInputsAndChange(SendRequest req, @Nullable List<TransactionOutput> candidates)
+            throws InsufficientMoneyException {
+        checkState(lock.isHeldByCurrentThread());
+        // Calculate the amount of value we need to import.
+        Coin value = Coin.ZERO;
+        for (TransactionOutput output : req.tx.getOutputs()) {
+            value = value.add(output.getValue());
+        }
 
-            log.info("Completing send tx with {} outputs totalling {} and a fee of {}/vkB", req.tx.getOutputs().size(),
-                    value.toFriendlyString(), req.feePerKb.toFriendlyString());
+        log.info("Completing send tx with {} outputs totalling {} and a fee of {}/vkB", req.tx.getOutputs().size(),
+                value.toFriendlyString(), req.feePerKb.toFriendlyString());
 
-            // If any inputs have already been added, we don't need to get their value from wallet
-            Coin totalInput = Coin.ZERO;
-            for (TransactionInput input : req.tx.getInputs())
-                if (input.getConnectedOutput() != null)
-                    totalInput = totalInput.add(input.getConnectedOutput().getValue());
-                else
-                    log.warn("SendRequest transaction already has inputs but we don't know how much they are worth - they will be added to fee.");
-            value = value.subtract(totalInput);
-
-            List<TransactionInput> originalInputs = new ArrayList<>(req.tx.getInputs());
-
-            // Check for dusty sends and the OP_RETURN limit.
-            if (req.ensureMinRequiredFee && !req.emptyWallet) { // Min fee checking is handled later for emptyWallet.
-                int opReturnCount = 0;
-                for (TransactionOutput output : req.tx.getOutputs()) {
-                    if (output.isDust())
-                        throw new DustySendRequested();
-                    if (ScriptPattern.isOpReturn(output.getScriptPubKey()))
-                        ++opReturnCount;
-                }
-                if (opReturnCount > 1) // Only 1 OP_RETURN per transaction allowed.
-                    throw new MultipleOpReturnRequested();
-            }
+        // If any inputs have already been added, we don't need to get their value from wallet
+        Coin totalInput = Coin.ZERO;
+        for (TransactionInput input : req.tx.getInputs())
+            if (input.getConnectedOutput() != null)
+                totalInput = totalInput.add(input.getConnectedOutput().getValue());
+            else
+                log.warn("SendRequest transaction already has inputs but we don't know how much they are worth - they will be added to fee.");
+        value = value.subtract(totalInput);
 
-            // Calculate a list of ALL potential candidates for spending and then ask a coin selector to provide us
-            // with the actual outputs that'll be used to gather the required amount of value. In this way, users
-            // can customize coin selection policies. The call below will ignore immature coinbases and outputs
-            // we don't have the keys for.
-            List<TransactionOutput> candidates = calculateAllSpendCandidates(true, req.missingSigsMode == MissingSigsMode.THROW);
-
-            CoinSelection bestCoinSelection;
-            TransactionOutput bestChangeOutput = null;
-            List<Coin> updatedOutputValues = null;
-            if (!req.emptyWallet) {
-                // This can throw InsufficientMoneyException.
-                FeeCalculation feeCalculation = calculateFee(req, value, originalInputs, req.ensureMinRequiredFee, candidates);
-                bestCoinSelection = feeCalculation.bestCoinSelection;
-                bestChangeOutput = feeCalculation.bestChangeOutput;
-                updatedOutputValues = feeCalculation.updatedOutputValues;
-            } else {
-                // We're being asked to empty the wallet. What this means is ensuring "tx" has only a single output
-                // of the total value we can currently spend as determined by the selector, and then subtracting the fee.
-                checkState(req.tx.getOutputs().size() == 1, "Empty wallet TX must have a single output only.");
-                CoinSelector selector = req.coinSelector == null ? coinSelector : req.coinSelector;
-                bestCoinSelection = selector.select(params.getMaxMoney(), candidates);
-                candidates = null;  // Selector took ownership and might have changed candidates. Don't access again.
-                req.tx.getOutput(0).setValue(bestCoinSelection.valueGathered);
-                log.info("  emptying {}", bestCoinSelection.valueGathered.toFriendlyString());
+        List<TransactionInput> originalInputs = new ArrayList<>(req.tx.getInputs());
+
+        // Check for dusty sends and the OP_RETURN limit.
+        if (req.ensureMinRequiredFee && !req.emptyWallet) { // Min fee checking is handled later for emptyWallet.
+            int opReturnCount = 0;
+            for (TransactionOutput output : req.tx.getOutputs()) {
+                if (output.isDust())
+                    throw new DustySendRequested();
+                if (ScriptPattern.isOpReturn(output.getScriptPubKey()))
+                    ++opReturnCount;
             }
+            if (opReturnCount > 1) // Only 1 OP_RETURN per transaction allowed.
+                throw new MultipleOpReturnRequested();
+        }
+
+        // Calculate a list of ALL potential candidates for spending and then ask a coin selector to provide us
+        // with the actual outputs that'll be used to gather the required amount of value. In this way, users
+        // can customize coin selection policies. The call below will ignore immature coinbases and outputs
+        // we don't have the keys for.
+        if (candidates == null)
+            candidates = calculateAllSpendCandidates(true, req.missingSigsMode == MissingSigsMode.THROW);
+
+        CoinSelection bestCoinSelection;
+        TransactionOutput bestChangeOutput = null;
+        List<Coin> updatedOutputValues = null;
+        if (!req.emptyWallet) {
+            // This can throw InsufficientMoneyException.
+            FeeCalculation feeCalculation = calculateFee(req, value, originalInputs, req.ensureMinRequiredFee, candidates);
+            bestCoinSelection = feeCalculation.bestCoinSelection;
+            bestChangeOutput = feeCalculation.bestChangeOutput;
+            updatedOutputValues = feeCalculation.updatedOutputValues;
+        } else {
+            // We're being asked to empty the wallet. What this means is ensuring "tx" has only a single output
+            // of the total value we can currently spend as determined by the selector, and then subtracting the fee.
+            checkState(req.tx.getOutputs().size() == 1, "Empty wallet TX must have a single output only.");
+            CoinSelector selector = req.coinSelector == null ? coinSelector : req.coinSelector;
+            bestCoinSelection = selector.select(params.getMaxMoney(), candidates);
+            candidates = null;  // Selector took ownership and might have changed candidates. Don't access again.
+            req.tx.getOutput(0).setValue(bestCoinSelection.valueGathered);
+            log.info("  emptying {}", bestCoinSelection.valueGathered.toFriendlyString());
+        }
 
-            for (TransactionOutput output : bestCoinSelection.gathered)
-                req.tx.addInput(output);
+        for (TransactionOutput output : bestCoinSelection.gathered)
+            req.tx.addInput(output);
 
-            if (req.emptyWallet) {
-                if (!adjustOutputDownwardsForFee(req.tx, bestCoinSelection, req.feePerKb, req.ensureMinRequiredFee))
-                    throw new CouldNotAdjustDownwards();
-            }
+        if (req.emptyWallet) {
+            if (!adjustOutputDownwardsForFee(req.tx, bestCoinSelection, req.feePerKb, req.ensureMinRequiredFee))
+                throw new CouldNotAdjustDownwards();
+        }
 
-            if (updatedOutputValues != null) {
-                for (int i = 0; i < updatedOutputValues.size(); i++) {
-                    req.tx.getOutput(i).setValue(updatedOutputValues.get(i));
-                }
+        if (updatedOutputValues != null) {
+            for (int i = 0; i < updatedOutputValues.size(); i++) {
+                req.tx.getOutput(i).setValue(updatedOutputValues.get(i));
             }
+        }
 
-            if (bestChangeOutput != null) {
-                req.tx.addOutput(bestChangeOutput);
-                log.info("  with {} change", bestChangeOutput.getValue().toFriendlyString());
-            }
+        if (bestChangeOutput != null) {
+            req.tx.addOutput(bestChangeOutput);
+            log.info("  with {} change", bestChangeOutput.getValue().toFriendlyString());
+        }
 
-            // Now shuffle the outputs to obfuscate which is the change.
-            if (req.shuffleOutputs)
-                req.tx.shuffleOutputs();
+        // Now shuffle the outputs to obfuscate which is the change.
+        if (req.shuffleOutputs)
+            req.tx.shuffleOutputs();
+    }
 
-            // Now sign the inputs, thus proving that we are entitled to redeem the connected outputs.
-            if (req.signInputs)
-                signTransaction(req);
+    // Checks the size of the signed transaction and labels it as a completed user payment.
+    private void finishCompletedTx(SendRequest req) {
+        // Check size.
+        final int size = req.tx.unsafeTdcoinSerialize().length;
+        if (size > Transaction.MAX_STANDARD_TX_SIZE)
+            throw new ExceededMaxTransactionSize();
 
-            // Check size.
-            final int size = req.tx.unsafeTdcoinSerialize().length;
-            if (size > Transaction.MAX_STANDARD_TX_SIZE)
-                throw new ExceededMaxTransactionSize();
-
-            // Label the transaction as being self created. We can use this later to spend its change output even before
-            // the transaction is confirmed. We deliberately won't bother notifying listeners here as there's not much
-            // point - the user isn't interested in a confidence transition they made themselves.
-            req.tx.getConfidence().setSource(TransactionConfidence.Source.SELF);
-            // Label the transaction as being a user requested payment. This can be used to render GUI wallet
-            // transaction lists more appropriately, especially when the wallet starts to generate transactions itself
-            // for internal purposes.
-            req.tx.setPurpose(Transaction.Purpose.USER_PAYMENT);
-            // Record the exchange rate that was valid when the transaction was completed.
-            req.tx.setExchangeRate(req.exchangeRate);
-            req.tx.setMemo(req.memo);
-            req.completed = true;
-            log.info("  completed: {}", req.tx);
-        } finally {
-            lock.unlock();
-        }
+        // Label the transaction as being self created. We can use this later to spend its change output even before
+        // the transaction is confirmed. We deliberately won't bother notifying listeners here as there's not much
+        // point - the user isn't interested in a confidence transition they made themselves.
+        req.tx.getConfidence().setSource(TransactionConfidence.Source.SELF);
+        // Label the transaction as being a user requested payment. This can be used to render GUI wallet
+        // transaction lists more appropriately, especially when the wallet starts to generate transactions itself
+        // for internal purposes.
+        req.tx.setPurpose(Transaction.Purpose.USER_PAYMENT);
+        // Record the exchange rate that was valid when the transaction was completed.
+        req.tx.setExchangeRate(req.exchangeRate);
+        req.tx.setMemo(req.memo);
+        req.completed = true;
+        log.info("  completed: {}", req.tx);
     }
 
     /**
@@ -4281,6 +4774,18 @@ public class Wallet extends BaseTaggableObject
      */
     public void signTransaction(SendRequest req) throws BadWalletEncryptionKeyException {
         lock.lock();
+        try {
+            signTransactionUnlocked(req, signers);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Signs without taking the wallet lock, so that the transactions of a batch can be signed in parallel while the
+    // calling thread holds it. Key lookups only take the keyChainGroupLock, and the signers are passed in, as reading
+    // them needs the wallet lock.
+    private void signTransactionUnlocked(SendRequest req, List<TransactionSigner> signers)
+            throws BadWalletEncryptionKeyException {
         try {
             Transaction tx = req.tx;
             List<TransactionInput> inputs = tx.getInputs();
@@ -4331,8 +4836,6 @@ public class Wallet extends BaseTaggableObject
             throw new BadWalletEncryptionKeyException(e);
         } catch (KeyCrypterException.PublicPrivateMismatch e) {
             throw new BadWalletEncryptionKeyException(e);
-        } finally {
-            lock.unlock();
         }
     }
 
@@ -5183,8 +5686,22 @@ public class Wallet extends BaseTaggableObject
     }
 
     private int estimateVirtualBytesForSigning(CoinSelection selection) {
+        return estimateBytesForSigning(selection.gathered, true);
+    }
+
+    // The size of the given transaction once its inputs, which have empty scripts yet, are signed. Unlike for the fee,
+    // witnesses count in full.
+    private int estimateSignedSize(Transaction tx) {
+        List<TransactionOutput> spent = new ArrayList<>(tx.getInputs().size());
+        for (TransactionInput input : tx.getInputs())
+            spent.add(checkNotNull(input.getConnectedOutput()));
+        return tx.getMessageSize() + estimateBytesForSigning(spent, false);
+    }
+
+    // With virtual set, witness bytes count a quarter like they do for the fee.
+    private int estimateBytesForSigning(Collection<TransactionOutput> spent, boolean virtual) {
         int vsize = 0;
-        for (TransactionOutput output : selection.gathered) {
+        for (TransactionOutput output : spent) {
             try {
                 Script script = output.getScriptPubKey();
                 ECKey key = null;
@@ -5196,7 +5713,8 @@ public class Wallet extends BaseTaggableObject
                 } else if (ScriptPattern.isP2WPKH(script)) {
                     key = findKeyFromPubKeyHash(ScriptPattern.extractHashFromP2WH(script), Script.ScriptType.P2WPKH);
                     checkNotNull(key, "Coin selection includes unspendable outputs");
-                    vsize += (script.getNumberOfBytesRequiredToSpend(key, redeemScript) + 3) / 4; // round up
+                    int bytes = script.getNumberOfBytesRequiredToSpend(key, redeemScript);
+                    vsize += virtual ? (bytes + 3) / 4 : bytes; // round up
                 } else if (ScriptPattern.isP2SH(script)) {
                     redeemScript = findRedeemDataFromScriptHash(ScriptPattern.extractHashFromP2SH(script)).redeemScript;
                     checkNotNull(redeemScript, "Coin selection includes unspendable outputs");
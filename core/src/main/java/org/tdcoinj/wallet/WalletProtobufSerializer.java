@@ -178,7 +178,7 @@ public class WalletProtobufSerializer {
             walletBuilder.setDescription(wallet.getDescription());
         }
 
-        for (WalletTransaction wtx : wallet.getWalletTransactions()) {
+        for (WalletTransaction wtx : wallet.getResidentWalletTransactions()) {
             Protos.Transaction txProto = makeTxProto(wtx);
             walletBuilder.addTransaction(txProto);
         }
@@ -228,6 +228,14 @@ public class WalletProtobufSerializer {
 
         populateExtensions(wallet, walletBuilder);
 
+        // Transactions evicted to a cold store are left out, and a reference to the store written instead. It's
+        // mandatory, as the wallet would be missing them without it.
+        byte[] coldState = wallet.serializeColdState();
+        if (coldState != null) {
+            walletBuilder.addExtension(Protos.Extension.newBuilder().setId(ColdTransactionStore.WALLET_EXTENSION_ID)
+                    .setMandatory(true).setData(ByteString.copyFrom(coldState)));
+        }
+
         for (Map.Entry<String, ByteString> entry : wallet.getTags().entrySet()) {
             Protos.Tag.Builder tag = Protos.Tag.newBuilder().setTag(entry.getKey()).setData(entry.getValue());
             walletBuilder.addTags(tag);
@@ -249,7 +257,7 @@ public class WalletProtobufSerializer {
         }
     }
 
-    private static Protos.Transaction makeTxProto(WalletTransaction wtx) {
+    static Protos.Transaction makeTxProto(WalletTransaction wtx) {
         Transaction tx = wtx.getTransaction();
         Protos.Transaction.Builder txBuilder = Protos.Transaction.newBuilder();
 
@@ -536,6 +544,10 @@ public class WalletProtobufSerializer {
                 WalletTransaction wtx = connectTransactionOutputs(params, txProto);
                 wallet.addWalletTransaction(wtx);
             }
+            for (Protos.Extension extProto : walletProto.getExtensionList()) {
+                if (extProto.getId().equals(ColdTransactionStore.WALLET_EXTENSION_ID))
+                    wallet.deserializeColdState(extProto.getData().toByteArray());
+            }
 
             // Update the lastBlockSeenHash.
             if (!walletProto.hasLastSeenBlockHash()) {
@@ -581,6 +593,9 @@ public class WalletProtobufSerializer {
         extensions.putAll(wallet.getExtensions());
         for (Protos.Extension extProto : walletProto.getExtensionList()) {
             String id = extProto.getId();
+            // Read along with the transactions.
+            if (id.equals(ColdTransactionStore.WALLET_EXTENSION_ID))
+                continue;
             WalletExtension extension = extensions.get(id);
             if (extension == null) {
                 if (extProto.getMandatory()) {
@@ -705,6 +720,23 @@ public class WalletProtobufSerializer {
         txMap.put(txProto.getHash(), tx);
     }
 
+    /**
+     * Reads a single transaction that was written by {@link #makeTxProto(WalletTransaction)}, including its
+     * confidence. Outputs are not connected to the inputs that spend them, as those are not part of the given proto.
+     */
+    Transaction readDetachedTransaction(NetworkParameters params, Protos.Transaction txProto)
+            throws UnreadableWalletException {
+        try {
+            readTransaction(txProto, params);
+            Transaction tx = txMap.get(txProto.getHash());
+            if (txProto.hasConfidence())
+                readConfidence(params, tx, txProto.getConfidence(), tx.getConfidence());
+            return tx;
+        } finally {
+            txMap.clear();
+        }
+    }
+
     private WalletTransaction connectTransactionOutputs(final NetworkParameters params,
                                                         final org.tdcoinj.wallet.Protos.Transaction txProto) throws UnreadableWalletException {
         Transaction tx = txMap.get(txProto.getHash());
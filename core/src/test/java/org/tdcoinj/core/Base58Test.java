@@ -0,0 +1,82 @@
+/*
+ * Copyright by the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.tdcoinj.core;
+
+import org.junit.Test;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class Base58Test {
+    @Test
+    public void matchesBigIntegerConversion() {
+        Random random = new Random(1);
+        for (int i = 0; i < 2000; i++) {
+            byte[] input = new byte[random.nextInt(70)];
+            random.nextBytes(input);
+            // Leading zeros are encoded separately, so include some.
+            for (int j = 0, zeros = random.nextInt(4); j < zeros && j < input.length; j++)
+                input[j] = 0;
+            String encoded = Base58.encode(input);
+            assertEquals(referenceEncode(input), encoded);
+            assertArrayEquals(input, Base58.decode(encoded));
+        }
+    }
+
+    @Test
+    public void encodeIntoBuffer() {
+        byte[] input = { 0, 0, 1, 2, 3, (byte) 0xff };
+        char[] output = new char[3 + Base58.maxEncodedLength(4)];
+        Arrays.fill(output, '-');
+        int length = Base58.encode(input, 1, 4, output, 3);
+        assertEquals(Base58.encode(Arrays.copyOfRange(input, 1, 5)), new String(output, 3, length));
+        assertEquals("---", new String(output, 0, 3));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void encodeIntoTooSmallBuffer() {
+        Base58.encode(new byte[20], 0, 20, new char[20], 0);
+    }
+
+    @Test
+    public void bulkEncodeChecked() {
+        byte[] payloads = new byte[3 * 20];
+        new Random(2).nextBytes(payloads);
+        payloads[20] = 0;
+        String[] encoded = Base58.encodeChecked(111, payloads, 20);
+        assertEquals(3, encoded.length);
+        for (int i = 0; i < 3; i++)
+            assertEquals(Base58.encodeChecked(111, Arrays.copyOfRange(payloads, i * 20, i * 20 + 20)), encoded[i]);
+    }
+
+    private static String referenceEncode(byte[] input) {
+        StringBuilder sb = new StringBuilder();
+        BigInteger value = new BigInteger(1, input);
+        BigInteger base = BigInteger.valueOf(58);
+        while (value.signum() > 0) {
+            BigInteger[] divmod = value.divideAndRemainder(base);
+            sb.append(Base58.ALPHABET[divmod[1].intValue()]);
+            value = divmod[0];
+        }
+        for (int i = 0; i < input.length && input[i] == 0; i++)
+            sb.append(Base58.ALPHABET[0]);
+        return sb.reverse().toString();
+    }
+}
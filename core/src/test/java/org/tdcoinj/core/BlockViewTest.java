@@ -0,0 +1,160 @@
+/*
+ * Copyright by the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.tdcoinj.core;
+
+import com.google.common.io.ByteStreams;
+import org.tdcoinj.params.MainNetParams;
+import org.tdcoinj.params.UnitTestParams;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class BlockViewTest {
+    private static final NetworkParameters MAINNET = MainNetParams.get();
+    private static final NetworkParameters UNITTEST = UnitTestParams.get();
+
+    @Before
+    public void setUp() throws Exception {
+        new Context(MAINNET);
+    }
+
+    @Test
+    public void largeBlock() throws Exception {
+        checkBlock(MAINNET, ByteStreams.toByteArray(getClass().getResourceAsStream("block481815.dat")));
+    }
+
+    @Test
+    public void smallBlock() throws Exception {
+        checkBlock(MAINNET, ByteStreams.toByteArray(getClass().getResourceAsStream("block169482.dat")));
+    }
+
+    @Test
+    public void witnessTransactions() throws Exception {
+        // A block on the unit test network, where solving it is quick.
+        new Context(UNITTEST);
+        Block block = UNITTEST.getGenesisBlock().createNextBlock(LegacyAddress.fromKey(UNITTEST, new ECKey()));
+        for (int i = 0; i < 3; i++) {
+            Transaction tx = new Transaction(UNITTEST);
+            for (int j = 0; j < 2; j++) {
+                TransactionInput input = new TransactionInput(UNITTEST, tx, new byte[j],
+                        new TransactionOutPoint(UNITTEST, j, Sha256Hash.of(new byte[] { (byte) i })));
+                tx.addInput(input);
+                if (i != 1) {
+                    TransactionWitness witness = new TransactionWitness(2);
+                    witness.setPush(0, new byte[72]);
+                    witness.setPush(1, new byte[33 + j]);
+                    input.setWitness(witness);
+                }
+            }
+            tx.addOutput(Coin.COIN, new ECKey());
+            block.addTransaction(tx);
+        }
+        block.solve();
+        checkBlock(UNITTEST, block.tdcoinSerialize());
+    }
+
+    private void checkBlock(NetworkParameters params, byte[] bytes) throws Exception {
+        Block block = params.getDefaultSerializer().makeBlock(bytes);
+        BlockView view = BlockView.wrap(params, bytes);
+        assertEquals(block.getHash(), view.getHash());
+        assertEquals(block.getVersion(), view.getVersion());
+        assertEquals(block.getPrevBlockHash(), view.getPrevBlockHash());
+        assertEquals(block.getMerkleRoot(), view.getMerkleRoot());
+        assertEquals(block.getTimeSeconds(), view.getTimeSeconds());
+        assertEquals(block.getDifficultyTarget(), view.getDifficultyTarget());
+        assertEquals(block.getNonce(), view.getNonce());
+        assertEquals(bytes.length, view.getMessageSize());
+        assertTrue(view.checkProofOfWork());
+        assertFalse(view.isHeaderOnly());
+        assertEquals(block.getTransactions().size(), view.getTransactionCount());
+        Sha256Hash[] ids = view.getTransactionIds();
+        for (int i = 0; i < ids.length; i++) {
+            Transaction tx = block.getTransactions().get(i);
+            TransactionView txView = view.getTransaction(i);
+            assertEquals(tx.getTxId(), ids[i]);
+            assertEquals(tx.getWTxId(), txView.getWTxId());
+            assertEquals(tx.getMessageSize(), view.getTransactionSize(i));
+            assertEquals(tx.getVersion(), txView.getVersion());
+            assertEquals(tx.getLockTime(), txView.getLockTime());
+            assertEquals(tx.getInputs().size(), txView.getInputCount());
+            assertEquals(tx.getOutputs().size(), txView.getOutputCount());
+            for (int j = 0; j < txView.getInputCount(); j++) {
+                TransactionInput input = tx.getInput(j);
+                assertEquals(input.getOutpoint().getHash(), txView.getOutpointHash(j));
+                assertEquals(input.getOutpoint().getIndex(), txView.getOutpointIndex(j));
+                assertTrue(txView.spends(j, input.getOutpoint().getHash(), input.getOutpoint().getIndex()));
+                assertArrayEquals(input.getScriptBytes(), txView.getScriptSigBytes(j));
+                assertEquals(input.getSequenceNumber(), txView.getSequenceNumber(j));
+                TransactionWitness witness = input.getWitness();
+                assertEquals(witness.getPushCount(), txView.getWitnessPushCount(j));
+                for (int k = 0; k < witness.getPushCount(); k++)
+                    assertArrayEquals(witness.getPush(k), txView.getWitnessPush(j, k));
+            }
+            for (int j = 0; j < txView.getOutputCount(); j++) {
+                TransactionOutput output = tx.getOutput(j);
+                assertEquals(output.getValue(), txView.getOutputValue(j));
+                assertArrayEquals(output.getScriptBytes(), txView.getScriptPubKeyBytes(j));
+                assertEquals(output.getScriptBytes().length, txView.getScriptPubKeyLength(j));
+            }
+        }
+        Transaction materialized = view.getTransaction(ids.length - 1).materialize();
+        assertEquals(ids[ids.length - 1], materialized.getTxId());
+        assertArrayEquals(block.getTransactions().get(ids.length - 1).tdcoinSerialize(),
+                materialized.tdcoinSerialize());
+        assertArrayEquals(block.tdcoinSerialize(), view.materialize().tdcoinSerialize());
+        assertEquals(block.cloneAsHeader(), view.materializeHeader());
+    }
+
+    @Test
+    public void embeddedInLargerBuffer() throws Exception {
+        byte[] block = ByteStreams.toByteArray(getClass().getResourceAsStream("block169482.dat"));
+        byte[] buffer = new byte[block.length + 100];
+        System.arraycopy(block, 0, buffer, 50, block.length);
+        BlockView view = BlockView.wrap(MAINNET, buffer, 50, block.length);
+        assertEquals(MAINNET.getDefaultSerializer().makeBlock(block).getHash(), view.getHash());
+        assertEquals(50 + Block.HEADER_SIZE + 1, view.getTransactionOffset(0));
+        assertArrayEquals(block, view.materialize().tdcoinSerialize());
+    }
+
+    @Test
+    public void headerOnly() throws Exception {
+        Block genesis = MAINNET.getGenesisBlock();
+        byte[] header = genesis.cloneAsHeader().tdcoinSerialize();
+        BlockView view = BlockView.wrap(MAINNET, header);
+        assertTrue(view.isHeaderOnly());
+        assertEquals(0, view.getTransactionCount());
+        assertEquals(genesis.getHash(), view.getHash());
+        assertEquals(genesis.cloneAsHeader(), view.materialize());
+    }
+
+    @Test(expected = ProtocolException.class)
+    public void truncated() throws Exception {
+        byte[] block = ByteStreams.toByteArray(getClass().getResourceAsStream("block169482.dat"));
+        BlockView.wrap(MAINNET, Arrays.copyOf(block, block.length - 1));
+    }
+
+    @Test(expected = ProtocolException.class)
+    public void hugeCount() throws Exception {
+        byte[] block = new byte[Block.HEADER_SIZE + 5];
+        block[Block.HEADER_SIZE] = (byte) 0xfe;
+        Utils.uint32ToByteArrayLE(0x7fffffff, block, Block.HEADER_SIZE + 1);
+        BlockView.wrap(MAINNET, block);
+    }
+}
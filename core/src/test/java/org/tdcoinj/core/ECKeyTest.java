@@ -113,6 +113,16 @@ public class ECKeyTest {
         assertTrue(key.verify(Sha256Hash.ZERO_HASH.getBytes(), sig));
     }
 
+    @Test
+    public void testSignaturesWithKeyAboveOrder() throws Exception {
+        // Private keys of 32 bytes are accepted even if they are not below the curve order, and work modulo the order.
+        BigInteger n = ECKey.CURVE.getN();
+        ECKey key = ECKey.fromPrivate(n.add(BigInteger.valueOf(5)));
+        assertArrayEquals(ECKey.fromPrivate(BigInteger.valueOf(5)).getPubKey(), key.getPubKey());
+        byte[] output = key.sign(Sha256Hash.ZERO_HASH).encodeToDER();
+        assertTrue(key.verify(Sha256Hash.ZERO_HASH.getBytes(), output));
+    }
+
     @Test
     public void testASN1Roundtrip() throws Exception {
         byte[] privkeyASN1 = HEX.decode(
@@ -260,4 +260,24 @@ public class LegacyAddressTest {
             assertTrue(first.toString().compareTo(second.toString()) < 0);
         }
     }
+
+    @Test
+    public void bulkToBase58() {
+        byte[] hashes = new byte[3 * LegacyAddress.LENGTH];
+        for (int i = 0; i < hashes.length; i++)
+            hashes[i] = (byte) (i * 7);
+        String[] encoded = LegacyAddress.toBase58(MAINNET, false, hashes);
+        String[] encodedP2SH = LegacyAddress.toBase58(MAINNET, true, hashes);
+        for (int i = 0; i < 3; i++) {
+            byte[] hash = Arrays.copyOfRange(hashes, i * LegacyAddress.LENGTH, (i + 1) * LegacyAddress.LENGTH);
+            assertEquals(LegacyAddress.fromPubKeyHash(MAINNET, hash).toBase58(), encoded[i]);
+            assertEquals(LegacyAddress.fromScriptHash(MAINNET, hash).toBase58(), encodedP2SH[i]);
+        }
+    }
+
+    @Test
+    public void toBase58IsCached() {
+        LegacyAddress address = LegacyAddress.fromKey(MAINNET, new ECKey());
+        assertSame(address.toBase58(), address.toString());
+    }
 }
@@ -0,0 +1,148 @@
+/*
+ * Copyright by the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.tdcoinj.core;
+
+import org.tdcoinj.core.Transaction.SigHash;
+import org.tdcoinj.params.UnitTestParams;
+import org.tdcoinj.script.Script;
+import org.tdcoinj.script.ScriptOpCodes;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class LegacySigHashWriterTest {
+    private static final NetworkParameters UNITTEST = UnitTestParams.get();
+
+    @Test
+    public void allHashTypes() {
+        Random random = new Random(1);
+        for (int round = 0; round < 20; round++) {
+            Transaction tx = randomTransaction(random, 1 + random.nextInt(6), 1 + random.nextInt(6));
+            byte[] script = randomBytes(random, random.nextInt(40));
+            for (int type = 0; type < 256; type++)
+                for (int i = 0; i < tx.getInputs().size(); i++)
+                    assertEquals(referenceHash(tx, i, script, (byte) type),
+                            tx.hashForSignature(i, script, (byte) type));
+        }
+    }
+
+    @Test
+    public void longScriptsAndManyInputs() {
+        Random random = new Random(2);
+        Transaction tx = randomTransaction(random, 300, 40);
+        // Longer than the buffer of the writer, with an OP_CODESEPARATOR that is removed.
+        byte[] script = new byte[2000];
+        script[0] = (byte) ScriptOpCodes.OP_CODESEPARATOR;
+        script[1] = (byte) ScriptOpCodes.OP_PUSHDATA2;
+        Utils.uint16ToByteArrayLE(1500, script, 2);
+        for (int i = 0; i < tx.getInputs().size(); i += 37)
+            for (byte type : new byte[] { 1, 2, 3, (byte) 0x81, (byte) 0x82, (byte) 0x83 })
+                assertEquals(referenceHash(tx, i, script, type), tx.hashForSignature(i, script, type));
+    }
+
+    @Test
+    public void sigHashSingleBug() {
+        Transaction tx = randomTransaction(new Random(3), 3, 1);
+        assertEquals(LegacySigHashWriter.SIGHASH_SINGLE_BUG, tx.hashForSignature(2, new byte[0],
+                (byte) SigHash.SINGLE.value));
+        assertEquals(Sha256Hash.wrap("0100000000000000000000000000000000000000000000000000000000000000"),
+                tx.hashForSignature(1, new byte[0], SigHash.SINGLE, true));
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void inputIndexOutOfRange() {
+        randomTransaction(new Random(4), 2, 2).hashForSignature(2, new byte[0], (byte) SigHash.ALL.value);
+    }
+
+    @Test
+    public void witnessesAreIgnored() {
+        Random random = new Random(5);
+        Transaction tx = randomTransaction(random, 2, 2);
+        Sha256Hash expected = tx.hashForSignature(0, new byte[] { 0x51 }, (byte) SigHash.ALL.value);
+        TransactionWitness witness = new TransactionWitness(1);
+        witness.setPush(0, randomBytes(random, 72));
+        tx.getInput(1).setWitness(witness);
+        assertEquals(expected, tx.hashForSignature(0, new byte[] { 0x51 }, (byte) SigHash.ALL.value));
+    }
+
+    private static Transaction randomTransaction(Random random, int inputs, int outputs) {
+        Transaction tx = new Transaction(UNITTEST);
+        tx.setVersion(1 + random.nextInt(2));
+        for (int i = 0; i < inputs; i++) {
+            TransactionInput input = new TransactionInput(UNITTEST, tx, randomBytes(random, random.nextInt(120)),
+                    new TransactionOutPoint(UNITTEST, random.nextInt(10), Sha256Hash.wrap(randomBytes(random, 32))));
+            input.setSequenceNumber(random.nextInt() & 0xffffffffL);
+            tx.addInput(input);
+        }
+        for (int i = 0; i < outputs; i++)
+            tx.addOutput(new TransactionOutput(UNITTEST, tx, Coin.valueOf(random.nextInt(100000000)),
+                    randomBytes(random, random.nextInt(60))));
+        tx.setLockTime(random.nextInt(1000000));
+        return tx;
+    }
+
+    private static byte[] randomBytes(Random random, int length) {
+        byte[] bytes = new byte[length];
+        random.nextBytes(bytes);
+        return bytes;
+    }
+
+    // How signature hashes used to be calculated: by changing a copy of the transaction and serializing it.
+    private static Sha256Hash referenceHash(Transaction original, int inputIndex, byte[] connectedScript,
+                                            byte sigHashType) {
+        Transaction tx = UNITTEST.getDefaultSerializer().makeTransaction(original.tdcoinSerialize());
+        for (TransactionInput input : tx.getInputs()) {
+            input.clearScriptBytes();
+            input.setWitness(null);
+        }
+        connectedScript = Script.removeAllInstancesOfOp(connectedScript, ScriptOpCodes.OP_CODESEPARATOR);
+        TransactionInput signed = tx.getInput(inputIndex);
+        signed.setScriptBytes(connectedScript);
+        List<TransactionOutput> outputs = new ArrayList<>(tx.getOutputs());
+        if ((sigHashType & 0x1f) == SigHash.NONE.value) {
+            outputs.clear();
+            for (int i = 0; i < tx.getInputs().size(); i++)
+                if (i != inputIndex)
+                    tx.getInput(i).setSequenceNumber(0);
+        } else if ((sigHashType & 0x1f) == SigHash.SINGLE.value) {
+            if (inputIndex >= outputs.size())
+                return Sha256Hash.wrap("0100000000000000000000000000000000000000000000000000000000000000");
+            outputs = new ArrayList<>(outputs.subList(0, inputIndex + 1));
+            for (int i = 0; i < inputIndex; i++)
+                outputs.set(i, new TransactionOutput(UNITTEST, tx, Coin.NEGATIVE_SATOSHI, new byte[] {}));
+            for (int i = 0; i < tx.getInputs().size(); i++)
+                if (i != inputIndex)
+                    tx.getInput(i).setSequenceNumber(0);
+        }
+        tx.clearOutputs();
+        for (TransactionOutput output : outputs)
+            tx.addOutput(output);
+        if ((sigHashType & SigHash.ANYONECANPAY.value) == SigHash.ANYONECANPAY.value) {
+            tx.clearInputs();
+            tx.addInput(signed);
+        }
+        byte[] serialized = tx.tdcoinSerialize();
+        byte[] withType = new byte[serialized.length + 4];
+        System.arraycopy(serialized, 0, withType, 0, serialized.length);
+        Utils.uint32ToByteArrayLE(0x000000ff & sigHashType, withType, serialized.length);
+        return Sha256Hash.twiceOf(withType);
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright by the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.tdcoinj.core;
+
+import org.tdcoinj.params.UnitTestParams;
+import org.tdcoinj.utils.Threading;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class MerkleRootsTest {
+    private static final NetworkParameters UNITTEST = UnitTestParams.get();
+
+    @Test
+    public void matchesNaiveTree() {
+        Random random = new Random(1);
+        for (int count : new int[] { 1, 2, 3, 4, 5, 7, 8, 33, 1025, 2049, 3000 }) {
+            byte[] leaves = new byte[(count + 1) * 32];
+            random.nextBytes(leaves);
+            Sha256Hash expected = naiveRoot(Arrays.copyOf(leaves, count * 32), count);
+            assertEquals(expected, MerkleRoots.calculateRoot(leaves.clone(), count, Threading.THREAD_POOL, 1));
+            assertEquals(expected, MerkleRoots.calculateRoot(leaves.clone(), count, Threading.THREAD_POOL, 4));
+        }
+    }
+
+    @Test
+    public void transactionAndWitnessRoots() {
+        List<Transaction> transactions = new ArrayList<>();
+        Transaction coinbase = new Transaction(UNITTEST);
+        coinbase.addInput(new TransactionInput(UNITTEST, coinbase, new byte[] { 1, 2 }));
+        coinbase.addOutput(Coin.COIN, new ECKey());
+        transactions.add(coinbase);
+        for (int i = 0; i < 1500; i++) {
+            Transaction tx = new Transaction(UNITTEST);
+            TransactionInput input = new TransactionInput(UNITTEST, tx, new byte[0],
+                    new TransactionOutPoint(UNITTEST, i, Sha256Hash.ZERO_HASH));
+            if (i % 2 == 0)
+                input.setWitness(TransactionWitness.redeemP2WPKH(null, new ECKey()));
+            tx.addInput(input);
+            tx.addOutput(Coin.CENT, new ECKey());
+            transactions.add(tx);
+        }
+        byte[] txIds = new byte[transactions.size() * 32];
+        byte[] wtxIds = new byte[transactions.size() * 32];
+        for (int i = 0; i < transactions.size(); i++) {
+            System.arraycopy(transactions.get(i).getTxId().getReversedBytes(), 0, txIds, i * 32, 32);
+            if (i > 0)
+                System.arraycopy(transactions.get(i).getWTxId().getReversedBytes(), 0, wtxIds, i * 32, 32);
+        }
+
+        MerkleRoots roots = MerkleRoots.calculate(transactions, true, Threading.THREAD_POOL, 4);
+        assertEquals(naiveRoot(txIds, transactions.size()), roots.getMerkleRoot());
+        assertEquals(naiveRoot(wtxIds, transactions.size()), roots.getWitnessRoot());
+        assertNotEquals(roots.getMerkleRoot(), roots.getWitnessRoot());
+        MerkleRoots txIdRoot = MerkleRoots.calculate(transactions, false);
+        assertEquals(roots.getMerkleRoot(), txIdRoot.getMerkleRoot());
+        assertNull(txIdRoot.getWitnessRoot());
+    }
+
+    // Builds the tree one node at a time, like Block used to.
+    private static Sha256Hash naiveRoot(byte[] leaves, int count) {
+        List<byte[]> level = new ArrayList<>();
+        for (int i = 0; i < count; i++)
+            level.add(Arrays.copyOfRange(leaves, i * 32, i * 32 + 32));
+        while (level.size() > 1) {
+            List<byte[]> next = new ArrayList<>();
+            for (int left = 0; left < level.size(); left += 2) {
+                int right = Math.min(left + 1, level.size() - 1);
+                next.add(Sha256Hash.hashTwice(level.get(left), level.get(right)));
+            }
+            level = next;
+        }
+        return Sha256Hash.wrapReversed(level.get(0));
+    }
+}
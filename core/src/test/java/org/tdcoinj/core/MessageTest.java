@@ -17,11 +17,22 @@
 
 package org.tdcoinj.core;
 
+import com.google.common.io.ByteStreams;
+import org.tdcoinj.params.MainNetParams;
 import org.tdcoinj.params.UnitTestParams;
 import org.junit.Test;
 
+import java.io.ByteArrayOutputStream;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
 public class MessageTest {
     private static final NetworkParameters UNITTEST = UnitTestParams.get();
+    private static final NetworkParameters MAINNET = MainNetParams.get();
 
     // If readStr() is vulnerable this causes OutOfMemory
     @Test(expected = ProtocolException.class)
@@ -60,4 +71,76 @@ public class MessageTest {
             readByteArray();
         }
     }
+
+    @Test
+    public void serializeIntoBuffers() throws Exception {
+        new Context(MAINNET);
+        byte[] blockBytes = ByteStreams.toByteArray(getClass().getResourceAsStream("block481815.dat"));
+        // Not retaining the payload, so that everything is written from the fields.
+        Block block = MAINNET.getSerializer(false).makeBlock(blockBytes);
+        assertArrayEquals(blockBytes, serializeIntoBuffers(block));
+        for (Transaction tx : block.getTransactions().subList(0, 20))
+            serializeIntoBuffers(tx);
+        Transaction tx = new Transaction(UNITTEST);
+        for (int i = 0; i < 2; i++)
+            tx.addInput(new TransactionInput(UNITTEST, tx, new byte[300 * i], new TransactionOutPoint(UNITTEST, i,
+                    Sha256Hash.of(new byte[1]))));
+        tx.addOutput(Coin.COIN, new ECKey());
+        serializeIntoBuffers(tx);
+        TransactionWitness witness = new TransactionWitness(2);
+        witness.setPush(0, new byte[72]);
+        witness.setPush(1, new byte[33]);
+        tx.getInput(0).setWitness(witness);
+        assertTrue(tx.hasWitnesses());
+        serializeIntoBuffers(tx);
+        assertEquals(Block.HEADER_SIZE, serializeIntoBuffers(block.cloneAsHeader()).length);
+        serializeIntoBuffers(new HeadersMessage(MAINNET, block.cloneAsHeader(), MAINNET.getGenesisBlock()));
+        InventoryMessage inv = new InventoryMessage(MAINNET);
+        for (Transaction t : block.getTransactions().subList(0, 300))
+            inv.addTransaction(t);
+        inv.addBlock(block);
+        serializeIntoBuffers(inv);
+
+        // Blocks that were changed are written from the fields.
+        Block changed = MAINNET.getSerializer(true).makeBlock(blockBytes);
+        changed.setNonce(changed.getNonce() + 1);
+        serializeIntoBuffers(changed);
+        assertEquals(changed.getHash(), MAINNET.getDefaultSerializer().makeBlock(changed.tdcoinSerialize()).getHash());
+    }
+
+    // Checks the sizes and the different ways of serializing agree, and returns the serialization.
+    private static byte[] serializeIntoBuffers(Message message) throws Exception {
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        message.tdcoinSerializeToStream(stream);
+        byte[] expected = stream.toByteArray();
+        assertEquals(expected.length, message.getSerializedSize());
+        assertArrayEquals(expected, message.tdcoinSerialize());
+
+        byte[] buf = new byte[expected.length + 10];
+        assertEquals(expected.length, message.tdcoinSerialize(buf, 3));
+        assertArrayEquals(expected, Arrays.copyOfRange(buf, 3, 3 + expected.length));
+
+        ByteBuffer buffer = ByteBuffer.allocate(expected.length + 5);
+        buffer.put((byte) 1);
+        message.tdcoinSerialize(buffer);
+        assertEquals(1 + expected.length, buffer.position());
+        assertArrayEquals(expected, Arrays.copyOfRange(buffer.array(), 1, 1 + expected.length));
+        ByteBuffer direct = ByteBuffer.allocateDirect(expected.length);
+        message.tdcoinSerialize(direct);
+        assertFalse(direct.hasRemaining());
+        try {
+            message.tdcoinSerialize(ByteBuffer.allocate(expected.length - 1));
+            fail();
+        } catch (BufferOverflowException e) {
+            // Expected.
+        }
+
+        ByteArrayOutputStream packet = new ByteArrayOutputStream();
+        MAINNET.getDefaultSerializer().serialize(message, packet);
+        String command = new String(Arrays.copyOfRange(packet.toByteArray(), 4, 16), StandardCharsets.US_ASCII).trim();
+        ByteArrayOutputStream expectedPacket = new ByteArrayOutputStream();
+        MAINNET.getDefaultSerializer().serialize(command, expected, expectedPacket);
+        assertArrayEquals(expectedPacket.toByteArray(), packet.toByteArray());
+        return expected;
+    }
 }
@@ -0,0 +1,73 @@
+/*
+ * Copyright by the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.tdcoinj.core;
+
+import org.tdcoinj.params.MainNetParams;
+import org.tdcoinj.params.UnitTestParams;
+import org.junit.Test;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class ProofOfWorkTest {
+    private static final NetworkParameters MAINNET = MainNetParams.get();
+    private static final NetworkParameters UNITTEST = UnitTestParams.get();
+
+    @Test
+    public void matchesBigIntegerComparison() {
+        Random random = new Random(3);
+        for (int i = 0; i < 100000; i++) {
+            // Mostly sizes around the range of real targets, plus the edge cases.
+            int size = i % 10 == 0 ? random.nextInt(256) : random.nextInt(36);
+            long compact = ((long) size << 24) | random.nextInt(1 << 24);
+            if (i % 7 == 0)
+                compact &= ~0x00800000L;
+            NetworkParameters params = i % 2 == 0 ? MAINNET : UNITTEST;
+            BigInteger target = Utils.decodeCompactBits(compact);
+            boolean valid = target.signum() > 0 && target.compareTo(params.getMaxTarget()) <= 0;
+            assertEquals(Long.toHexString(compact), valid, ProofOfWork.isValidTarget(params, compact));
+            if (!valid)
+                continue;
+            byte[] hashBytes = new byte[32];
+            random.nextBytes(hashBytes);
+            // Zero the high bytes often enough to get hashes on both sides of the target.
+            Arrays.fill(hashBytes, 0, random.nextInt(33), (byte) 0);
+            Sha256Hash hash = Sha256Hash.wrap(hashBytes);
+            assertEquals(hash.toBigInteger().compareTo(target) <= 0, ProofOfWork.hashMeetsTarget(compact, hash));
+            Sha256Hash equal = Sha256Hash.wrap(Utils.bigIntegerToBytes(target, 32));
+            assertTrue(ProofOfWork.hashMeetsTarget(compact, equal));
+        }
+    }
+
+    @Test
+    public void checkHeader() {
+        Block genesis = MAINNET.getGenesisBlock();
+        byte[] buf = new byte[Block.HEADER_SIZE + 3];
+        System.arraycopy(genesis.cloneAsHeader().tdcoinSerialize(), 0, buf, 3, Block.HEADER_SIZE);
+        assertTrue(ProofOfWork.checkHeader(MAINNET, buf, 3));
+        // Changing the nonce breaks the proof of work.
+        buf[3 + 76]++;
+        assertFalse(ProofOfWork.checkHeader(MAINNET, buf, 3));
+        // An invalid target fails as well.
+        buf[3 + 76]--;
+        buf[3 + 74] |= (byte) 0x80;
+        assertFalse(ProofOfWork.checkHeader(MAINNET, buf, 3));
+    }
+}
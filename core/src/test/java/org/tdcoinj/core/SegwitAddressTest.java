@@ -18,12 +18,14 @@ package org.tdcoinj.core;
 
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.fail;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.util.Arrays;
 import java.util.Locale;
 
 import nl.jqno.equalsverifier.EqualsVerifier;
@@ -230,4 +232,24 @@ public class SegwitAddressTest {
         assertEquals(address.params, addressCopy.params);
         assertArrayEquals(address.bytes, addressCopy.bytes);
     }
+
+    @Test
+    public void bulkToBech32() {
+        for (int length : new int[] { SegwitAddress.WITNESS_PROGRAM_LENGTH_PKH, SegwitAddress.WITNESS_PROGRAM_LENGTH_SH }) {
+            byte[] programs = new byte[3 * length];
+            for (int i = 0; i < programs.length; i++)
+                programs[i] = (byte) (i * 13);
+            String[] encoded = SegwitAddress.toBech32(MAINNET, programs, length);
+            for (int i = 0; i < 3; i++) {
+                byte[] program = Arrays.copyOfRange(programs, i * length, (i + 1) * length);
+                assertEquals(SegwitAddress.fromHash(MAINNET, program).toBech32(), encoded[i]);
+            }
+        }
+    }
+
+    @Test
+    public void toBech32IsCached() {
+        SegwitAddress address = SegwitAddress.fromKey(MAINNET, new ECKey());
+        assertSame(address.toBech32(), address.toString());
+    }
 }
@@ -0,0 +1,124 @@
+/*
+ * Copyright by the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.tdcoinj.core;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class Sha256HashMapTest {
+    @Test
+    public void agreesWithLinkedHashMap() {
+        Random random = new Random(1);
+        List<Sha256Hash> hashes = new ArrayList<>();
+        for (int i = 0; i < 300; i++)
+            hashes.add(Sha256Hash.of(new byte[] { (byte) i, (byte) (i >> 8) }));
+        // Hashes differing only in their first bytes land in the same slots.
+        for (int i = 0; i < 20; i++) {
+            byte[] bytes = new byte[32];
+            bytes[0] = (byte) i;
+            hashes.add(Sha256Hash.wrap(bytes));
+        }
+        Map<Sha256Hash, Integer> expected = new LinkedHashMap<>();
+        Sha256HashMap<Integer> map = new Sha256HashMap<>();
+        for (int i = 0; i < 20000; i++) {
+            Sha256Hash hash = hashes.get(random.nextInt(hashes.size()));
+            int op = random.nextInt(10);
+            if (op < 5) {
+                Integer value = random.nextInt(20) == 0 ? null : i;
+                assertEquals(expected.put(hash, value), map.put(hash, value));
+            } else if (op < 8) {
+                assertEquals(expected.remove(hash), map.remove(hash));
+            } else if (op < 9) {
+                assertEquals(expected.containsKey(hash), map.containsKey(hash));
+            } else if (random.nextInt(100) == 0) {
+                expected.clear();
+                map.clear();
+            } else {
+                // Removes some entries while iterating.
+                Iterator<Map.Entry<Sha256Hash, Integer>> it = map.entrySet().iterator();
+                while (it.hasNext()) {
+                    Map.Entry<Sha256Hash, Integer> entry = it.next();
+                    if (random.nextInt(4) == 0) {
+                        it.remove();
+                        expected.remove(entry.getKey());
+                    }
+                }
+            }
+            assertEquals(expected.get(hash), map.get(hash));
+            assertEquals(expected.size(), map.size());
+        }
+        assertEquals(new ArrayList<>(expected.entrySet()), new ArrayList<>(map.entrySet()));
+        assertEquals(expected, map);
+        assertEquals(map, expected);
+        assertEquals(expected.hashCode(), map.hashCode());
+        assertNull(map.get("not a hash"));
+        assertNull(map.remove(null));
+    }
+
+    @Test
+    public void keepsInsertionOrder() {
+        Sha256HashMap<String> map = new Sha256HashMap<>();
+        List<Sha256Hash> hashes = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            hashes.add(Sha256Hash.of(new byte[] { (byte) i }));
+            map.put(hashes.get(i), Integer.toString(i));
+        }
+        for (int i = 0; i < 100; i += 3)
+            map.remove(hashes.get(i));
+        // Putting a key in again keeps its place, removing and putting it back moves it to the end.
+        map.put(hashes.get(1), "one");
+        map.put(hashes.get(0), "zero");
+        List<Sha256Hash> keys = new ArrayList<>(map.keySet());
+        assertEquals(hashes.get(1), keys.get(0));
+        assertEquals(hashes.get(0), keys.get(keys.size() - 1));
+        assertEquals("one", map.values().iterator().next());
+    }
+
+    @Test
+    public void removesEldestEntries() {
+        Sha256HashMap<Integer> map = new Sha256HashMap<Integer>() {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Sha256Hash, Integer> eldest) {
+                return size() > 10;
+            }
+        };
+        for (int i = 0; i < 1000; i++)
+            map.put(Sha256Hash.of(new byte[] { (byte) i, (byte) (i >> 8) }), i);
+        assertEquals(10, map.size());
+        int expected = 990;
+        for (int value : map.values())
+            assertEquals(expected++, value);
+    }
+
+    @Test(expected = ConcurrentModificationException.class)
+    public void failsFast() {
+        Sha256HashMap<Integer> map = new Sha256HashMap<>();
+        map.put(Sha256Hash.ZERO_HASH, 0);
+        map.put(Sha256Hash.of(new byte[] { 1 }), 1);
+        for (Sha256Hash hash : map.keySet())
+            map.put(Sha256Hash.of(hash.getBytes()), 2);
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright by the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.tdcoinj.core;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class Sha256HashTest {
+    private static final byte[] ABC = "abc".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] ABC_HASH =
+            Utils.HEX.decode("ba7816bf8f01cfea414140de5dae2223b00361a396177a9cb410ff61f20015ad");
+
+    @Test
+    public void hashOfSliceAndBuffer() {
+        byte[] buf = { 1, 'a', 'b', 'c', 2 };
+        assertArrayEquals(ABC_HASH, Sha256Hash.hash(ABC));
+        assertArrayEquals(ABC_HASH, Sha256Hash.hash(buf, 1, 3));
+        byte[] out = new byte[34];
+        Sha256Hash.hash(buf, 1, 3, out, 1);
+        assertArrayEquals(ABC_HASH, Arrays.copyOfRange(out, 1, 33));
+
+        ByteBuffer heap = ByteBuffer.wrap(buf, 1, 3).slice();
+        assertArrayEquals(ABC_HASH, Sha256Hash.hash(heap));
+        assertEquals(0, heap.position());
+        ByteBuffer direct = ByteBuffer.allocateDirect(5);
+        direct.put(buf).position(1).limit(4);
+        assertArrayEquals(ABC_HASH, Sha256Hash.hash(direct));
+        assertEquals(1, direct.position());
+        assertArrayEquals(Sha256Hash.hashTwice(ABC), Sha256Hash.hashTwice(direct));
+    }
+
+    @Test
+    public void hashTwiceIntoBuffer() {
+        byte[] expected = Sha256Hash.hash(ABC_HASH);
+        assertArrayEquals(expected, Sha256Hash.hashTwice(ABC));
+        byte[] out = new byte[33];
+        Sha256Hash.hashTwice(ABC, 0, 3, out, 1);
+        assertArrayEquals(expected, Arrays.copyOfRange(out, 1, 33));
+    }
+
+    @Test
+    public void hashTwice64InPlace() {
+        byte[] left = Sha256Hash.hash(new byte[] { 1 });
+        byte[] right = Sha256Hash.hash(new byte[] { 2 });
+        byte[] expected = Sha256Hash.hashTwice(left, right);
+        byte[] buf = new byte[64];
+        System.arraycopy(left, 0, buf, 0, 32);
+        System.arraycopy(right, 0, buf, 32, 32);
+        // Writing over the input is allowed, so tree levels can be hashed in place.
+        Sha256Hash.hashTwice64(buf, 0, buf, 0);
+        assertArrayEquals(expected, Arrays.copyOfRange(buf, 0, 32));
+    }
+
+    @Test
+    public void digestSurvivesFailedCall() {
+        try {
+            Sha256Hash.hash(ABC, 0, 3, new byte[16], 0);
+            fail();
+        } catch (IllegalArgumentException e) {
+            // Expected, the output doesn't fit.
+        }
+        assertArrayEquals(ABC_HASH, Sha256Hash.hash(ABC));
+    }
+}
@@ -80,6 +80,22 @@ public class TransactionTest {
         tx.verify();
     }
 
+    @Test
+    public void manyInputs() throws Exception {
+        // Enough inputs to be checked for duplicates by sorting, spending outputs of the same and of other transactions.
+        Sha256Hash hash = tx.getInput(0).getOutpoint().getHash();
+        for (int i = 1; i < 100; i++)
+            tx.addInput(i % 2 == 0 ? hash : Sha256Hash.of(new byte[] { (byte) i }), i, new Script(new byte[0]));
+        tx.verify();
+        tx.addInput(hash, 42, new Script(new byte[0]));
+        try {
+            tx.verify();
+            fail();
+        } catch (VerificationException.DuplicatedOutPoint e) {
+            // expected
+        }
+    }
+
     @Test(expected = VerificationException.NegativeValueOutput.class)
     public void negativeOutput() throws Exception {
         tx.getOutput(0).setValue(Coin.NEGATIVE_SATOSHI);
@@ -307,6 +323,36 @@ public class TransactionTest {
         assertEquals(hex.length() / 2, tx.getMessageSize());
     }
 
+    @Test
+    public void idsAreHashedWhileParsing() {
+        String hex = "0100000000010115e180dc28a2327e687facc33f10f2a20da717e5548406f7ae8b4c811072f85603000000171600141d7cd6c75c2e86f4cbf98eaed221b30bd9a0b928ffffffff019caef505000000001976a9141d7cd6c75c2e86f4cbf98eaed221b30bd9a0b92888ac02483045022100f764287d3e99b1474da9bec7f7ed236d6c81e793b20c4b5aa1f3051b9a7daa63022016a198031d5554dbb855bdbe8534776a4be6958bd8d530dc001c32b828f6f0ab0121038262a6c6cec93c2d3ecd6c6072efea86d02ff8e3328bbd0242b20af3425990ac00000000";
+        byte[] bytes = HEX.decode(hex);
+        byte[] padded = new byte[bytes.length + 10];
+        System.arraycopy(bytes, 0, padded, 5, bytes.length);
+        Transaction tx = UNITTEST.getDefaultSerializer().makeTransaction(padded, 5, bytes.length, null);
+        assertEquals(Sha256Hash.wrapReversed(Sha256Hash.hashTwice(bytes)), tx.getWTxId());
+
+        // The same ids as when serializing a transaction that was built rather than parsed.
+        Transaction built = new Transaction(UNITTEST);
+        built.setVersion((int) tx.getVersion());
+        for (TransactionInput input : tx.getInputs()) {
+            TransactionInput copy = new TransactionInput(UNITTEST, built, input.getScriptBytes(), input.getOutpoint());
+            built.addInput(copy);
+            copy.setWitness(input.getWitness());
+        }
+        for (TransactionOutput output : tx.getOutputs())
+            built.addOutput(new TransactionOutput(UNITTEST, built, output.getValue(), output.getScriptBytes()));
+        built.setLockTime(tx.getLockTime());
+        assertEquals(built.getTxId(), tx.getTxId());
+        assertEquals(built.getWTxId(), tx.getWTxId());
+
+        // Replacing a witness changes the witness id only.
+        Sha256Hash txId = tx.getTxId();
+        tx.getInput(0).setWitness(null);
+        assertEquals(txId, tx.getTxId());
+        assertEquals(txId, tx.getWTxId());
+    }
+
     @Test
     public void testWitnessSignatureP2WPKH() {
         // test vector P2WPKH from:
@@ -351,6 +397,8 @@ public class TransactionTest {
 
         assertEquals("c37af31116d1b27caf68aae9e3ac82f1477929014d5b917657d0eb49478cb670",
                 tx.hashForWitnessSignature(1, scriptCode, txIn1.getValue(), Transaction.SigHash.ALL, false).toString());
+        assertEquals("c37af31116d1b27caf68aae9e3ac82f1477929014d5b917657d0eb49478cb670", tx.hashForWitnessSignature(1,
+                scriptCode.getProgram(), txIn1.getValue(), tx.precomputeWitnessHashes()).toString());
         TransactionSignature txSig1 = tx.calculateWitnessSignature(1, key1,
                 scriptCode, txIn1.getValue(),
                 Transaction.SigHash.ALL, false);
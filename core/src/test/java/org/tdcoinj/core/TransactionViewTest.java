@@ -0,0 +1,160 @@
+/*
+ * Copyright by the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.tdcoinj.core;
+
+import org.tdcoinj.params.UnitTestParams;
+import org.tdcoinj.script.Script;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class TransactionViewTest {
+    private static final NetworkParameters UNITTEST = UnitTestParams.get();
+
+    private static Transaction createTransaction(boolean witness) {
+        Transaction tx = new Transaction(UNITTEST);
+        tx.setVersion(2);
+        for (int i = 0; i < 3; i++) {
+            byte[] hash = new byte[32];
+            Arrays.fill(hash, (byte) i);
+            TransactionInput input = new TransactionInput(UNITTEST, tx, new byte[] { 1, 2, (byte) i },
+                    new TransactionOutPoint(UNITTEST, i, Sha256Hash.wrap(hash)));
+            input.setSequenceNumber(i);
+            if (witness && i != 1) {
+                TransactionWitness w = new TransactionWitness(2);
+                w.setPush(0, new byte[300]);
+                w.setPush(1, new byte[] { (byte) i });
+                input.setWitness(w);
+            }
+            tx.addInput(input);
+        }
+        tx.addOutput(Coin.COIN, new ECKey());
+        tx.addOutput(new TransactionOutput(UNITTEST, tx, Coin.SATOSHI, new byte[300]));
+        tx.setLockTime(123456);
+        return tx;
+    }
+
+    @Test
+    public void fields() throws Exception {
+        for (boolean witness : new boolean[] { false, true }) {
+            Transaction tx = createTransaction(witness);
+            byte[] bytes = tx.tdcoinSerialize();
+            TransactionView view = TransactionView.wrap(UNITTEST, bytes, 0);
+            assertEquals(witness, view.hasWitnesses());
+            assertEquals(bytes.length, view.getMessageSize());
+            assertEquals(tx.getTxId(), view.getTxId());
+            assertEquals(tx.getWTxId(), view.getWTxId());
+            assertEquals(2, view.getVersion());
+            assertEquals(123456, view.getLockTime());
+            assertEquals(3, view.getInputCount());
+            assertEquals(2, view.getOutputCount());
+            assertEquals(tx.getInput(2).getOutpoint().getHash(), view.getOutpointHash(2));
+            assertEquals(2, view.getOutpointIndex(2));
+            assertFalse(view.spends(2, tx.getInput(1).getOutpoint().getHash(), 2));
+            assertArrayEquals(new byte[] { 1, 2, 1 }, view.getScriptSigBytes(1));
+            assertEquals(3, view.getScriptSigLength(1));
+            assertEquals(1, bytes[view.getScriptSigOffset(1)]);
+            assertEquals(1, view.getSequenceNumber(1));
+            assertEquals(Coin.SATOSHI, view.getOutputValue(1));
+            assertEquals(300, view.getScriptPubKeyLength(1));
+            assertArrayEquals(tx.getOutput(0).getScriptBytes(), view.getScriptPubKeyBytes(0));
+            assertEquals(witness ? 2 : 0, view.getWitnessPushCount(0));
+            assertEquals(0, view.getWitnessPushCount(1));
+            if (witness)
+                assertArrayEquals(new byte[] { 2 }, view.getWitnessPush(2, 1));
+            Transaction materialized = view.materialize();
+            assertEquals(tx.getTxId(), materialized.getTxId());
+            assertEquals(tx.getWTxId(), materialized.getWTxId());
+        }
+    }
+
+    @Test
+    public void verifiesLikeTransaction() throws Exception {
+        List<Transaction> txs = new ArrayList<>();
+        txs.add(createTransaction(false));
+        txs.add(createTransaction(true));
+        Transaction tx = createTransaction(false);
+        tx.addInput(tx.getInput(1).duplicateDetached());
+        txs.add(tx);
+        tx = createTransaction(false);
+        for (int i = 0; i < 40; i++)
+            tx.addInput(Sha256Hash.ZERO_HASH, i % 20, new Script(new byte[0]));
+        txs.add(tx);
+        tx = createTransaction(false);
+        tx.getOutput(1).setValue(Coin.NEGATIVE_SATOSHI);
+        txs.add(tx);
+        tx = createTransaction(false);
+        tx.getOutput(0).setValue(UNITTEST.getMaxMoney());
+        txs.add(tx);
+        tx = createTransaction(false);
+        tx.addInput(Sha256Hash.ZERO_HASH, 0xFFFFFFFFL, new Script(new byte[10]));
+        txs.add(tx);
+        for (int scriptLength : new int[] { 1, 2, 100, 101 }) {
+            tx = new Transaction(UNITTEST);
+            tx.addInput(Sha256Hash.ZERO_HASH, 0xFFFFFFFFL, new Script(new byte[scriptLength]));
+            tx.addOutput(Coin.COIN, new ECKey());
+            txs.add(tx);
+        }
+        for (Transaction t : txs) {
+            Class<?> expected = null, actual = null;
+            try {
+                t.verify();
+            } catch (VerificationException e) {
+                expected = e.getClass();
+            }
+            try {
+                TransactionView.wrap(UNITTEST, t.tdcoinSerialize(), 0).verify();
+            } catch (VerificationException e) {
+                actual = e.getClass();
+            }
+            assertEquals(t.toString(), expected, actual);
+        }
+    }
+
+    @Test
+    public void offset() throws Exception {
+        byte[] tx = createTransaction(true).tdcoinSerialize();
+        byte[] buffer = new byte[tx.length + 20];
+        System.arraycopy(tx, 0, buffer, 10, tx.length);
+        TransactionView view = TransactionView.wrap(UNITTEST, buffer, 10);
+        assertEquals(tx.length, view.getMessageSize());
+        assertEquals(10 + tx.length, TransactionView.skip(buffer, 10, buffer.length));
+        assertArrayEquals(tx, view.materialize().tdcoinSerialize());
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void inputOutOfRange() throws Exception {
+        TransactionView.wrap(UNITTEST, createTransaction(false).tdcoinSerialize(), 0).getSequenceNumber(3);
+    }
+
+    @Test
+    public void truncated() {
+        byte[] tx = createTransaction(true).tdcoinSerialize();
+        for (int length = 0; length < tx.length; length += 7) {
+            try {
+                TransactionView.wrap(UNITTEST, Arrays.copyOf(tx, length), 0);
+                fail();
+            } catch (ProtocolException e) {
+                // Expected.
+            }
+        }
+    }
+}
@@ -18,12 +18,19 @@
 package org.tdcoinj.core;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
 
+import org.tdcoinj.script.Script;
 import org.tdcoinj.script.ScriptBuilder;
 import org.junit.Test;
 
@@ -43,4 +50,115 @@ public class UTXOTest {
         assertEquals(utxo.isCoinbase(), utxoCopy.isCoinbase());
         assertEquals(utxo.getScript(), utxoCopy.getScript());
     }
+
+    @Test
+    public void compactSerialization() throws Exception {
+        ECKey key = new ECKey();
+        List<Script> scripts = Arrays.asList(
+                ScriptBuilder.createP2PKHOutputScript(key),
+                ScriptBuilder.createP2SHOutputScript(2, Arrays.asList(key, new ECKey())),
+                ScriptBuilder.createP2WPKHOutputScript(key),
+                ScriptBuilder.createP2WSHOutputScript(new ScriptBuilder().build()),
+                ScriptBuilder.createP2PKOutputScript(key),
+                ScriptBuilder.createP2PKOutputScript(key.decompress()),
+                ScriptBuilder.createMultiSigOutputScript(1, Arrays.asList(key, new ECKey())),
+                ScriptBuilder.createOpReturnScript(new byte[80]),
+                new Script(new byte[0]));
+        Sha256Hash hash = Sha256Hash.of(new byte[] { 1, 2, 3 });
+        for (Script script : scripts) {
+            for (UTXO utxo : Arrays.asList(
+                    new UTXO(hash, 1, Coin.COIN, 10, true, script),
+                    new UTXO(hash, 0xffffffffL, Coin.ZERO, 0, false, script),
+                    new UTXO(hash, 2, NetworkParameters.MAX_MONEY, Integer.MAX_VALUE, false, script))) {
+                ByteArrayOutputStream os = new ByteArrayOutputStream();
+                utxo.serializeCompact(os);
+                byte[] bytes = os.toByteArray();
+                ByteArrayInputStream is = new ByteArrayInputStream(bytes);
+                UTXO copy = UTXO.deserializeCompact(utxo.getHash(), utxo.getIndex(), is);
+                assertEquals(0, is.available());
+                assertEquals(utxo, copy);
+                assertEquals(utxo.getValue(), copy.getValue());
+                assertEquals(utxo.getHeight(), copy.getHeight());
+                assertEquals(utxo.isCoinbase(), copy.isCoinbase());
+                assertEquals(utxo.getScript(), copy.getScript());
+                if (script.getScriptType() != null)
+                    assertTrue(bytes.length < script.getProgram().length + 16);
+            }
+        }
+        // The coinbase flag, height, value and hash of an output paying to an address.
+        UTXO p2pkh = new UTXO(hash, 0, Coin.COIN, 500000, true, scripts.get(0));
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        p2pkh.serializeCompact(os);
+        assertEquals(3 + 1 + 1 + 20, os.size());
+    }
+
+    @Test
+    public void compressAmounts() throws Exception {
+        assertEquals(0, UTXO.compressAmount(0));
+        assertEquals(1, UTXO.compressAmount(1));
+        assertEquals(9, UTXO.compressAmount(Coin.COIN.value));
+        assertEquals(50, UTXO.compressAmount(Coin.COIN.multiply(50).value));
+        assertEquals(10, UTXO.compressAmount(10 * Coin.COIN.value));
+        Random random = new Random(1);
+        long[] values = new long[10000];
+        for (int i = 0; i < values.length; i++) {
+            long value = (random.nextLong() >>> (1 + random.nextInt(63))) / 10;
+            for (int zeros = random.nextInt(12); zeros > 0 && value <= Long.MAX_VALUE / 100; zeros--)
+                value *= 10;
+            values[i] = value;
+        }
+        for (long value : values)
+            assertEquals(value, UTXO.decompressAmount(UTXO.compressAmount(value)));
+        assertEquals(Long.MAX_VALUE / 10, UTXO.decompressAmount(UTXO.compressAmount(Long.MAX_VALUE / 10)));
+        try {
+            UTXO.decompressAmount(Long.MAX_VALUE);
+            fail();
+        } catch (IOException e) {
+            // Expected.
+        }
+    }
+
+    @Test
+    public void outputChangesSerialization() throws Exception {
+        ECKey key = new ECKey();
+        Sha256Hash hash1 = Sha256Hash.of(new byte[] { 1 }), hash2 = Sha256Hash.of(new byte[] { 2 });
+        Script script = ScriptBuilder.createP2PKHOutputScript(key);
+        List<UTXO> created = Arrays.asList(new UTXO(hash1, 0, Coin.COIN, 5, false, script),
+                new UTXO(hash1, 1, Coin.CENT, 5, false, script), new UTXO(hash2, 0, Coin.COIN, 5, true, script));
+        List<UTXO> spent = Arrays.asList(new UTXO(hash2, 7, Coin.FIFTY_COINS, 1, true, script),
+                new UTXO(hash1, 3, Coin.SATOSHI, 4, false, script), new UTXO(hash1, 4, Coin.CENT, 0, false, script));
+        TransactionOutputChanges changes = new TransactionOutputChanges(created, spent);
+
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        changes.serializeToStream(os);
+        checkOutputChanges(changes, new TransactionOutputChanges(new ByteArrayInputStream(os.toByteArray())));
+
+        // The original serialization can still be read.
+        ByteArrayOutputStream legacy = new ByteArrayOutputStream();
+        Utils.uint32ToByteStreamLE(created.size(), legacy);
+        for (UTXO utxo : created)
+            utxo.serializeToStream(legacy);
+        Utils.uint32ToByteStreamLE(spent.size(), legacy);
+        for (UTXO utxo : spent)
+            utxo.serializeToStream(legacy);
+        checkOutputChanges(changes, new TransactionOutputChanges(new ByteArrayInputStream(legacy.toByteArray())));
+        assertTrue(os.size() < legacy.size());
+    }
+
+    private static void checkOutputChanges(TransactionOutputChanges expected, TransactionOutputChanges actual) {
+        assertEquals(expected.txOutsCreated, actual.txOutsCreated);
+        assertEquals(expected.txOutsSpent, actual.txOutsSpent);
+        checkOutputs(expected.txOutsCreated, actual.txOutsCreated);
+        checkOutputs(expected.txOutsSpent, actual.txOutsSpent);
+    }
+
+    private static void checkOutputs(List<UTXO> expected, List<UTXO> actual) {
+        for (int i = 0; i < expected.size(); i++) {
+            UTXO e = expected.get(i), a = actual.get(i);
+            assertEquals(e.getValue(), a.getValue());
+            assertEquals(e.getHeight(), a.getHeight());
+            assertEquals(e.isCoinbase(), a.isCoinbase());
+            assertEquals(e.getScript(), a.getScript());
+        }
+    }
 }
@@ -113,6 +113,22 @@ public class UtilsTest {
         assertArrayEquals(expected, actual);
     }
 
+    @Test
+    public void sha256hash160OfSlice() {
+        // The hash160 of the generator point, in compressed encoding.
+        byte[] pubKey = Utils.HEX.decode("0279be667ef9dcbbac55a06295ce870b07029bfcdb2dce28d959f2815b16f81798");
+        byte[] expected = Utils.HEX.decode("751e76e8199196d454941c45d1b3a323f1433bd6");
+        assertArrayEquals(expected, Utils.sha256hash160(pubKey));
+        byte[] buf = new byte[pubKey.length + 2];
+        System.arraycopy(pubKey, 0, buf, 1, pubKey.length);
+        assertArrayEquals(expected, Utils.sha256hash160(buf, 1, pubKey.length));
+        byte[] out = new byte[22];
+        Utils.sha256hash160(buf, 1, pubKey.length, out, 1);
+        assertArrayEquals(expected, Arrays.copyOfRange(out, 1, 21));
+        assertEquals(0, out[0]);
+        assertEquals(0, out[21]);
+    }
+
     @Test
     public void runtime() {
         // This test assumes it is run within a Java runtime for desktop computers.
@@ -16,6 +16,7 @@
 
 package org.tdcoinj.crypto;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
@@ -24,7 +25,9 @@ import static org.junit.Assert.fail;
 import java.math.BigInteger;
 
 import org.tdcoinj.core.Utils;
+import org.tdcoinj.crypto.HDKeyDerivation.ChildPublicKeys;
 import org.tdcoinj.crypto.HDKeyDerivation.PublicDeriveMode;
+import org.tdcoinj.utils.Threading;
 import org.bouncycastle.crypto.params.KeyParameter;
 import org.junit.Test;
 
@@ -101,6 +104,32 @@ public class HDKeyDerivationTest {
         assertFalse(fromPublicWithInversion.isEncrypted());
     }
 
+    @Test
+    public void testDeriveChildPublicKeys() {
+        DeterministicKey master = HDKeyDerivation.createMasterPrivateKey("bulk derivation test seed".getBytes());
+        DeterministicKey parent = HDKeyDerivation.deriveChildKey(master, ChildNumber.ZERO_HARDENED);
+        for (DeterministicKey key : new DeterministicKey[] { parent, parent.dropPrivateBytes().dropParent() }) {
+            for (int parallelism : new int[] { 1, 4 }) {
+                ChildPublicKeys children = HDKeyDerivation.deriveChildPublicKeys(key, 70, 70 + 600,
+                        Threading.THREAD_POOL, parallelism);
+                assertEquals(600, children.size());
+                for (int i = 0; i < children.size(); i++) {
+                    DeterministicKey expected = HDKeyDerivation.deriveChildKeyFromPublic(key,
+                            new ChildNumber(70 + i), PublicDeriveMode.NORMAL);
+                    assertEquals(expected.getChildNumber(), children.getChildNumber(i));
+                    assertArrayEquals(expected.getPubKey(), children.getPubKey(i));
+                    assertArrayEquals(expected.getPubKeyHash(), children.getPubKeyHash(i));
+                    DeterministicKey child = children.getKey(i);
+                    assertEquals(expected, child);
+                    assertEquals(expected.getPath(), child.getPath());
+                    assertArrayEquals(expected.getChainCode(), child.getChainCode());
+                    assertEquals(expected.isPubKeyOnly(), child.isPubKeyOnly());
+                }
+            }
+        }
+        assertEquals(0, HDKeyDerivation.deriveChildPublicKeys(parent, 5, 5).size());
+    }
+
     @Test
     public void testDeriveFromEncryptedParent() {
         DeterministicKey parent = new DeterministicKey(ImmutableList.<ChildNumber> of(), new byte[32], BigInteger.TEN,
@@ -19,13 +19,17 @@ package org.tdcoinj.crypto;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
+import org.tdcoinj.utils.Threading;
 import org.junit.Before;
 import org.junit.Test;
 
 import static org.tdcoinj.core.Utils.HEX;
 import static org.tdcoinj.core.Utils.WHITESPACE_SPLITTER;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
 
 /**
  * Test the various guard clauses of {@link MnemonicCode}.
@@ -82,4 +86,15 @@ public class MnemonicCodeTest {
         List<String> code = WHITESPACE_SPLITTER.splitToList("legal winner thank year wave sausage worth useful legal winner thank yellow");
         MnemonicCode.toSeed(code, null);
     }
+
+    @Test
+    public void testToSeedsInOrder() throws Exception {
+        List<String> first = WHITESPACE_SPLITTER.splitToList("legal winner thank year wave sausage worth useful legal winner thank yellow");
+        List<String> second = WHITESPACE_SPLITTER.splitToList("letter advice cage absurd amount doctor acoustic avoid letter advice cage above");
+        List<byte[]> seeds = MnemonicCode.toSeeds(Arrays.asList(first, second, first), "TREZOR", Threading.THREAD_POOL).get();
+        assertEquals(3, seeds.size());
+        assertArrayEquals(MnemonicCode.toSeed(first, "TREZOR"), seeds.get(0));
+        assertArrayEquals(MnemonicCode.toSeed(second, "TREZOR"), seeds.get(1));
+        assertArrayEquals(seeds.get(0), seeds.get(2));
+    }
 }
@@ -0,0 +1,56 @@
+/*
+ * Copyright by the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.tdcoinj.crypto;
+
+import org.junit.Test;
+
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertArrayEquals;
+
+public class PBKDF2SHA512Test {
+    private static final String PASSWORD = "legal winner thank year wave sausage worth useful legal winner thank yellow";
+    private static final String SALT = "mnemonicTREZOR";
+
+    @Test
+    public void matchesJdkForAllLengths() throws Exception {
+        // Shorter and longer than one block, and not a multiple of it.
+        for (int dkLen : new int[] { 1, 20, 64, 100, 130 }) {
+            byte[] expected = jdkDerive(PASSWORD, SALT, 10, dkLen);
+            assertArrayEquals("dkLen " + dkLen, expected, PBKDF2SHA512.derive(PASSWORD, SALT, 10, dkLen));
+        }
+    }
+
+    @Test
+    public void matchesJdkForOneRound() throws Exception {
+        assertArrayEquals(jdkDerive(PASSWORD, SALT, 1, 64), PBKDF2SHA512.derive(PASSWORD, SALT, 1, 64));
+    }
+
+    @Test
+    public void stringAndBytesAgree() {
+        byte[] fromBytes = PBKDF2SHA512.derive(PASSWORD.getBytes(StandardCharsets.UTF_8),
+                SALT.getBytes(StandardCharsets.UTF_8), 5, 64);
+        assertArrayEquals(PBKDF2SHA512.derive(PASSWORD, SALT, 5, 64), fromBytes);
+    }
+
+    private static byte[] jdkDerive(String password, String salt, int c, int dkLen) throws Exception {
+        PBEKeySpec spec = new PBEKeySpec(password.toCharArray(), salt.getBytes(StandardCharsets.UTF_8), c, dkLen * 8);
+        return SecretKeyFactory.getInstance("PBKDF2WithHmacSHA512").generateSecret(spec).getEncoded();
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright by the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.tdcoinj.crypto;
+
+import org.tdcoinj.core.ECKey;
+import org.tdcoinj.core.ECKey.ECDSASignature;
+import org.tdcoinj.core.Sha256Hash;
+import org.bouncycastle.crypto.digests.SHA256Digest;
+import org.bouncycastle.crypto.params.ECPrivateKeyParameters;
+import org.bouncycastle.crypto.signers.ECDSASigner;
+import org.bouncycastle.crypto.signers.HMacDSAKCalculator;
+import org.bouncycastle.math.ec.ECPoint;
+import org.bouncycastle.math.ec.FixedPointCombMultiplier;
+import org.junit.Test;
+
+import java.math.BigInteger;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class Secp256k1SignerTest {
+    private static final BigInteger N = ECKey.CURVE.getN();
+
+    @Test
+    public void fieldEdgeCases() {
+        BigInteger p = Secp256k1Field.P;
+        BigInteger[] values = { BigInteger.ZERO, BigInteger.ONE, p.subtract(BigInteger.ONE),
+                p.subtract(BigInteger.valueOf(2)), BigInteger.ONE.shiftLeft(255), BigInteger.ONE.shiftLeft(32),
+                BigInteger.ONE.shiftLeft(256).subtract(p) };
+        int[] r = Secp256k1Field.create();
+        for (BigInteger a : values) {
+            for (BigInteger b : values) {
+                int[] fa = Secp256k1Field.fromBigInteger(a), fb = Secp256k1Field.fromBigInteger(b);
+                Secp256k1Field.add(r, fa, fb);
+                assertEquals(a.add(b).mod(p), Secp256k1Field.toBigInteger(r));
+                Secp256k1Field.sub(r, fa, fb);
+                assertEquals(a.subtract(b).mod(p), Secp256k1Field.toBigInteger(r));
+            }
+            Secp256k1Field.negate(r, Secp256k1Field.fromBigInteger(a));
+            assertEquals(a.negate().mod(p), Secp256k1Field.toBigInteger(r));
+        }
+    }
+
+    @Test
+    public void publicPoints() {
+        Random random = new Random(1);
+        FixedPointCombMultiplier multiplier = new FixedPointCombMultiplier();
+        BigInteger[] edges = { BigInteger.ONE, BigInteger.valueOf(2), BigInteger.valueOf(15), BigInteger.valueOf(16),
+                N.subtract(BigInteger.ONE), N.subtract(BigInteger.valueOf(2)), N.shiftRight(1),
+                BigInteger.ONE.shiftLeft(252), BigInteger.ONE.shiftLeft(255) };
+        for (int i = 0; i < 300; i++) {
+            BigInteger k = i < edges.length ? edges[i] : new BigInteger(256, random).mod(N);
+            if (k.signum() == 0)
+                continue;
+            ECPoint expected = multiplier.multiply(ECKey.CURVE.getG(), k).normalize();
+            ECPoint actual = Secp256k1Signer.publicPoint(k);
+            assertEquals(expected.getAffineXCoord(), actual.getAffineXCoord());
+            assertEquals(expected.getAffineYCoord(), actual.getAffineYCoord());
+        }
+    }
+
+    @Test
+    public void publicPointFromPrivate() {
+        ECPoint g = ECKey.CURVE.getG().normalize();
+        assertEquals(g, ECKey.publicPointFromPrivate(BigInteger.ONE));
+        assertEquals(g, ECKey.publicPointFromPrivate(N.add(BigInteger.ONE)));
+        assertEquals(g.negate(), ECKey.publicPointFromPrivate(BigInteger.ONE.negate()));
+        assertTrue(ECKey.publicPointFromPrivate(N).isInfinity());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void zeroKey() {
+        Secp256k1Signer.publicPoint(BigInteger.ZERO);
+    }
+
+    @Test
+    public void keysAboveOrderAreReduced() {
+        BigInteger privKey = N.add(BigInteger.valueOf(12345));
+        assertEquals(Secp256k1Signer.publicPoint(BigInteger.valueOf(12345)), Secp256k1Signer.publicPoint(privKey));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void keyTooLong() {
+        Secp256k1Signer.sign(new byte[32], BigInteger.ONE.shiftLeft(256));
+    }
+
+    @Test
+    public void signaturesMatchBouncyCastle() {
+        Random random = new Random(2);
+        for (int i = 0; i < 300; i++) {
+            BigInteger privKey = i == 0 ? N.subtract(BigInteger.ONE) : i == 1 ? BigInteger.ONE
+                    : i == 3 ? N.add(BigInteger.ONE) : i == 4 ? BigInteger.ONE.shiftLeft(256).subtract(BigInteger.ONE)
+                    : new BigInteger(256, random).mod(N);
+            byte[] hash = new byte[32];
+            random.nextBytes(hash);
+            if (i == 2)
+                hash = Sha256Hash.ZERO_HASH.getBytes();
+            ECDSASigner signer = new ECDSASigner(new HMacDSAKCalculator(new SHA256Digest()));
+            signer.init(true, new ECPrivateKeyParameters(privKey, ECKey.CURVE));
+            BigInteger[] components = signer.generateSignature(hash);
+            ECDSASignature expected = new ECDSASignature(components[0], components[1]).toCanonicalised();
+            ECDSASignature actual = Secp256k1Signer.sign(hash, privKey);
+            assertEquals(expected, actual);
+            assertTrue(actual.isCanonical());
+            assertTrue(ECKey.verify(hash, actual, ECKey.publicKeyFromPrivate(privKey, true)));
+        }
+    }
+
+    @Test
+    public void rfc6979Vector() {
+        // Test vector from https://bitcointalk.org/index.php?topic=285142.msg3300992#msg3300992
+        BigInteger privKey = BigInteger.ONE;
+        byte[] hash = Sha256Hash.hash("Satoshi Nakamoto".getBytes());
+        ECDSASignature signature = Secp256k1Signer.sign(hash, privKey);
+        assertEquals(new BigInteger("934b1ea10a4b3c1757e2b0c017d0b6143ce3c9a7e6a4a49860d7a6ab210ee3d8", 16),
+                signature.r);
+        assertEquals(new BigInteger("2442ce9d2b916064108014783e923ec36b49743e2ffa1c4496f01a512aafd9e5", 16),
+                signature.s);
+    }
+}
@@ -0,0 +1,179 @@
+/*
+ * Copyright by the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.tdcoinj.crypto;
+
+import org.tdcoinj.core.ECKey;
+import org.tdcoinj.core.ECKey.ECDSASignature;
+import org.tdcoinj.core.Sha256Hash;
+import org.bouncycastle.crypto.params.ECPublicKeyParameters;
+import org.bouncycastle.crypto.signers.ECDSASigner;
+import org.bouncycastle.math.ec.ECPoint;
+import org.junit.Test;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class Secp256k1VerifierTest {
+    private static final BigInteger N = ECKey.CURVE.getN();
+
+    @Test
+    public void fieldArithmetic() {
+        Random random = new Random(1);
+        Secp256k1Field f = new Secp256k1Field();
+        BigInteger p = Secp256k1Field.P;
+        int[] r = Secp256k1Field.create();
+        for (int i = 0; i < 1000; i++) {
+            BigInteger a = i == 0 ? p.subtract(BigInteger.ONE) : new BigInteger(256, random).mod(p);
+            BigInteger b = i == 0 ? p.subtract(BigInteger.ONE) : new BigInteger(256, random).mod(p);
+            int[] fa = Secp256k1Field.fromBigInteger(a), fb = Secp256k1Field.fromBigInteger(b);
+            f.mul(r, fa, fb);
+            assertEquals(a.multiply(b).mod(p), Secp256k1Field.toBigInteger(r));
+            f.sqr(r, fa);
+            assertEquals(a.multiply(a).mod(p), Secp256k1Field.toBigInteger(r));
+            Secp256k1Field.add(r, fa, fb);
+            assertEquals(a.add(b).mod(p), Secp256k1Field.toBigInteger(r));
+            Secp256k1Field.sub(r, fa, fb);
+            assertEquals(a.subtract(b).mod(p), Secp256k1Field.toBigInteger(r));
+            Secp256k1Field.negate(r, fa);
+            assertEquals(a.negate().mod(p), Secp256k1Field.toBigInteger(r));
+            f.inv(r, fa);
+            assertEquals(a.modInverse(p), Secp256k1Field.toBigInteger(r));
+            if (f.sqrt(r, fa))
+                assertEquals(a, Secp256k1Field.toBigInteger(r).pow(2).mod(p));
+            else
+                assertEquals(p.subtract(BigInteger.ONE), a.modPow(p.shiftRight(1), p));
+        }
+    }
+
+    @Test
+    public void endomorphism() {
+        ECPoint g = ECKey.CURVE.getG();
+        ECPoint lambdaG = g.multiply(Secp256k1Verifier.LAMBDA).normalize();
+        BigInteger beta = new BigInteger("7ae96a2b657c07106e64479eac3434e99cf0497512f58995c1396c28719501ee", 16);
+        assertEquals(g.getAffineXCoord().toBigInteger().multiply(beta).mod(Secp256k1Field.P),
+                lambdaG.getAffineXCoord().toBigInteger());
+        assertEquals(g.getAffineYCoord().toBigInteger(), lambdaG.getAffineYCoord().toBigInteger());
+
+        Random random = new Random(2);
+        for (int i = 0; i < 1000; i++) {
+            BigInteger k = i == 0 ? N.subtract(BigInteger.ONE) : new BigInteger(256, random).mod(N);
+            BigInteger[] split = Secp256k1Verifier.split(k);
+            assertEquals(k, split[0].add(split[1].multiply(Secp256k1Verifier.LAMBDA)).mod(N));
+            assertTrue(split[0].abs().bitLength() <= 129);
+            assertTrue(split[1].abs().bitLength() <= 129);
+        }
+    }
+
+    @Test
+    public void wnaf() {
+        Random random = new Random(3);
+        int[] wnaf = new int[300];
+        for (int i = 0; i < 1000; i++) {
+            BigInteger k = new BigInteger(256, random);
+            int length = Secp256k1Verifier.wnaf(wnaf, k, 0, 256, 5);
+            BigInteger sum = BigInteger.ZERO;
+            for (int j = length - 1; j >= 0; j--)
+                sum = sum.shiftLeft(1).add(BigInteger.valueOf(wnaf[j]));
+            assertEquals(k, sum);
+        }
+    }
+
+    @Test
+    public void agreesWithBouncyCastle() {
+        Random random = new Random(4);
+        for (int i = 0; i < 200; i++) {
+            ECKey key = new ECKey();
+            byte[] pub = i % 2 == 0 ? key.getPubKey() : key.decompress().getPubKey();
+            byte[] hash = new byte[32];
+            random.nextBytes(hash);
+            ECDSASignature signature = key.sign(Sha256Hash.wrap(hash));
+            if (i % 3 == 0)
+                signature = new ECDSASignature(signature.r, N.subtract(signature.s)); // high S is valid too
+            assertTrue(Secp256k1Verifier.verify(hash, signature, pub));
+            assertTrue(bouncyCastleVerify(hash, signature, pub));
+
+            hash[random.nextInt(32)] ^= 1 << random.nextInt(8);
+            assertFalse(Secp256k1Verifier.verify(hash, signature, pub));
+            assertFalse(bouncyCastleVerify(hash, signature, pub));
+        }
+    }
+
+    @Test
+    public void verifyAll() {
+        int count = 150;
+        byte[][] hashes = new byte[count][];
+        ECDSASignature[] signatures = new ECDSASignature[count];
+        byte[][] pubs = new byte[count][];
+        boolean[] expected = new boolean[count];
+        for (int i = 0; i < count; i++) {
+            ECKey key = new ECKey();
+            hashes[i] = Sha256Hash.hash(new byte[] { (byte) i });
+            signatures[i] = key.sign(Sha256Hash.wrap(hashes[i]));
+            pubs[i] = key.getPubKey();
+            expected[i] = true;
+            if (i % 7 == 3) {
+                signatures[i] = new ECDSASignature(signatures[i].r, signatures[i].s.add(BigInteger.ONE));
+                expected[i] = false;
+            } else if (i % 7 == 5) {
+                pubs[i] = new byte[] { 2, 3 };
+                expected[i] = false;
+            } else if (i % 7 == 6) {
+                signatures[i] = new ECDSASignature(N, signatures[i].s);
+                expected[i] = false;
+            }
+        }
+        boolean[] results = Secp256k1Verifier.verifyAll(hashes, signatures, pubs);
+        for (int i = 0; i < count; i++)
+            assertEquals("signature " + i, expected[i], results[i]);
+        assertEquals(0, Secp256k1Verifier.verifyAll(new byte[0][], new ECDSASignature[0], new byte[0][]).length);
+    }
+
+    @Test
+    public void invalidPublicKeys() {
+        ECKey key = new ECKey();
+        byte[] hash = Sha256Hash.hash(new byte[0]);
+        ECDSASignature signature = key.sign(Sha256Hash.wrap(hash));
+        byte[] uncompressed = key.decompress().getPubKey();
+        byte[] offCurve = uncompressed.clone();
+        offCurve[64] ^= 1;
+        byte[] hybrid = uncompressed.clone();
+        hybrid[0] = (byte) ((uncompressed[64] & 1) == 0 ? 0x06 : 0x07);
+        assertTrue(Secp256k1Verifier.verify(hash, signature, hybrid));
+        hybrid[0] ^= 1;
+        byte[] xTooLarge = new byte[33];
+        xTooLarge[0] = 2;
+        Arrays.fill(xTooLarge, 1, 33, (byte) 0xff);
+        for (byte[] pub : new byte[][] { new byte[0], new byte[] { 0 }, new byte[] { 5 }, offCurve, hybrid,
+                xTooLarge, Arrays.copyOf(key.getPubKey(), 32) }) {
+            try {
+                Secp256k1Verifier.verify(hash, signature, pub);
+                fail();
+            } catch (IllegalArgumentException e) {
+                // Expected.
+            }
+        }
+    }
+
+    private static boolean bouncyCastleVerify(byte[] hash, ECDSASignature signature, byte[] pub) {
+        ECDSASigner signer = new ECDSASigner();
+        signer.init(false, new ECPublicKeyParameters(ECKey.CURVE.getCurve().decodePoint(pub), ECKey.CURVE));
+        return signer.verifySignature(hash, signature.r, signature.s);
+    }
+}
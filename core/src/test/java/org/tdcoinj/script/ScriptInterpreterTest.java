@@ -0,0 +1,229 @@
+/*
+ * Copyright by the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.tdcoinj.script;
+
+import org.tdcoinj.core.*;
+import org.tdcoinj.core.Transaction.SigHash;
+import org.tdcoinj.crypto.TransactionSignature;
+import org.tdcoinj.params.UnitTestParams;
+import org.tdcoinj.script.Script.VerifyFlag;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.Random;
+import java.util.Set;
+
+import static org.tdcoinj.script.ScriptOpCodes.*;
+import static org.junit.Assert.*;
+
+public class ScriptInterpreterTest {
+    private static final NetworkParameters UNITTEST = UnitTestParams.get();
+    private static final Set<VerifyFlag> FLAGS = Script.ALL_VERIFY_FLAGS;
+
+    private ECKey key;
+    private Transaction tx;
+    private Script p2pkh;
+
+    @Before
+    public void setUp() {
+        new Context(UNITTEST);
+        key = new ECKey();
+        p2pkh = ScriptBuilder.createP2PKHOutputScript(key);
+        tx = new Transaction(UNITTEST);
+        tx.addInput(new TransactionInput(UNITTEST, tx, new byte[0],
+                new TransactionOutPoint(UNITTEST, 0, Sha256Hash.of(new byte[] { 1 }))));
+        tx.addOutput(Coin.COIN, new ECKey());
+    }
+
+    @Test
+    public void numbersAgreeWithBigIntegers() {
+        Random random = new Random(1);
+        for (int i = 0; i < 20000; i++) {
+            byte[] chunk = new byte[random.nextInt(6)];
+            random.nextBytes(chunk);
+            // Make numbers that are, or are close to being, not minimally encoded more likely.
+            if (chunk.length > 0 && random.nextBoolean())
+                chunk[chunk.length - 1] &= 0x80;
+            for (boolean requireMinimal : new boolean[] { false, true }) {
+                BigInteger expected;
+                try {
+                    expected = Script.castToBigInteger(chunk, 5, requireMinimal);
+                } catch (ScriptException e) {
+                    try {
+                        ScriptInterpreter.castToLong(chunk, 5, requireMinimal);
+                        fail(Utils.HEX.encode(chunk));
+                    } catch (ScriptException e2) {
+                        assertEquals(e.getError(), e2.getError());
+                    }
+                    continue;
+                }
+                assertEquals(Utils.HEX.encode(chunk), expected.longValue(),
+                        ScriptInterpreter.castToLong(chunk, 5, requireMinimal));
+            }
+        }
+    }
+
+    @Test
+    public void encodeNumbers() {
+        long[] values = { 0, 1, -1, 16, 127, -127, 128, -128, 255, -255, 256, 0x7fff, 0x8000, -0x8000, 0x7fffffffL,
+                -0x7fffffffL, 0xffffffffL, 0x7fffffffffL, -0x7fffffffffL };
+        for (long value : values)
+            assertArrayEquals(Long.toString(value),
+                    Utils.reverseBytes(Utils.encodeMPI(BigInteger.valueOf(value), false)),
+                    ScriptInterpreter.encodeNumber(value));
+        Random random = new Random(2);
+        for (int i = 0; i < 10000; i++) {
+            long value = random.nextLong() >> (1 + random.nextInt(63));
+            byte[] encoded = ScriptInterpreter.encodeNumber(value);
+            assertArrayEquals(Utils.reverseBytes(Utils.encodeMPI(BigInteger.valueOf(value), false)), encoded);
+            if (encoded.length <= 8)
+                assertEquals(value, ScriptInterpreter.castToLong(encoded, 8, true));
+        }
+    }
+
+    @Test
+    public void stackOperations() {
+        // 1 2 3 4 5 6 2ROT 2SWAP ROT NIP TUCK 3 ROLL 2 PICK
+        LinkedList<byte[]> stack = run(new ScriptBuilder().number(1).number(2).number(3).number(4).number(5).number(6)
+                .op(OP_2ROT).op(OP_2SWAP).op(OP_ROT).op(OP_NIP).op(OP_TUCK).number(3).op(OP_ROLL).number(2)
+                .op(OP_PICK).build());
+        // 2ROT: 3 4 5 6 1 2, 2SWAP: 3 4 1 2 5 6, ROT: 3 4 1 5 6 2, NIP: 3 4 1 5 2, TUCK: 3 4 1 2 5 2,
+        // 3 ROLL: 3 4 2 5 2 1, 2 PICK: 3 4 2 5 2 1 5
+        assertEquals("[03] [04] [02] [05] [02] [01] [05]", toString(stack));
+    }
+
+    @Test
+    public void conditions() {
+        // The inner branches of a branch that isn't taken are never taken, whatever OP_ELSE does.
+        assertEquals("[01] [03]", toString(run(new ScriptBuilder().number(1).number(0).op(OP_IF).number(2)
+                .op(OP_IF).number(4).op(OP_ELSE).number(5).op(OP_ENDIF).op(OP_ELSE).number(3).op(OP_ENDIF)
+                .build())));
+        assertEquals("[06]", toString(run(new ScriptBuilder().number(0).op(OP_NOTIF).number(1).op(OP_NOTIF)
+                .number(2).op(OP_ELSE).number(0).op(OP_IF).number(3).op(OP_ELSE).number(6).op(OP_ENDIF).op(OP_ENDIF)
+                .op(OP_ENDIF).build())));
+        try {
+            run(new ScriptBuilder().number(1).op(OP_IF).number(1).op(OP_ENDIF).op(OP_ENDIF).build());
+            fail();
+        } catch (ScriptException e) {
+            assertEquals(ScriptError.SCRIPT_ERR_UNBALANCED_CONDITIONAL, e.getError());
+        }
+    }
+
+    @Test
+    public void stackIsKeptWhenScriptFails() {
+        LinkedList<byte[]> stack = new LinkedList<>();
+        stack.add(new byte[] { 7 });
+        try {
+            Script.executeScript(tx, 0, new ScriptBuilder().number(1).number(2).op(OP_RETURN).build(), stack, FLAGS);
+            fail();
+        } catch (ScriptException e) {
+            assertEquals(ScriptError.SCRIPT_ERR_OP_RETURN, e.getError());
+        }
+        assertEquals("[07] [01] [02]", toString(stack));
+    }
+
+    @Test
+    public void p2pkhFastPathAgreesWithInterpreter() {
+        TransactionSignature signature = tx.calculateSignature(0, key, p2pkh, SigHash.ALL, false);
+        byte[] sigBytes = signature.encodeToTdcoin();
+        ECKey otherKey = new ECKey();
+        TransactionSignature otherSignature = tx.calculateSignature(0, otherKey, p2pkh, SigHash.ALL, false);
+
+        assertEquals(ScriptError.SCRIPT_ERR_OK,
+                checkSameOutcome(ScriptBuilder.createInputScript(signature, key), p2pkh));
+        // Signed by another key.
+        assertEquals(ScriptError.SCRIPT_ERR_EVAL_FALSE,
+                checkSameOutcome(ScriptBuilder.createInputScript(otherSignature, key), p2pkh));
+        // The key doesn't match the hash.
+        assertEquals(ScriptError.SCRIPT_ERR_EQUALVERIFY,
+                checkSameOutcome(ScriptBuilder.createInputScript(otherSignature, otherKey), p2pkh));
+        // Not DER, rejected by the DERSIG flag.
+        byte[] notDer = Arrays.copyOf(sigBytes, sigBytes.length);
+        notDer[0] = 0x31;
+        assertEquals(ScriptError.SCRIPT_ERR_SIG_DER,
+                checkSameOutcome(new ScriptBuilder().data(notDer).data(key.getPubKey()).build(), p2pkh));
+        // The script contains the signature, which is removed before hashing, so it signs the script without it.
+        Script withoutSignature = new ScriptBuilder().op(OP_DROP).op(OP_DUP).op(OP_HASH160)
+                .data(key.getPubKeyHash()).op(OP_EQUALVERIFY).op(OP_CHECKSIG).build();
+        byte[] containedSig = tx.calculateSignature(0, key, withoutSignature, SigHash.ALL, false).encodeToTdcoin();
+        Script withSignature = new ScriptBuilder(withoutSignature).data(0, containedSig).build();
+        Script scriptSig = new ScriptBuilder().data(containedSig).data(key.getPubKey()).build();
+        assertEquals(ScriptError.SCRIPT_ERR_OK, checkSameOutcome(scriptSig, withSignature));
+    }
+
+    @Test
+    public void p2shStackLimit() {
+        Script redeemScript = new ScriptBuilder().op(OP_DROP).number(1).build();
+        Script p2sh = ScriptBuilder.createP2SHOutputScript(redeemScript);
+        for (int pushes : new int[] { 998, 999 }) {
+            ScriptBuilder builder = new ScriptBuilder();
+            for (int i = 0; i < pushes; i++)
+                builder.number(1);
+            Script scriptSig = builder.data(redeemScript.getProgram()).build();
+            try {
+                scriptSig.correctlySpends(tx, 0, p2sh, FLAGS);
+                assertEquals(998, pushes);
+            } catch (ScriptException e) {
+                // The hash pushed by the P2SH scriptPubKey is one element too many.
+                assertEquals(999, pushes);
+                assertEquals(ScriptError.SCRIPT_ERR_STACK_SIZE, e.getError());
+            }
+        }
+    }
+
+    // Runs the scripts like correctlySpends() does, but without its fast paths, checks it has the same outcome and
+    // returns it.
+    private ScriptError checkSameOutcome(Script scriptSig, Script scriptPubKey) {
+        ScriptError expected = ScriptError.SCRIPT_ERR_OK;
+        try {
+            LinkedList<byte[]> stack = new LinkedList<>();
+            Script.executeScript(tx, 0, scriptSig, stack, FLAGS);
+            Script.executeScript(tx, 0, scriptPubKey, stack, FLAGS);
+            if (!ScriptInterpreter.castToBool(stack.getLast()))
+                expected = ScriptError.SCRIPT_ERR_EVAL_FALSE;
+        } catch (ScriptException e) {
+            expected = e.getError();
+        }
+        ScriptError actual = ScriptError.SCRIPT_ERR_OK;
+        try {
+            scriptSig.correctlySpends(tx, 0, scriptPubKey, FLAGS);
+        } catch (ScriptException e) {
+            actual = e.getError();
+        }
+        assertEquals(expected, actual);
+        return actual;
+    }
+
+    private LinkedList<byte[]> run(Script script) {
+        LinkedList<byte[]> stack = new LinkedList<>();
+        Script.executeScript(tx, 0, script, stack, FLAGS);
+        return stack;
+    }
+
+    private static String toString(LinkedList<byte[]> stack) {
+        StringBuilder builder = new StringBuilder();
+        for (byte[] element : stack) {
+            if (builder.length() > 0)
+                builder.append(' ');
+            builder.append('[').append(Utils.HEX.encode(element)).append(']');
+        }
+        return builder.toString();
+    }
+}
@@ -21,14 +21,15 @@ package org.tdcoinj.script;
 import com.google.common.collect.Lists;
 
 import org.tdcoinj.core.ECKey;
+import org.tdcoinj.core.Utils;
 import org.junit.Test;
 
 import java.math.BigInteger;
+import java.util.Arrays;
 import java.util.List;
 
-import static org.tdcoinj.script.ScriptOpCodes.OP_CHECKMULTISIG;
-import static org.junit.Assert.assertFalse;
-import static org.junit.Assert.assertTrue;
+import static org.tdcoinj.script.ScriptOpCodes.*;
+import static org.junit.Assert.*;
 
 public class ScriptPatternTest {
     private List<ECKey> keys = Lists.newArrayList(new ECKey(), new ECKey(), new ECKey());
@@ -101,4 +102,86 @@ public class ScriptPatternTest {
                 ScriptBuilder.createOpReturnScript(new byte[10])
         ));
     }
+
+    @Test
+    public void templatesAgreeWithChunks() {
+        byte[] hash = new byte[20];
+        Arrays.fill(hash, (byte) 0x42);
+        List<Script> scripts = Lists.newArrayList(
+                ScriptBuilder.createP2PKHOutputScript(keys.get(0)),
+                ScriptBuilder.createP2SHOutputScript(2, keys),
+                ScriptBuilder.createP2PKOutputScript(keys.get(0)),
+                ScriptBuilder.createP2PKOutputScript(keys.get(1).decompress()),
+                ScriptBuilder.createP2WPKHOutputScript(keys.get(0)),
+                ScriptBuilder.createP2WSHOutputScript(new ScriptBuilder().build()),
+                ScriptBuilder.createMultiSigOutputScript(2, keys),
+                ScriptBuilder.createOpReturnScript(new byte[10]),
+                // Hashes pushed with OP_PUSHDATA1, which don't match the templates but do match by their chunks.
+                new Script(Utils.HEX.decode("76a94c14" + Utils.HEX.encode(hash) + "88ac")),
+                new Script(Utils.HEX.decode("004c14" + Utils.HEX.encode(hash))),
+                new Script(Utils.HEX.decode("a94c14" + Utils.HEX.encode(hash) + "87")));
+        for (Script built : scripts) {
+            Script parsed = new Script(built.getProgram());
+            Script fromChunks = new Script(built.getChunks());
+            assertNull(fromChunks.template);
+            String message = parsed.toString();
+            assertEquals(message, fromChunks.getScriptType(), parsed.getScriptType());
+            assertEquals(message, ScriptPattern.isP2PKH(fromChunks), ScriptPattern.isP2PKH(parsed));
+            assertEquals(message, ScriptPattern.isP2SH(fromChunks), ScriptPattern.isP2SH(parsed));
+            assertEquals(message, ScriptPattern.isP2PK(fromChunks), ScriptPattern.isP2PK(parsed));
+            assertEquals(message, ScriptPattern.isP2WH(fromChunks), ScriptPattern.isP2WH(parsed));
+            assertEquals(message, ScriptPattern.isP2WPKH(fromChunks), ScriptPattern.isP2WPKH(parsed));
+            assertEquals(message, ScriptPattern.isP2WSH(fromChunks), ScriptPattern.isP2WSH(parsed));
+            assertEquals(message, ScriptPattern.isSentToMultisig(fromChunks), ScriptPattern.isSentToMultisig(parsed));
+            assertEquals(message, ScriptPattern.isSentToCltvPaymentChannel(fromChunks),
+                    ScriptPattern.isSentToCltvPaymentChannel(parsed));
+            assertEquals(message, ScriptPattern.isOpReturn(fromChunks), ScriptPattern.isOpReturn(parsed));
+            if (ScriptPattern.isP2PKH(parsed))
+                assertArrayEquals(message, ScriptPattern.extractHashFromP2PKH(fromChunks),
+                        ScriptPattern.extractHashFromP2PKH(parsed));
+            if (ScriptPattern.isP2SH(parsed))
+                assertArrayEquals(message, ScriptPattern.extractHashFromP2SH(fromChunks),
+                        ScriptPattern.extractHashFromP2SH(parsed));
+            if (ScriptPattern.isP2PK(parsed))
+                assertArrayEquals(message, ScriptPattern.extractKeyFromP2PK(fromChunks),
+                        ScriptPattern.extractKeyFromP2PK(parsed));
+            if (ScriptPattern.isP2WH(parsed))
+                assertArrayEquals(message, ScriptPattern.extractHashFromP2WH(fromChunks),
+                        ScriptPattern.extractHashFromP2WH(parsed));
+            if (parsed.template != null) {
+                // Counted without parsing the program.
+                int checkSigs = 0;
+                for (ScriptChunk chunk : parsed.getChunks())
+                    if (chunk.equalsOpCode(OP_CHECKSIG))
+                        checkSigs++;
+                assertEquals(message, checkSigs, Script.getSigOpCount(parsed.getProgram()));
+            }
+        }
+    }
+
+    @Test
+    public void templatesAreParsedLazily() {
+        Script built = ScriptBuilder.createP2PKHOutputScript(keys.get(0));
+        Script parsed = new Script(built.getProgram());
+        assertEquals(Script.ScriptType.P2PKH, parsed.template);
+        assertNull(parsed.chunks);
+        // Extracting the hash doesn't parse the program, and the program can't be changed through the hash.
+        byte[] hash = ScriptPattern.extractHashFromP2PKH(parsed);
+        assertArrayEquals(keys.get(0).getPubKeyHash(), hash);
+        hash[0]++;
+        assertArrayEquals(keys.get(0).getPubKeyHash(), ScriptPattern.extractHashFromP2PKH(parsed));
+        assertNull(parsed.chunks);
+        assertEquals(built.getChunks(), parsed.getChunks());
+        assertEquals(built.toString(), parsed.toString());
+        // Other programs are still parsed, and checked, right away.
+        Script multisig = new Script(ScriptBuilder.createMultiSigOutputScript(2, keys).getProgram());
+        assertNull(multisig.template);
+        assertNotNull(multisig.chunks);
+        try {
+            new Script(new byte[] { 0x4c });
+            fail();
+        } catch (ScriptException e) {
+            // Expected.
+        }
+    }
 }
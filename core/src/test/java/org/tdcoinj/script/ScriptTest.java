@@ -386,6 +386,77 @@ public class ScriptTest {
         }
     }
 
+    @Test
+    public void dataDrivenValidTransactionsWithDeferredSignatureChecks() throws Exception {
+        JsonNode json = new ObjectMapper().readTree(new InputStreamReader(getClass().getResourceAsStream(
+                "tx_valid.json"), StandardCharsets.UTF_8));
+        int conclusive = 0;
+        for (JsonNode test : json) {
+            if (test.isArray() && test.size() == 1 && test.get(0).isTextual())
+                continue; // This is a comment.
+            Map<TransactionOutPoint, Script> scriptPubKeys = parseScriptPubKeys(test.get(0));
+            Transaction transaction = TESTNET.getDefaultSerializer().makeTransaction(HEX.decode(test.get(1).asText().toLowerCase()));
+            Set<VerifyFlag> verifyFlags = parseVerifyFlags(test.get(2).asText());
+            for (TransactionInput input : transaction.getInputs())
+                if (input.getOutpoint().getIndex() == 0xffffffffL)
+                    input.getOutpoint().setIndex(-1);
+            DeferredSignatureChecks checks = DeferredSignatureChecks.begin();
+            boolean passed = true;
+            try {
+                correctlySpendsAll(transaction, scriptPubKeys, verifyFlags);
+            } catch (ScriptException e) {
+                passed = false;
+            } finally {
+                checks.end();
+            }
+            if (passed && checks.verifyAll()) {
+                conclusive += checks.size() > 0 ? 1 : 0;
+            } else {
+                // Some scripts expect a signature check to fail, and a multisig check pairs the signatures with the
+                // first keys if they are assumed valid. Checking the signatures directly must succeed then.
+                correctlySpendsAll(transaction, scriptPubKeys, verifyFlags);
+            }
+        }
+        assertTrue(conclusive > 0);
+    }
+
+    private void correctlySpendsAll(Transaction transaction, Map<TransactionOutPoint, Script> scriptPubKeys,
+                                    Set<VerifyFlag> verifyFlags) {
+        for (int i = 0; i < transaction.getInputs().size(); i++) {
+            TransactionInput input = transaction.getInputs().get(i);
+            input.getScriptSig().correctlySpends(transaction, i, scriptPubKeys.get(input.getOutpoint()), verifyFlags);
+        }
+    }
+
+    @Test
+    public void deferredSignatureCheckFailsLater() throws Exception {
+        ECKey key = new ECKey();
+        Script scriptPubKey = ScriptBuilder.createP2PKOutputScript(key);
+        Transaction tx = new Transaction(TESTNET);
+        tx.addInput(new TransactionInput(TESTNET, tx, new byte[0], new TransactionOutPoint(TESTNET, 0,
+                Sha256Hash.of(new byte[] { 1 }))));
+        tx.addOutput(Coin.COIN, new ECKey());
+        // Sign something else than the transaction.
+        TransactionSignature signature = new TransactionSignature(key.sign(Sha256Hash.of(new byte[] { 2 })),
+                SigHash.ALL, false);
+        Script scriptSig = ScriptBuilder.createInputScript(signature);
+
+        DeferredSignatureChecks checks = DeferredSignatureChecks.begin();
+        try {
+            scriptSig.correctlySpends(tx, 0, scriptPubKey, Script.ALL_VERIFY_FLAGS);
+        } finally {
+            checks.end();
+        }
+        assertEquals(1, checks.size());
+        assertFalse(checks.verifyAll());
+        try {
+            scriptSig.correctlySpends(tx, 0, scriptPubKey, Script.ALL_VERIFY_FLAGS);
+            fail();
+        } catch (ScriptException e) {
+            assertEquals(ScriptError.SCRIPT_ERR_EVAL_FALSE, e.getError());
+        }
+    }
+
     @Test
     public void dataDrivenInvalidTransactions() throws Exception {
         JsonNode json = new ObjectMapper().readTree(new InputStreamReader(getClass().getResourceAsStream(
@@ -0,0 +1,119 @@
+/*
+ * Copyright by the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.tdcoinj.signers;
+
+import org.tdcoinj.core.*;
+import org.tdcoinj.params.UnitTestParams;
+import org.tdcoinj.script.Script;
+import org.tdcoinj.utils.Threading;
+import org.tdcoinj.wallet.KeyBag;
+import org.tdcoinj.wallet.RedeemData;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class LocalTransactionSignerTest {
+    private static final NetworkParameters UNITTEST = UnitTestParams.get();
+
+    private final List<ECKey> keys = new ArrayList<>();
+    private final KeyBag keyBag = new KeyBag() {
+        @Nullable
+        @Override
+        public ECKey findKeyFromPubKeyHash(byte[] pubKeyHash, @Nullable Script.ScriptType scriptType) {
+            for (ECKey key : keys)
+                if (Arrays.equals(key.getPubKeyHash(), pubKeyHash))
+                    return key;
+            return null;
+        }
+
+        @Nullable
+        @Override
+        public ECKey findKeyFromPubKey(byte[] pubKey) {
+            for (ECKey key : keys)
+                if (Arrays.equals(key.getPubKey(), pubKey))
+                    return key;
+            return null;
+        }
+
+        @Nullable
+        @Override
+        public RedeemData findRedeemDataFromScriptHash(byte[] scriptHash) {
+            return null;
+        }
+    };
+
+    private final Address destination = LegacyAddress.fromKey(UNITTEST, new ECKey());
+    private Transaction parent;
+
+    @Before
+    public void setUp() throws Exception {
+        Context.propagate(new Context(UNITTEST));
+        parent = new Transaction(UNITTEST);
+        for (int i = 0; i < 20; i++) {
+            ECKey key = new ECKey();
+            keys.add(key);
+            Address address = i % 2 == 0 ? LegacyAddress.fromKey(UNITTEST, key) : SegwitAddress.fromKey(UNITTEST, key);
+            parent.addOutput(Coin.valueOf(100000 + i), address);
+        }
+    }
+
+    @Test
+    public void parallelSigningMatchesSequential() {
+        Transaction sequential = sign(new LocalTransactionSigner(Threading.THREAD_POOL, 1));
+        Transaction parallel = sign(new LocalTransactionSigner(Threading.THREAD_POOL, 4));
+        assertArrayEquals(sequential.tdcoinSerialize(), parallel.tdcoinSerialize());
+        for (int i = 0; i < parallel.getInputs().size(); i++) {
+            TransactionInput input = parallel.getInput(i);
+            TransactionOutput output = parent.getOutput(i);
+            input.getScriptSig().correctlySpends(parallel, i, input.getWitness(), output.getValue(),
+                    output.getScriptPubKey(), Script.ALL_VERIFY_FLAGS);
+        }
+    }
+
+    @Test
+    public void skipsInputsWithoutPrivateKey() {
+        keys.set(3, ECKey.fromPublicOnly(keys.get(3).getPubKey()));
+        Transaction tx = sign(new LocalTransactionSigner(Threading.THREAD_POOL, 4));
+        // Input 3 is P2WPKH and keeps its empty witness.
+        assertEquals(parent.getOutput(3).getScriptPubKey().createEmptyWitness(keys.get(3)), tx.getInput(3).getWitness());
+        assertTrue(tx.getInput(2).getScriptBytes().length > 0);
+        assertTrue(tx.getInput(5).getWitness().getPushCount() > 0);
+    }
+
+    private Transaction sign(LocalTransactionSigner signer) {
+        Transaction tx = new Transaction(UNITTEST);
+        for (TransactionOutput output : parent.getOutputs())
+            tx.addInput(output);
+        tx.addOutput(Coin.valueOf(1000000), destination);
+        for (TransactionInput input : tx.getInputs()) {
+            RedeemData redeemData = input.getConnectedRedeemData(keyBag);
+            if (redeemData == null)
+                continue;
+            Script scriptPubKey = input.getConnectedOutput().getScriptPubKey();
+            input.setScriptSig(scriptPubKey.createEmptyInputScript(redeemData.keys.get(0), redeemData.redeemScript));
+            input.setWitness(scriptPubKey.createEmptyWitness(redeemData.keys.get(0)));
+        }
+        signer.signInputs(new TransactionSigner.ProposedTransaction(tx), keyBag);
+        return tx;
+    }
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright by the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.tdcoinj.utils;
+
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+public class ThreadingTest {
+
+    @Test
+    public void runSlicesCoversRangeOnce() {
+        for (int count : new int[] { 0, 1, 7, 100, 1001 }) {
+            final AtomicIntegerArray runs = new AtomicIntegerArray(count);
+            final Thread caller = Thread.currentThread();
+            Threading.runSlices(count, 10, Threading.THREAD_POOL, 4, new Threading.Slice() {
+                @Override
+                public void run(int start, int end) {
+                    if (start == 0)
+                        assertSame(caller, Thread.currentThread());
+                    for (int i = start; i < end; i++)
+                        runs.incrementAndGet(i);
+                }
+            });
+            for (int i = 0; i < count; i++)
+                assertEquals(1, runs.get(i));
+        }
+    }
+
+    @Test
+    public void runWorkersRethrows() {
+        final IllegalStateException exception = new IllegalStateException();
+        try {
+            Threading.runWorkers(3, Threading.THREAD_POOL, new Threading.Worker() {
+                @Override
+                public void run(int index) {
+                    if (index == 2)
+                        throw exception;
+                }
+            });
+            fail();
+        } catch (IllegalStateException e) {
+            assertSame(exception, e);
+        }
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright by the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.tdcoinj.wallet;
+
+import org.tdcoinj.core.Utils;
+import org.tdcoinj.crypto.KeyCrypterScrypt;
+import org.tdcoinj.params.UnitTestParams;
+import org.tdcoinj.script.Script;
+import org.tdcoinj.wallet.Wallet.BadWalletEncryptionKeyException;
+import org.bouncycastle.crypto.params.KeyParameter;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class AesKeyCacheTest {
+    private static final int SCRYPT_ITERATIONS = 256;
+
+    private Wallet wallet;
+    private AesKeyCache cache;
+
+    @Before
+    public void setUp() {
+        Utils.setMockClock();
+        wallet = Wallet.createDeterministic(UnitTestParams.get(), Script.ScriptType.P2PKH);
+        KeyCrypterScrypt keyCrypter = new KeyCrypterScrypt(SCRYPT_ITERATIONS);
+        wallet.encrypt(keyCrypter, keyCrypter.deriveKey("password"));
+        cache = new AesKeyCache();
+    }
+
+    @After
+    public void tearDown() {
+        Utils.mockTime = null;
+    }
+
+    @Test
+    public void unlockAndExpire() throws Exception {
+        KeyParameter aesKey = cache.unlock(wallet, "password", 10, TimeUnit.MINUTES).get();
+        assertTrue(wallet.checkAESKey(aesKey));
+        assertSame(aesKey, cache.get(wallet));
+        assertEquals(1, cache.size());
+
+        Utils.rollMockClock(9 * 60);
+        assertTrue(cache.isUnlocked(wallet));
+        Utils.rollMockClock(60);
+        assertFalse(cache.isUnlocked(wallet));
+        assertNull(cache.get(wallet));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void wrongPassword() throws Exception {
+        try {
+            cache.unlock(wallet, "wrong", 10, TimeUnit.MINUTES).get();
+            fail();
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof BadWalletEncryptionKeyException);
+        }
+        assertFalse(cache.isUnlocked(wallet));
+    }
+
+    @Test
+    public void wrongPasswordKeepsEarlierKey() throws Exception {
+        KeyParameter aesKey = cache.unlock(wallet, "password", 10, TimeUnit.MINUTES).get();
+        try {
+            cache.unlock(wallet, "wrong", 10, TimeUnit.MINUTES).get();
+            fail();
+        } catch (ExecutionException e) {
+            // expected
+        }
+        assertSame(aesKey, cache.get(wallet));
+    }
+
+    @Test
+    public void lock() throws Exception {
+        Wallet other = Wallet.createDeterministic(UnitTestParams.get(), Script.ScriptType.P2PKH);
+        KeyCrypterScrypt keyCrypter = new KeyCrypterScrypt(SCRYPT_ITERATIONS);
+        KeyParameter otherKey = keyCrypter.deriveKey("other");
+        other.encrypt(keyCrypter, otherKey);
+        cache.put(other, otherKey, 1, TimeUnit.HOURS);
+        cache.unlock(wallet, "password", 1, TimeUnit.HOURS).get();
+        assertEquals(2, cache.size());
+
+        cache.lock(wallet);
+        assertFalse(cache.isUnlocked(wallet));
+        assertTrue(cache.isUnlocked(other));
+        cache.lockAll();
+        assertEquals(0, cache.size());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void unlockUnencrypted() {
+        cache.unlock(Wallet.createDeterministic(UnitTestParams.get(), Script.ScriptType.P2PKH), "password", 1,
+                TimeUnit.HOURS);
+    }
+}
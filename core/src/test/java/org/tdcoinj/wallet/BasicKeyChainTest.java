@@ -30,6 +30,7 @@ import org.tdcoinj.wallet.BasicKeyChain;
 import org.tdcoinj.wallet.KeyChain;
 import org.tdcoinj.wallet.Protos;
 import org.tdcoinj.wallet.listeners.AbstractKeyChainEventListener;
+import org.bouncycastle.crypto.params.KeyParameter;
 import org.junit.Before;
 import org.junit.Test;
 
@@ -170,6 +171,47 @@ public class BasicKeyChainTest {
         key.getPrivKeyBytes();
     }
 
+    @Test
+    public void encryptDecryptInParallel() {
+        // More keys than one chunk of the pipeline, not a multiple of it.
+        List<ECKey> keys = new ArrayList<>();
+        for (int i = 0; i < 700; i++)
+            keys.add(new ECKey());
+        chain.importKeys(keys);
+        KeyCrypter keyCrypter = new KeyCrypterScrypt(2);
+        KeyParameter aesKey = keyCrypter.deriveKey("foobar");
+        final List<Double> progress = new ArrayList<>();
+        EncryptableKeyChain.ProgressCallback callback = new EncryptableKeyChain.ProgressCallback() {
+            @Override
+            public void onProgress(double p) {
+                progress.add(p);
+            }
+        };
+
+        BasicKeyChain encrypted = chain.toEncrypted(keyCrypter, aesKey, Threading.THREAD_POOL, 4, callback);
+        assertProgress(progress);
+        List<ECKey> encryptedKeys = encrypted.getKeys();
+        assertEquals(keys.size(), encryptedKeys.size());
+        for (int i = 0; i < keys.size(); i++) {
+            assertArrayEquals(keys.get(i).getPubKey(), encryptedKeys.get(i).getPubKey());
+            assertTrue(encryptedKeys.get(i).isEncrypted());
+        }
+
+        progress.clear();
+        BasicKeyChain decrypted = encrypted.toDecrypted(aesKey, Threading.THREAD_POOL, 4, callback);
+        assertProgress(progress);
+        List<ECKey> decryptedKeys = decrypted.getKeys();
+        for (int i = 0; i < keys.size(); i++)
+            assertArrayEquals(keys.get(i).getPrivKeyBytes(), decryptedKeys.get(i).getPrivKeyBytes());
+    }
+
+    private static void assertProgress(List<Double> progress) {
+        assertFalse(progress.isEmpty());
+        for (int i = 1; i < progress.size(); i++)
+            assertTrue(progress.get(i) >= progress.get(i - 1));
+        assertEquals(1.0, progress.get(progress.size() - 1), 0);
+    }
+
     @Test(expected = KeyCrypterException.class)
     public void cannotImportEncryptedKey() {
         final ECKey key1 = new ECKey();
@@ -0,0 +1,143 @@
+/*
+ * Copyright by the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.tdcoinj.wallet;
+
+import org.tdcoinj.core.AbstractBlockChain;
+import org.tdcoinj.core.Address;
+import org.tdcoinj.core.Coin;
+import org.tdcoinj.core.ECKey;
+import org.tdcoinj.core.InsufficientMoneyException;
+import org.tdcoinj.core.LegacyAddress;
+import org.tdcoinj.core.Sha256Hash;
+import org.tdcoinj.core.Transaction;
+import org.tdcoinj.core.TransactionConfidence.ConfidenceType;
+import org.tdcoinj.core.TransactionInput;
+import org.tdcoinj.core.TransactionOutPoint;
+import org.tdcoinj.core.TransactionOutput;
+import org.tdcoinj.testing.TestWithWallet;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.tdcoinj.core.Coin.*;
+import static org.junit.Assert.*;
+
+public class BatchSendRequestTest extends TestWithWallet {
+    @Before
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+    }
+
+    @Test
+    public void splitsIntoTransactionsWithDisjointInputs() throws Exception {
+        for (int i = 0; i < 5; i++)
+            sendMoneyToWallet(AbstractBlockChain.NewBlockType.BEST_CHAIN, COIN);
+        BatchSendRequest batch = new BatchSendRequest(UNITTEST);
+        batch.maxOutputsPerTransaction = 3;
+        batch.signingThreads = 4;
+        Set<Address> recipients = new HashSet<>();
+        for (int i = 0; i < 7; i++) {
+            Address address = LegacyAddress.fromKey(UNITTEST, new ECKey());
+            recipients.add(address);
+            batch.addRecipient(address, valueOf(0, 50));
+        }
+        assertEquals(valueOf(3, 50), batch.getTotalValue());
+
+        List<Transaction> txns = wallet.sendCoinsOffline(batch);
+        assertEquals(3, txns.size());
+        Set<TransactionOutPoint> spent = new HashSet<>();
+        Set<Address> changeAddresses = new HashSet<>();
+        Set<Address> paid = new HashSet<>();
+        Coin fees = ZERO;
+        for (Transaction tx : txns) {
+            assertEquals(ConfidenceType.PENDING, tx.getConfidence().getConfidenceType());
+            for (TransactionInput input : tx.getInputs())
+                assertTrue(spent.add(input.getOutpoint()));
+            for (TransactionOutput output : tx.getOutputs()) {
+                Address address = output.getScriptPubKey().getToAddress(UNITTEST);
+                if (output.isMine(wallet))
+                    changeAddresses.add(address);
+                else
+                    paid.add(address);
+            }
+            fees = fees.add(tx.getFee());
+        }
+        assertEquals(recipients, paid);
+        assertEquals(3, changeAddresses.size());
+        assertEquals(valueOf(5, 0).subtract(valueOf(3, 50)).subtract(fees),
+                wallet.getBalance(Wallet.BalanceType.ESTIMATED));
+        assertEquals(3, wallet.getPoolSize(WalletTransaction.Pool.PENDING));
+        assertTrue(wallet.isConsistent());
+    }
+
+    @Test
+    public void splitsTransactionsThatWouldBeTooLarge() throws Exception {
+        // Many small coins, so that paying two recipients takes inputs of about 60 kilobytes.
+        Transaction coins = new Transaction(UNITTEST);
+        coins.addInput(new TransactionInput(UNITTEST, coins, new byte[] { 0 },
+                new TransactionOutPoint(UNITTEST, 0, Sha256Hash.of(new byte[] { 1 }))));
+        for (int i = 0; i < 1000; i++)
+            coins.addOutput(CENT, myAddress);
+        sendMoneyToWallet(AbstractBlockChain.NewBlockType.BEST_CHAIN, coins);
+        BatchSendRequest batch = new BatchSendRequest(UNITTEST);
+        for (int i = 0; i < 4; i++)
+            batch.addRecipient(LegacyAddress.fromKey(UNITTEST, new ECKey()), COIN.multiply(2));
+
+        List<Transaction> txns = wallet.sendCoinsOffline(batch);
+        assertEquals(2, txns.size());
+        for (Transaction tx : txns) {
+            assertTrue(tx.getMessageSize() <= Transaction.MAX_STANDARD_TX_SIZE);
+            int paid = 0;
+            for (TransactionOutput output : tx.getOutputs())
+                if (!output.isMine(wallet))
+                    paid++;
+            assertEquals(2, paid);
+        }
+        assertTrue(wallet.isConsistent());
+    }
+
+    @Test
+    public void nothingCommittedIfInsufficientMoney() throws Exception {
+        sendMoneyToWallet(AbstractBlockChain.NewBlockType.BEST_CHAIN, COIN);
+        sendMoneyToWallet(AbstractBlockChain.NewBlockType.BEST_CHAIN, COIN);
+        BatchSendRequest batch = new BatchSendRequest(UNITTEST);
+        batch.maxOutputsPerTransaction = 1;
+        for (int i = 0; i < 3; i++)
+            batch.addRecipient(LegacyAddress.fromKey(UNITTEST, new ECKey()), valueOf(0, 90));
+        try {
+            wallet.sendCoinsOffline(batch);
+            fail();
+        } catch (InsufficientMoneyException e) {
+            // Expected.
+        }
+        assertEquals(0, wallet.getPoolSize(WalletTransaction.Pool.PENDING));
+        assertEquals(valueOf(2, 0), wallet.getBalance(Wallet.BalanceType.ESTIMATED));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void cannotSendTwice() throws Exception {
+        sendMoneyToWallet(AbstractBlockChain.NewBlockType.BEST_CHAIN, COIN);
+        BatchSendRequest batch = new BatchSendRequest(UNITTEST);
+        batch.addRecipient(LegacyAddress.fromKey(UNITTEST, new ECKey()), valueOf(0, 10));
+        wallet.sendCoinsOffline(batch);
+        wallet.sendCoinsOffline(batch);
+    }
+}
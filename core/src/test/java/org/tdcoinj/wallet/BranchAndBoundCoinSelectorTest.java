@@ -0,0 +1,109 @@
+/*
+ * Copyright by the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.tdcoinj.wallet;
+
+import org.tdcoinj.core.*;
+import org.tdcoinj.testing.*;
+import org.junit.*;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+import static org.tdcoinj.core.Coin.*;
+import static org.junit.Assert.*;
+
+public class BranchAndBoundCoinSelectorTest extends TestWithWallet {
+    @Before
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+    }
+
+    @Test
+    public void exactMatch() {
+        long[] values = { 8, 7, 5, 3, 1 };
+        long[] selected = BranchAndBoundCoinSelector.search(values, 9, 0, 1000, TimeUnit.SECONDS.toNanos(1));
+        assertEquals(9, sum(selected));
+        selected = BranchAndBoundCoinSelector.search(values, 24, 0, 1000, TimeUnit.SECONDS.toNanos(1));
+        assertEquals(5, selected.length);
+    }
+
+    @Test
+    public void withinCostOfChange() {
+        long[] values = { 100, 50, 30 };
+        assertNull(BranchAndBoundCoinSelector.search(values, 75, 0, 1000, TimeUnit.SECONDS.toNanos(1)));
+        long[] selected = BranchAndBoundCoinSelector.search(values, 75, 5, 1000, TimeUnit.SECONDS.toNanos(1));
+        assertArrayEquals(new long[] { 50, 30 }, selected);
+    }
+
+    @Test
+    public void insufficientFunds() {
+        assertNull(BranchAndBoundCoinSelector.search(new long[] { 3, 2 }, 6, 10, 1000, TimeUnit.SECONDS.toNanos(1)));
+        assertNull(BranchAndBoundCoinSelector.search(new long[0], 1, 10, 1000, TimeUnit.SECONDS.toNanos(1)));
+    }
+
+    @Test
+    public void triesAreBounded() {
+        long[] values = new long[1000];
+        Arrays.fill(values, 2);
+        // Odd target can't be reached by even values, the search must stop anyway.
+        assertNull(BranchAndBoundCoinSelector.search(values, 1001, 0, 10000, TimeUnit.SECONDS.toNanos(10)));
+    }
+
+    @Test
+    public void selectsChangelessFromWallet() throws Exception {
+        sendMoneyToWallet(AbstractBlockChain.NewBlockType.BEST_CHAIN, COIN);
+        Transaction half = sendMoneyToWallet(AbstractBlockChain.NewBlockType.BEST_CHAIN, valueOf(0, 50));
+        Transaction quarter = sendMoneyToWallet(AbstractBlockChain.NewBlockType.BEST_CHAIN, valueOf(0, 25));
+        BranchAndBoundCoinSelector selector = new BranchAndBoundCoinSelector(Coin.ZERO);
+        CoinSelection selection = selector.select(valueOf(0, 75), wallet.calculateAllSpendCandidates());
+        assertEquals(valueOf(0, 75), selection.valueGathered);
+        assertEquals(2, selection.gathered.size());
+        assertTrue(selection.gathered.contains(half.getOutput(0)));
+        assertTrue(selection.gathered.contains(quarter.getOutput(0)));
+    }
+
+    @Test
+    public void fallsBackToDefaultSelection() throws Exception {
+        sendMoneyToWallet(AbstractBlockChain.NewBlockType.BEST_CHAIN, COIN);
+        sendMoneyToWallet(AbstractBlockChain.NewBlockType.BEST_CHAIN, valueOf(0, 50));
+        List<TransactionOutput> candidates = wallet.calculateAllSpendCandidates();
+        CoinSelection selection = new BranchAndBoundCoinSelector(Coin.ZERO).select(valueOf(0, 70), candidates);
+        CoinSelection expected = new DefaultCoinSelector().select(valueOf(0, 70), candidates);
+        assertEquals(expected.valueGathered, selection.valueGathered);
+        assertEquals(new HashSet<>(expected.gathered), new HashSet<>(selection.gathered));
+    }
+
+    @Test
+    public void completeTxWithoutChange() throws Exception {
+        sendMoneyToWallet(AbstractBlockChain.NewBlockType.BEST_CHAIN, COIN);
+        sendMoneyToWallet(AbstractBlockChain.NewBlockType.BEST_CHAIN, valueOf(0, 50));
+        sendMoneyToWallet(AbstractBlockChain.NewBlockType.BEST_CHAIN, valueOf(0, 30));
+        SendRequest req = SendRequest.to(LegacyAddress.fromKey(UNITTEST, new ECKey()), valueOf(0, 80));
+        req.coinSelector = new BranchAndBoundCoinSelector(Coin.ZERO);
+        wallet.completeTx(req);
+        assertEquals(2, req.tx.getInputs().size());
+        assertEquals(1, req.tx.getOutputs().size());
+    }
+
+    private static long sum(long[] values) {
+        long sum = 0;
+        for (long value : values)
+            sum += value;
+        return sum;
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright by the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.tdcoinj.wallet;
+
+import com.google.protobuf.ByteString;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class ByteSliceIndexTest {
+    @Test
+    public void getFromSlice() {
+        ByteSliceIndex<String> index = new ByteSliceIndex<>();
+        byte[] key = { 1, 2, 3, 4, 5, 6, 7, 8, 9, 10 };
+        assertNull(index.put(key, "a"));
+        assertEquals("a", index.put(key.clone(), "b"));
+        assertEquals(1, index.size());
+        byte[] buf = { 0, 0, 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 0 };
+        assertEquals("b", index.get(buf, 2, 10));
+        assertNull(index.get(buf, 1, 10));
+        assertNull(index.get(buf, 2, 9));
+        assertNull(index.get(new byte[0]));
+    }
+
+    @Test
+    public void matchesHashMap() {
+        // Short keys collide often, which exercises probing and removal.
+        Random random = new Random(7);
+        ByteSliceIndex<Integer> index = new ByteSliceIndex<>();
+        Map<ByteString, Integer> map = new HashMap<>();
+        List<byte[]> keys = new ArrayList<>();
+        for (int i = 0; i < 20000; i++) {
+            int op = random.nextInt(3);
+            if (op < 2 || keys.isEmpty()) {
+                byte[] key = new byte[1 + random.nextInt(3)];
+                random.nextBytes(key);
+                keys.add(key);
+                assertEquals(map.put(ByteString.copyFrom(key), i), index.put(key.clone(), i));
+            } else {
+                byte[] key = keys.remove(random.nextInt(keys.size()));
+                assertEquals(map.remove(ByteString.copyFrom(key)), index.remove(key));
+            }
+            assertEquals(map.size(), index.size());
+        }
+        for (Map.Entry<ByteString, Integer> entry : map.entrySet())
+            assertEquals(entry.getValue(), index.get(entry.getKey().toByteArray()));
+        index.clear();
+        assertEquals(0, index.size());
+        assertNull(index.get(keys.get(0)));
+    }
+}
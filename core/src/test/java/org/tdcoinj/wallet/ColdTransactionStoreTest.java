@@ -0,0 +1,226 @@
+/*
+ * Copyright by the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.tdcoinj.wallet;
+
+import org.tdcoinj.core.AbstractBlockChain;
+import org.tdcoinj.core.Address;
+import org.tdcoinj.core.Coin;
+import org.tdcoinj.core.ECKey;
+import org.tdcoinj.core.LegacyAddress;
+import org.tdcoinj.core.Sha256Hash;
+import org.tdcoinj.core.Transaction;
+import org.tdcoinj.core.TransactionInput;
+import org.tdcoinj.core.TransactionOutput;
+import org.tdcoinj.core.TransactionConfidence.ConfidenceType;
+import org.tdcoinj.testing.FakeTxBuilder;
+import org.tdcoinj.testing.TestWithWallet;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.Date;
+import java.util.List;
+
+import static org.tdcoinj.core.Coin.COIN;
+import static org.tdcoinj.core.Coin.valueOf;
+import static org.tdcoinj.testing.FakeTxBuilder.createFakeBlock;
+import static org.junit.Assert.*;
+
+public class ColdTransactionStoreTest extends TestWithWallet {
+    private static final Address OTHER_ADDRESS = LegacyAddress.fromKey(UNITTEST, new ECKey());
+
+    private File storeFile;
+    private ColdTransactionStore store;
+
+    @Before
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+        storeFile = File.createTempFile("coldtxstore", null);
+        storeFile.delete();
+        storeFile.deleteOnExit();
+        store = new ColdTransactionStore(UNITTEST, storeFile);
+    }
+
+    @After
+    @Override
+    public void tearDown() throws Exception {
+        store.close();
+        super.tearDown();
+    }
+
+    @Test
+    public void putAndGet() throws Exception {
+        Transaction tx1 = sendMoneyToWallet(AbstractBlockChain.NewBlockType.BEST_CHAIN, COIN);
+        Transaction tx2 = sendMoneyToWallet(AbstractBlockChain.NewBlockType.BEST_CHAIN, valueOf(0, 50));
+        tx1.setUpdateTime(new Date(1000));
+        tx2.setUpdateTime(new Date(2000));
+        assertTrue(store.put(tx1));
+        assertTrue(store.put(tx2));
+        assertFalse(store.put(tx1));
+        assertEquals(2, store.size());
+        assertTrue(store.contains(tx1.getTxId()));
+        assertNull(store.get(Sha256Hash.ZERO_HASH));
+
+        Transaction read = store.get(tx1.getTxId());
+        assertEquals(tx1, read);
+        assertNotSame(tx1, read);
+        assertEquals(ConfidenceType.BUILDING, read.getConfidence().getConfidenceType());
+        assertEquals(tx1.getUpdateTime(), read.getUpdateTime());
+
+        List<Sha256Hash> byTime = store.getTxIdsByTime(0);
+        assertEquals(tx2.getTxId(), byTime.get(0));
+        assertEquals(tx1.getTxId(), byTime.get(1));
+        assertEquals(1, store.getTxIdsByTime(1).size());
+    }
+
+    @Test
+    public void reopen() throws Exception {
+        Transaction tx = sendMoneyToWallet(AbstractBlockChain.NewBlockType.BEST_CHAIN, COIN);
+        store.put(tx);
+        store.close();
+        store = new ColdTransactionStore(UNITTEST, storeFile);
+        assertEquals(1, store.size());
+        assertEquals(tx, store.get(tx.getTxId()));
+        store.clear();
+        assertEquals(0, store.size());
+    }
+
+    @Test
+    public void evictSpentTransactions() throws Exception {
+        Transaction received = sendMoneyToWallet(AbstractBlockChain.NewBlockType.BEST_CHAIN, COIN);
+        Transaction spend = wallet.createSend(OTHER_ADDRESS, valueOf(0, 50));
+        wallet.commitTx(spend);
+        sendMoneyToWallet(AbstractBlockChain.NewBlockType.BEST_CHAIN, spend);
+        assertEquals(1, wallet.getPoolSize(WalletTransaction.Pool.SPENT));
+        Coin totalReceived = wallet.getTotalReceived();
+        Coin totalSent = wallet.getTotalSent();
+
+        wallet.setColdTransactionStore(store, 3);
+        assertEquals(0, store.size());
+        for (int i = 0; i < 2; i++)
+            wallet.notifyNewBestBlock(createFakeBlock(blockStore, 1).storedBlock);
+
+        // The received transaction is fully spent and buried deep enough now, the spend still has unspent change.
+        assertEquals(0, wallet.getPoolSize(WalletTransaction.Pool.SPENT));
+        assertEquals(1, store.size());
+        assertFalse(wallet.getTransactions(true).contains(received));
+        assertEquals(totalReceived, wallet.getTotalReceived());
+        assertEquals(totalSent, wallet.getTotalSent());
+        assertTrue(wallet.isConsistent());
+
+        Transaction cold = wallet.getTransaction(received.getTxId());
+        assertEquals(received, cold);
+        assertEquals(4, cold.getConfidence().getDepthInBlocks());
+        assertEquals(2, wallet.getTransactionsByTime().size());
+        assertEquals(1, wallet.getRecentTransactions(1, false).size());
+        int walletTransactions = 0;
+        for (WalletTransaction wtx : wallet.getWalletTransactions())
+            walletTransactions++;
+        assertEquals(2, walletTransactions);
+
+        // The spend doesn't keep the evicted transaction in memory.
+        TransactionInput input = wallet.getTransaction(spend.getTxId()).getInput(0);
+        assertNull(input.getConnectedOutput());
+        assertEquals(received, wallet.getTransaction(input.getOutpoint().getHash()));
+
+        // The wallet file only refers to the store.
+        Protos.Wallet proto = new WalletProtobufSerializer().walletToProto(wallet);
+        assertEquals(1, proto.getTransactionCount());
+        Protos.Extension extension = proto.getExtension(0);
+        assertEquals(ColdTransactionStore.WALLET_EXTENSION_ID, extension.getId());
+        assertTrue(extension.getMandatory());
+        Wallet restored = new WalletProtobufSerializer().readWallet(UNITTEST, null, proto);
+        assertEquals(0, restored.getPoolSize(WalletTransaction.Pool.SPENT));
+        assertEquals(wallet.getBalance(), restored.getBalance());
+        assertEquals(totalReceived, restored.getTotalReceived());
+        assertEquals(totalSent, restored.getTotalSent());
+        assertTrue(restored.isConsistent());
+        assertNull(restored.getTransaction(received.getTxId()));
+        restored.setColdTransactionStore(store, 3);
+        assertEquals(received, restored.getTransaction(received.getTxId()));
+        Protos.Wallet resaved = new WalletProtobufSerializer().walletToProto(restored);
+        assertEquals(proto.getTransactionList(), resaved.getTransactionList());
+        assertEquals(proto.getExtensionList(), resaved.getExtensionList());
+
+        wallet.reset();
+        assertEquals(0, store.size());
+        assertNull(wallet.getTransaction(received.getTxId()));
+    }
+
+    @Test
+    public void outputsSpentByEvictedTransactionsStaySpent() throws Exception {
+        Transaction received = new Transaction(UNITTEST);
+        received.addOutput(COIN, myAddress);
+        received.addOutput(COIN, myAddress);
+        received.addInput(FakeTxBuilder.createFakeTx(UNITTEST).getOutput(0));
+        received = sendMoneyToWallet(AbstractBlockChain.NewBlockType.BEST_CHAIN, received);
+        Transaction spend = new Transaction(UNITTEST);
+        spend.addInput(received.getOutput(0));
+        spend.addOutput(COIN, OTHER_ADDRESS);
+        wallet.signTransaction(SendRequest.forTx(spend));
+        sendMoneyToWallet(AbstractBlockChain.NewBlockType.BEST_CHAIN, spend);
+        Coin totalReceived = wallet.getTotalReceived();
+        Coin totalSent = wallet.getTotalSent();
+
+        wallet.setColdTransactionStore(store, 3);
+        for (int i = 0; i < 2; i++)
+            wallet.notifyNewBestBlock(createFakeBlock(blockStore, 1).storedBlock);
+
+        // The spend is evicted, the received transaction still has an unspent output.
+        assertEquals(1, store.size());
+        assertEquals(1, wallet.getPoolSize(WalletTransaction.Pool.UNSPENT));
+        TransactionOutput output = received.getOutput(0);
+        assertFalse(output.isAvailableForSpending());
+        assertNull(output.getSpentBy());
+        assertEquals(COIN, wallet.getBalance());
+        assertEquals(totalReceived, wallet.getTotalReceived());
+        assertEquals(totalSent, wallet.getTotalSent());
+        assertTrue(wallet.isConsistent());
+
+        Wallet restored = new WalletProtobufSerializer().readWallet(UNITTEST, null,
+                new WalletProtobufSerializer().walletToProto(wallet));
+        assertFalse(restored.getTransaction(received.getTxId()).getOutput(0).isAvailableForSpending());
+        assertEquals(COIN, restored.getBalance());
+        assertEquals(totalReceived, restored.getTotalReceived());
+        assertEquals(totalSent, restored.getTotalSent());
+        assertTrue(restored.isConsistent());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void storeMustHoldTheEvictedTransactions() throws Exception {
+        sendMoneyToWallet(AbstractBlockChain.NewBlockType.BEST_CHAIN, COIN);
+        Transaction spend = wallet.createSend(OTHER_ADDRESS, COIN);
+        wallet.commitTx(spend);
+        sendMoneyToWallet(AbstractBlockChain.NewBlockType.BEST_CHAIN, spend);
+        wallet.setColdTransactionStore(store, 1);
+        assertEquals(2, store.size());
+
+        Wallet restored = new WalletProtobufSerializer().readWallet(UNITTEST, null,
+                new WalletProtobufSerializer().walletToProto(wallet));
+        File emptyFile = File.createTempFile("coldtxstore", null);
+        emptyFile.delete();
+        emptyFile.deleteOnExit();
+        ColdTransactionStore empty = new ColdTransactionStore(UNITTEST, emptyFile);
+        try {
+            restored.setColdTransactionStore(empty, 1);
+        } finally {
+            empty.close();
+        }
+    }
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright by the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.tdcoinj.wallet;
+
+import org.tdcoinj.core.ECKey;
+import org.tdcoinj.crypto.KeyCrypter;
+import org.tdcoinj.crypto.KeyCrypterScrypt;
+import org.tdcoinj.params.UnitTestParams;
+import org.tdcoinj.script.Script;
+import org.bouncycastle.crypto.params.KeyParameter;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class DecryptingKeyBagTest {
+    private ECKey key;
+    private KeyChainGroup group;
+    private KeyParameter aesKey;
+
+    @Before
+    public void setUp() {
+        key = new ECKey();
+        KeyCrypter keyCrypter = new KeyCrypterScrypt(2);
+        aesKey = keyCrypter.deriveKey("password");
+        group = KeyChainGroup.builder(UnitTestParams.get()).fromRandom(Script.ScriptType.P2PKH).build();
+        group.importKeys(key);
+        group.encrypt(keyCrypter, aesKey);
+    }
+
+    @Test
+    public void decryptsEachKeyOnce() {
+        DecryptingKeyBag bag = new DecryptingKeyBag(group, aesKey);
+        ECKey first = bag.findKeyFromPubKey(key.getPubKey());
+        assertFalse(first.isEncrypted());
+        assertArrayEquals(key.getPrivKeyBytes(), first.getPrivKeyBytes());
+        assertSame(first, bag.findKeyFromPubKey(key.getPubKey()));
+        assertSame(first, bag.findKeyFromPubKeyHash(key.getPubKeyHash(), null));
+    }
+
+    @Test(expected = ECKey.KeyIsEncryptedException.class)
+    public void noAesKey() {
+        new DecryptingKeyBag(group, null).findKeyFromPubKey(key.getPubKey());
+    }
+
+    @Test
+    public void missingKey() {
+        assertNull(new DecryptingKeyBag(group, aesKey).findKeyFromPubKey(new ECKey().getPubKey()));
+    }
+}
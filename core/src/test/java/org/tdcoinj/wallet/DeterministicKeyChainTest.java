@@ -255,6 +255,44 @@ public class DeterministicKeyChainTest {
         assertEquals(oldLookaheadSize, chain.getLookaheadSize());
     }
 
+    @Test
+    public void lookaheadKeysKeepTheirIdentity() {
+        chain.maybeLookAhead();
+        DeterministicKey external = chain.getKeyByPath(
+                HDUtils.concat(chain.getAccountPath(), DeterministicKeyChain.EXTERNAL_SUBPATH), false);
+        DeterministicKey child = HDKeyDerivation.deriveChildKey(external.dropPrivateBytes(), new ChildNumber(5));
+        DeterministicKey found = chain.findKeyFromPubHash(child.getPubKeyHash());
+        assertSame(found, chain.findKeyFromPubHash(child.getPubKeyHash()));
+        assertSame(found, chain.findKeyFromPubKey(child.getPubKey()));
+        assertSame(found, chain.getKeyByPath(child.getPath(), false));
+    }
+
+    @Test
+    public void lookaheadKeysSurviveRoundTripAndEncryption() throws UnreadableWalletException {
+        chain.maybeLookAhead();
+        DeterministicKey key1 = chain.getKey(KeyChain.KeyPurpose.RECEIVE_FUNDS);
+        List<DeterministicKey> lookahead = new ArrayList<>();
+        DeterministicKey external = chain.getKeyByPath(
+                HDUtils.concat(chain.getAccountPath(), DeterministicKeyChain.EXTERNAL_SUBPATH), false);
+        for (int i = 0; i < chain.getLookaheadSize() + chain.getLookaheadThreshold(); i++)
+            lookahead.add(HDKeyDerivation.deriveChildKey(external.dropPrivateBytes(), new ChildNumber(i)));
+        for (DeterministicKey key : lookahead)
+            assertEquals(key.getPubKeyPoint(), chain.findKeyFromPubHash(key.getPubKeyHash()).getPubKeyPoint());
+
+        chain = DeterministicKeyChain.fromProtobuf(chain.serializeToProtobuf(), null).get(0);
+        DeterministicKeyChain encrypted = chain.toEncrypted("hello");
+        for (DeterministicKeyChain c : ImmutableList.of(chain, encrypted, encrypted.toDecrypted("hello"))) {
+            for (DeterministicKey key : lookahead) {
+                DeterministicKey found = c.findKeyFromPubHash(key.getPubKeyHash());
+                assertEquals(key.getPubKeyPoint(), found.getPubKeyPoint());
+                assertEquals(key.getPath(), found.getPath());
+                assertEquals(c.getKeyCrypter() != null, found.isEncrypted());
+            }
+        }
+        assertEquals(key1, chain.findKeyFromPubHash(key1.getPubKeyHash()));
+        chain.findKeyFromPubHash(key1.getPubKeyHash()).sign(Sha256Hash.ZERO_HASH);
+    }
+
     @Test
     public void serializeSegwitUnencrypted() throws UnreadableWalletException {
         segwitChain.maybeLookAhead();
@@ -26,6 +26,9 @@ import org.tdcoinj.core.Utils;
 import org.tdcoinj.crypto.*;
 import org.tdcoinj.params.MainNetParams;
 import org.tdcoinj.script.Script;
+import org.tdcoinj.script.ScriptBuilder;
+import org.tdcoinj.script.ScriptChunk;
+import org.tdcoinj.script.ScriptOpCodes;
 import org.tdcoinj.script.Script.ScriptType;
 import org.tdcoinj.utils.BriefLogFormatter;
 import org.tdcoinj.utils.Threading;
@@ -38,6 +41,7 @@ import org.junit.Test;
 import org.bouncycastle.crypto.params.KeyParameter;
 
 import java.math.BigInteger;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.concurrent.atomic.AtomicReference;
@@ -76,6 +80,28 @@ public class KeyChainGroupTest {
         assertEquals(Script.ScriptType.P2PKH, address.getOutputScriptType());
     }
 
+    @Test
+    public void isOutputScriptMine() {
+        ECKey imported = new ECKey();
+        group.importKeys(imported);
+        DeterministicKey key = group.freshKey(KeyPurpose.RECEIVE_FUNDS);
+        assertTrue(group.isOutputScriptMine(ScriptBuilder.createP2PKHOutputScript(key).getProgram()));
+        assertTrue(group.isOutputScriptMine(ScriptBuilder.createP2PKOutputScript(key).getProgram()));
+        assertTrue(group.isOutputScriptMine(ScriptBuilder.createP2PKHOutputScript(imported).getProgram()));
+        // The active chain is P2PKH only, while imported keys can be used for any script type.
+        assertFalse(group.isOutputScriptMine(ScriptBuilder.createP2WPKHOutputScript(key).getProgram()));
+        assertTrue(group.isOutputScriptMine(ScriptBuilder.createP2WPKHOutputScript(imported).getProgram()));
+        assertFalse(group.isOutputScriptMine(ScriptBuilder.createP2PKHOutputScript(new ECKey()).getProgram()));
+        assertFalse(group.isOutputScriptMine(ScriptBuilder.createP2SHOutputScript(new byte[20]).getProgram()));
+        // Non minimal push of the pubkey hash, still understood by parsing the script.
+        byte[] nonMinimal = new ScriptBuilder().op(ScriptOpCodes.OP_DUP).op(ScriptOpCodes.OP_HASH160)
+                .addChunk(new ScriptChunk(ScriptOpCodes.OP_PUSHDATA1, key.getPubKeyHash()))
+                .op(ScriptOpCodes.OP_EQUALVERIFY).op(ScriptOpCodes.OP_CHECKSIG).build().getProgram();
+        assertTrue(group.isOutputScriptMine(nonMinimal));
+        assertFalse(group.isOutputScriptMine(new byte[] { 0x4c }));
+        assertFalse(group.isOutputScriptMine(new byte[0]));
+    }
+
     @Test
     public void createDeterministic_P2WPKH() {
         KeyChainGroup kcg = KeyChainGroup.builder(MAINNET).fromRandom(Script.ScriptType.P2WPKH).build();
@@ -330,6 +356,28 @@ public class KeyChainGroupTest {
         assertFalse(checkNotNull(group.findKeyFromPubKey(key.getPubKey())).isEncrypted());
     }
 
+    @Test
+    public void encryptionProgress() throws Exception {
+        group.importKeys(new ECKey(), new ECKey(), new ECKey());
+        final List<Double> progress = new ArrayList<>();
+        EncryptableKeyChain.ProgressCallback callback = new EncryptableKeyChain.ProgressCallback() {
+            @Override
+            public void onProgress(double p) {
+                progress.add(p);
+            }
+        };
+        group.encrypt(KEY_CRYPTER, AES_KEY, callback);
+        assertTrue(group.isEncrypted());
+        assertEquals(1.0, progress.get(progress.size() - 1), 0);
+        for (int i = 1; i < progress.size(); i++)
+            assertTrue(progress.get(i) >= progress.get(i - 1));
+
+        progress.clear();
+        group.decrypt(AES_KEY, callback);
+        assertFalse(group.isEncrypted());
+        assertEquals(1.0, progress.get(progress.size() - 1), 0);
+    }
+
     @Test
     public void bloom() throws Exception {
         ECKey key1 = group.freshKey(KeyChain.KeyPurpose.RECEIVE_FUNDS);
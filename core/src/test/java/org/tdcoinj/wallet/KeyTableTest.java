@@ -0,0 +1,113 @@
+/*
+ * Copyright by the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.tdcoinj.wallet;
+
+import org.tdcoinj.core.ECKey;
+import org.tdcoinj.crypto.ChildNumber;
+import org.tdcoinj.crypto.DeterministicKey;
+import org.tdcoinj.crypto.HDKeyDerivation;
+import org.tdcoinj.crypto.HDKeyDerivation.ChildPublicKeys;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class KeyTableTest {
+    @Test
+    public void mixedKeysInInsertionOrder() {
+        DeterministicKey parent = HDKeyDerivation.createMasterPrivateKey(new byte[32]).dropPrivateBytes();
+        ChildPublicKeys children = HDKeyDerivation.deriveChildPublicKeys(parent, 0, 40);
+        KeyTable table = new KeyTable();
+        List<ECKey> expected = new ArrayList<>();
+        for (int i = 0; i < 40; i++) {
+            ECKey key = new ECKey();
+            table.add(key);
+            expected.add(key);
+            table.add(children, i);
+            expected.add(HDKeyDerivation.deriveChildKey(parent, new ChildNumber(i)));
+        }
+        assertEquals(80, table.size());
+        for (int entry = 0; entry < table.entries(); entry++)
+            assertEquals(expected.get(entry), table.get(entry));
+        for (ECKey key : expected) {
+            byte[] hash = key.getPubKeyHash();
+            assertEquals(key, table.findByHash(hash, 0, hash.length));
+            byte[] pubKey = key.getPubKey();
+            assertEquals(key, table.findByPubKey(pubKey, 0, pubKey.length));
+        }
+        assertNull(table.findByHash(new byte[20], 0, 20));
+        try {
+            table.add(children, 3);
+            fail();
+        } catch (IllegalStateException e) {
+            // Expected.
+        }
+    }
+
+    @Test
+    public void childKeysAreCreatedOnce() {
+        DeterministicKey parent = HDKeyDerivation.createMasterPrivateKey(new byte[32]).dropPrivateBytes();
+        ChildPublicKeys children = HDKeyDerivation.deriveChildPublicKeys(parent, 0, 10);
+        KeyTable table = new KeyTable();
+        for (int i = 0; i < 10; i++)
+            table.add(children, i);
+        for (int i = 0; i < 10; i++) {
+            ECKey key = table.get(i);
+            assertSame(key, table.get(i));
+            assertSame(key, table.findByHash(children.getPubKeyHashes(), i * 20, 20));
+            assertSame(key, table.findByPubKey(children.getPubKeys(), i * 33, 33));
+            assertSame(key, children.getKey(i));
+        }
+    }
+
+    @Test
+    public void removeAndCompact() {
+        DeterministicKey parent = HDKeyDerivation.createMasterPrivateKey(new byte[32]).dropPrivateBytes();
+        ChildPublicKeys children = HDKeyDerivation.deriveChildPublicKeys(parent, 0, 100);
+        KeyTable table = new KeyTable();
+        for (int i = 0; i < 100; i++)
+            table.add(children, i);
+        // Removing most keys compacts the entries, the remaining ones must still be found and keep their order.
+        for (int i = 0; i < 100; i++)
+            if (i % 10 != 0)
+                assertTrue(table.remove(children.getPubKey(i)));
+        assertFalse(table.remove(children.getPubKey(1)));
+        assertEquals(10, table.size());
+        assertTrue(table.entries() < 20);
+        for (int i = 0; i < 100; i++) {
+            byte[] hash = children.getPubKeyHash(i);
+            ECKey key = table.findByHash(hash, 0, hash.length);
+            if (i % 10 == 0)
+                assertEquals(children.getKey(i), key);
+            else
+                assertNull(key);
+        }
+        int expectedIndex = 0;
+        for (int entry = 0; entry < table.entries(); entry++) {
+            if (table.isPresent(entry)) {
+                assertEquals(expectedIndex, table.getChildIndex(entry));
+                expectedIndex += 10;
+            }
+        }
+        assertEquals(100, expectedIndex);
+        // A removed key can be added again.
+        table.add(children, 1);
+        assertEquals(children.getKey(1), table.findByPubKey(children.getPubKey(1), 0, 33));
+    }
+}
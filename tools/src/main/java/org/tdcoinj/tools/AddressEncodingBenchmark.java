@@ -0,0 +1,91 @@
+/*
+ * Copyright by the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.tdcoinj.tools;
+
+import org.tdcoinj.core.Address;
+import org.tdcoinj.core.LegacyAddress;
+import org.tdcoinj.core.NetworkParameters;
+import org.tdcoinj.core.SegwitAddress;
+import org.tdcoinj.params.MainNetParams;
+import org.tdcoinj.utils.BriefLogFormatter;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Compares encoding addresses one by one, through address objects, with encoding them in bulk with
+ * {@link LegacyAddress#toBase58(NetworkParameters, boolean, byte[])} and
+ * {@link SegwitAddress#toBech32(NetworkParameters, byte[], int)}, and measures parsing them back. Prints addresses per
+ * second. The optional argument is the number of addresses (default 200000).
+ */
+public class AddressEncodingBenchmark {
+    public static void main(String[] args) throws Exception {
+        BriefLogFormatter.initWithSilentTdcoinJ();
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+        NetworkParameters params = MainNetParams.get();
+        byte[] hashes = new byte[count * LegacyAddress.LENGTH];
+        new Random(1).nextBytes(hashes);
+
+        System.out.println(count + " addresses");
+        // Run twice, the first round warms up the JIT.
+        for (int round = 0; round < 2; round++) {
+            long start = System.nanoTime();
+            String[] legacy = new String[count];
+            for (int i = 0; i < count; i++)
+                legacy[i] = LegacyAddress.fromPubKeyHash(params, hash(hashes, i)).toString();
+            print("base58, one by one", count, start);
+
+            start = System.nanoTime();
+            check(LegacyAddress.toBase58(params, false, hashes), legacy);
+            print("base58, bulk", count, start);
+
+            start = System.nanoTime();
+            for (String address : legacy)
+                Address.fromString(params, address);
+            print("base58, parse", count, start);
+
+            start = System.nanoTime();
+            String[] segwit = new String[count];
+            for (int i = 0; i < count; i++)
+                segwit[i] = SegwitAddress.fromHash(params, hash(hashes, i)).toString();
+            print("bech32, one by one", count, start);
+
+            start = System.nanoTime();
+            check(SegwitAddress.toBech32(params, hashes, LegacyAddress.LENGTH), segwit);
+            print("bech32, bulk", count, start);
+
+            start = System.nanoTime();
+            for (String address : segwit)
+                SegwitAddress.fromBech32(params, address);
+            print("bech32, parse", count, start);
+        }
+    }
+
+    private static byte[] hash(byte[] hashes, int index) {
+        return Arrays.copyOfRange(hashes, index * LegacyAddress.LENGTH, (index + 1) * LegacyAddress.LENGTH);
+    }
+
+    private static void check(String[] actual, String[] expected) {
+        if (!Arrays.equals(actual, expected))
+            throw new IllegalStateException("Bulk encoding differs");
+    }
+
+    private static void print(String name, int count, long start) {
+        long elapsed = System.nanoTime() - start;
+        System.out.printf("%-30s %10.1f addresses/s%n", name, count * 1e9 / elapsed);
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright by the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.tdcoinj.tools;
+
+import org.tdcoinj.core.*;
+import org.tdcoinj.params.UnitTestParams;
+import org.tdcoinj.utils.BriefLogFormatter;
+
+import java.util.Random;
+
+/**
+ * Measures reading the transaction ids of a large serialized block by parsing it into a {@link Block} and with a
+ * {@link BlockView}, and finding the transactions spending a given outpoint with views. Prints blocks per second. The
+ * optional argument is the number of transactions in the block (default 2000).
+ */
+public class BlockViewBenchmark {
+    private static final NetworkParameters PARAMS = UnitTestParams.get();
+
+    public static void main(String[] args) throws Exception {
+        BriefLogFormatter.initWithSilentTdcoinJ();
+        new Context(PARAMS);
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        Random random = new Random(1);
+        Block block = PARAMS.getGenesisBlock().createNextBlock(LegacyAddress.fromKey(PARAMS, new ECKey()));
+        for (int i = 1; i < count; i++) {
+            Transaction tx = new Transaction(PARAMS);
+            for (int j = 0; j < 2; j++) {
+                byte[] hash = new byte[32];
+                random.nextBytes(hash);
+                // About the size of a P2PKH signature and public key.
+                byte[] scriptSig = new byte[107];
+                random.nextBytes(scriptSig);
+                tx.addInput(new TransactionInput(PARAMS, tx, scriptSig,
+                        new TransactionOutPoint(PARAMS, j, Sha256Hash.wrap(hash))));
+            }
+            for (int j = 0; j < 2; j++)
+                tx.addOutput(Coin.COIN, new ECKey());
+            block.addTransaction(tx);
+        }
+        byte[] bytes = block.tdcoinSerialize();
+        TransactionOutPoint spent = block.getTransactions().get(count / 2).getInput(1).getOutpoint();
+
+        System.out.println(count + " transactions, " + bytes.length + " bytes");
+        // Run twice, the first round warms up the JIT.
+        for (int round = 0; round < 2; round++) {
+            int repeats = 50;
+            long start = System.nanoTime();
+            for (int r = 0; r < repeats; r++) {
+                Block parsed = PARAMS.getDefaultSerializer().makeBlock(bytes);
+                for (Transaction tx : parsed.getTransactions())
+                    tx.getTxId();
+            }
+            print("parse and hash", repeats, start);
+
+            start = System.nanoTime();
+            for (int r = 0; r < repeats; r++)
+                BlockView.wrap(PARAMS, bytes).getTransactionIds();
+            print("view and hash", repeats, start);
+
+            start = System.nanoTime();
+            for (int r = 0; r < repeats; r++) {
+                BlockView view = BlockView.wrap(PARAMS, bytes);
+                int found = 0;
+                for (int i = 0; i < view.getTransactionCount(); i++) {
+                    TransactionView tx = view.getTransaction(i);
+                    for (int j = 0; j < tx.getInputCount(); j++)
+                        if (tx.spends(j, spent.getHash(), spent.getIndex())) {
+                            tx.materialize();
+                            found++;
+                        }
+                }
+                if (found != 1)
+                    throw new IllegalStateException("Spending transaction not found");
+            }
+            print("view and find spender", repeats, start);
+        }
+    }
+
+    private static void print(String name, int count, long start) {
+        long elapsed = System.nanoTime() - start;
+        System.out.printf("%-30s %10.1f blocks/s%n", name, count * 1e9 / elapsed);
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright by the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.tdcoinj.tools;
+
+import org.tdcoinj.core.*;
+import org.tdcoinj.params.UnitTestParams;
+import org.tdcoinj.utils.BriefLogFormatter;
+import org.tdcoinj.wallet.BranchAndBoundCoinSelector;
+import org.tdcoinj.wallet.CoinSelection;
+import org.tdcoinj.wallet.CoinSelector;
+import org.tdcoinj.wallet.DefaultCoinSelector;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Compares {@link BranchAndBoundCoinSelector} with {@link DefaultCoinSelector} on a large pool of candidate outputs,
+ * printing selections per second, the average number of inputs and the average excess over the target (which becomes
+ * change or fee). Optional arguments are the number of candidates (default 200000) and of targets (default 200).
+ */
+public class CoinSelectionBenchmark {
+    private static final NetworkParameters PARAMS = UnitTestParams.get();
+
+    public static void main(String[] args) {
+        BriefLogFormatter.initWithSilentTdcoinJ();
+        int numCandidates = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+        int numTargets = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+        Random random = new Random(42);
+        Context.propagate(new Context(PARAMS));
+
+        List<TransactionOutput> candidates = new ArrayList<>(numCandidates);
+        Address to = LegacyAddress.fromKey(PARAMS, new ECKey());
+        for (int i = 0; i < numCandidates; i++) {
+            Transaction tx = new Transaction(PARAMS);
+            tx.addOutput(Coin.valueOf(1000 + random.nextInt(10000000)), to);
+            tx.getConfidence().setConfidenceType(TransactionConfidence.ConfidenceType.BUILDING);
+            tx.getConfidence().setDepthInBlocks(1 + random.nextInt(1000));
+            candidates.add(tx.getOutput(0));
+        }
+        Coin[] targets = new Coin[numTargets];
+        for (int i = 0; i < numTargets; i++)
+            targets[i] = Coin.valueOf(100000 + random.nextInt(50000000));
+
+        System.out.println(numCandidates + " candidates, " + numTargets + " targets");
+        // Run twice, the first round warms up the JIT.
+        for (int round = 0; round < 2; round++) {
+            run("DefaultCoinSelector", new DefaultCoinSelector(), candidates, targets);
+            run("BranchAndBoundCoinSelector", new BranchAndBoundCoinSelector(Coin.valueOf(1000)), candidates,
+                    targets);
+        }
+    }
+
+    private static void run(String name, CoinSelector selector, List<TransactionOutput> candidates, Coin[] targets) {
+        long inputs = 0, excess = 0;
+        long start = System.nanoTime();
+        for (Coin target : targets) {
+            CoinSelection selection = selector.select(target, new ArrayList<>(candidates));
+            inputs += selection.gathered.size();
+            excess += selection.valueGathered.subtract(target).value;
+        }
+        long elapsed = System.nanoTime() - start;
+        System.out.printf("%-28s %10.1f selections/s %8.2f inputs %12d sat excess%n", name,
+                targets.length * 1e9 / elapsed, (double) inputs / targets.length, excess / targets.length);
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright by the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.tdcoinj.tools;
+
+import org.tdcoinj.core.ECKey;
+import org.tdcoinj.core.ECKey.ECDSASignature;
+import org.tdcoinj.core.Sha256Hash;
+import org.tdcoinj.crypto.Secp256k1Signer;
+import org.tdcoinj.utils.BriefLogFormatter;
+import org.bouncycastle.crypto.digests.SHA256Digest;
+import org.bouncycastle.crypto.params.ECPrivateKeyParameters;
+import org.bouncycastle.crypto.signers.ECDSASigner;
+import org.bouncycastle.crypto.signers.HMacDSAKCalculator;
+import org.bouncycastle.math.ec.ECPoint;
+import org.bouncycastle.math.ec.FixedPointCombMultiplier;
+
+import java.math.BigInteger;
+import java.security.SecureRandom;
+
+/**
+ * Compares creating ECDSA signatures and public keys with Bouncy Castle and with {@link Secp256k1Signer}. Prints
+ * operations per second. The optional argument is the number of keys (default 2000).
+ */
+public class ECKeySigningBenchmark {
+    public static void main(String[] args) throws Exception {
+        BriefLogFormatter.initWithSilentTdcoinJ();
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        SecureRandom random = new SecureRandom();
+        BigInteger[] privKeys = new BigInteger[count];
+        byte[][] hashes = new byte[count][];
+        for (int i = 0; i < count; i++) {
+            privKeys[i] = new BigInteger(256, random).mod(ECKey.CURVE.getN());
+            hashes[i] = Sha256Hash.hash(new byte[] { (byte) i, (byte) (i >> 8) });
+        }
+
+        System.out.println(count + " keys");
+        // Run twice, the first round warms up the JIT.
+        for (int round = 0; round < 2; round++) {
+            long start = System.nanoTime();
+            ECDSASignature[] expected = new ECDSASignature[count];
+            for (int i = 0; i < count; i++) {
+                ECDSASigner signer = new ECDSASigner(new HMacDSAKCalculator(new SHA256Digest()));
+                signer.init(true, new ECPrivateKeyParameters(privKeys[i], ECKey.CURVE));
+                BigInteger[] components = signer.generateSignature(hashes[i]);
+                expected[i] = new ECDSASignature(components[0], components[1]).toCanonicalised();
+            }
+            print("sign, Bouncy Castle", count, start);
+
+            start = System.nanoTime();
+            for (int i = 0; i < count; i++)
+                check(expected[i].equals(Secp256k1Signer.sign(hashes[i], privKeys[i])));
+            print("sign, Secp256k1Signer", count, start);
+
+            start = System.nanoTime();
+            ECPoint[] points = new ECPoint[count];
+            FixedPointCombMultiplier multiplier = new FixedPointCombMultiplier();
+            for (int i = 0; i < count; i++)
+                points[i] = multiplier.multiply(ECKey.CURVE.getG(), privKeys[i]).normalize();
+            print("public key, Bouncy Castle", count, start);
+
+            start = System.nanoTime();
+            for (int i = 0; i < count; i++)
+                check(points[i].equals(Secp256k1Signer.publicPoint(privKeys[i])));
+            print("public key, Secp256k1Signer", count, start);
+        }
+    }
+
+    private static void check(boolean ok) {
+        if (!ok)
+            throw new IllegalStateException("Results differ");
+    }
+
+    private static void print(String name, int count, long start) {
+        long elapsed = System.nanoTime() - start;
+        System.out.printf("%-30s %10.1f ops/s%n", name, count * 1e9 / elapsed);
+    }
+}
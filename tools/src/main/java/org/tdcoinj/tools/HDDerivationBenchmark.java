@@ -0,0 +1,73 @@
+/*
+ * Copyright by the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.tdcoinj.tools;
+
+import org.tdcoinj.crypto.ChildNumber;
+import org.tdcoinj.crypto.DeterministicKey;
+import org.tdcoinj.crypto.HDKeyDerivation;
+import org.tdcoinj.utils.BriefLogFormatter;
+import org.tdcoinj.utils.Threading;
+
+import java.util.Arrays;
+
+/**
+ * Compares deriving the public keys of a range of children one by one with
+ * {@link HDKeyDerivation#deriveChildKeyFromPublic(DeterministicKey, ChildNumber, HDKeyDerivation.PublicDeriveMode)}
+ * and in bulk with {@link HDKeyDerivation#deriveChildPublicKeys(DeterministicKey, int, int)}, on one thread and on all
+ * processors. Prints keys per second. The optional argument is the number of children (default 5000).
+ */
+public class HDDerivationBenchmark {
+    public static void main(String[] args) throws Exception {
+        BriefLogFormatter.initWithSilentTdcoinJ();
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 5000;
+        int processors = Runtime.getRuntime().availableProcessors();
+        DeterministicKey master = HDKeyDerivation.createMasterPrivateKey(new byte[32]);
+        DeterministicKey parent = HDKeyDerivation.deriveChildKey(master, ChildNumber.ZERO_HARDENED)
+                .dropPrivateBytes().dropParent();
+
+        System.out.println(count + " children, " + processors + " processors");
+        // Run twice, the first round warms up the JIT.
+        for (int round = 0; round < 2; round++) {
+            long start = System.nanoTime();
+            byte[][] expected = new byte[count][];
+            for (int i = 0; i < count; i++)
+                expected[i] = HDKeyDerivation.deriveChildKeyFromPublic(parent, new ChildNumber(i),
+                        HDKeyDerivation.PublicDeriveMode.NORMAL).getPubKeyHash();
+            print("one by one", count, start);
+
+            start = System.nanoTime();
+            check(HDKeyDerivation.deriveChildPublicKeys(parent, 0, count, Threading.THREAD_POOL, 1), expected);
+            print("bulk, 1 thread", count, start);
+
+            start = System.nanoTime();
+            check(HDKeyDerivation.deriveChildPublicKeys(parent, 0, count, Threading.THREAD_POOL, processors),
+                    expected);
+            print("bulk, " + processors + " threads", count, start);
+        }
+    }
+
+    private static void check(HDKeyDerivation.ChildPublicKeys children, byte[][] expected) {
+        for (int i = 0; i < expected.length; i++)
+            if (!Arrays.equals(expected[i], children.getPubKeyHash(i)))
+                throw new IllegalStateException("Child " + i + " differs");
+    }
+
+    private static void print(String name, int count, long start) {
+        long elapsed = System.nanoTime() - start;
+        System.out.printf("%-30s %10.1f keys/s%n", name, count * 1e9 / elapsed);
+    }
+}
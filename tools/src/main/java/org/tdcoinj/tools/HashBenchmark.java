@@ -0,0 +1,99 @@
+/*
+ * Copyright by the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.tdcoinj.tools;
+
+import org.bouncycastle.crypto.digests.RIPEMD160Digest;
+import org.tdcoinj.core.Sha256Hash;
+import org.tdcoinj.core.Utils;
+import org.tdcoinj.utils.BriefLogFormatter;
+
+import java.security.MessageDigest;
+import java.util.Random;
+
+/**
+ * Compares hashing with a new digest per call, which is what {@link Sha256Hash} and {@link Utils#sha256hash160(byte[])}
+ * used to do, with their reused per thread digests. Covers the double-hash of 80 byte headers, of 64 byte Merkle
+ * nodes and of 33 byte public keys. Prints hashes per second. The optional argument is the number of hashes per
+ * measurement (default 1000000).
+ */
+public class HashBenchmark {
+    public static void main(String[] args) throws Exception {
+        BriefLogFormatter.initWithSilentTdcoinJ();
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+        byte[] input = new byte[80];
+        new Random(1).nextBytes(input);
+        byte[] output = new byte[32];
+        long sink = 0;
+
+        // Run twice, the first round warms up the JIT.
+        for (int round = 0; round < 2; round++) {
+            long start = System.nanoTime();
+            for (int i = 0; i < count; i++) {
+                MessageDigest digest = Sha256Hash.newDigest();
+                digest.update(input, 0, 80);
+                sink += digest.digest(digest.digest())[0];
+            }
+            print("hashTwice(80), new digest", count, start);
+
+            start = System.nanoTime();
+            for (int i = 0; i < count; i++)
+                sink += Sha256Hash.hashTwice(input, 0, 80)[0];
+            print("hashTwice(80)", count, start);
+
+            start = System.nanoTime();
+            for (int i = 0; i < count; i++) {
+                MessageDigest digest = Sha256Hash.newDigest();
+                digest.update(input, 0, 32);
+                digest.update(input, 32, 32);
+                sink += digest.digest(digest.digest())[0];
+            }
+            print("Merkle node, new digest", count, start);
+
+            start = System.nanoTime();
+            for (int i = 0; i < count; i++) {
+                Sha256Hash.hashTwice64(input, 0, output, 0);
+                sink += output[0];
+            }
+            print("Merkle node, hashTwice64", count, start);
+
+            start = System.nanoTime();
+            for (int i = 0; i < count; i++) {
+                byte[] sha256 = Sha256Hash.newDigest().digest(input);
+                RIPEMD160Digest digest = new RIPEMD160Digest();
+                digest.update(sha256, 0, sha256.length);
+                byte[] hash = new byte[20];
+                digest.doFinal(hash, 0);
+                sink += hash[0];
+            }
+            print("hash160(33), new digests", count, start);
+
+            start = System.nanoTime();
+            for (int i = 0; i < count; i++) {
+                Utils.sha256hash160(input, 0, 33, output, 0);
+                sink += output[0];
+            }
+            print("hash160(33)", count, start);
+        }
+        // Print the sink so the JIT can't drop the hashing.
+        System.out.println("(" + sink + ")");
+    }
+
+    private static void print(String name, int count, long start) {
+        long elapsed = System.nanoTime() - start;
+        System.out.printf("%-30s %12.0f hashes/s%n", name, count * 1e9 / elapsed);
+    }
+}
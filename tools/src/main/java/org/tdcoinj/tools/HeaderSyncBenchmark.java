@@ -0,0 +1,91 @@
+/*
+ * Copyright by the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.tdcoinj.tools;
+
+import org.tdcoinj.core.Block;
+import org.tdcoinj.core.MessageSerializer;
+import org.tdcoinj.core.NetworkParameters;
+import org.tdcoinj.core.ProofOfWork;
+import org.tdcoinj.core.Utils;
+import org.tdcoinj.params.UnitTestParams;
+import org.tdcoinj.utils.BriefLogFormatter;
+
+import java.math.BigInteger;
+import java.util.Random;
+
+/**
+ * Measures the proof of work check of block headers as received during a header sync, in headers per second: parsing
+ * each header into a {@link Block} and comparing {@link BigInteger}s as before, parsing into a Block and using
+ * {@link ProofOfWork}, and checking straight from the buffer with
+ * {@link ProofOfWork#checkHeader(NetworkParameters, byte[], int)}. The optional argument is the number of headers
+ * (default 200000).
+ */
+public class HeaderSyncBenchmark {
+    private static final int ENTRY_SIZE = Block.HEADER_SIZE + 1; // Each header is followed by a zero tx count.
+
+    public static void main(String[] args) throws Exception {
+        BriefLogFormatter.initWithSilentTdcoinJ();
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+        NetworkParameters params = UnitTestParams.get();
+        MessageSerializer serializer = params.getSerializer(true);
+        // Random headers with the easiest target of the unit test network, which nearly all of them meet.
+        byte[] headers = new byte[count * ENTRY_SIZE];
+        Random random = new Random(1);
+        for (int i = 0; i < count; i++) {
+            int offset = i * ENTRY_SIZE;
+            byte[] header = new byte[Block.HEADER_SIZE];
+            random.nextBytes(header);
+            System.arraycopy(header, 0, headers, offset, Block.HEADER_SIZE);
+            Utils.uint32ToByteArrayLE(Utils.encodeCompactBits(params.getMaxTarget()), headers, offset + 72);
+        }
+
+        // Run twice, the first round warms up the JIT.
+        for (int round = 0; round < 2; round++) {
+            long start = System.nanoTime();
+            int passed = 0;
+            for (int i = 0; i < count; i++) {
+                Block block = serializer.makeBlock(headers, i * ENTRY_SIZE, Block.HEADER_SIZE + 1);
+                BigInteger target = block.getDifficultyTargetAsInteger();
+                if (block.getHash().toBigInteger().compareTo(target) <= 0)
+                    passed++;
+            }
+            print("Block, BigInteger", count, passed, start);
+
+            start = System.nanoTime();
+            passed = 0;
+            for (int i = 0; i < count; i++) {
+                Block block = serializer.makeBlock(headers, i * ENTRY_SIZE, Block.HEADER_SIZE + 1);
+                if (ProofOfWork.isValidTarget(params, block.getDifficultyTarget())
+                        && ProofOfWork.hashMeetsTarget(block.getDifficultyTarget(), block.getHash()))
+                    passed++;
+            }
+            print("Block, ProofOfWork", count, passed, start);
+
+            start = System.nanoTime();
+            passed = 0;
+            for (int i = 0; i < count; i++)
+                if (ProofOfWork.checkHeader(params, headers, i * ENTRY_SIZE))
+                    passed++;
+            print("checkHeader", count, passed, start);
+        }
+    }
+
+    private static void print(String name, int count, int passed, long start) {
+        long elapsed = System.nanoTime() - start;
+        System.out.printf("%-30s %12.0f headers/s (%d passed)%n", name, count * 1e9 / elapsed, passed);
+    }
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright by the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.tdcoinj.tools;
+
+import org.tdcoinj.script.Script;
+import org.tdcoinj.utils.BriefLogFormatter;
+import org.tdcoinj.wallet.DefaultKeyChainFactory;
+import org.tdcoinj.wallet.DeterministicKeyChain;
+import org.tdcoinj.wallet.Protos;
+
+import java.util.List;
+
+/**
+ * Measures the heap a {@link DeterministicKeyChain} takes per lookahead key, once freshly derived and once loaded
+ * from protobuf. The optional argument is the lookahead size (default 100000), which is derived on both the external
+ * and the internal branch.
+ */
+public class KeyChainMemoryBenchmark {
+    public static void main(String[] args) throws Exception {
+        BriefLogFormatter.initWithSilentTdcoinJ();
+        int lookaheadSize = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+
+        long before = usedHeap();
+        DeterministicKeyChain chain = DeterministicKeyChain.builder().entropy(new byte[16], 0)
+                .outputScriptType(Script.ScriptType.P2PKH).build();
+        chain.setLookaheadSize(lookaheadSize);
+        chain.maybeLookAhead();
+        int keys = chain.numKeys();
+        print("derived", keys, usedHeap() - before);
+
+        List<Protos.Key> protos = chain.serializeToProtobuf();
+        chain = null;
+        before = usedHeap();
+        chain = DeterministicKeyChain.fromProtobuf(protos, null, new DefaultKeyChainFactory()).get(0);
+        print("loaded from protobuf", chain.numKeys(), usedHeap() - before);
+    }
+
+    private static long usedHeap() throws InterruptedException {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(100);
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static void print(String name, int keys, long bytes) {
+        System.out.printf("%-30s %8d keys %10.1f bytes/key%n", name, keys, (double) bytes / keys);
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright by the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.tdcoinj.tools;
+
+import org.tdcoinj.core.*;
+import org.tdcoinj.params.UnitTestParams;
+import org.tdcoinj.script.Script;
+import org.tdcoinj.script.ScriptPattern;
+import org.tdcoinj.utils.BriefLogFormatter;
+import org.tdcoinj.wallet.KeyChain;
+import org.tdcoinj.wallet.Wallet;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Measures how fast a wallet decides which outputs of a block are its own, as done for every block and pending
+ * transaction received. Compares {@link TransactionOutput#isMine(TransactionBag)}, which recognizes the raw
+ * scriptPubKey and looks its hash up in the key chain indexes, with parsing every script and looking up the extracted
+ * hash. Optional arguments are the number of outputs per block (default 5000) and of wallet keys (default 10000).
+ */
+public class OutputRelevanceBenchmark {
+    private static final NetworkParameters PARAMS = UnitTestParams.get();
+
+    public static void main(String[] args) {
+        BriefLogFormatter.initWithSilentTdcoinJ();
+        int numOutputs = args.length > 0 ? Integer.parseInt(args[0]) : 5000;
+        int numKeys = args.length > 1 ? Integer.parseInt(args[1]) : 10000;
+        Context.propagate(new Context(PARAMS));
+        Random random = new Random(42);
+
+        Wallet wallet = Wallet.createDeterministic(PARAMS, Script.ScriptType.P2PKH);
+        List<Address> ours = new ArrayList<>();
+        for (int i = 0; i < numKeys; i++)
+            ours.add(wallet.freshAddress(KeyChain.KeyPurpose.RECEIVE_FUNDS));
+        // One block worth of transactions, where one in a hundred outputs pays to the wallet.
+        List<TransactionOutput> outputs = new ArrayList<>(numOutputs);
+        Transaction tx = new Transaction(PARAMS);
+        for (int i = 0; i < numOutputs; i++) {
+            if (i % 100 == 0)
+                tx.addOutput(Coin.CENT, ours.get(random.nextInt(ours.size())));
+            else if (i % 3 == 0)
+                tx.addOutput(Coin.CENT, SegwitAddress.fromKey(PARAMS, new ECKey()));
+            else
+                tx.addOutput(Coin.CENT, LegacyAddress.fromKey(PARAMS, new ECKey()));
+        }
+        outputs.addAll(tx.getOutputs());
+
+        System.out.println(numOutputs + " outputs, " + wallet.getKeyChainGroupSize() + " keys");
+        // Run twice, the first round warms up the JIT.
+        for (int round = 0; round < 2; round++) {
+            run("parse and extract", false, wallet, outputs);
+            run("raw script lookup", true, wallet, outputs);
+        }
+    }
+
+    private static void run(String name, boolean raw, Wallet wallet, List<TransactionOutput> outputs) {
+        int blocks = 200, mine = 0;
+        long start = System.nanoTime();
+        for (int block = 0; block < blocks; block++) {
+            for (TransactionOutput output : outputs) {
+                if (raw ? output.isMine(wallet) : isMineParsed(output.getScriptBytes(), wallet))
+                    mine++;
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+        System.out.printf("%-20s %12.0f outputs/s %8.2f ms/block (%d mine)%n", name,
+                (double) outputs.size() * blocks * 1e9 / elapsed, elapsed / 1e6 / blocks, mine / blocks);
+    }
+
+    // How outputs used to be checked: parse the script, match the template and copy out the hash.
+    private static boolean isMineParsed(byte[] program, Wallet wallet) {
+        Script script = new Script(program);
+        if (ScriptPattern.isP2PK(script))
+            return wallet.isPubKeyMine(ScriptPattern.extractKeyFromP2PK(script));
+        else if (ScriptPattern.isP2SH(script))
+            return wallet.isPayToScriptHashMine(ScriptPattern.extractHashFromP2SH(script));
+        else if (ScriptPattern.isP2PKH(script))
+            return wallet.isPubKeyHashMine(ScriptPattern.extractHashFromP2PKH(script), Script.ScriptType.P2PKH);
+        else if (ScriptPattern.isP2WPKH(script))
+            return wallet.isPubKeyHashMine(ScriptPattern.extractHashFromP2WH(script), Script.ScriptType.P2WPKH);
+        else
+            return false;
+    }
+}
@@ -0,0 +1,164 @@
+/*
+ * Copyright by the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.tdcoinj.tools;
+
+import org.tdcoinj.core.*;
+import org.tdcoinj.params.UnitTestParams;
+import org.tdcoinj.script.Script;
+import org.tdcoinj.script.ScriptBuilder;
+import org.tdcoinj.store.MemoryFullPrunedBlockStore;
+import org.tdcoinj.utils.BriefLogFormatter;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Random;
+
+import static org.tdcoinj.script.ScriptOpCodes.OP_TRUE;
+
+/**
+ * Measures reorganizing a {@link FullPrunedBlockChain} on a {@link MemoryFullPrunedBlockStore}, and the size of the
+ * undo data it keeps for that. A chain of blocks full of transactions spending P2SH outputs and paying to P2SH and
+ * P2PKH outputs is built, then overtaken by a fork of empty blocks, which disconnects the blocks using their undo data,
+ * then the original chain is extended past the fork again, which connects the blocks from their undo data. Prints the
+ * undo data per block, in its compact and its original serialization, and blocks per second for both reorgs. The
+ * optional arguments are the number of blocks reorganized (default 20) and of transactions per block (default 500).
+ */
+public class ReorgBenchmark {
+    // Without difficulty transitions, so that blocks can be made without mining them.
+    private static final NetworkParameters PARAMS = new UnitTestParams() {
+        @Override public int getInterval() {
+            return 10000;
+        }
+    };
+    // Spent by pushing it, so that the transactions need no signatures.
+    private static final Script REDEEM_SCRIPT = new ScriptBuilder().op(OP_TRUE).build();
+    private static final Script P2SH = ScriptBuilder.createP2SHOutputScript(REDEEM_SCRIPT);
+    private static final Coin FEE = Coin.valueOf(1000);
+    private static final Coin PAYMENT = Coin.valueOf(20000);
+
+    public static void main(String[] args) throws Exception {
+        BriefLogFormatter.initWithSilentTdcoinJ();
+        Context context = new Context(PARAMS);
+        int depth = args.length > 0 ? Integer.parseInt(args[0]) : 20;
+        int txPerBlock = args.length > 1 ? Integer.parseInt(args[1]) : 500;
+        Random random = new Random(1);
+
+        MemoryFullPrunedBlockStore store = new MemoryFullPrunedBlockStore(PARAMS, depth + 10);
+        FullPrunedBlockChain chain = new FullPrunedBlockChain(context, store);
+        ECKey key = new ECKey();
+        int height = 1;
+        Block block = PARAMS.getGenesisBlock().createNextBlockWithCoinbase(Block.BLOCK_VERSION_GENESIS,
+                key.getPubKey(), Coin.FIFTY_COINS, height++);
+        chain.add(block);
+        Transaction coinbase = block.getTransactions().get(0);
+        for (int i = 0; i < PARAMS.getSpendableCoinbaseDepth(); i++)
+            chain.add(block = nextBlock(block, key, height++));
+
+        // Splits the coinbase into an output for each transaction of the first block.
+        Deque<TransactionOutput> spendable = new ArrayDeque<>();
+        Transaction split = new Transaction(PARAMS);
+        Coin value = coinbase.getOutput(0).getValue().subtract(FEE).divide(txPerBlock);
+        for (int i = 0; i < txPerBlock; i++)
+            split.addOutput(value, P2SH);
+        split.addSignedInput(coinbase.getOutput(0), key);
+        block = nextBlock(block, key, height++);
+        block.addTransaction(split);
+        block.solve();
+        chain.add(block);
+        spendable.addAll(split.getOutputs());
+
+        // The chain that is reorganized away from and back to.
+        Block forkPoint = block;
+        int forkHeight = height;
+        List<Block> blocks = new ArrayList<>();
+        for (int i = 0; i < depth; i++) {
+            block = nextBlock(block, key, height++);
+            for (int j = 0; j < txPerBlock; j++)
+                block.addTransaction(spend(spendable, random));
+            block.solve();
+            blocks.add(block);
+            chain.add(block);
+        }
+
+        long compact = 0, original = 0;
+        for (Block b : blocks) {
+            TransactionOutputChanges changes = store.getUndoBlock(b.getHash()).getTxOutChanges();
+            ByteArrayOutputStream bos = new ByteArrayOutputStream();
+            changes.serializeToStream(bos);
+            compact += bos.size();
+            bos.reset();
+            for (UTXO utxo : changes.txOutsCreated)
+                utxo.serializeToStream(bos);
+            for (UTXO utxo : changes.txOutsSpent)
+                utxo.serializeToStream(bos);
+            original += 8 + bos.size();
+        }
+        System.out.printf("%-30s %10.1f bytes/block%n", "undo data", (double) compact / depth);
+        System.out.printf("%-30s %10.1f bytes/block%n", "undo data, original", (double) original / depth);
+
+        // Overtakes the chain with empty blocks paid to another key, so that they differ from the chain's blocks.
+        ECKey otherKey = new ECKey();
+        List<Block> fork = new ArrayList<>();
+        block = forkPoint;
+        for (int h = forkHeight; h <= forkHeight + depth; h++)
+            fork.add(block = nextBlock(block, otherKey, h));
+        long start = System.nanoTime();
+        for (Block b : fork)
+            chain.add(b);
+        print("reorg to fork", depth, start);
+        if (!chain.getChainHead().getHeader().getHash().equals(fork.get(depth).getHash()))
+            throw new IllegalStateException("Fork didn't become the best chain");
+
+        // Extends the original chain past the fork, connecting its blocks from their undo data.
+        List<Block> back = new ArrayList<>();
+        block = blocks.get(depth - 1);
+        for (int i = 0; i < 2; i++)
+            back.add(block = nextBlock(block, key, height++));
+        start = System.nanoTime();
+        for (Block b : back)
+            chain.add(b);
+        print("reorg back", depth, start);
+        if (!chain.getChainHead().getHeader().getHash().equals(back.get(1).getHash()))
+            throw new IllegalStateException("Original chain didn't become the best chain again");
+    }
+
+    private static Block nextBlock(Block previous, ECKey key, int height) {
+        return previous.createNextBlockWithCoinbase(Block.BLOCK_VERSION_GENESIS, key.getPubKey(), Coin.ZERO, height);
+    }
+
+    // Spends the oldest spendable output to a P2PKH output that isn't spent and a P2SH output with the change that is.
+    private static Transaction spend(Deque<TransactionOutput> spendable, Random random) {
+        TransactionOutput output = spendable.removeFirst();
+        Transaction tx = new Transaction(PARAMS);
+        tx.addInput(new TransactionInput(PARAMS, tx, new ScriptBuilder().data(REDEEM_SCRIPT.getProgram()).build()
+                .getProgram(), output.getOutPointFor(), output.getValue()));
+        byte[] hash = new byte[20];
+        random.nextBytes(hash);
+        tx.addOutput(output.getValue().subtract(PAYMENT).subtract(FEE), P2SH);
+        tx.addOutput(PAYMENT, ScriptBuilder.createP2PKHOutputScript(hash));
+        spendable.addLast(tx.getOutput(0));
+        return tx;
+    }
+
+    private static void print(String name, int blocks, long start) {
+        long elapsed = System.nanoTime() - start;
+        System.out.printf("%-30s %10.1f blocks/s%n", name, blocks * 1e9 / elapsed);
+    }
+}
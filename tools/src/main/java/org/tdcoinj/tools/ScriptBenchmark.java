@@ -0,0 +1,115 @@
+/*
+ * Copyright by the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.tdcoinj.tools;
+
+import org.tdcoinj.core.*;
+import org.tdcoinj.crypto.TransactionSignature;
+import org.tdcoinj.params.UnitTestParams;
+import org.tdcoinj.script.DeferredSignatureChecks;
+import org.tdcoinj.script.Script;
+import org.tdcoinj.script.ScriptBuilder;
+import org.tdcoinj.utils.BriefLogFormatter;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.tdcoinj.script.ScriptOpCodes.*;
+
+/**
+ * Measures {@link Script#correctlySpends(Transaction, long, Script, java.util.Set)} on transactions spending P2PKH
+ * outputs, P2SH 2-of-3 multisig outputs and outputs with a script doing arithmetic and stack operations. Signature checks are deferred with {@link DeferredSignatureChecks} and never done, so the time spent in
+ * the interpreter is measured rather than elliptic curve math. Each transaction has a single input, so that hashing
+ * them for the signature checks takes little time too. Prints inputs per second. The optional argument is the number
+ * of transactions of each kind (default 200).
+ */
+public class ScriptBenchmark {
+    private static final NetworkParameters PARAMS = UnitTestParams.get();
+
+    public static void main(String[] args) {
+        BriefLogFormatter.initWithSilentTdcoinJ();
+        new Context(PARAMS);
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+
+        ECKey key = new ECKey();
+        List<ECKey> keys = Arrays.asList(new ECKey(), new ECKey(), new ECKey());
+        Script p2pkh = ScriptBuilder.createP2PKHOutputScript(key);
+        Script redeemScript = ScriptBuilder.createMultiSigOutputScript(2, keys);
+        Script p2sh = ScriptBuilder.createP2SHOutputScript(redeemScript);
+        // Takes the number from the scriptSig through some arithmetic and stack operations, and checks the result.
+        ScriptBuilder arithmeticBuilder = new ScriptBuilder();
+        for (int i = 0; i < 10; i++)
+            arithmeticBuilder.op(OP_DUP).number(3).op(OP_ADD).op(OP_SWAP).op(OP_1SUB).op(OP_2DUP).op(OP_GREATERTHAN)
+                    .op(OP_VERIFY).op(OP_DROP);
+        Script arithmetic = arithmeticBuilder.number(1000).op(OP_LESSTHAN).build();
+
+        Transaction[] txs = new Transaction[3 * count];
+        Script[] scriptSigs = new Script[3 * count];
+        Script[] scriptPubKeys = new Script[3 * count];
+        for (int i = 0; i < 3 * count; i++) {
+            txs[i] = new Transaction(PARAMS);
+            txs[i].addInput(new TransactionInput(PARAMS, txs[i], new byte[0],
+                    new TransactionOutPoint(PARAMS, i, Sha256Hash.of(new byte[] { 1 }))));
+            txs[i].addOutput(Coin.COIN, new ECKey());
+        }
+        for (int i = 0; i < count; i++) {
+            TransactionSignature signature = txs[i].calculateSignature(0, key, p2pkh, Transaction.SigHash.ALL, false);
+            scriptSigs[i] = ScriptBuilder.createInputScript(signature, key);
+            scriptPubKeys[i] = p2pkh;
+
+            int j = count + i;
+            List<TransactionSignature> signatures = Arrays.asList(
+                    txs[j].calculateSignature(0, keys.get(0), redeemScript, Transaction.SigHash.ALL, false),
+                    txs[j].calculateSignature(0, keys.get(1), redeemScript, Transaction.SigHash.ALL, false));
+            scriptSigs[j] = ScriptBuilder.createP2SHMultiSigInputScript(signatures, redeemScript);
+            scriptPubKeys[j] = p2sh;
+
+            int k = 2 * count + i;
+            scriptSigs[k] = new ScriptBuilder().number(i % 100).build();
+            scriptPubKeys[k] = arithmetic;
+        }
+        for (int i = 0; i < scriptSigs.length; i++)
+            txs[i].getInput(0).setScriptSig(scriptSigs[i]);
+
+        // Run twice, the first round warms up the JIT.
+        for (int round = 0; round < 2; round++) {
+            int repeats = Math.max(1, 200000 / count);
+            run("P2PKH", txs, scriptSigs, scriptPubKeys, 0, count, repeats);
+            run("P2SH 2-of-3 multisig", txs, scriptSigs, scriptPubKeys, count, count, repeats / 2);
+            run("arithmetic", txs, scriptSigs, scriptPubKeys, 2 * count, count, repeats);
+        }
+    }
+
+    private static void run(String name, Transaction[] txs, Script[] scriptSigs, Script[] scriptPubKeys, int from,
+                            int count, int repeats) {
+        long start = System.nanoTime();
+        for (int r = 0; r < repeats; r++) {
+            DeferredSignatureChecks checks = DeferredSignatureChecks.begin();
+            try {
+                for (int i = from; i < from + count; i++)
+                    scriptSigs[i].correctlySpends(txs[i], 0, scriptPubKeys[i], Script.ALL_VERIFY_FLAGS);
+            } finally {
+                checks.end();
+            }
+        }
+        print(name, count * repeats, start);
+    }
+
+    private static void print(String name, int count, long start) {
+        long elapsed = System.nanoTime() - start;
+        System.out.printf("%-30s %10.1f inputs/s%n", name, count * 1e9 / elapsed);
+    }
+}
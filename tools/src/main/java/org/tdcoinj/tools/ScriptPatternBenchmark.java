@@ -0,0 +1,142 @@
+/*
+ * Copyright by the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.tdcoinj.tools;
+
+import org.tdcoinj.core.*;
+import org.tdcoinj.params.UnitTestParams;
+import org.tdcoinj.script.Script;
+import org.tdcoinj.script.ScriptBuilder;
+import org.tdcoinj.script.ScriptPattern;
+import org.tdcoinj.utils.BriefLogFormatter;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Measures scanning the outputs of a block the way wallets and the UTXO store do: creating the {@link Script} of each
+ * output, working out its type and extracting the hash or key it pays to. The outputs are mostly P2PKH, with P2WPKH,
+ * P2SH, P2WSH, P2PK, bare multisig and OP_RETURN outputs mixed in. Prints outputs per second, and the heap taken by
+ * each script besides its program when many of them are kept. The optional argument is the number of transactions in the block (default
+ * 2000), each with two outputs.
+ */
+public class ScriptPatternBenchmark {
+    private static final NetworkParameters PARAMS = UnitTestParams.get();
+    // Keeps the results, so that the scans can't be optimized away.
+    private static volatile long sink;
+
+    public static void main(String[] args) throws Exception {
+        BriefLogFormatter.initWithSilentTdcoinJ();
+        new Context(PARAMS);
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        Random random = new Random(1);
+        List<ECKey> keys = new ArrayList<>();
+        for (int i = 0; i < 3; i++)
+            keys.add(new ECKey());
+        Block block = PARAMS.getGenesisBlock().createNextBlock(LegacyAddress.fromKey(PARAMS, keys.get(0)));
+        for (int i = 1; i < count; i++) {
+            Transaction tx = new Transaction(PARAMS);
+            byte[] hash = new byte[32];
+            random.nextBytes(hash);
+            tx.addInput(new TransactionInput(PARAMS, tx, new byte[0], new TransactionOutPoint(PARAMS, 0,
+                    Sha256Hash.wrap(hash))));
+            for (int j = 0; j < 2; j++)
+                tx.addOutput(Coin.COIN, outputScript(random, keys));
+            block.addTransaction(tx);
+        }
+        List<byte[]> programs = new ArrayList<>();
+        for (Transaction tx : PARAMS.getDefaultSerializer().makeBlock(block.tdcoinSerialize()).getTransactions())
+            for (TransactionOutput output : tx.getOutputs())
+                programs.add(output.getScriptBytes());
+
+        System.out.println(programs.size() + " outputs");
+        // Run twice, the first round warms up the JIT.
+        for (int round = 0; round < 2; round++) {
+            int repeats = 500;
+            long start = System.nanoTime();
+            long found = 0;
+            for (int r = 0; r < repeats; r++)
+                for (byte[] program : programs)
+                    found += scan(new Script(program));
+            print("scan", programs.size() * repeats, start);
+            sink = found;
+        }
+
+        // The programs are shared by the scripts, so this is the heap each script takes besides its program.
+        Script[] scripts = new Script[programs.size() * 50];
+        long before = usedHeap();
+        for (int i = 0; i < scripts.length; i++) {
+            scripts[i] = new Script(programs.get(i % programs.size()));
+            scan(scripts[i]);
+        }
+        long bytes = usedHeap() - before;
+        System.out.printf("%-30s %10.1f bytes/script%n", "kept after scanning", (double) bytes / scripts.length);
+        sink = scripts.length;
+    }
+
+    private static Script outputScript(Random random, List<ECKey> keys) {
+        byte[] hash = new byte[32];
+        random.nextBytes(hash);
+        byte[] hash160 = Arrays.copyOf(hash, 20);
+        int kind = random.nextInt(100);
+        if (kind < 60)
+            return ScriptBuilder.createP2PKHOutputScript(hash160);
+        if (kind < 80)
+            return ScriptBuilder.createP2WPKHOutputScript(hash160);
+        if (kind < 92)
+            return ScriptBuilder.createP2SHOutputScript(hash160);
+        if (kind < 95)
+            return ScriptBuilder.createP2WSHOutputScript(hash);
+        if (kind < 97)
+            return ScriptBuilder.createP2PKOutputScript(keys.get(random.nextInt(keys.size())));
+        if (kind < 98)
+            return ScriptBuilder.createMultiSigOutputScript(1, keys);
+        return ScriptBuilder.createOpReturnScript(hash);
+    }
+
+    // Returns the first byte of the hash or key the script pays to, or 0 if it isn't of a standard type.
+    private static int scan(Script script) {
+        Script.ScriptType type = script.getScriptType();
+        if (type == null)
+            return ScriptPattern.isOpReturn(script) || ScriptPattern.isSentToMultisig(script) ? 0 : 1;
+        switch (type) {
+        case P2PKH:
+            return ScriptPattern.extractHashFromP2PKH(script)[0];
+        case P2SH:
+            return ScriptPattern.extractHashFromP2SH(script)[0];
+        case P2PK:
+            return ScriptPattern.extractKeyFromP2PK(script)[0];
+        default:
+            return ScriptPattern.extractHashFromP2WH(script)[0];
+        }
+    }
+
+    private static long usedHeap() throws InterruptedException {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(100);
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static void print(String name, int count, long start) {
+        long elapsed = System.nanoTime() - start;
+        System.out.printf("%-30s %10.1f outputs/s%n", name, count * 1e9 / elapsed);
+    }
+}
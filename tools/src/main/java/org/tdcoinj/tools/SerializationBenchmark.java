@@ -0,0 +1,123 @@
+/*
+ * Copyright by the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.tdcoinj.tools;
+
+import org.tdcoinj.core.*;
+import org.tdcoinj.params.UnitTestParams;
+import org.tdcoinj.utils.BriefLogFormatter;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Measures serializing a transaction, a block, a headers message and an inventory message: through a growing stream
+ * as it used to be done, with {@link Message#tdcoinSerialize()}, which writes into an array of the exact size, and
+ * with {@link Message#tdcoinSerialize(byte[], int)} into a reused buffer. Prints messages per second and bytes
+ * allocated per message, if the JVM can count allocations.
+ */
+public class SerializationBenchmark {
+    private static final NetworkParameters PARAMS = UnitTestParams.get();
+
+    public static void main(String[] args) throws Exception {
+        BriefLogFormatter.initWithSilentTdcoinJ();
+        new Context(PARAMS);
+        Random random = new Random(1);
+        Block block = PARAMS.getGenesisBlock().createNextBlock(LegacyAddress.fromKey(PARAMS, new ECKey()));
+        for (int i = 1; i < 2000; i++)
+            block.addTransaction(randomTransaction(random));
+        // Parse the messages again without retaining the payload, so that they are serialized from their fields.
+        MessageSerializer serializer = PARAMS.getSerializer(false);
+        byte[] blockBytes = block.tdcoinSerialize();
+        block = serializer.makeBlock(blockBytes);
+        Transaction tx = block.getTransactions().get(1);
+        List<Block> headers = new ArrayList<>();
+        for (int i = 0; i < HeadersMessage.MAX_HEADERS; i++)
+            headers.add(block.cloneAsHeader());
+        HeadersMessage headersMessage = new HeadersMessage(PARAMS, headers);
+        InventoryMessage inv = new InventoryMessage(PARAMS);
+        for (Transaction t : block.getTransactions().subList(0, 1000))
+            inv.addTransaction(t);
+
+        byte[] buffer = new byte[blockBytes.length];
+        // Run twice, the first round warms up the JIT.
+        for (int round = 0; round < 2; round++) {
+            System.out.println();
+            run("transaction", tx, 200000, buffer);
+            run("block", block, 50, buffer);
+            run("headers", headersMessage, 500, buffer);
+            run("inv", inv, 2000, buffer);
+        }
+    }
+
+    private static Transaction randomTransaction(Random random) {
+        Transaction tx = new Transaction(PARAMS);
+        for (int i = 0; i < 2; i++) {
+            byte[] hash = new byte[32];
+            random.nextBytes(hash);
+            // About the size of a P2PKH signature and public key.
+            byte[] scriptSig = new byte[107];
+            random.nextBytes(scriptSig);
+            tx.addInput(new TransactionInput(PARAMS, tx, scriptSig,
+                    new TransactionOutPoint(PARAMS, i, Sha256Hash.wrap(hash))));
+        }
+        for (int i = 0; i < 2; i++)
+            tx.addOutput(Coin.COIN, new ECKey());
+        return tx;
+    }
+
+    private static void run(String name, Message message, int count, byte[] buffer) throws IOException {
+        System.out.println(name + ", " + message.getSerializedSize() + " bytes");
+        long start = System.nanoTime(), allocated = allocatedBytes();
+        for (int i = 0; i < count; i++) {
+            ByteArrayOutputStream stream = new ByteArrayOutputStream();
+            message.tdcoinSerialize(stream);
+            stream.toByteArray();
+        }
+        print("stream", count, start, allocated);
+
+        start = System.nanoTime();
+        allocated = allocatedBytes();
+        for (int i = 0; i < count; i++)
+            message.tdcoinSerialize();
+        print("exact array", count, start, allocated);
+
+        start = System.nanoTime();
+        allocated = allocatedBytes();
+        for (int i = 0; i < count; i++)
+            message.tdcoinSerialize(buffer, 0);
+        print("reused buffer", count, start, allocated);
+    }
+
+    // Returns the bytes allocated by this thread so far, or -1 if the JVM doesn't count them.
+    private static long allocatedBytes() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (!(bean instanceof com.sun.management.ThreadMXBean))
+            return -1;
+        return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    private static void print(String name, int count, long start, long allocatedBefore) {
+        long elapsed = System.nanoTime() - start;
+        long allocated = allocatedBytes() - allocatedBefore;
+        System.out.printf("  %-20s %12.1f msgs/s %12d bytes/msg%n", name, count * 1e9 / elapsed,
+                allocatedBefore < 0 ? -1 : allocated / count);
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright by the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.tdcoinj.tools;
+
+import org.tdcoinj.core.Sha256Hash;
+import org.tdcoinj.core.Sha256HashMap;
+import org.tdcoinj.utils.BriefLogFormatter;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Compares {@link Sha256HashMap} with {@link HashMap} and {@link LinkedHashMap}: the heap each entry takes when the
+ * map is the only one holding on to the keys, as in a cache of hashes, and when the values hold on to them too, as in
+ * the pools of a wallet, then lookups per second of keys that are in the map and of keys that aren't. The optional
+ * argument is the number of entries (default 500000).
+ */
+public class Sha256HashMapBenchmark {
+    // Keeps the results, so that the lookups can't be optimized away.
+    private static volatile long sink;
+
+    public static void main(String[] args) throws Exception {
+        BriefLogFormatter.initWithSilentTdcoinJ();
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 500000;
+
+        for (String name : new String[] { "HashMap", "LinkedHashMap", "Sha256HashMap" }) {
+            // The keys are created while measuring, so they count as the map is the only one holding on to them.
+            long before = usedHeap();
+            Map<Sha256Hash, Object> map = create(name);
+            Random random = new Random(1);
+            for (int i = 0; i < count; i++)
+                map.put(randomHash(random), Boolean.TRUE);
+            long ownKeys = usedHeap() - before;
+            if (map.size() != count)
+                throw new IllegalStateException();
+            map = null;
+            // The keys are created before measuring and kept by the values, so they don't count.
+            Sha256Hash[] values = new Sha256Hash[count];
+            random = new Random(1);
+            for (int i = 0; i < count; i++)
+                values[i] = randomHash(random);
+            before = usedHeap();
+            map = create(name);
+            for (Sha256Hash value : values)
+                map.put(value, value);
+            long sharedKeys = usedHeap() - before;
+            System.out.printf("%-30s %10.1f bytes/entry holding the keys, %.1f with the values holding them%n", name,
+                    (double) ownKeys / count, (double) sharedKeys / count);
+            if (map.size() != values.length)
+                throw new IllegalStateException();
+        }
+
+        Sha256Hash[] hits = new Sha256Hash[count];
+        Sha256Hash[] misses = new Sha256Hash[count];
+        Random random = new Random(2);
+        for (int i = 0; i < count; i++) {
+            hits[i] = randomHash(random);
+            misses[i] = randomHash(random);
+        }
+        // Run twice, the first round warms up the JIT.
+        for (int round = 0; round < 2; round++) {
+            for (String name : new String[] { "HashMap", "LinkedHashMap", "Sha256HashMap" }) {
+                Map<Sha256Hash, Object> map = create(name);
+                for (Sha256Hash hash : hits)
+                    map.put(hash, hash);
+                // Looks the keys up with other objects than the ones put in, like lookups of parsed hashes do.
+                Sha256Hash[] copies = new Sha256Hash[count];
+                for (int i = 0; i < count; i++)
+                    copies[(int) (i * 7919L % count)] = Sha256Hash.wrap(hits[i].getBytes().clone());
+                long found = 0;
+                long start = System.nanoTime();
+                for (Sha256Hash hash : copies)
+                    if (map.get(hash) != null)
+                        found++;
+                print(name + " hits", count, start);
+                start = System.nanoTime();
+                for (Sha256Hash hash : misses)
+                    if (map.get(hash) != null)
+                        found++;
+                print(name + " misses", count, start);
+                sink = found;
+            }
+        }
+    }
+
+    private static Map<Sha256Hash, Object> create(String name) {
+        switch (name) {
+        case "HashMap":
+            return new HashMap<>();
+        case "LinkedHashMap":
+            return new LinkedHashMap<>();
+        default:
+            return new Sha256HashMap<>();
+        }
+    }
+
+    private static Sha256Hash randomHash(Random random) {
+        byte[] bytes = new byte[32];
+        random.nextBytes(bytes);
+        return Sha256Hash.wrap(bytes);
+    }
+
+    private static long usedHeap() throws InterruptedException {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(100);
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static void print(String name, int count, long start) {
+        long elapsed = System.nanoTime() - start;
+        System.out.printf("%-30s %10.1f lookups/s%n", name, count * 1e9 / elapsed);
+    }
+}
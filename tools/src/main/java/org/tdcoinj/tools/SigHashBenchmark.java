@@ -0,0 +1,96 @@
+/*
+ * Copyright by the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.tdcoinj.tools;
+
+import org.tdcoinj.core.*;
+import org.tdcoinj.params.UnitTestParams;
+import org.tdcoinj.script.Script;
+import org.tdcoinj.script.ScriptBuilder;
+import org.tdcoinj.utils.BriefLogFormatter;
+
+import java.util.Random;
+
+/**
+ * Measures calculating the legacy {@link Transaction.SigHash#ALL} signature hashes of all inputs of a transaction, as
+ * done when checking its signatures: by copying and serializing the transaction per input as it used to be done, and
+ * with {@link Transaction#hashForSignature(int, byte[], byte)}, which streams the hashed bytes. Prints inputs per
+ * second. The optional argument is the number of inputs (default 500).
+ */
+public class SigHashBenchmark {
+    private static final NetworkParameters PARAMS = UnitTestParams.get();
+
+    public static void main(String[] args) {
+        BriefLogFormatter.initWithSilentTdcoinJ();
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 500;
+        Random random = new Random(1);
+        Transaction tx = new Transaction(PARAMS);
+        for (int i = 0; i < count; i++) {
+            byte[] hash = new byte[32];
+            random.nextBytes(hash);
+            // About the size of a P2PKH signature and public key.
+            byte[] scriptSig = new byte[107];
+            random.nextBytes(scriptSig);
+            tx.addInput(new TransactionInput(PARAMS, tx, scriptSig,
+                    new TransactionOutPoint(PARAMS, i, Sha256Hash.wrap(hash))));
+        }
+        for (int i = 0; i < 2; i++)
+            tx.addOutput(Coin.COIN, new ECKey());
+        byte[] script = ScriptBuilder.createOutputScript(LegacyAddress.fromKey(PARAMS, new ECKey())).getProgram();
+        byte type = (byte) Transaction.SigHash.ALL.value;
+
+        System.out.println(count + " inputs, " + tx.getMessageSize() + " bytes");
+        // Run twice, the first round warms up the JIT.
+        for (int round = 0; round < 2; round++) {
+            int repeats = Math.max(1, 20000 / count);
+            long start = System.nanoTime();
+            Sha256Hash[] expected = new Sha256Hash[count];
+            for (int r = 0; r < Math.max(1, repeats / 20); r++)
+                for (int i = 0; i < count; i++)
+                    expected[i] = copyAndHash(tx, i, script, type);
+            print("copy and serialize", count * Math.max(1, repeats / 20), start);
+
+            start = System.nanoTime();
+            for (int r = 0; r < repeats; r++)
+                for (int i = 0; i < count; i++)
+                    check(expected[i].equals(tx.hashForSignature(i, script, type)));
+            print("streamed", count * repeats, start);
+        }
+    }
+
+    // The SIGHASH_ALL case of how signature hashes used to be calculated.
+    private static Sha256Hash copyAndHash(Transaction original, int inputIndex, byte[] script, byte type) {
+        Transaction tx = PARAMS.getDefaultSerializer().makeTransaction(original.tdcoinSerialize());
+        for (TransactionInput input : tx.getInputs())
+            input.clearScriptBytes();
+        tx.getInput(inputIndex).setScriptSig(new Script(script));
+        byte[] serialized = tx.tdcoinSerialize();
+        byte[] withType = new byte[serialized.length + 4];
+        System.arraycopy(serialized, 0, withType, 0, serialized.length);
+        Utils.uint32ToByteArrayLE(type & 0xff, withType, serialized.length);
+        return Sha256Hash.twiceOf(withType);
+    }
+
+    private static void check(boolean ok) {
+        if (!ok)
+            throw new IllegalStateException("Hashes differ");
+    }
+
+    private static void print(String name, int count, long start) {
+        long elapsed = System.nanoTime() - start;
+        System.out.printf("%-30s %10.1f inputs/s%n", name, count * 1e9 / elapsed);
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright by the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.tdcoinj.tools;
+
+import org.tdcoin.NativeSecp256k1;
+import org.tdcoin.Secp256k1Context;
+import org.tdcoinj.core.ECKey;
+import org.tdcoinj.core.ECKey.ECDSASignature;
+import org.tdcoinj.core.Sha256Hash;
+import org.tdcoinj.crypto.Secp256k1Verifier;
+import org.tdcoinj.utils.BriefLogFormatter;
+import org.bouncycastle.crypto.params.ECPublicKeyParameters;
+import org.bouncycastle.crypto.signers.ECDSASigner;
+
+/**
+ * Compares ECDSA signature verification with Bouncy Castle, with {@link Secp256k1Verifier} one by one and in a batch,
+ * and with the native secp256k1 library if it is loaded. Prints verifications per second. The optional argument is
+ * the number of signatures (default 2000).
+ */
+public class SignatureVerificationBenchmark {
+    public static void main(String[] args) throws Exception {
+        BriefLogFormatter.initWithSilentTdcoinJ();
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        byte[][] hashes = new byte[count][];
+        ECDSASignature[] signatures = new ECDSASignature[count];
+        byte[][] pubs = new byte[count][];
+        byte[][] derSignatures = new byte[count][];
+        for (int i = 0; i < count; i++) {
+            ECKey key = new ECKey();
+            hashes[i] = Sha256Hash.hash(new byte[] { (byte) i, (byte) (i >> 8) });
+            signatures[i] = key.sign(Sha256Hash.wrap(hashes[i]));
+            derSignatures[i] = signatures[i].encodeToDER();
+            pubs[i] = key.getPubKey();
+        }
+
+        System.out.println(count + " signatures");
+        // Run twice, the first round warms up the JIT.
+        for (int round = 0; round < 2; round++) {
+            long start = System.nanoTime();
+            for (int i = 0; i < count; i++) {
+                ECDSASigner signer = new ECDSASigner();
+                signer.init(false, new ECPublicKeyParameters(ECKey.CURVE.getCurve().decodePoint(pubs[i]),
+                        ECKey.CURVE));
+                check(signer.verifySignature(hashes[i], signatures[i].r, signatures[i].s));
+            }
+            print("Bouncy Castle", count, start);
+
+            start = System.nanoTime();
+            for (int i = 0; i < count; i++)
+                check(Secp256k1Verifier.verify(hashes[i], signatures[i], pubs[i]));
+            print("Secp256k1Verifier.verify", count, start);
+
+            start = System.nanoTime();
+            for (boolean result : Secp256k1Verifier.verifyAll(hashes, signatures, pubs))
+                check(result);
+            print("Secp256k1Verifier.verifyAll", count, start);
+
+            if (Secp256k1Context.isEnabled()) {
+                start = System.nanoTime();
+                for (int i = 0; i < count; i++)
+                    check(NativeSecp256k1.verify(hashes[i], derSignatures[i], pubs[i]));
+                print("native secp256k1", count, start);
+            }
+        }
+        if (!Secp256k1Context.isEnabled())
+            System.out.println("native secp256k1 not available");
+    }
+
+    private static void check(boolean valid) {
+        if (!valid)
+            throw new IllegalStateException("Signature did not verify");
+    }
+
+    private static void print(String name, int count, long start) {
+        long elapsed = System.nanoTime() - start;
+        System.out.printf("%-30s %10.1f verifications/s%n", name, count * 1e9 / elapsed);
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright by the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.tdcoinj.tools;
+
+import org.tdcoinj.core.*;
+import org.tdcoinj.params.UnitTestParams;
+import org.tdcoinj.script.Script;
+import org.tdcoinj.signers.LocalTransactionSigner;
+import org.tdcoinj.signers.TransactionSigner;
+import org.tdcoinj.utils.BriefLogFormatter;
+import org.tdcoinj.utils.Threading;
+import org.tdcoinj.wallet.KeyBag;
+import org.tdcoinj.wallet.RedeemData;
+
+import javax.annotation.Nullable;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Measures how long {@link LocalTransactionSigner} takes to sign transactions with 10, 100 and 1000 inputs, half of
+ * them P2PKH and half P2WPKH, signing sequentially and on all available processors. Optional arguments are the input
+ * counts to measure.
+ */
+public class SigningBenchmark {
+    private static final NetworkParameters PARAMS = UnitTestParams.get();
+
+    public static void main(String[] args) {
+        BriefLogFormatter.initWithSilentTdcoinJ();
+        Context.propagate(new Context(PARAMS));
+        int[] inputCounts = { 10, 100, 1000 };
+        if (args.length > 0) {
+            inputCounts = new int[args.length];
+            for (int i = 0; i < args.length; i++)
+                inputCounts[i] = Integer.parseInt(args[i]);
+        }
+        int processors = Runtime.getRuntime().availableProcessors();
+        LocalTransactionSigner sequential = new LocalTransactionSigner(Threading.THREAD_POOL, 1);
+        LocalTransactionSigner parallel = new LocalTransactionSigner(Threading.THREAD_POOL, processors);
+        // Run twice, the first round warms up the JIT.
+        for (int round = 0; round < 2; round++) {
+            for (int inputs : inputCounts) {
+                Fixture fixture = new Fixture(inputs);
+                run("sequential", sequential, fixture);
+                run(processors + " threads", parallel, fixture);
+            }
+        }
+    }
+
+    private static void run(String name, LocalTransactionSigner signer, Fixture fixture) {
+        int repeats = Math.max(1, 2000 / fixture.parent.getOutputs().size());
+        long start = System.nanoTime();
+        for (int i = 0; i < repeats; i++)
+            signer.signInputs(new TransactionSigner.ProposedTransaction(fixture.unsignedTx()), fixture);
+        long elapsed = System.nanoTime() - start;
+        System.out.printf("%5d inputs %-12s %10.2f ms/tx %10.0f inputs/s%n", fixture.parent.getOutputs().size(), name,
+                elapsed / 1e6 / repeats, fixture.parent.getOutputs().size() * repeats * 1e9 / elapsed);
+    }
+
+    private static class Fixture implements KeyBag {
+        final Map<Sha256Hash, ECKey> keysByHash = new HashMap<>();
+        final Transaction parent = new Transaction(PARAMS);
+        final Address destination = LegacyAddress.fromKey(PARAMS, new ECKey());
+
+        Fixture(int inputs) {
+            for (int i = 0; i < inputs; i++) {
+                ECKey key = new ECKey();
+                keysByHash.put(Sha256Hash.wrap(Sha256Hash.hash(key.getPubKeyHash())), key);
+                Address address = i % 2 == 0 ? LegacyAddress.fromKey(PARAMS, key) : SegwitAddress.fromKey(PARAMS, key);
+                parent.addOutput(Coin.valueOf(100000), address);
+            }
+        }
+
+        Transaction unsignedTx() {
+            Transaction tx = new Transaction(PARAMS);
+            for (TransactionOutput output : parent.getOutputs())
+                tx.addInput(output);
+            tx.addOutput(Coin.valueOf(100000L * parent.getOutputs().size() / 2), destination);
+            for (TransactionInput input : tx.getInputs()) {
+                RedeemData redeemData = input.getConnectedRedeemData(this);
+                Script scriptPubKey = input.getConnectedOutput().getScriptPubKey();
+                input.setScriptSig(scriptPubKey.createEmptyInputScript(redeemData.keys.get(0), null));
+                input.setWitness(scriptPubKey.createEmptyWitness(redeemData.keys.get(0)));
+            }
+            return tx;
+        }
+
+        @Nullable
+        @Override
+        public ECKey findKeyFromPubKeyHash(byte[] pubKeyHash, @Nullable Script.ScriptType scriptType) {
+            return keysByHash.get(Sha256Hash.wrap(Sha256Hash.hash(pubKeyHash)));
+        }
+
+        @Nullable
+        @Override
+        public ECKey findKeyFromPubKey(byte[] pubKey) {
+            return findKeyFromPubKeyHash(Utils.sha256hash160(pubKey), null);
+        }
+
+        @Nullable
+        @Override
+        public RedeemData findRedeemDataFromScriptHash(byte[] scriptHash) {
+            return null;
+        }
+    }
+}
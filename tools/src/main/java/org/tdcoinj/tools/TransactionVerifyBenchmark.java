@@ -0,0 +1,142 @@
+/*
+ * Copyright by the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.tdcoinj.tools;
+
+import org.tdcoinj.core.*;
+import org.tdcoinj.params.UnitTestParams;
+import org.tdcoinj.utils.BriefLogFormatter;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Measures the context free checks of {@link Transaction#verify()} on the transactions of a parsed block, the same
+ * checks done the original way with a set of outpoints and {@link Coin} sums, and {@link TransactionView#verify()}
+ * straight from the serialized block. Runs on a block of many small transactions with two inputs and two outputs, and
+ * on a block of large transactions with hundreds of inputs. Prints transactions per second. The optional arguments
+ * are the number of small transactions (default 2000) and of inputs of the large ones (default 400).
+ */
+public class TransactionVerifyBenchmark {
+    private static final NetworkParameters PARAMS = UnitTestParams.get();
+
+    public static void main(String[] args) throws Exception {
+        BriefLogFormatter.initWithSilentTdcoinJ();
+        new Context(PARAMS);
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        int largeInputs = args.length > 1 ? Integer.parseInt(args[1]) : 400;
+        Random random = new Random(1);
+        byte[] small = createBlock(count, 2, random);
+        byte[] large = createBlock(count / largeInputs * 2 + 1, largeInputs, random);
+
+        // Run twice, the first round warms up the JIT.
+        for (int round = 0; round < 2; round++) {
+            run("small", small);
+            run("large", large);
+        }
+    }
+
+    private static void run(String name, byte[] bytes) throws Exception {
+        Block block = PARAMS.getDefaultSerializer().makeBlock(bytes);
+        int transactions = block.getTransactions().size();
+        // The same number of transactions for both blocks, enough for the JIT to compile either path.
+        int repeats = Math.max(1, 200000 / transactions);
+        long start = System.nanoTime();
+        for (int r = 0; r < repeats; r++)
+            for (Transaction tx : block.getTransactions())
+                verifyOriginal(tx);
+        print(name + ", original", transactions * repeats, start);
+
+        start = System.nanoTime();
+        for (int r = 0; r < repeats; r++)
+            for (Transaction tx : block.getTransactions())
+                tx.verify();
+        print(name + ", verify", transactions * repeats, start);
+
+        start = System.nanoTime();
+        for (int r = 0; r < repeats; r++) {
+            BlockView view = BlockView.wrap(PARAMS, bytes);
+            for (int i = 0; i < view.getTransactionCount(); i++)
+                view.getTransaction(i).verify();
+        }
+        print(name + ", view and verify", transactions * repeats, start);
+    }
+
+    // A block of transactions with the given number of inputs spending random outpoints and two outputs each.
+    private static byte[] createBlock(int count, int inputs, Random random) {
+        Block block = PARAMS.getGenesisBlock().createNextBlock(LegacyAddress.fromKey(PARAMS, new ECKey()));
+        for (int i = 1; i < count; i++) {
+            Transaction tx = new Transaction(PARAMS);
+            byte[] hash = new byte[32];
+            for (int j = 0; j < inputs; j++) {
+                // Large transactions often spend several outputs of the same transaction.
+                if (j % 4 == 0)
+                    random.nextBytes(hash);
+                // About the size of a P2PKH signature and public key.
+                byte[] scriptSig = new byte[107];
+                random.nextBytes(scriptSig);
+                tx.addInput(new TransactionInput(PARAMS, tx, scriptSig,
+                        new TransactionOutPoint(PARAMS, j, Sha256Hash.wrap(hash.clone()))));
+            }
+            for (int j = 0; j < 2; j++)
+                tx.addOutput(Coin.COIN, new ECKey());
+            block.addTransaction(tx);
+        }
+        return block.tdcoinSerialize();
+    }
+
+    // The checks of Transaction.verify() as they were done before.
+    private static void verifyOriginal(Transaction tx) throws VerificationException {
+        if (tx.getInputs().size() == 0 || tx.getOutputs().size() == 0)
+            throw new VerificationException.EmptyInputsOrOutputs();
+        if (tx.getMessageSize() > Block.MAX_BLOCK_SIZE)
+            throw new VerificationException.LargerThanMaxBlockSize();
+        Set<TransactionOutPoint> outpoints = new HashSet<>();
+        for (TransactionInput input : tx.getInputs()) {
+            if (outpoints.contains(input.getOutpoint()))
+                throw new VerificationException.DuplicatedOutPoint();
+            outpoints.add(input.getOutpoint());
+        }
+        Coin valueOut = Coin.ZERO;
+        for (TransactionOutput output : tx.getOutputs()) {
+            Coin value = output.getValue();
+            if (value.signum() < 0)
+                throw new VerificationException.NegativeValueOutput();
+            try {
+                valueOut = valueOut.add(value);
+            } catch (ArithmeticException e) {
+                throw new VerificationException.ExcessiveValue();
+            }
+            if (PARAMS.hasMaxMoney() && valueOut.compareTo(PARAMS.getMaxMoney()) > 0)
+                throw new VerificationException.ExcessiveValue();
+        }
+        if (tx.isCoinBase()) {
+            int length = tx.getInputs().get(0).getScriptBytes().length;
+            if (length < 2 || length > 100)
+                throw new VerificationException.CoinbaseScriptSizeOutOfRange();
+        } else {
+            for (TransactionInput input : tx.getInputs())
+                if (input.isCoinBase())
+                    throw new VerificationException.UnexpectedCoinbaseInput();
+        }
+    }
+
+    private static void print(String name, int count, long start) {
+        long elapsed = System.nanoTime() - start;
+        System.out.printf("%-30s %10.1f transactions/s%n", name, count * 1e9 / elapsed);
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright by the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.tdcoinj.tools;
+
+import org.tdcoinj.core.*;
+import org.tdcoinj.params.UnitTestParams;
+import org.tdcoinj.script.Script;
+import org.tdcoinj.script.ScriptBuilder;
+import org.tdcoinj.store.MemoryFullPrunedBlockStore;
+import org.tdcoinj.utils.BriefLogFormatter;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Measures the footprint of a set of unspent outputs, mostly P2PKH with P2WPKH, P2SH and P2PK outputs mixed in: the
+ * heap a {@link MemoryFullPrunedBlockStore} takes per output, the bytes per output of the original and the compact
+ * serialization, which is how the LevelDB store keeps them, and the bytes per output of undo data. Then measures
+ * looking the outputs up in the memory store. The optional argument is the number of outputs (default 200000).
+ */
+public class UTXOMemoryBenchmark {
+    private static final NetworkParameters PARAMS = UnitTestParams.get();
+
+    public static void main(String[] args) throws Exception {
+        BriefLogFormatter.initWithSilentTdcoinJ();
+        new Context(PARAMS);
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+        List<ECKey> keys = Arrays.asList(new ECKey(), new ECKey());
+        List<UTXO> utxos = createUTXOs(count, keys);
+
+        long legacyBytes = 0, compactBytes = 0;
+        for (UTXO utxo : utxos) {
+            ByteArrayOutputStream bos = new ByteArrayOutputStream();
+            utxo.serializeToStream(bos);
+            legacyBytes += bos.size();
+            bos.reset();
+            utxo.serializeCompact(bos);
+            compactBytes += bos.size();
+        }
+        print("serialized", legacyBytes, count);
+        print("serialized compactly", compactBytes, count);
+        ByteArrayOutputStream undo = new ByteArrayOutputStream();
+        new TransactionOutputChanges(utxos, new ArrayList<UTXO>()).serializeToStream(undo);
+        print("undo data", undo.size(), count);
+
+        // The same outputs again, created while measuring and only kept by the store.
+        Sha256Hash[] hashes = new Sha256Hash[count];
+        long[] indexes = new long[count];
+        utxos = null;
+        long before = usedHeap();
+        MemoryFullPrunedBlockStore store = new MemoryFullPrunedBlockStore(PARAMS, 10);
+        int i = 0;
+        for (UTXO utxo : createUTXOs(count, keys)) {
+            store.addUnspentTransactionOutput(utxo);
+            hashes[i] = utxo.getHash();
+            indexes[i++] = utxo.getIndex();
+        }
+        print("memory store heap", usedHeap() - before, count);
+
+        // Run twice, the first round warms up the JIT.
+        for (int round = 0; round < 2; round++) {
+            long start = System.nanoTime();
+            long value = 0;
+            for (i = 0; i < count; i++)
+                value += store.getTransactionOutput(hashes[i], indexes[i]).getValue().value;
+            long elapsed = System.nanoTime() - start;
+            System.out.printf("%-30s %10.1f lookups/s%n", "memory store lookups", count * 1e9 / elapsed);
+            if (value < 0)
+                throw new IllegalStateException();
+        }
+    }
+
+    // Creates the outputs like FullPrunedBlockChain does, two per transaction like most payments with change.
+    private static List<UTXO> createUTXOs(int count, List<ECKey> keys) {
+        Random random = new Random(1);
+        List<UTXO> utxos = new ArrayList<>(count);
+        for (int i = 0; i < count; i += 2) {
+            byte[] txHash = new byte[32];
+            random.nextBytes(txHash);
+            for (int j = 0; j < 2 && i + j < count; j++) {
+                Script script = outputScript(random, keys);
+                utxos.add(new UTXO(Sha256Hash.wrap(txHash), j, Coin.valueOf(random.nextInt(100000000)),
+                        100000 + random.nextInt(400000), false, script, script.getToAddress(PARAMS, true).toString()));
+            }
+        }
+        return utxos;
+    }
+
+    private static Script outputScript(Random random, List<ECKey> keys) {
+        byte[] hash = new byte[20];
+        random.nextBytes(hash);
+        int kind = random.nextInt(100);
+        if (kind < 70)
+            return ScriptBuilder.createP2PKHOutputScript(hash);
+        if (kind < 85)
+            return ScriptBuilder.createP2WPKHOutputScript(hash);
+        if (kind < 98)
+            return ScriptBuilder.createP2SHOutputScript(hash);
+        return ScriptBuilder.createP2PKOutputScript(keys.get(random.nextInt(keys.size())));
+    }
+
+    private static long usedHeap() throws InterruptedException {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(100);
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static void print(String name, long bytes, int count) {
+        System.out.printf("%-30s %10.1f bytes/output%n", name, (double) bytes / count);
+    }
+}